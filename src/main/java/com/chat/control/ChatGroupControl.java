@@ -1,15 +1,21 @@
 package com.chat.control;
 
+import com.chat.model.MessageRecord;
 import com.chat.network.SocketClient;
 import com.chat.service.ChatService;
 import com.chat.service.ChatSessionManager;
-import com.chat.service.FileService;
 import com.chat.service.FileUploadService;
+import com.chat.service.LruCache;
+import com.chat.service.MemoryBudgetService;
 import com.chat.service.MessageBroadcaster;
+import com.chat.service.Outbox;
+import com.chat.service.ReadStateTracker;
 import com.chat.service.RecentMessageService;
+import com.chat.service.UserDirectoryService;
 import com.chat.ui.AvatarHelper;
 import com.chat.ui.DialogUtil;
 import com.chat.ui.ChatMessageCellFactory;
+import com.chat.ui.ReadPositionWatcher;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -28,7 +34,6 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 import javafx.util.Callback;
 
-import java.io.File;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -37,7 +42,8 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 群聊界面控制器
  */
-public class ChatGroupControl implements Initializable, MessageBroadcaster.GroupMessageListener {
+public class ChatGroupControl implements Initializable, MessageBroadcaster.GroupMessageListener,
+        UserDirectoryService.NameResolvedListener, Outbox.SendFailureListener {
 
     @FXML private Label groupNameLabel;
     @FXML private ImageView groupAvatar;
@@ -62,25 +68,41 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
     private final MessageBroadcaster broadcaster = MessageBroadcaster.getInstance();
     private final ChatSessionManager sessionManager = ChatSessionManager.getInstance();
     private final RecentMessageService recentService = RecentMessageService.getInstance();
+    private final ReadStateTracker readTracker = ReadStateTracker.getInstance();
+    private final Outbox outbox = Outbox.getInstance();
+    private final UserDirectoryService userDirectory = UserDirectoryService.getInstance();
+    // 窗口中显示过的最大服务器消息ID，用户看到底部时作为已读位置
+    private volatile long latestMessageId = 0;
     private final Gson gson = new Gson();
     private final JsonParser jsonParser = new JsonParser();
 
     // 用于去重的集合
     private final Set<String> processedMessageKeys = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final Map<String, Long> pendingMessages = new ConcurrentHashMap<>();
-    private final Map<String, com.chat.model.ChatMessageModel> messageCache = new ConcurrentHashMap<>();
+    // 刚发送、已在本地显示的消息（客户端消息ID -> 消息），等待服务器回传确认
+    private final Map<String, com.chat.model.ChatMessageModel> pendingMessages = new ConcurrentHashMap<>();
+    // 窗口内消息缓存（按最久未访问淘汰，并参与全局内存预算）
+    private static final int MESSAGE_CACHE_SIZE = 2000;
+    private final LruCache<String, com.chat.model.ChatMessageModel> messageCache =
+            new LruCache<>("群聊窗口消息", MESSAGE_CACHE_SIZE, com.chat.model.ChatMessageModel::estimateBytes);
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         // 初始化消息列表
         messageList = FXCollections.observableArrayList();
         messageListView.setItems(messageList);
+        MemoryBudgetService.getInstance().register(messageCache);
 
         setupChatUI();
         createHistoryButton();
         setupGroupDetailButton();
         setupFileUploadButton();
         setupSendButton();
+
+        // 窗口获得焦点或滚动到底部时记录已读
+        ReadPositionWatcher.watch(messageListView, this::reportRead);
+
+        // 发送者名称解析后刷新显示
+        userDirectory.registerListener(this);
     }
 
     private void setupChatUI() {
@@ -153,6 +175,7 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
 
             // 注册群聊消息监听器
             broadcaster.registerGroupListener(this.groupId.toString(), this);
+            outbox.registerFailureListener(this);
 
             // 设置单元格工厂（需要所有信息都准备好）
             messageListView.setCellFactory(param ->
@@ -178,6 +201,7 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
         messageList.clear();
         messageCache.clear();
         loadCurrentSessionMessages();
+        showRecentSendFailures();
 
         System.out.println("[ChatGroupControl] 群聊窗口已打开，已加载本次登录记录");
     }
@@ -188,7 +212,7 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
     private void loadCurrentSessionMessages() {
         Platform.runLater(() -> {
             // 从会话管理器获取本次登录的聊天记录
-            List<String> sessionMessages = sessionManager.getGroupSession(groupId);
+            List<MessageRecord> sessionMessages = sessionManager.getGroupSession(groupId);
 
             // 清空消息缓存
             messageList.clear();
@@ -208,14 +232,14 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                 System.out.println("[ChatGroupControl] 无本次登录记录");
             } else {
                 // 有本次登录的记录，转换并显示所有记录
-                for (String message : sessionMessages) {
-                    // 解析消息字符串为ChatMessageModel
-                    com.chat.model.ChatMessageModel messageModel = parseMessageString(message);
-                    if (messageModel != null) {
-                        messageList.add(messageModel);
-                        messageCache.put(messageModel.getMessageId(), messageModel);
-                    }
+                List<com.chat.model.ChatMessageModel> models = new ArrayList<>(sessionMessages.size());
+                for (MessageRecord record : sessionMessages) {
+                    com.chat.model.ChatMessageModel messageModel = toMessageModel(record);
+                    models.add(messageModel);
+                    messageCache.put(messageModel.getMessageId(), messageModel);
+                    noteMessageId(record.getId());
                 }
+                messageList.addAll(models);
 
                 // 滚动到底部
                 messageListView.scrollTo(messageList.size() - 1);
@@ -225,96 +249,34 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
     }
 
     /**
-     * 解析消息字符串为ChatMessageModel
+     * 将会话记录转换为ChatMessageModel（消息ID与实时消息的缓存key一致，便于去重）
      */
-    private com.chat.model.ChatMessageModel parseMessageString(String messageStr) {
-        try {
-            // 示例消息格式: "[18:10] 用户1: 你好" 或 "[18:10] 用户1: [文件] 2.txt (1.5 KB)"
-            if (messageStr.startsWith("[") && messageStr.contains("]")) {
-                int timeEnd = messageStr.indexOf("]");
-                String timePart = messageStr.substring(1, timeEnd);
-
-                int colonIndex = messageStr.indexOf(":", timeEnd);
-                if (colonIndex == -1) return null;
-
-                String sender = messageStr.substring(timeEnd + 2, colonIndex).trim();
-                String content = messageStr.substring(colonIndex + 2).trim();
-
-                boolean isMyMessage = "我".equals(sender);
-                Long senderId = isMyMessage ? userId : 0L; // 对于群聊，需要从数据库获取senderId
-
-                // 生成消息ID
-                String messageId = "msg_" + System.currentTimeMillis() + "_" + content.hashCode() + "_" + UUID.randomUUID().toString().substring(0, 8);
-
-                // 检查是否是文件消息
-                if (content.startsWith("[文件]")) {
-                    // 解析文件消息
-                    // 格式: [文件] 文件名 (大小)
-                    String fileInfo = content.substring(4).trim();
-                    int parenIndex = fileInfo.lastIndexOf("(");
-                    if (parenIndex != -1) {
-                        String fileName = fileInfo.substring(0, parenIndex).trim();
-                        String sizeStr = fileInfo.substring(parenIndex + 1, fileInfo.length() - 1).trim();
-
-                        // 解析文件大小
-                        long fileSize = parseFileSize(sizeStr);
-                        String fileType = FileService.getFileTypeCategory(new File(fileName));
-
-                        // 生成文件ID
-                        String fileId = "file_" + senderId + "_" +
-                                System.currentTimeMillis() + "_" + fileName.hashCode();
-
-                        return new com.chat.model.ChatMessageModel(
-                                messageId,
-                                senderId,
-                                sender,
-                                fileName,
-                                fileSize,
-                                fileType,
-                                fileId,
-                                System.currentTimeMillis(),
-                                isMyMessage
-                        );
-                    }
-                }
-
-                // 文本消息
-                return new com.chat.model.ChatMessageModel(
-                        messageId,
-                        senderId,
-                        sender,
-                        content,
-                        System.currentTimeMillis(),
-                        isMyMessage
-                );
-            }
-        } catch (Exception e) {
-            System.err.println("[ChatGroupControl] 解析消息失败: " + messageStr + ", 错误: " + e.getMessage());
+    private com.chat.model.ChatMessageModel toMessageModel(MessageRecord record) {
+        boolean isMyMessage = userId.equals(record.getSenderId());
+        String senderName = isMyMessage ? "我" : userDirectory.displayName(record.getSenderId());
+
+        if (record.isFile()) {
+            return new com.chat.model.ChatMessageModel(
+                    "file_" + (record.getId() != null ? record.getId() : record.getTimestamp()),
+                    record.getSenderId(),
+                    senderName,
+                    record.getFileName(),
+                    record.getFileSize(),
+                    record.getFileType(),
+                    record.getFileId(),
+                    record.getTimestamp(),
+                    isMyMessage
+            );
         }
-        return null;
-    }
 
-    /**
-     * 解析文件大小字符串
-     */
-    private long parseFileSize(String sizeStr) {
-        try {
-            if (sizeStr.endsWith(" B")) {
-                return Long.parseLong(sizeStr.replace(" B", "").trim());
-            } else if (sizeStr.endsWith(" KB")) {
-                double kb = Double.parseDouble(sizeStr.replace(" KB", "").trim());
-                return (long)(kb * 1024);
-            } else if (sizeStr.endsWith(" MB")) {
-                double mb = Double.parseDouble(sizeStr.replace(" MB", "").trim());
-                return (long)(mb * 1024 * 1024);
-            } else if (sizeStr.endsWith(" GB")) {
-                double gb = Double.parseDouble(sizeStr.replace(" GB", "").trim());
-                return (long)(gb * 1024 * 1024 * 1024);
-            }
-        } catch (Exception e) {
-            System.err.println("解析文件大小失败: " + sizeStr);
-        }
-        return 0;
+        return new com.chat.model.ChatMessageModel(
+                "msg_" + (record.getId() != null ? record.getId() : record.getContent().hashCode()),
+                record.getSenderId(),
+                senderName,
+                record.getContent(),
+                record.getTimestamp(),
+                isMyMessage
+        );
     }
 
     /**
@@ -372,9 +334,7 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                     public void onUploadSuccess(FileUploadService.FileUploadResult result) {
                         Platform.runLater(() -> {
                             // 在聊天区域显示文件消息
-                            String time = timeFormat.format(new Date());
-                            String displayMessage = String.format("[%s] 我: [文件] %s (%s)",
-                                    time, result.getFileName(), result.getFormattedFileSize());
+                            long timestamp = System.currentTimeMillis();
 
                             // 创建文件消息模型
                             com.chat.model.ChatMessageModel fileMessage = new com.chat.model.ChatMessageModel(
@@ -385,7 +345,7 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                                     result.getFileSize(),
                                     result.getFileType(),
                                     result.getFileId(),
-                                    System.currentTimeMillis(),
+                                    timestamp,
                                     true
                             );
 
@@ -395,7 +355,9 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                             messageListView.scrollTo(messageList.size() - 1);
 
                             // 保存到会话管理器
-                            sessionManager.addGroupMessage(groupId, displayMessage);
+                            sessionManager.addGroupMessage(groupId, MessageRecord.file(null, userId,
+                                    result.getFileId(), result.getFileName(), result.getFileSize(),
+                                    result.getFileType(), result.getDownloadUrl(), timestamp));
                         });
                     }
 
@@ -447,77 +409,56 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
     @FXML
     private void sendMessage() {
         String content = messageInput.getText().trim();
-        if (content.isEmpty() || socketClient == null || !socketClient.isConnected()
-                || groupId == null || userId == null) {
+        if (content.isEmpty() || socketClient == null || groupId == null || userId == null) {
             return;
         }
 
-        // 生成简化的消息key
-        long timestamp = System.currentTimeMillis();
-        String messageKey = generateSimpleMessageKey(content, timestamp);
+        // 分配客户端消息ID并放入发件箱，服务器回传时据此确认
+        Outbox.OutboxEntry entry = outbox.enqueue("group", groupId, userId, content);
+        String clientMsgId = entry.getClientMsgId();
 
         // 先清空输入框
         messageInput.clear();
 
         // 在本地立即显示
-        String time = timeFormat.format(new Date(timestamp));
-        String displayMessage = "[" + time + "] 我: " + content;
-
-        // 创建消息模型
         com.chat.model.ChatMessageModel messageModel = new com.chat.model.ChatMessageModel(
-                "temp_" + messageKey,
+                "temp_" + clientMsgId,
                 userId,
                 "我",
                 content,
-                timestamp,
+                entry.getTimestamp(),
                 true
         );
 
-        // 标记为pending
-        pendingMessages.put(messageKey, timestamp);
+        // 标记为pending，等待服务器回传
+        pendingMessages.put(clientMsgId, messageModel);
 
-        // 立即显示并保存
+        // 立即显示（服务器回传后由 MessageBroadcaster 带消息ID保存到会话管理器）
         Platform.runLater(() -> {
             messageList.add(messageModel);
             messageCache.put(messageModel.getMessageId(), messageModel);
             messageListView.scrollTo(messageList.size() - 1);
         });
 
-        sessionManager.addGroupMessage(groupId, displayMessage);
-
-        System.out.println("[ChatGroupControl] 本地显示群聊消息，key: " + messageKey);
+        System.out.println("[ChatGroupControl] 本地显示群聊消息，clientMsgId: " + clientMsgId);
 
         // 异步发送到服务器
         new Thread(() -> {
-            boolean sent = chatService.sendGroupMessage(socketClient, groupId, userId, content);
+            boolean sent = chatService.sendOutboxMessage(socketClient, clientMsgId);
 
             if (sent) {
                 System.out.println("[ChatGroupControl] 群聊消息发送成功到服务器");
-
-                // 3秒后清理pending状态
-                new Timer().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        pendingMessages.remove(messageKey);
-                        System.out.println("[ChatGroupControl] 清理pending消息: " + messageKey);
-                    }
-                }, 3000);
-
             } else {
+                // 未连接或写入失败：消息留在发件箱中，连接恢复后自动发送，回传时仍按客户端消息ID去重
                 Platform.runLater(() -> {
-                    DialogUtil.showError(messageListView.getScene().getWindow(), "发送失败，请检查网络连接");
-                    pendingMessages.remove(messageKey);
-
-                    // 标记为发送失败
-                    com.chat.model.ChatMessageModel failedMessage = new com.chat.model.ChatMessageModel(
-                            "failed_" + messageKey,
+                    messageList.add(new com.chat.model.ChatMessageModel(
+                            "queued_" + clientMsgId,
                             userId,
-                            "我",
-                            "[发送失败] " + content,
+                            "系统",
+                            "[等待发送] 网络未连接，消息将在连接恢复后自动发送",
                             System.currentTimeMillis(),
-                            true
-                    );
-                    messageList.add(failedMessage);
+                            false
+                    ));
                     messageListView.scrollTo(messageList.size() - 1);
                 });
             }
@@ -559,20 +500,20 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
      */
     private void handleGroupTextMessage(Long groupId, Long fromUserId, String content,
                                         long timestamp, Long messageId) {
-        // 生成简化的消息key
-        String messageKey = generateSimpleMessageKey(content, timestamp);
-
-        // 检查是否是刚发送的pending消息
-        if (pendingMessages.containsKey(messageKey)) {
-            System.out.println("[ChatGroupControl] 这是刚发送的群聊消息回传: " + messageKey);
-            pendingMessages.remove(messageKey);
-            return;
+        // 自己发送的消息回传：按发件箱确认的客户端消息ID找到本地已显示的消息
+        String clientMsgId = outbox.clientMsgIdFor(messageId);
+        if (clientMsgId != null) {
+            com.chat.model.ChatMessageModel shown = pendingMessages.remove(clientMsgId);
+            if (shown != null) {
+                messageCache.put("msg_" + messageId, shown);
+                noteMessageId(messageId);
+                System.out.println("[ChatGroupControl] 这是刚发送的群聊消息回传: " + clientMsgId);
+                return;
+            }
         }
 
         // 正常处理新消息
-        String time = timeFormat.format(new Date(timestamp));
-        String senderName = fromUserId.equals(userId) ? "我" : "用户" + fromUserId;
-        String displayMessage = "[" + time + "] " + senderName + ": " + content;
+        String senderName = fromUserId.equals(userId) ? "我" : userDirectory.displayName(fromUserId);
 
         // 创建消息模型
         String cacheKey = "msg_" + (messageId != null ? messageId : content.hashCode());
@@ -599,8 +540,9 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                 (senderName.equals("我") ? "发送" : "接收") + " - " +
                 content.substring(0, Math.min(20, content.length())));
 
-        // 保存到会话管理器
-        sessionManager.addGroupMessage(groupId, displayMessage);
+        // 保存到会话管理器（与 MessageBroadcaster 保存的记录按消息ID去重）
+        noteMessageId(messageId);
+        sessionManager.addGroupMessage(groupId, MessageRecord.text(messageId, fromUserId, content, timestamp));
     }
 
     /**
@@ -617,14 +559,13 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
             Long messageGroupId = fileMessage.get("groupId").getAsLong();
             Long messageId = fileMessage.has("messageId") ? fileMessage.get("messageId").getAsLong() : null;
 
-            String time = timeFormat.format(new Date(timestamp));
 
             // 创建文件消息模型
             boolean isMyMessage = senderId.equals(userId);
             com.chat.model.ChatMessageModel messageModel = new com.chat.model.ChatMessageModel(
                     "file_" + (messageId != null ? messageId : System.currentTimeMillis()),
                     senderId,
-                    isMyMessage ? "我" : "用户" + senderId,
+                    isMyMessage ? "我" : userDirectory.displayName(senderId),
                     fileName,
                     fileSize,
                     fileType,
@@ -640,11 +581,10 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
                 messageListView.scrollTo(messageList.size() - 1);
             });
 
-            // 保存到会话管理器
-            String displayMessage = String.format("[%s] %s: [文件] %s (%s)",
-                    time, isMyMessage ? "我" : "用户" + senderId,
-                    fileName, chatService.formatFileSize(fileSize));
-            sessionManager.addGroupMessage(groupId, displayMessage);
+            // 保存到会话管理器（与 MessageBroadcaster 保存的记录按消息ID去重）
+            noteMessageId(messageId);
+            sessionManager.addGroupMessage(groupId, MessageRecord.file(messageId, senderId,
+                    fileId, fileName, fileSize, fileType, downloadUrl, timestamp));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -652,15 +592,91 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
         }
     }
 
+    // ========== 发送者名称 ==========
+
+    /**
+     * 用户名解析完成：替换已显示消息中的占位名称
+     */
+    @Override
+    public void onNamesResolved(Map<Long, String> names) {
+        boolean changed = false;
+        for (com.chat.model.ChatMessageModel message : messageList) {
+            Long senderId = message.getSenderId();
+            if (!message.isMyMessage() && senderId != null && names.containsKey(senderId)
+                    && !names.get(senderId).equals(message.getSenderName())) {
+                message.setSenderName(names.get(senderId));
+                changed = true;
+            }
+        }
+        if (changed) {
+            messageListView.refresh();
+        }
+    }
+
+    // ========== 已读状态 ==========
+
+    private void noteMessageId(Long messageId) {
+        if (messageId != null && messageId > latestMessageId) {
+            latestMessageId = messageId;
+        }
+    }
+
+    /**
+     * 用户已看到最后一条消息：清除红点，并记录已读位置（由 ReadStateTracker 合并后上报）
+     */
+    private void reportRead() {
+        if (groupId == null) {
+            return;
+        }
+        recentService.markAsRead(groupId.toString());
+        if (latestMessageId > 0) {
+            readTracker.markRead(socketClient, "group", groupId, latestMessageId);
+        }
+    }
+
+    // ========== 发送失败 ==========
+
     /**
-     * 生成简化的消息key（只用于pending检查）
+     * 发件箱放弃重发本会话的消息：在窗口中提示发送失败
      */
-    private String generateSimpleMessageKey(String content, long timestamp) {
-        // 使用内容前20字符和时间戳分钟级
-        String contentHash = content.length() > 20 ?
-                content.substring(0, 20) : content;
-        long minuteTimestamp = timestamp / 60000; // 精确到分钟
-        return contentHash + "_" + minuteTimestamp;
+    @Override
+    public void onSendFailed(Outbox.OutboxEntry entry) {
+        if ("group".equals(entry.getChatType()) && entry.getTargetId().equals(groupId)) {
+            Platform.runLater(() -> showSendFailure(entry));
+        }
+    }
+
+    /**
+     * 打开窗口前已发送失败的消息（在加载本次登录记录之后显示）
+     */
+    private void showRecentSendFailures() {
+        List<Outbox.OutboxEntry> failed = outbox.getRecentFailed("group", groupId);
+        if (!failed.isEmpty()) {
+            Platform.runLater(() -> failed.forEach(this::showSendFailure));
+        }
+    }
+
+    private void showSendFailure(Outbox.OutboxEntry entry) {
+        pendingMessages.remove(entry.getClientMsgId());
+        String messageId = "failed_" + entry.getClientMsgId();
+        for (com.chat.model.ChatMessageModel shown : messageList) {
+            if (messageId.equals(shown.getMessageId())) {
+                return;
+            }
+        }
+        String preview = entry.isFile() ? "[文件] " + entry.getFileName() : entry.getContent();
+        if (preview != null && preview.length() > 30) {
+            preview = preview.substring(0, 30) + "...";
+        }
+        messageList.add(new com.chat.model.ChatMessageModel(
+                messageId,
+                userId,
+                "系统",
+                "[发送失败] " + preview + "（" + entry.getFailureReason() + "），请重新发送",
+                System.currentTimeMillis(),
+                false
+        ));
+        messageListView.scrollTo(messageList.size() - 1);
     }
 
     public void cleanup() {
@@ -669,6 +685,11 @@ public class ChatGroupControl implements Initializable, MessageBroadcaster.Group
             broadcaster.unregisterGroupListener(groupId.toString(), this);
         }
 
+        userDirectory.unregisterListener(this);
+        outbox.unregisterFailureListener(this);
+        MemoryBudgetService.getInstance().unregister(messageCache);
+        messageCache.clear();
+
         System.out.println("[ChatGroupControl] 清理完成，会话记录已保存");
     }
 
@@ -1,7 +1,14 @@
 package com.chat.control;
 
+import com.chat.model.MessageRecord;
 import com.chat.network.SocketClient;
+import com.chat.service.ChatSessionManager;
+import com.chat.service.HistoryPageCache;
 import com.chat.service.HistoryService;
+import com.chat.service.UserDirectoryService;
+import com.chat.store.DayBucket;
+import com.chat.store.LocalMessageStore;
+import com.chat.store.SearchHit;
 import com.chat.protocol.ChatHistoryResponse;
 import com.chat.protocol.ChatHistoryResponse.HistoryMessageItem;
 import com.chat.protocol.ContentType;
@@ -12,6 +19,7 @@ import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.layout.*;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -22,11 +30,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.net.URL;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 
 /**
  * 历史记录窗口控制器
@@ -40,7 +53,14 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
     @FXML private ListView<HistoryMessageItem> historyListView;
     @FXML private ComboBox<Integer> limitComboBox;
     @FXML private Button loadMoreButton;
+    @FXML private DatePicker jumpDatePicker;
     @FXML private Button closeButton;
+    @FXML private TextField searchField;
+    @FXML private ComboBox<String> searchRangeComboBox;
+    @FXML private CheckBox searchMineOnlyCheckBox;
+    @FXML private Button searchButton;
+    @FXML private Button clearSearchButton;
+    @FXML private ListView<HistoryMessageItem> searchResultListView;
 
     // 聊天类型：private 或 group
     private String chatType;
@@ -49,16 +69,40 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
     private Long userId;
     private SocketClient socketClient;
     private HistoryService historyService;
+    private final LocalMessageStore localStore = LocalMessageStore.getInstance();
+    private final HistoryPageCache pageCache = HistoryPageCache.getInstance();
+    // 本地消息存储中的会话key
+    private String conversationKey;
 
     private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
 
+    // 按消息ID排序（没有ID的消息排在最后）
+    private static final Comparator<HistoryMessageItem> BY_ID =
+            Comparator.comparing(HistoryMessageItem::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+
     // 分页相关
-    private Long earliestTimestamp = null;
+    // 下一页的游标（由 HistoryService 返回，为null时加载最新一页）
+    private String nextCursor = null;
     private boolean isLoading = false;
     private int totalMessagesLoaded = 0;
 
-    // 存储所有历史消息
-    private final List<HistoryMessageItem> allHistoryMessages = new java.util.ArrayList<>();
+    // 当前显示的历史消息（按消息ID从旧到新，与 ListView 绑定，按页增量插入）
+    private final ObservableList<HistoryMessageItem> displayedMessages = FXCollections.observableArrayList();
+    // 已显示的消息ID（本地记录与服务器记录按ID去重）
+    private final Set<Long> loadedMessageIds = new HashSet<>();
+
+    // 本地有消息的日期（用于日期选择器标记）
+    private final Set<LocalDate> messageDates = new HashSet<>();
+
+    // 搜索相关
+    // 单次搜索最多显示的结果数
+    private static final int SEARCH_LIMIT = 200;
+    private static final String RANGE_ALL = "全部时间";
+    private static final String RANGE_WEEK = "最近7天";
+    private static final String RANGE_MONTH = "最近30天";
+    private static final String RANGE_YEAR = "最近一年";
+    // 搜索序号，忽略已被新搜索取代的结果
+    private int searchSequence = 0;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -76,6 +120,28 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
 
         // 使用自定义 cell 渲染消息气泡
         historyListView.setCellFactory(list -> new HistoryCell());
+        historyListView.setItems(displayedMessages);
+
+        // 搜索选项
+        searchRangeComboBox.setItems(FXCollections.observableArrayList(RANGE_ALL, RANGE_WEEK, RANGE_MONTH, RANGE_YEAR));
+        searchRangeComboBox.setValue(RANGE_ALL);
+        searchResultListView.setCellFactory(list -> new HistoryCell());
+        searchResultListView.setPlaceholder(new Label("没有找到相关的聊天记录"));
+
+        // 日期选择器中加粗本地有消息的日期
+        jumpDatePicker.setOnShowing(event -> refreshMessageDates());
+        jumpDatePicker.setDayCellFactory(picker -> new DateCell() {
+            @Override
+            public void updateItem(LocalDate date, boolean empty) {
+                super.updateItem(date, empty);
+                if (!empty && date != null && messageDates.contains(date)) {
+                    setStyle("-fx-font-weight: bold; -fx-text-fill: #3498db;");
+                } else {
+                    setStyle(null);
+                }
+                setDisable(empty || date == null || date.isAfter(LocalDate.now()));
+            }
+        });
 
         // 设置按钮样式
         setupButtonStyles();
@@ -90,6 +156,7 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
     private void setupButtonStyles() {
         loadMoreButton.setStyle("-fx-background-color: #3498db; -fx-text-fill: white; -fx-font-weight: bold;");
         closeButton.setStyle("-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-weight: bold;");
+        searchButton.setStyle("-fx-background-color: #3498db; -fx-text-fill: white; -fx-font-weight: bold;");
     }
 
     /**
@@ -102,6 +169,9 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
         this.targetName = targetName;
         this.userId = userId;
         this.socketClient = socketClient;
+        this.conversationKey = "group".equals(chatType)
+                ? ChatSessionManager.buildGroupKey(targetId)
+                : ChatSessionManager.buildPrivateKey(userId, targetId);
 
         // 设置标题
         titleLabel.setText(targetName + " - 历史记录");
@@ -115,13 +185,11 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
         historyListView.getItems().clear();
         historyListView.setPlaceholder(new Label("正在加载与 " + targetName + " 的历史记录..."));
 
-        // 开始加载历史记录（延迟一点，确保UI完全加载）
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                Platform.runLater(() -> loadHistoryMessages());
-            }
-        }, 300);
+        // 先显示本地保存的最近记录，服务器返回后再合并新增的消息
+        showLocalHistory();
+
+        // 开始加载历史记录（窗口控件已由 FXML 加载完成，无需等待）
+        loadHistoryMessages();
     }
 
     /**
@@ -147,19 +215,111 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
 
         System.out.println("[ChatHistoryWindow] 开始加载历史记录: " + chatType + ", 目标ID: " + targetId);
 
-        // 使用 HistoryService 加载历史消息
-        historyService.loadHistoryMessages(
+        // 通过分页缓存加载历史消息（已预取的页直接返回）
+        pageCache.loadPage(
                 socketClient,
                 chatType,
                 targetId,
                 limit,
-                earliestTimestamp, // 如果为null，则获取最新的
+                nextCursor, // 如果为null，则获取最新的
                 this  // 回调接口
         );
     }
 
+    /**
+     * 从本地消息存储读取最近的记录并立即显示
+     */
+    private void showLocalHistory() {
+        List<MessageRecord> records = localStore.getLatest(conversationKey, limitComboBox.getValue());
+        if (records.isEmpty()) {
+            return;
+        }
+
+        List<HistoryMessageItem> items = new ArrayList<>(records.size());
+        for (MessageRecord record : records) {
+            items.add(historyService.toHistoryItem(record, chatType, userId, targetId));
+        }
+        totalMessagesLoaded += mergePage(items);
+
+        System.out.println("[ChatHistoryWindow] 显示本地记录 " + records.size() + " 条");
+        statusLabel.setText("已显示本地记录，正在同步...");
+        infoLabel.setText("共 " + totalMessagesLoaded + " 条历史记录");
+    }
+
+    /**
+     * 将一页消息按消息ID合并到显示列表，返回实际新增的条数
+     * 向前翻页时整页早于已显示的消息，只触发一次头部插入；比已显示更新的消息一次追加到末尾；
+     * 其余落在中间的少量消息二分查找插入位置。单页开销与页大小成正比，与已加载总数无关
+     */
+    private int mergePage(List<HistoryMessageItem> page) {
+        List<HistoryMessageItem> older = new ArrayList<>();
+        List<HistoryMessageItem> newer = new ArrayList<>();
+        List<HistoryMessageItem> middle = new ArrayList<>();
+
+        Long firstId = displayedMessages.isEmpty() ? null : displayedMessages.get(0).getId();
+        Long lastId = displayedMessages.isEmpty() ? null : displayedMessages.get(displayedMessages.size() - 1).getId();
+
+        for (HistoryMessageItem item : page) {
+            Long id = item.getId();
+            if (id != null && !loadedMessageIds.add(id)) {
+                continue; // 已显示（本地记录或之前的页）
+            }
+            if (id == null || displayedMessages.isEmpty() || lastId == null || id > lastId) {
+                newer.add(item);
+            } else if (firstId != null && id < firstId) {
+                older.add(item);
+            } else {
+                middle.add(item);
+            }
+        }
+
+        boolean wasEmpty = displayedMessages.isEmpty();
+        int anchor = firstVisibleIndex();
+
+        if (!older.isEmpty()) {
+            older.sort(BY_ID);
+            displayedMessages.addAll(0, older);
+        }
+        for (HistoryMessageItem item : middle) {
+            int index = Collections.binarySearch(displayedMessages, item, BY_ID);
+            displayedMessages.add(index >= 0 ? index : -index - 1, item);
+        }
+        if (!newer.isEmpty()) {
+            newer.sort(BY_ID);
+            displayedMessages.addAll(newer);
+        }
+
+        if (wasEmpty) {
+            // 首次显示时滚动到底部（最新消息）
+            if (!displayedMessages.isEmpty()) {
+                historyListView.scrollTo(displayedMessages.size() - 1);
+            }
+        } else if (anchor >= 0 && !older.isEmpty()) {
+            // 头部插入后保持原来第一条可见消息的位置不变
+            historyListView.scrollTo(anchor + older.size());
+        }
+
+        return older.size() + middle.size() + newer.size();
+    }
+
+    /**
+     * 当前第一条可见消息的位置，无法获取时返回-1
+     */
+    private int firstVisibleIndex() {
+        if (historyListView.lookup(".virtual-flow") instanceof VirtualFlow<?> flow
+                && flow.getFirstVisibleCell() != null) {
+            return flow.getFirstVisibleCell().getIndex();
+        }
+        return -1;
+    }
+
     @Override
     public void onHistoryLoaded(ChatHistoryResponse response, String error) {
+        // 在加载线程中写入本地存储，下次打开时直接从本地显示
+        if (error == null && response != null && response.getMessages() != null) {
+            localStore.appendAll(conversationKey, historyService.toMessageRecords(response.getMessages()));
+        }
+
         Platform.runLater(() -> {
             isLoading = false;
 
@@ -190,29 +350,22 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
             List<HistoryMessageItem> messages = response.getMessages();
             System.out.println("[ChatHistoryWindow] 成功加载 " + messages.size() + " 条历史消息");
 
-            // 添加到总列表
-            allHistoryMessages.addAll(messages);
-            totalMessagesLoaded += messages.size();
+            // 合并到显示列表（跳过已从本地显示的消息）
+            totalMessagesLoaded += mergePage(messages);
 
-            // 重新显示所有历史消息（从旧到新）
-            displayAllHistoryMessages();
-
-            // 更新最早时间戳（用于下一次加载）
-            Long newEarliestTimestamp = null;
-            for (HistoryMessageItem item : messages) {
-                Long itemTimestamp = historyService.dbDateTimeToTimestamp(item.getTimestamp());
-                if (newEarliestTimestamp == null || itemTimestamp < newEarliestTimestamp) {
-                    newEarliestTimestamp = itemTimestamp;
-                }
-            }
-            earliestTimestamp = newEarliestTimestamp;
+            // 记录下一页游标（按消息ID翻页，同一秒内的消息不会重复或遗漏）
+            boolean hasMore = Boolean.TRUE.equals(response.getHasMore());
+            nextCursor = response.getNextCursor();
 
             statusLabel.setText("已加载 " + totalMessagesLoaded + " 条记录");
 
             // 检查是否还有更多消息可以加载
-            if (messages.size() >= limitComboBox.getValue()) {
+            if (hasMore) {
                 loadMoreButton.setDisable(false);
                 loadMoreButton.setText("加载更多 (" + limitComboBox.getValue() + "条)");
+
+                // 在后台预取下一页，点击"加载更多"时无需再等待一次往返
+                pageCache.prefetch(socketClient, chatType, targetId, limitComboBox.getValue(), nextCursor);
             } else {
                 loadMoreButton.setDisable(true);
                 loadMoreButton.setText("已加载全部");
@@ -222,41 +375,159 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
         });
     }
 
+    // ========== 按日期跳转 ==========
+
     /**
-     * 显示所有历史消息（按时间从旧到新排序）
+     * 跳转到选择的日期：本地有当天的记录时直接从当天第一条消息开始显示，
+     * 否则向服务器请求当天结束之前的一页；之后"加载更多"从显示的最早消息继续向前翻页
      */
-    private void displayAllHistoryMessages() {
-        if (allHistoryMessages.isEmpty()) {
-            historyListView.getItems().clear();
-            historyListView.setPlaceholder(new Label("暂无历史聊天记录"));
+    @FXML
+    private void jumpToDate() {
+        LocalDate date = jumpDatePicker.getValue();
+        if (date == null || conversationKey == null) {
+            return;
+        }
+        if (isLoading) {
+            statusLabel.setText("正在加载，请稍后再跳转");
             return;
         }
 
-        // 按时间排序（从旧到新）
-        allHistoryMessages.sort((a, b) -> {
-            Long timeA = historyService.dbDateTimeToTimestamp(a.getTimestamp());
-            Long timeB = historyService.dbDateTimeToTimestamp(b.getTimestamp());
-            return timeA.compareTo(timeB);
-        });
+        int limit = limitComboBox.getValue();
+        List<MessageRecord> records = localStore.getFromDate(conversationKey, date, limit);
+        resetHistoryView();
+        historyListView.setPlaceholder(new Label("正在加载 " + date + " 的聊天记录..."));
+
+        if (!records.isEmpty()) {
+            List<HistoryMessageItem> items = new ArrayList<>(records.size());
+            for (MessageRecord record : records) {
+                items.add(historyService.toHistoryItem(record, chatType, userId, targetId));
+            }
+            totalMessagesLoaded += mergePage(items);
+            historyListView.scrollTo(0);
+
+            MessageRecord first = records.get(0);
+            nextCursor = HistoryService.cursorBefore(first.getId(), first.getTimestamp());
+            loadMoreButton.setDisable(false);
+            loadMoreButton.setText("加载更多 (" + limit + "条)");
+            statusLabel.setText("已跳转到 " + date);
+            infoLabel.setText("共 " + totalMessagesLoaded + " 条历史记录");
+            System.out.println("[ChatHistoryWindow] 从本地跳转到 " + date + ": " + records.size() + " 条");
+            return;
+        }
+
+        // 本地没有当天的记录：从当天结束时刻向前加载一页
+        long endOfDay = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        nextCursor = HistoryService.cursorBeforeTime(endOfDay);
+        loadHistoryMessages();
+    }
+
+    /**
+     * 清空当前显示的历史消息和翻页位置
+     */
+    private void resetHistoryView() {
+        displayedMessages.clear();
+        loadedMessageIds.clear();
+        totalMessagesLoaded = 0;
+        nextCursor = null;
+    }
+
+    private void refreshMessageDates() {
+        messageDates.clear();
+        if (conversationKey == null) {
+            return;
+        }
+        for (DayBucket bucket : localStore.getDayBuckets(conversationKey)) {
+            messageDates.add(bucket.getDate());
+        }
+    }
 
-        ObservableList<HistoryMessageItem> items = FXCollections.observableArrayList();
+    // ========== 搜索 ==========
+
+    /**
+     * 在本地消息存储中搜索当前会话的聊天记录，结果按时间从新到旧显示
+     */
+    @FXML
+    private void searchMessages() {
+        String text = searchField.getText() != null ? searchField.getText().trim() : "";
+        if (text.isEmpty()) {
+            clearSearch();
+            return;
+        }
 
-        // 我们保留原有按日分隔的逻辑，但将日期分隔作为占位消息不可行（类型不同），
-        // 所以这里只把消息按顺序放入 ListView，ListCell 负责显示时间与内容
-        items.addAll(allHistoryMessages);
+        Long senderId = searchMineOnlyCheckBox.isSelected() ? userId : null;
+        Long fromTime = searchFromTime(searchRangeComboBox.getValue());
+        int sequence = ++searchSequence;
+        statusLabel.setText("搜索中...");
+
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            List<SearchHit> hits = localStore.search(text, conversationKey, senderId, fromTime, null, SEARCH_LIMIT);
+            List<HistoryMessageItem> items = new ArrayList<>(hits.size());
+            for (SearchHit hit : hits) {
+                items.add(historyService.toHistoryItem(hit.getRecord(), chatType, userId, targetId));
+            }
+            long elapsed = System.currentTimeMillis() - start;
 
-        historyListView.setItems(items);
+            Platform.runLater(() -> {
+                if (sequence != searchSequence) {
+                    return;
+                }
+                searchResultListView.getItems().setAll(items);
+                showSearchResults(true);
+                statusLabel.setText("搜索完成");
+                infoLabel.setText("找到 " + items.size() + " 条包含“" + text + "”的记录（" + elapsed + "ms）" +
+                        (items.size() >= SEARCH_LIMIT ? "，仅显示最近 " + SEARCH_LIMIT + " 条" : ""));
+            });
+        }, "history-search");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        // 滚动到底部（最新消息）
-        if (!items.isEmpty()) {
-            historyListView.scrollTo(items.size() - 1);
+    /**
+     * 清除搜索，回到历史消息列表
+     */
+    @FXML
+    private void clearSearch() {
+        searchSequence++;
+        searchField.clear();
+        searchResultListView.getItems().clear();
+        showSearchResults(false);
+        statusLabel.setText("已加载 " + totalMessagesLoaded + " 条记录");
+        infoLabel.setText("共 " + totalMessagesLoaded + " 条历史记录");
+    }
+
+    private void showSearchResults(boolean show) {
+        searchResultListView.setVisible(show);
+        searchResultListView.setManaged(show);
+        historyListView.setVisible(!show);
+        historyListView.setManaged(!show);
+    }
+
+    /**
+     * 时间范围选项对应的起始时间，全部时间返回null
+     */
+    private Long searchFromTime(String range) {
+        long day = 24L * 60 * 60 * 1000;
+        long now = System.currentTimeMillis();
+        if (RANGE_WEEK.equals(range)) {
+            return now - 7 * day;
+        } else if (RANGE_MONTH.equals(range)) {
+            return now - 30 * day;
+        } else if (RANGE_YEAR.equals(range)) {
+            return now - 365 * day;
         }
+        return null;
     }
 
     /**
      * 显示错误信息
      */
     private void showError(String message) {
+        if (!displayedMessages.isEmpty()) {
+            // 已显示本地记录时保留列表，只提示同步失败
+            statusLabel.setText("同步失败: " + message);
+            return;
+        }
         historyListView.getItems().clear();
         historyListView.setPlaceholder(new Label("错误: " + message + "\n\n请检查网络连接或稍后重试。"));
         statusLabel.setText("加载失败");
@@ -352,7 +623,7 @@ public class ChatHistoryWindowControl implements Initializable, HistoryService.H
                     name.setStyle("-fx-font-weight: bold; -fx-font-size: 13px;" + (isMine ? "-fx-text-fill: white;" : ""));
                     Label sizeLabel = new Label(item.getFileSize() != null ? formatFileSize(item.getFileSize()) : "");
                     sizeLabel.setStyle((isMine ? "-fx-text-fill: white;" : "-fx-text-fill: #666;") + "-fx-font-size: 11px;");
-                    Label meta = new Label(time + (item.getSenderId() != null ? ("  •  " + (item.getSenderId().equals(userId) ? "我" : "用户" + item.getSenderId())) : ""));
+                    Label meta = new Label(time + (item.getSenderId() != null ? ("  •  " + (item.getSenderId().equals(userId) ? "我" : UserDirectoryService.getInstance().displayName(item.getSenderId()))) : ""));
                     meta.setStyle((isMine ? "-fx-text-fill: rgba(255,255,255,0.9);" : "-fx-text-fill: #999;") + "-fx-font-size: 10px;");
                     info.getChildren().addAll(name, sizeLabel, meta);
 
@@ -1,16 +1,21 @@
 package com.chat.control;
 
 import com.chat.model.ChatMessageModel;
+import com.chat.model.MessageRecord;
 import com.chat.network.SocketClient;
 import com.chat.service.ChatService;
 import com.chat.service.ChatSessionManager;
-import com.chat.service.FileService;
 import com.chat.service.MessageBroadcaster;
+import com.chat.service.Outbox;
+import com.chat.service.ReadStateTracker;
 import com.chat.service.RecentMessageService;
 import com.chat.service.FileUploadService;
+import com.chat.service.LruCache;
+import com.chat.service.MemoryBudgetService;
 import com.chat.ui.AvatarHelper;
 import com.chat.ui.DialogUtil;
 import com.chat.ui.ChatMessageCellFactory;
+import com.chat.ui.ReadPositionWatcher;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -29,7 +34,6 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 import javafx.util.Callback;
 
-import java.io.File;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -38,7 +42,8 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 私聊界面控制器
  */
-public class ChatPrivateControl implements Initializable, MessageBroadcaster.PrivateMessageListener {
+public class ChatPrivateControl implements Initializable, MessageBroadcaster.PrivateMessageListener,
+        Outbox.SendFailureListener {
 
     @FXML private Label contactNameLabel;
     @FXML private ImageView contactAvatar;
@@ -63,29 +68,40 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
     private final MessageBroadcaster broadcaster = MessageBroadcaster.getInstance();
     private final ChatSessionManager sessionManager = ChatSessionManager.getInstance();
     private final RecentMessageService recentService = RecentMessageService.getInstance();
+    private final ReadStateTracker readTracker = ReadStateTracker.getInstance();
+    private final Outbox outbox = Outbox.getInstance();
+    // 窗口中显示过的最大服务器消息ID，用户看到底部时作为已读位置
+    private volatile long latestMessageId = 0;
     private final Gson gson = new Gson();
     private final JsonParser jsonParser = new JsonParser();
     private final Map<Long, Boolean> receivedMessageIds = new ConcurrentHashMap<>();
-    private final Map<String, com.chat.model.ChatMessageModel> messageCache = new ConcurrentHashMap<>();
+    // 窗口内消息缓存（按最久未访问淘汰，并参与全局内存预算）
+    private static final int MESSAGE_CACHE_SIZE = 2000;
+    private final LruCache<String, com.chat.model.ChatMessageModel> messageCache =
+            new LruCache<>("私聊窗口消息", MESSAGE_CACHE_SIZE, com.chat.model.ChatMessageModel::estimateBytes);
 
     private String listenerKey;
 
     // 用于去重的集合
     private final Set<String> processedMessageKeys = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    // 临时存储刚发送的消息，等待服务器确认
-    private final Map<String, Long> pendingMessages = new ConcurrentHashMap<>();
+    // 刚发送、已在本地显示的消息（客户端消息ID -> 消息），等待服务器回传确认
+    private final Map<String, com.chat.model.ChatMessageModel> pendingMessages = new ConcurrentHashMap<>();
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         // 初始化消息列表
         messageList = FXCollections.observableArrayList();
         messageListView.setItems(messageList);
+        MemoryBudgetService.getInstance().register(messageCache);
 
         setupChatUI();
         createHistoryButton();
         setupProfileButton();
         setupFileUploadButton();
         setupSendButton();
+
+        // 窗口获得焦点或滚动到底部时记录已读
+        ReadPositionWatcher.watch(messageListView, this::reportRead);
     }
 
     private void setupChatUI() {
@@ -161,6 +177,7 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
 
             // 注册消息监听器
             broadcaster.registerPrivateListener(listenerKey, this);
+            outbox.registerFailureListener(this);
 
             // 设置单元格工厂（需要所有信息都准备好）
             messageListView.setCellFactory(param ->
@@ -186,6 +203,7 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
         messageList.clear();
         messageCache.clear();
         loadCurrentSessionMessages();
+        showRecentSendFailures();
 
         System.out.println("[ChatPrivateControl] 聊天窗口已打开，已加载本次登录记录");
     }
@@ -196,7 +214,7 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
     private void loadCurrentSessionMessages() {
         Platform.runLater(() -> {
             // 从会话管理器获取本次登录的聊天记录
-            List<String> sessionMessages = sessionManager.getPrivateSession(userId, contactId);
+            List<MessageRecord> sessionMessages = sessionManager.getPrivateSession(userId, contactId);
 
             // 清空已处理消息记录（重新加载时重新标记）
             receivedMessageIds.clear();
@@ -218,14 +236,14 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                 System.out.println("[ChatPrivateControl] 无本次登录记录");
             } else {
                 // 有本次登录的记录，转换并显示
-                for (String message : sessionMessages) {
-                    // 解析消息字符串为ChatMessageModel
-                    com.chat.model.ChatMessageModel messageModel = parseMessageString(message);
-                    if (messageModel != null) {
-                        messageList.add(messageModel);
-                        messageCache.put(messageModel.getMessageId(), messageModel);
-                    }
+                List<com.chat.model.ChatMessageModel> models = new ArrayList<>(sessionMessages.size());
+                for (MessageRecord record : sessionMessages) {
+                    com.chat.model.ChatMessageModel messageModel = toMessageModel(record);
+                    models.add(messageModel);
+                    messageCache.put(messageModel.getMessageId(), messageModel);
+                    noteMessageId(record.getId());
                 }
+                messageList.addAll(models);
 
                 // 滚动到底部
                 messageListView.scrollTo(messageList.size() - 1);
@@ -235,97 +253,34 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
     }
 
     /**
-     * 解析消息字符串为ChatMessageModel
+     * 将会话记录转换为ChatMessageModel（消息ID与实时消息的缓存key一致，便于去重）
      */
-    private com.chat.model.ChatMessageModel parseMessageString(String messageStr) {
-        try {
-            // 示例消息格式: "[18:10] 我: 你好" 或 "[18:10] 我: [文件] 2.txt (1.5 KB)"
-            if (messageStr.startsWith("[") && messageStr.contains("]")) {
-                int timeEnd = messageStr.indexOf("]");
-                String timePart = messageStr.substring(1, timeEnd);
-
-                int colonIndex = messageStr.indexOf(":", timeEnd);
-                if (colonIndex == -1) return null;
-
-                String sender = messageStr.substring(timeEnd + 2, colonIndex).trim();
-                String content = messageStr.substring(colonIndex + 2).trim();
-
-                boolean isMyMessage = "我".equals(sender);
-                Long senderId = isMyMessage ? userId : contactId;
-                String senderName = isMyMessage ? "我" : contactName;
-
-                // 生成消息ID
-                String messageId = "msg_" + System.currentTimeMillis() + "_" + content.hashCode() + "_" + UUID.randomUUID().toString().substring(0, 8);
-
-                // 检查是否是文件消息
-                if (content.startsWith("[文件]")) {
-                    // 解析文件消息
-                    // 格式: [文件] 文件名 (大小)
-                    String fileInfo = content.substring(4).trim();
-                    int parenIndex = fileInfo.lastIndexOf("(");
-                    if (parenIndex != -1) {
-                        String fileName = fileInfo.substring(0, parenIndex).trim();
-                        String sizeStr = fileInfo.substring(parenIndex + 1, fileInfo.length() - 1).trim();
-
-                        // 解析文件大小
-                        long fileSize = parseFileSize(sizeStr);
-                        String fileType = FileService.getFileTypeCategory(new File(fileName));
-
-                        // 生成文件ID
-                        String fileId = "file_" + senderId + "_" +
-                                System.currentTimeMillis() + "_" + fileName.hashCode();
-
-                        return new com.chat.model.ChatMessageModel(
-                                messageId,
-                                senderId,
-                                senderName,
-                                fileName,
-                                fileSize,
-                                fileType,
-                                fileId,
-                                System.currentTimeMillis(),
-                                isMyMessage
-                        );
-                    }
-                }
-
-                // 文本消息
-                return new com.chat.model.ChatMessageModel(
-                        messageId,
-                        senderId,
-                        senderName,
-                        content,
-                        System.currentTimeMillis(),
-                        isMyMessage
-                );
-            }
-        } catch (Exception e) {
-            System.err.println("[ChatPrivateControl] 解析消息失败: " + messageStr + ", 错误: " + e.getMessage());
+    private com.chat.model.ChatMessageModel toMessageModel(MessageRecord record) {
+        boolean isMyMessage = userId.equals(record.getSenderId());
+        String senderName = isMyMessage ? "我" : contactName;
+
+        if (record.isFile()) {
+            return new com.chat.model.ChatMessageModel(
+                    "file_" + (record.getId() != null ? record.getId() : record.getTimestamp()),
+                    record.getSenderId(),
+                    senderName,
+                    record.getFileName(),
+                    record.getFileSize(),
+                    record.getFileType(),
+                    record.getFileId(),
+                    record.getTimestamp(),
+                    isMyMessage
+            );
         }
-        return null;
-    }
 
-    /**
-     * 解析文件大小字符串
-     */
-    private long parseFileSize(String sizeStr) {
-        try {
-            if (sizeStr.endsWith(" B")) {
-                return Long.parseLong(sizeStr.replace(" B", "").trim());
-            } else if (sizeStr.endsWith(" KB")) {
-                double kb = Double.parseDouble(sizeStr.replace(" KB", "").trim());
-                return (long)(kb * 1024);
-            } else if (sizeStr.endsWith(" MB")) {
-                double mb = Double.parseDouble(sizeStr.replace(" MB", "").trim());
-                return (long)(mb * 1024 * 1024);
-            } else if (sizeStr.endsWith(" GB")) {
-                double gb = Double.parseDouble(sizeStr.replace(" GB", "").trim());
-                return (long)(gb * 1024 * 1024 * 1024);
-            }
-        } catch (Exception e) {
-            System.err.println("解析文件大小失败: " + sizeStr);
-        }
-        return 0;
+        return new com.chat.model.ChatMessageModel(
+                "msg_" + (record.getId() != null ? record.getId() : record.getContent().hashCode()),
+                record.getSenderId(),
+                senderName,
+                record.getContent(),
+                record.getTimestamp(),
+                isMyMessage
+        );
     }
 
     /**
@@ -349,9 +304,7 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                     public void onUploadSuccess(FileUploadService.FileUploadResult result) {
                         Platform.runLater(() -> {
                             // 在聊天区域显示文件消息
-                            String time = timeFormat.format(new Date());
-                            String displayMessage = String.format("[%s] 我: [文件] %s (%s)",
-                                    time, result.getFileName(), result.getFormattedFileSize());
+                            long timestamp = System.currentTimeMillis();
 
                             // 创建文件消息模型
                             com.chat.model.ChatMessageModel fileMessage = new com.chat.model.ChatMessageModel(
@@ -362,7 +315,7 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                                     result.getFileSize(),
                                     result.getFileType(),
                                     result.getFileId(),
-                                    System.currentTimeMillis(),
+                                    timestamp,
                                     true
                             );
 
@@ -372,7 +325,9 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                             messageListView.scrollTo(messageList.size() - 1);
 
                             // 保存到会话管理器
-                            sessionManager.addPrivateMessage(userId, contactId, displayMessage);
+                            sessionManager.addPrivateMessage(userId, contactId, MessageRecord.file(null, userId,
+                                    result.getFileId(), result.getFileName(), result.getFileSize(),
+                                    result.getFileType(), result.getDownloadUrl(), timestamp));
                         });
                     }
 
@@ -458,83 +413,55 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
     @FXML
     private void sendMessage() {
         String content = messageInput.getText().trim();
-        if (content.isEmpty() || socketClient == null || !socketClient.isConnected()
-                || contactId == null || userId == null) {
+        if (content.isEmpty() || socketClient == null || contactId == null || userId == null) {
             return;
         }
 
-        // 生成简化的消息key
-        long timestamp = System.currentTimeMillis();
-        String messageKey = generateSimpleMessageKey(content, timestamp);
+        // 分配客户端消息ID并放入发件箱，服务器回传时据此确认
+        Outbox.OutboxEntry entry = outbox.enqueue("private", contactId, userId, content);
+        String clientMsgId = entry.getClientMsgId();
 
         // 先清空输入框
         messageInput.clear();
 
         // 在本地立即显示
-        String time = timeFormat.format(new Date(timestamp));
-        String displayMessage = String.format("[%s] 我: %s", time, content);
-
-        // 创建消息模型
         final com.chat.model.ChatMessageModel messageModel = new com.chat.model.ChatMessageModel(
-                "temp_" + messageKey,
+                "temp_" + clientMsgId,
                 userId,
                 "我",
                 content,
-                timestamp,
+                entry.getTimestamp(),
                 true
         );
 
-        // 标记为pending
-        pendingMessages.put(messageKey, timestamp);
+        // 标记为pending，等待服务器回传
+        pendingMessages.put(clientMsgId, messageModel);
 
-        // 立即显示并保存
+        // 立即显示（服务器回传后由 MessageBroadcaster 带消息ID保存到会话管理器）
         Platform.runLater(() -> {
             messageList.add(messageModel);
             messageCache.put(messageModel.getMessageId(), messageModel);
             messageListView.scrollTo(messageList.size() - 1);
         });
 
-        sessionManager.addPrivateMessage(userId, contactId, displayMessage);
-
-        System.out.println("[ChatPrivateControl] 本地显示消息，key: " + messageKey);
-
-        // 异步发送到服务器 - 使用final变量
-        final String finalContent = content;
-        final String finalMessageKey = messageKey;
-        final com.chat.model.ChatMessageModel finalFailedMessageModel = new com.chat.model.ChatMessageModel(
-                "failed_" + messageKey,
-                userId,
-                "我",
-                "[发送失败] " + content,
-                System.currentTimeMillis(),
-                true
-        );
+        System.out.println("[ChatPrivateControl] 本地显示消息，clientMsgId: " + clientMsgId);
 
         new Thread(() -> {
-            boolean sent = chatService.sendPrivateMessage(socketClient, contactId, userId, finalContent);
+            boolean sent = chatService.sendOutboxMessage(socketClient, clientMsgId);
 
             if (sent) {
                 System.out.println("[ChatPrivateControl] 消息发送成功到服务器");
-
-                // 3秒后清理pending状态
-                new Timer().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        pendingMessages.remove(finalMessageKey);
-                        System.out.println("[ChatPrivateControl] 清理pending消息: " + finalMessageKey);
-                    }
-                }, 3000);
-
             } else {
-                // 发送失败
+                // 未连接或写入失败：消息留在发件箱中，连接恢复后自动发送，回传时仍按客户端消息ID去重
                 Platform.runLater(() -> {
-                    DialogUtil.showError(messageListView.getScene().getWindow(), "发送失败，请检查网络连接");
-
-                    // 从pending中移除
-                    pendingMessages.remove(finalMessageKey);
-
-                    // 在消息前添加失败标记
-                    messageList.add(finalFailedMessageModel);
+                    messageList.add(new com.chat.model.ChatMessageModel(
+                            "queued_" + clientMsgId,
+                            userId,
+                            "系统",
+                            "[等待发送] 网络未连接，消息将在连接恢复后自动发送",
+                            System.currentTimeMillis(),
+                            false
+                    ));
                     messageListView.scrollTo(messageList.size() - 1);
                 });
             }
@@ -602,15 +529,16 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
      */
     private void handleTextMessage(Long fromUserId, Long toUserId, String content,
                                    long timestamp, Long messageId) {
-        // 生成简化的消息key（只检查最近消息）
-        String messageKey = generateSimpleMessageKey(content, timestamp);
-
-        // 只检查是否是刚发送的pending消息
-        if (pendingMessages.containsKey(messageKey)) {
-            System.out.println("[ChatPrivateControl] 这是刚发送的消息回传，已显示过: " + messageKey);
-            // 从pending中移除
-            pendingMessages.remove(messageKey);
-            return;
+        // 自己发送的消息回传：按发件箱确认的客户端消息ID找到本地已显示的消息
+        String clientMsgId = outbox.clientMsgIdFor(messageId);
+        if (clientMsgId != null) {
+            com.chat.model.ChatMessageModel shown = pendingMessages.remove(clientMsgId);
+            if (shown != null) {
+                messageCache.put("msg_" + messageId, shown);
+                noteMessageId(messageId);
+                System.out.println("[ChatPrivateControl] 这是刚发送的消息回传，已显示过: " + clientMsgId);
+                return;
+            }
         }
 
         // 获取发送者名称
@@ -627,8 +555,6 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
         }
 
         // 正常处理新消息
-        String time = timeFormat.format(new Date(timestamp));
-        String displayMessage = String.format("[%s] %s: %s", time, senderName, content);
 
         // 创建消息模型
         com.chat.model.ChatMessageModel messageModel = new com.chat.model.ChatMessageModel(
@@ -649,8 +575,9 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                 (senderName.equals("我") ? "发送" : "接收") + " - " +
                 content.substring(0, Math.min(20, content.length())));
 
-        // 保存到会话管理器
-        sessionManager.addPrivateMessage(userId, contactId, displayMessage);
+        // 保存到会话管理器（与 MessageBroadcaster 保存的记录按消息ID去重）
+        noteMessageId(messageId);
+        sessionManager.addPrivateMessage(userId, contactId, MessageRecord.text(messageId, fromUserId, content, timestamp));
     }
 
     /**
@@ -667,7 +594,6 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
             Long receiverId = fileMessage.get("receiverId").getAsLong();
             Long messageId = fileMessage.has("messageId") ? fileMessage.get("messageId").getAsLong() : null;
 
-            String time = timeFormat.format(new Date(timestamp));
 
             // 创建文件消息模型
             boolean isMyMessage = senderId.equals(userId);
@@ -690,10 +616,10 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
                 messageListView.scrollTo(messageList.size() - 1);
             });
 
-            // 保存到会话管理器
-            String displayMessage = String.format("[%s] %s: [文件] %s (%s)",
-                    time, isMyMessage ? "我" : contactName, fileName, chatService.formatFileSize(fileSize));
-            sessionManager.addPrivateMessage(userId, contactId, displayMessage);
+            // 保存到会话管理器（与 MessageBroadcaster 保存的记录按消息ID去重）
+            noteMessageId(messageId);
+            sessionManager.addPrivateMessage(userId, contactId, MessageRecord.file(messageId, senderId,
+                    fileId, fileName, fileSize, fileType, downloadUrl, timestamp));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -701,15 +627,70 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
         }
     }
 
+    // ========== 已读状态 ==========
+
+    private void noteMessageId(Long messageId) {
+        if (messageId != null && messageId > latestMessageId) {
+            latestMessageId = messageId;
+        }
+    }
+
+    /**
+     * 用户已看到最后一条消息：清除红点，并记录已读位置（由 ReadStateTracker 合并后上报）
+     */
+    private void reportRead() {
+        if (contactId == null) {
+            return;
+        }
+        recentService.markAsRead(contactId.toString());
+        if (latestMessageId > 0) {
+            readTracker.markRead(socketClient, "private", contactId, latestMessageId);
+        }
+    }
+
+    // ========== 发送失败 ==========
+
+    /**
+     * 发件箱放弃重发本会话的消息：在窗口中提示发送失败
+     */
+    @Override
+    public void onSendFailed(Outbox.OutboxEntry entry) {
+        if ("private".equals(entry.getChatType()) && entry.getTargetId().equals(contactId)) {
+            Platform.runLater(() -> showSendFailure(entry));
+        }
+    }
+
     /**
-     * 生成简化的消息key（只用于pending检查）
+     * 打开窗口前已发送失败的消息（在加载本次登录记录之后显示）
      */
-    private String generateSimpleMessageKey(String content, long timestamp) {
-        // 使用内容前20字符和时间戳分钟级
-        String contentHash = content.length() > 20 ?
-                content.substring(0, 20) : content;
-        long minuteTimestamp = timestamp / 60000; // 精确到分钟
-        return contentHash + "_" + minuteTimestamp;
+    private void showRecentSendFailures() {
+        List<Outbox.OutboxEntry> failed = outbox.getRecentFailed("private", contactId);
+        if (!failed.isEmpty()) {
+            Platform.runLater(() -> failed.forEach(this::showSendFailure));
+        }
+    }
+
+    private void showSendFailure(Outbox.OutboxEntry entry) {
+        pendingMessages.remove(entry.getClientMsgId());
+        String messageId = "failed_" + entry.getClientMsgId();
+        for (com.chat.model.ChatMessageModel shown : messageList) {
+            if (messageId.equals(shown.getMessageId())) {
+                return;
+            }
+        }
+        String preview = entry.isFile() ? "[文件] " + entry.getFileName() : entry.getContent();
+        if (preview != null && preview.length() > 30) {
+            preview = preview.substring(0, 30) + "...";
+        }
+        messageList.add(new com.chat.model.ChatMessageModel(
+                messageId,
+                userId,
+                "系统",
+                "[发送失败] " + preview + "（" + entry.getFailureReason() + "），请重新发送",
+                System.currentTimeMillis(),
+                false
+        ));
+        messageListView.scrollTo(messageList.size() - 1);
     }
 
     public void cleanup() {
@@ -718,6 +699,10 @@ public class ChatPrivateControl implements Initializable, MessageBroadcaster.Pri
             broadcaster.unregisterPrivateListener(listenerKey, this);
         }
 
+        outbox.unregisterFailureListener(this);
+        MemoryBudgetService.getInstance().unregister(messageCache);
+        messageCache.clear();
+
         System.out.println("[ChatPrivateControl] 清理完成，会话记录已保存");
     }
 
@@ -2,6 +2,7 @@ package com.chat.control;
 
 import com.chat.network.SocketClient;
 import com.chat.protocol.LoginResponse;
+import com.chat.service.BootstrapService;
 import com.chat.service.RegistrationService;
 import com.chat.ui.CustomButton;
 import com.chat.ui.DialogUtil;
@@ -32,6 +33,8 @@ public class LoginControl {
 
     private SocketClient socketClient;
     private RegistrationService registrationService;
+    // 点击登录的时间，用于统计登录到主界面可用的耗时
+    private long loginStartedAt;
 
     @FXML
     public void initialize() {
@@ -88,6 +91,7 @@ public class LoginControl {
 
         Long uid = Long.parseLong(uidText);
         loginButton.setDisable(true);
+        loginStartedAt = System.currentTimeMillis();
 
         // 使用新的方法返回连接
         Task<RegistrationService.LoginResult> task = new Task<RegistrationService.LoginResult>() {
@@ -172,7 +176,7 @@ public class LoginControl {
             System.out.println("[LoginControl] Socket连接状态: " +
                     (socketClient != null ? socketClient.isConnected() : "null"));
 
-            showMainWindow(username, actualUid);
+            showMainWindow(username, actualUid, loginResult.getBootstrap());
             closeLoginWindow();
         } catch (IOException e) {
             e.printStackTrace();
@@ -183,7 +187,7 @@ public class LoginControl {
         }
     }
 
-    private void showMainWindow(String username, String uid) throws IOException {
+    private void showMainWindow(String username, String uid, BootstrapService bootstrap) throws IOException {
         try {
             var fxmlUrl = getClass().getResource("/com/chat/fxml/main.fxml");
             if (fxmlUrl == null) {
@@ -198,6 +202,9 @@ public class LoginControl {
             controller.setUsername(username);
             controller.setUserId(uid);
 
+            // 登录时已开始加载的初始数据，主界面直接使用
+            controller.setBootstrap(bootstrap, loginStartedAt);
+
             // 关键：传递已经成功连接的 socketClient
             controller.setSocketClient(socketClient);
 
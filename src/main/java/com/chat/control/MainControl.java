@@ -6,6 +6,8 @@ import com.chat.model.FriendItem;
 import com.chat.model.GroupItem;
 import com.chat.service.*;
 import  com.chat.protocol.*;
+import com.chat.store.LocalMessageStore;
+import com.chat.store.StateSnapshot;
 import com.chat.ui.DialogHelper;
 import com.chat.ui.AvatarHelper;
 import com.chat.ui.CellFactoryHelper;
@@ -30,6 +32,7 @@ public class MainControl implements Initializable {
     @FXML private ImageView avatarImage;
     @FXML private Label usernameLabel;
     @FXML private Button notificationButton;
+    @FXML private Tab messagesTab;
     @FXML private ListView<ChatItem> messagesListView;
     @FXML private ListView<FriendItem> contactsListView;
     @FXML private ListView<GroupItem> groupsListView;
@@ -41,6 +44,13 @@ public class MainControl implements Initializable {
     private SocketClient socketClient;
     private Timer messageTimer;
     private boolean dataLoaded = false;
+    // 登录时开始的启动数据加载（尚未使用时不为null）和正在使用的加载
+    private BootstrapService bootstrap;
+    private BootstrapService loadingBootstrap;
+    private int initialListsLoaded = 0;
+    private boolean initialListsFailed = false;
+    // 点击登录的时间，主界面可用后统计耗时
+    private long loginStartedAt = 0;
     private int notificationCount = 0;
 
     // Service层引用
@@ -49,8 +59,12 @@ public class MainControl implements Initializable {
     private final NotificationManagementService notificationService = new NotificationManagementService();
     private final WindowManagementService windowService = new WindowManagementService();
     private final ChatService chatService = new ChatService();
+    private final SyncService syncService = new SyncService();
     private UserProfileService userProfileService;
 
+    // 未读总数监听器：更新消息标签页上的未读角标
+    private final RecentMessageService.UnreadTotalListener unreadTotalListener = this::updateUnreadBadge;
+
     // 窗口键常量
     private static final String USER_PROFILE_WINDOW_KEY = "user_profile";
     private static final String ADD_FRIEND_WINDOW_KEY = "add_friend";
@@ -58,11 +72,15 @@ public class MainControl implements Initializable {
     private static final String SETTINGS_WINDOW_KEY = "settings";
     private static final String NOTIFICATION_WINDOW_KEY = "notifications";
 
+    // 退出时等待已读位置上报的最长时间
+    private static final long FINAL_FLUSH_WAIT_MS = 1000;
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         setupUI();
         setupDataBinding();
         setupEventHandlers();
+        RecentMessageService.getInstance().registerUnreadTotalListener(unreadTotalListener);
 
         Platform.runLater(() -> {
             // 设置当前用户ID到MessageBroadcaster
@@ -71,6 +89,12 @@ public class MainControl implements Initializable {
                     Long userIdLong = Long.parseLong(userId);
                     MessageBroadcaster.getInstance().setCurrentUserId(userIdLong);
                     System.out.println("[MainControl] 已设置当前用户ID到MessageBroadcaster: " + userIdLong);
+
+                    // 打开当前用户的本地消息存储
+                    LocalMessageStore.getInstance().open(userIdLong);
+
+                    // 恢复上次未发出的消息
+                    Outbox.getInstance().open(userIdLong);
                 } catch (NumberFormatException e) {
                     System.err.println("用户ID格式错误: " + e.getMessage());
                 }
@@ -82,21 +106,15 @@ public class MainControl implements Initializable {
             // 设置窗口关闭事件处理器
             setupWindowCloseHandler();
 
-            // 延迟一会儿再尝试从服务器加载
-            new Timer().schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    Platform.runLater(() -> {
-                        startMessageListener();
-                        tryLoadInitialDataIfReady();
-
-                        // 尝试加载头像
-                        if (userId != null && !userId.isEmpty()) {
-                            loadUserAvatarWithRetry();
-                        }
-                    });
-                }
-            }, 500); // 延迟500ms
+            startMessageListener();
+
+            // 使用登录时已开始的启动数据加载（头像随个人资料一起返回）
+            tryLoadInitialDataIfReady();
+
+            // 发出上次退出前未发送的消息
+            if (isConnected()) {
+                new Thread(() -> Outbox.getInstance().flush(socketClient), "outbox-flush").start();
+            }
         });
     }
 
@@ -259,8 +277,9 @@ public class MainControl implements Initializable {
             public void run() {
                 if (isConnected()) {
                     try {
-                        String message = socketClient.receiveMessage();
-                        if (message != null && !message.trim().isEmpty()) {
+                        // 读线程已把推送消息放入队列，每次取出全部
+                        String message;
+                        while ((message = socketClient.receiveMessage()) != null) {
                             // 使用ChatService处理并广播消息
                             chatService.processMessage(message);
                         }
@@ -288,6 +307,15 @@ public class MainControl implements Initializable {
         });
     }
 
+    /**
+     * 未读总数变化时更新消息标签页角标（由 RecentMessageService 节流后在FX线程回调）
+     */
+    private void updateUnreadBadge(int totalUnread) {
+        if (messagesTab != null) {
+            messagesTab.setText(totalUnread > 0 ? "消息 (" + (totalUnread > 99 ? "99+" : totalUnread) + ")" : "消息");
+        }
+    }
+
     private void addNotification() {
         notificationCount++;
         updateNotificationButton();
@@ -375,19 +403,99 @@ public class MainControl implements Initializable {
         }
     }
 
+    /**
+     * 加载主界面的初始数据：好友列表、群组列表、个人资料（头像）和待处理的好友请求数
+     * 优先使用登录时已开始的加载，各部分到达后立即显示
+     */
     public void loadInitialData() {
-        if (dataLoaded || !isConnected()) return;
+        if (dataLoaded || loadingBootstrap != null || !isConnected()) return;
 
-        new Thread(() -> {
-            MainDataService.RefreshResult result = mainDataService.refreshAll(socketClient);
-            if (result.isSuccess()) {
-                Platform.runLater(() -> {
-                    mainDataService.updateFriendList(stateService.getFriendItems(), result.getFriends());
-                    mainDataService.updateGroupList(stateService.getGroupItems(), result.getGroups());
-                    dataLoaded = true;
-                });
+        BootstrapService current = bootstrap;
+        bootstrap = null;
+        if (current == null) {
+            // 没有登录时的加载（例如首次加载失败后连接恢复），现在开始
+            current = BootstrapService.start(socketClient, Long.parseLong(userId));
+        }
+        loadingBootstrap = current;
+        initialListsLoaded = 0;
+        initialListsFailed = false;
+
+        BootstrapService source = current;
+        current.onFriends(friends -> {
+            if (source != loadingBootstrap) return;
+            mainDataService.updateFriendList(stateService.getFriendItems(), friends);
+            onInitialListLoaded(friends != null);
+        });
+        current.onGroups(groups -> {
+            if (source != loadingBootstrap) return;
+            mainDataService.updateGroupList(stateService.getGroupItems(), groups);
+            onInitialListLoaded(groups != null);
+        });
+        current.onUserInfo(this::applyUserInfo);
+        current.onPendingFriendRequests(count -> {
+            if (count != null && count > notificationCount) {
+                notificationCount = count;
+                updateNotificationButton();
             }
-        }).start();
+        });
+    }
+
+    /**
+     * 好友列表或群组列表已显示；两者都显示后主界面可用，开始增量同步
+     */
+    private void onInitialListLoaded(boolean success) {
+        if (!success) {
+            initialListsFailed = true;
+        }
+        if (++initialListsLoaded < 2) {
+            return;
+        }
+        loadingBootstrap = null;
+        if (initialListsFailed) {
+            // 保持未加载状态，连接恢复后重新加载
+            System.err.println("[MainControl] 初始数据加载失败，等待连接恢复后重试");
+            return;
+        }
+        dataLoaded = true;
+
+        // 下一帧列表已渲染，统计登录到主界面可用的耗时
+        if (loginStartedAt > 0) {
+            long startedAt = loginStartedAt;
+            loginStartedAt = 0;
+            Platform.runLater(() -> System.out.println("[MainControl] 登录到主界面可用耗时: " +
+                    (System.currentTimeMillis() - startedAt) + "ms"));
+        }
+
+        // 列表加载完成后，增量拉取离线期间各会话的新消息
+        syncService.syncAsync(socketClient, MessageBroadcaster.getInstance().getCurrentUserId());
+    }
+
+    /**
+     * 读取上次保存的主界面状态快照，立即显示好友列表、群组列表、消息栏和未读数
+     * 直接设置列表，不经过 MainDataService，恢复的内容不会再次保存
+     */
+    private void restoreSnapshot(Long userIdLong) {
+        long startedAt = System.nanoTime();
+        StateSnapshot snapshot = StateSnapshotService.getInstance().open(userIdLong);
+        if (snapshot == null) {
+            return;
+        }
+        stateService.getFriendItems().setAll(snapshot.getFriends());
+        stateService.getGroupItems().setAll(snapshot.getGroups());
+        RecentMessageService.getInstance().restore(snapshot.getChats(), snapshot.getUnreadCounts());
+        stateService.initializeRecentMessages();
+        System.out.println("[MainControl] 已从快照恢复主界面: " + (System.nanoTime() - startedAt) / 1_000_000 + "ms");
+    }
+
+    /**
+     * 启动数据中的个人资料：显示头像；没有得到资料时按原来的方式重试加载
+     */
+    private void applyUserInfo(UserInfoResponse userInfo) {
+        if (userInfo == null || !userInfo.isSuccess()) {
+            loadUserAvatarWithRetry();
+        } else if (userInfo.getAvatarUrl() != null && !userInfo.getAvatarUrl().trim().isEmpty()) {
+            AvatarHelper.loadAvatar(avatarImage, userInfo.getAvatarUrl(), false, 40);
+        }
     }
 
     // ========== 头像加载方法 ==========
@@ -556,17 +664,7 @@ public class MainControl implements Initializable {
 
                     settingControl.setLogoutCallback(() -> {
                         System.out.println("设置界面触发退出，关闭所有窗口...");
-                        cleanup();
-
-                        Platform.runLater(() -> {
-                            javafx.stage.Stage mainStage = (javafx.stage.Stage) mainContainer.getScene().getWindow();
-                            if (mainStage != null && mainStage.isShowing()) {
-                                mainStage.close();
-                            }
-
-                            windowService.closeAllWindows();
-                            showLoginScreen();
-                        });
+                        returnToLogin();
                     });
 
                     settingControl.setPasswordResetCallback((success) -> {
@@ -578,6 +676,45 @@ public class MainControl implements Initializable {
                 "设置 - " + username, 500, 450, SETTINGS_WINDOW_KEY);
     }
 
+    private void returnToLogin() {
+        cleanup();
+
+        Platform.runLater(() -> {
+            javafx.stage.Stage mainStage = (javafx.stage.Stage) mainContainer.getScene().getWindow();
+            if (mainStage != null && mainStage.isShowing()) {
+                mainStage.close();
+            }
+
+            windowService.closeAllWindows();
+            showLoginScreen();
+        });
+    }
+
+    // ========== 断线重连 ==========
+
+    /**
+     * 连接恢复（包括重连后会话恢复完成）：发出排队的消息，增量拉取断线期间的新消息
+     */
+    private void onConnectionRestored() {
+        Outbox.getInstance().flush(socketClient);
+        if (dataLoaded) {
+            syncService.syncAsync(socketClient, MessageBroadcaster.getInstance().getCurrentUserId());
+        } else {
+            Platform.runLater(this::tryLoadInitialDataIfReady);
+        }
+    }
+
+    /**
+     * 会话无法恢复（令牌和凭据都被拒绝）：提示后回到登录界面
+     */
+    private void onSessionLost(String reason) {
+        System.err.println("[MainControl] " + reason);
+        if (mainContainer.getScene() != null && mainContainer.getScene().getWindow() != null) {
+            DialogHelper.showError(mainContainer.getScene().getWindow(), reason);
+        }
+        returnToLogin();
+    }
+
     private void showLoginScreen() {
         try {
             System.out.println("显示登录界面...");
@@ -602,7 +739,29 @@ public class MainControl implements Initializable {
 
         stopMessageListener();
 
+        // 断开前在后台线程上报尚未发送的已读位置，最多等待 FINAL_FLUSH_WAIT_MS，不阻塞界面线程等待请求超时
+        Thread readAckFlush = new Thread(() -> ReadStateTracker.getInstance().flushNow(), "read-ack-final-flush");
+        readAckFlush.setDaemon(true);
+        readAckFlush.start();
+        try {
+            readAckFlush.join(FINAL_FLUSH_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (readAckFlush.isAlive()) {
+            System.err.println("[MainControl] 已读位置上报未在 " + FINAL_FLUSH_WAIT_MS + "ms 内完成，不再等待");
+        }
+        ReadStateTracker.getInstance().reset();
+
+        // 关闭发件箱（未发出的消息保留在磁盘上，下次登录后发送）
+        Outbox.getInstance().close();
+
+        // 写入尚未保存的主界面状态快照（必须在清空消息栏之前）
+        StateSnapshotService.getInstance().flushNow();
+        StateSnapshotService.getInstance().close();
+
         if (socketClient != null) {
+            socketClient.setConnectionListener(null);
             socketClient.disconnect();
         }
 
@@ -611,21 +770,54 @@ public class MainControl implements Initializable {
         // 清理聊天会话管理器（退出登录时清空所有记录）
         ChatSessionManager.getInstance().clearAllSessions();
 
+        // 清理入站消息重排状态
+        chatService.clearReorderState();
+
+        // 清空查询响应缓存（好友详情、群详情、用户信息）
+        ResponseCache.getInstance().clear();
+        UserDirectoryService.getInstance().clear();
+
+        // 关闭本地消息存储（已保存的消息保留在磁盘上）
+        LocalMessageStore.getInstance().close();
+
+        // 清空历史消息分页缓存
+        HistoryPageCache.getInstance().clear();
+
         // 清理状态服务
         stateService.cleanup();
 
         // 清理消息广播器
         MessageBroadcaster.getInstance().cleanup();
 
+        // 取消未读总数监听
+        RecentMessageService.getInstance().unregisterUnreadTotalListener(unreadTotalListener);
+
         // 重置数据加载标志
         dataLoaded = false;
+        bootstrap = null;
+        loadingBootstrap = null;
 
         System.out.println("[MainControl] 清理完成，所有聊天记录已清空");
     }
 
     // ========== Setter 方法 ==========
+
+    /**
+     * 登录时已开始的启动数据加载，以及点击登录的时间（用于统计登录耗时）
+     */
+    public void setBootstrap(BootstrapService bootstrap, long loginStartedAt) {
+        this.bootstrap = bootstrap;
+        this.loginStartedAt = loginStartedAt;
+    }
     public void setSocketClient(SocketClient socketClient) {
         this.socketClient = socketClient;
+        chatService.setSocketClient(socketClient);
+        UserDirectoryService.getInstance().setSocketClient(socketClient);
+        if (socketClient != null) {
+            socketClient.setConnectionListener(this::onConnectionRestored);
+            // 断线后自动重连并恢复会话，无法恢复时回到登录界面
+            socketClient.enableAutoReconnect(reason -> Platform.runLater(() -> onSessionLost(reason)));
+        }
         if (userId != null && isConnected()) {
             AvatarHelper.setDefaultAvatar(avatarImage, false, 40);
         }
@@ -649,6 +841,10 @@ public class MainControl implements Initializable {
                 Long userIdLong = Long.parseLong(userId);
                 MessageBroadcaster.getInstance().setCurrentUserId(userIdLong);
                 System.out.println("[MainControl] 已设置当前用户ID: " + userIdLong);
+                LocalMessageStore.getInstance().open(userIdLong);
+
+                // 先显示上次保存的列表和消息栏，服务器数据到达后再替换
+                restoreSnapshot(userIdLong);
             } catch (NumberFormatException e) {
                 System.err.println("用户ID格式错误: " + e.getMessage());
             }
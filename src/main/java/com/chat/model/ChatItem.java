@@ -11,9 +11,15 @@ public class ChatItem {
     private final String avatarUrl;   // 头像 URL
     private final boolean unread;     // 是否有未读
     private final boolean group;      // 是否群聊
+    private final long lastActivity;  // 最近活动时间戳（毫秒），用于消息栏排序
 
     public ChatItem(String id, String name, String lastMessage, String time,
                     String avatarUrl, boolean unread, boolean group) {
+        this(id, name, lastMessage, time, avatarUrl, unread, group, System.currentTimeMillis());
+    }
+
+    public ChatItem(String id, String name, String lastMessage, String time,
+                    String avatarUrl, boolean unread, boolean group, long lastActivity) {
         this.id = id;
         this.name = name;
         this.lastMessage = lastMessage;
@@ -21,6 +27,7 @@ public class ChatItem {
         this.avatarUrl = avatarUrl;
         this.unread = unread;
         this.group = group;
+        this.lastActivity = lastActivity;
     }
 
     public String getId() { return id; }
@@ -30,5 +37,6 @@ public class ChatItem {
     public String getAvatarUrl() { return avatarUrl; }
     public boolean isUnread() { return unread; }
     public boolean isGroup() { return group; }
+    public long getLastActivity() { return lastActivity; }
 }
 
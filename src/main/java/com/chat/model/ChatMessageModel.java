@@ -57,6 +57,7 @@ public class ChatMessageModel {
     public String getMessageId() { return messageId; }
     public Long getSenderId() { return senderId; }
     public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
     public String getContent() { return content; }
     public String getFileName() { return fileName; }
     public Long getFileSize() { return fileSize; }
@@ -113,6 +114,18 @@ public class ChatMessageModel {
         }
     }
 
+    /**
+     * 估算本消息占用的堆内存字节数（对象头和字段约96字节，字符串按每字符2字节计）
+     */
+    public long estimateBytes() {
+        return 96 + stringBytes(messageId) + stringBytes(senderName) + stringBytes(content)
+                + stringBytes(fileName) + stringBytes(fileType) + stringBytes(fileId);
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
     @Override
     public String toString() {
         if (type == MessageType.TEXT) {
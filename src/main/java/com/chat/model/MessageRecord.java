@@ -0,0 +1,78 @@
+package com.chat.model;
+
+import com.chat.protocol.ContentType;
+
+/**
+ * 会话消息记录 - 会话管理器中保存的结构化消息（保留服务器消息ID和真实时间戳）
+ */
+public class MessageRecord {
+    private final Long id;          // 服务器消息ID，本地尚未确认的消息为null
+    private final Long senderId;
+    private final long timestamp;
+    private final String contentType;
+    private final String content;   // 文本内容
+    private final String fileId;    // 文件消息：文件ID
+    private final String fileName;
+    private final long fileSize;
+    private final String fileType;
+    private final String fileUrl;   // 文件消息：下载地址
+
+    private MessageRecord(Long id, Long senderId, long timestamp, String contentType, String content,
+                          String fileId, String fileName, long fileSize, String fileType, String fileUrl) {
+        this.id = id;
+        this.senderId = senderId;
+        this.timestamp = timestamp;
+        this.contentType = contentType;
+        this.content = content;
+        this.fileId = fileId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.fileType = fileType;
+        this.fileUrl = fileUrl;
+    }
+
+    /**
+     * 创建文本消息记录
+     */
+    public static MessageRecord text(Long id, Long senderId, String content, long timestamp) {
+        return new MessageRecord(id, senderId, timestamp, ContentType.TEXT, content,
+                null, null, 0, null, null);
+    }
+
+    /**
+     * 创建文件消息记录
+     */
+    public static MessageRecord file(Long id, Long senderId, String fileId, String fileName,
+                                     long fileSize, String fileType, String fileUrl, long timestamp) {
+        return new MessageRecord(id, senderId, timestamp, ContentType.FILE, null,
+                fileId, fileName, fileSize, fileType, fileUrl);
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public Long getSenderId() { return senderId; }
+    public long getTimestamp() { return timestamp; }
+    public String getContentType() { return contentType; }
+    public String getContent() { return content; }
+    public String getFileId() { return fileId; }
+    public String getFileName() { return fileName; }
+    public long getFileSize() { return fileSize; }
+    public String getFileType() { return fileType; }
+    public String getFileUrl() { return fileUrl; }
+
+    public boolean isFile() {
+        return ContentType.FILE.equals(contentType);
+    }
+
+    /**
+     * 估算本记录占用的堆内存字节数（对象头和字段约80字节，字符串按每字符2字节计）
+     */
+    public long estimateBytes() {
+        return 80 + stringBytes(content) + stringBytes(fileId) + stringBytes(fileName) + stringBytes(fileType)
+                + stringBytes(fileUrl);
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+}
@@ -0,0 +1,127 @@
+package com.chat.network;
+
+/**
+ * 请求熔断器：服务器不可用时让请求快速失败，不再每个请求都等满超时
+ * 1. 关闭（CLOSED）：正常放行，连续失败达到 FAILURE_THRESHOLD 次后打开
+ * 2. 打开（OPEN）：直接拒绝请求，等待一段时间后进入半开
+ * 3. 半开（HALF_OPEN）：只放行一个探测请求，成功则关闭，失败则重新打开并把等待时间加倍（最长 MAX_OPEN_MS）
+ * 只统计真正耗费时间的失败（连接失败、写入失败、超时），服务器返回了响应（即使业务上失败）都算成功
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long INITIAL_OPEN_MS = 5000;
+    private static final long MAX_OPEN_MS = 60000;
+
+    private final String name;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openMs = INITIAL_OPEN_MS;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+
+    // 统计
+    private long rejected = 0;
+    private long trips = 0;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 请求前调用：返回false表示熔断中，调用方应直接失败
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            System.out.println("[CircuitBreaker] " + name + " 进入半开状态，放行一个探测请求");
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                rejected++;
+                return false;
+        }
+    }
+
+    /**
+     * 已放行的请求在真正发送前再检查一次：排队期间熔断器已打开时返回true，调用方应直接失败
+     */
+    public synchronized boolean rejectIfOpen() {
+        if (state == State.OPEN) {
+            rejected++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 请求得到了服务器响应
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println("[CircuitBreaker] " + name + " 服务器已恢复，关闭熔断");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = INITIAL_OPEN_MS;
+        probeInFlight = false;
+    }
+
+    /**
+     * 放行的请求结束但不能说明服务器是否可用（如探测协议扩展的请求无响应）：
+     * 不计成功也不计失败，半开状态下交还探测名额，让下一个请求探测
+     */
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * 请求连接失败或超时
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(MAX_OPEN_MS, openMs * 2);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probeInFlight = false;
+        trips++;
+        System.err.println("[CircuitBreaker] " + name + " 连续失败 " + consecutiveFailures + " 次，熔断 " + openMs + "ms");
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public synchronized String getStatistics() {
+        String remaining = state == State.OPEN
+                ? ", 剩余 " + Math.max(0, openMs - (System.currentTimeMillis() - openedAt)) + "ms"
+                : "";
+        return String.format("熔断器[%s]: %s%s, 连续失败 %d 次, 累计熔断 %d 次, 快速失败 %d 个请求",
+                name, state, remaining, consecutiveFailures, trips, rejected);
+    }
+}
@@ -0,0 +1,214 @@
+package com.chat.network;
+
+import com.chat.protocol.ExtendedMessageType;
+import com.chat.protocol.LoginRequest;
+import com.chat.protocol.LoginResponse;
+import com.chat.protocol.MessageType;
+import com.chat.protocol.SessionResumeRequest;
+import com.chat.protocol.SessionResumeResponse;
+import com.google.gson.Gson;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 连接守护 - 登录后监视连接，断开时自动重连并恢复会话
+ * 重连间隔按指数退避增长并加随机抖动（在 [0, 当前上限] 内均匀取值），
+ * 服务器重启时大量客户端不会在同一时刻一起重连；连上后先用登录令牌恢复会话，
+ * 服务器不支持或令牌失效时再用登录时的凭据重新登录，凭据被拒绝时停止重连并通知上层
+ */
+public class ConnectionSupervisor {
+
+    /**
+     * 会话无法恢复时的回调（在守护线程中调用）
+     */
+    public interface SessionLostListener {
+        void onSessionLost(String reason);
+    }
+
+    // 退避：首次重连上限、最大上限、最小间隔
+    private static final long BASE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 15000;
+    private static final long MIN_DELAY_MS = 100;
+    // 检查连接状态的间隔
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private enum HandshakeResult { OK, RETRY, REJECTED }
+
+    private final SocketClient client;
+    private final Long uid;
+    private final String credential;
+    private final SessionLostListener sessionLostListener;
+    private final Gson gson = new Gson();
+
+    private volatile String token;
+    // 服务器是否支持令牌恢复（收到其他类型的响应后置为false，改用凭据重新登录；响应超时不算）
+    private volatile boolean resumeSupported = true;
+
+    private Timer timer;
+    private TimerTask pendingAttempt;
+    private int attempt = 0;
+    private boolean stopped = false;
+
+    ConnectionSupervisor(SocketClient client, Long uid, String token, String credential,
+                         SessionLostListener sessionLostListener) {
+        this.client = client;
+        this.uid = uid;
+        this.token = token;
+        this.credential = credential;
+        this.sessionLostListener = sessionLostListener;
+    }
+
+    synchronized void start() {
+        timer = new Timer("connection-supervisor", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (!client.isConnected()) {
+                    connectionLost();
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS);
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        pendingAttempt = null;
+    }
+
+    /**
+     * 发现连接断开：安排一次重连（已有待执行的重连时不重复安排）
+     */
+    synchronized void connectionLost() {
+        if (stopped || pendingAttempt != null) {
+            return;
+        }
+        long delay = nextDelay(attempt++);
+        System.out.println("[ConnectionSupervisor] 连接断开，" + delay + "ms 后第 " + attempt + " 次重连");
+        pendingAttempt = new TimerTask() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        };
+        timer.schedule(pendingAttempt, delay);
+    }
+
+    /**
+     * 第 n 次重连前的等待时间：上限按 2^n 增长到 MAX_DELAY_MS，实际值在上限内随机
+     */
+    static long nextDelay(int n) {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(n, 16));
+        return MIN_DELAY_MS + ThreadLocalRandom.current().nextLong(ceiling);
+    }
+
+    // ========== 重连 ==========
+
+    private void reconnect() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+        }
+
+        HandshakeResult result = HandshakeResult.RETRY;
+        if (client.openTransport()) {
+            result = handshake();
+        }
+
+        synchronized (this) {
+            pendingAttempt = null;
+            if (stopped) {
+                return;
+            }
+            if (result == HandshakeResult.OK) {
+                System.out.println("[ConnectionSupervisor] 重连成功，已恢复会话（第 " + attempt + " 次尝试）");
+                attempt = 0;
+            }
+        }
+
+        switch (result) {
+            case OK -> client.sessionRestored();
+            case RETRY -> {
+                client.closeTransport();
+                connectionLost();
+            }
+            case REJECTED -> {
+                stop();
+                client.closeTransport();
+                System.err.println("[ConnectionSupervisor] 会话无法恢复，停止重连");
+                if (sessionLostListener != null) {
+                    sessionLostListener.onSessionLost("登录已失效，请重新登录");
+                }
+            }
+        }
+    }
+
+    /**
+     * 在新连接上恢复会话：优先使用令牌，不支持或令牌失效时用凭据重新登录
+     */
+    private HandshakeResult handshake() {
+        if (token != null && resumeSupported) {
+            String responseJson = client.exchange(new SessionResumeRequest(uid, token), client.requestTimeoutMs());
+            if (responseJson == null) {
+                if (!client.isTransportOpen()) {
+                    return HandshakeResult.RETRY;
+                }
+                // 连接仍在但响应超时：只有这一次改用重新登录，之后的重连仍先尝试令牌恢复
+                System.out.println("[ConnectionSupervisor] 会话恢复响应超时，本次改用重新登录");
+                return login();
+            }
+            SessionResumeResponse response = null;
+            try {
+                response = gson.fromJson(responseJson, SessionResumeResponse.class);
+            } catch (Exception e) {
+                System.err.println("[ConnectionSupervisor] 解析会话恢复响应失败: " + e.getMessage());
+            }
+            if (response == null || !ExtendedMessageType.SESSION_RESUME_RESPONSE.equals(response.getType())) {
+                System.out.println("[ConnectionSupervisor] 服务器不支持会话恢复，改用重新登录");
+                resumeSupported = false;
+            } else if (response.isSuccess()) {
+                if (response.getToken() != null) {
+                    token = response.getToken();
+                }
+                return HandshakeResult.OK;
+            } else {
+                System.out.println("[ConnectionSupervisor] 会话令牌已失效: " + response.getMessage());
+                token = null;
+            }
+        }
+        return login();
+    }
+
+    private HandshakeResult login() {
+        if (credential == null) {
+            return HandshakeResult.REJECTED;
+        }
+        String responseJson = client.exchange(new LoginRequest(uid, credential), client.requestTimeoutMs());
+        if (responseJson == null) {
+            return HandshakeResult.RETRY;
+        }
+        LoginResponse response = null;
+        try {
+            response = gson.fromJson(responseJson, LoginResponse.class);
+        } catch (Exception e) {
+            System.err.println("[ConnectionSupervisor] 解析登录响应失败: " + e.getMessage());
+        }
+        if (response == null || !MessageType.LOGIN_RESPONSE.equals(response.getType())) {
+            return HandshakeResult.RETRY;
+        }
+        if (!response.isSuccess()) {
+            System.err.println("[ConnectionSupervisor] 重新登录被拒绝: " + response.getMessage());
+            return HandshakeResult.REJECTED;
+        }
+        if (response.getToken() != null) {
+            token = response.getToken();
+        }
+        return HandshakeResult.OK;
+    }
+}
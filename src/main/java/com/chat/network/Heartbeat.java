@@ -0,0 +1,137 @@
+package com.chat.network;
+
+import com.chat.protocol.HeartbeatPing;
+import com.chat.protocol.HeartbeatPong;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * 应用层心跳：连接空闲超过 INTERVAL_MS 时发送 ping，服务器回复 pong
+ * 1. pong 带回发送时间，作为往返时间样本更新 RttEstimator
+ * 2. 收到任何数据都视为连接存活；ping 在一个 RTO 内没有回应记为丢失，连续丢失 MAX_MISSED 次判定连接已断开
+ * 服务器从未回复过 pong 时（不支持心跳）只按空闲间隔发送、不判定断线，连续 MAX_UNCONFIRMED_PINGS 次没有 pong 后
+ * 这条连接上不再发送，断线只靠读线程和请求发现
+ */
+final class Heartbeat {
+
+    // 空闲多久发送一次心跳
+    private static final long INTERVAL_MS = 5000;
+    private static final long TICK_MS = 500;
+    private static final int MAX_MISSED = 2;
+    // 服务器未确认支持心跳时，最多发送几次 ping
+    private static final int MAX_UNCONFIRMED_PINGS = 3;
+
+    private final SocketClient client;
+    private final RttEstimator rtt;
+    private Timer timer;
+
+    private volatile long lastReceivedAt = System.currentTimeMillis();
+    private long lastPingAt = 0;
+    private long outstandingSeq = -1;
+    private long outstandingSentAt = 0;
+    private long nextSeq = 1;
+    private int missed = 0;
+    // 当前连接上服务器确认支持心跳之前已发送的 ping 数
+    private int unconfirmedPings = 0;
+    // 是否收到过 pong（确认服务器支持心跳后才按丢失次数判定断线）
+    private volatile boolean confirmed = false;
+
+    Heartbeat(SocketClient client, RttEstimator rtt) {
+        this.client = client;
+        this.rtt = rtt;
+    }
+
+    synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = new Timer("socket-heartbeat", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, TICK_MS, TICK_MS);
+    }
+
+    synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * 新连接建立：清除上一条连接的心跳状态
+     */
+    synchronized void reset() {
+        lastReceivedAt = System.currentTimeMillis();
+        outstandingSeq = -1;
+        missed = 0;
+        unconfirmedPings = 0;
+    }
+
+    /**
+     * 收到任意一行数据（在读线程中调用）
+     */
+    void onReceived() {
+        lastReceivedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 收到 pong：记录往返时间
+     */
+    synchronized void onPong(HeartbeatPong pong) {
+        confirmed = true;
+        if (pong.getSeq() == outstandingSeq) {
+            rtt.sample(System.currentTimeMillis() - outstandingSentAt);
+            outstandingSeq = -1;
+            missed = 0;
+        }
+    }
+
+    private void tick() {
+        if (!client.isTransportOpen()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        HeartbeatPing ping = null;
+        boolean dead = false;
+        synchronized (this) {
+            if (outstandingSeq >= 0) {
+                if (lastReceivedAt > outstandingSentAt) {
+                    // 等待期间收到了其他数据，连接是通的
+                    missed = 0;
+                } else if (now - outstandingSentAt <= rtt.rto()) {
+                    return;
+                } else {
+                    missed++;
+                }
+                outstandingSeq = -1;
+                if (confirmed && missed >= MAX_MISSED) {
+                    dead = true;
+                }
+            }
+            boolean idle = now - lastReceivedAt >= INTERVAL_MS && now - lastPingAt >= INTERVAL_MS;
+            // 未确认支持心跳时丢失的 ping 不加快发送，否则不支持心跳的服务器每个RTO都会收到一次 ping
+            boolean due = confirmed ? missed > 0 || idle : idle && unconfirmedPings < MAX_UNCONFIRMED_PINGS;
+            if (!dead && due) {
+                if (!confirmed && ++unconfirmedPings == MAX_UNCONFIRMED_PINGS) {
+                    System.out.println("[Heartbeat] 服务器未回复心跳，发送最后一次 ping 后本连接不再发送");
+                }
+                outstandingSeq = nextSeq++;
+                outstandingSentAt = now;
+                lastPingAt = now;
+                ping = new HeartbeatPing(outstandingSeq, now);
+            }
+        }
+
+        if (dead) {
+            System.err.println("[Heartbeat] 连续 " + MAX_MISSED + " 次心跳无响应（RTO " + rtt.rto() + "ms），判定连接已断开");
+            client.connectionTimedOut();
+        } else if (ping != null) {
+            client.sendHeartbeat(ping);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.chat.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求合并（single flight）：同一个key的请求正在进行时，后来的调用不再发送，等待并共用第一个调用的结果
+ * 请求完成后立即移除，不缓存结果；key 由请求的规范化JSON（字段按名称排序）生成
+ */
+public final class RequestCoalescer {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 执行 call，相同 key 的调用正在进行时等待它的结果（call 抛出异常时所有等待者得到null）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> call) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        executed.incrementAndGet();
+        T result = null;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            System.err.println("[RequestCoalescer] 请求异常: " + e.getMessage());
+        } finally {
+            inFlight.remove(key, mine);
+            mine.complete(result);
+        }
+        return result;
+    }
+
+    /**
+     * 请求的规范化JSON：对象字段按名称排序，字段顺序不同的相同请求得到相同的key
+     */
+    public static String canonicalKey(Gson gson, Object request) {
+        return canonicalize(gson.toJsonTree(request)).toString();
+    }
+
+    private static JsonElement canonicalize(JsonElement element) {
+        if (element.isJsonObject()) {
+            TreeMap<String, JsonElement> sorted = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                sorted.put(entry.getKey(), canonicalize(entry.getValue()));
+            }
+            JsonObject result = new JsonObject();
+            sorted.forEach(result::add);
+            return result;
+        }
+        if (element.isJsonArray()) {
+            JsonArray result = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                result.add(canonicalize(item));
+            }
+            return result;
+        }
+        return element;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        return String.format("请求合并: 执行 %d 次, 合并 %d 次, 进行中 %d 个",
+                executed.get(), coalesced.get(), inFlight.size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.chat.network;
+
+/**
+ * 往返时间估计：按 TCP 计算重传超时的方法（RFC 6298）维护平滑往返时间和偏差，据此得出超时时间
+ * 请求失败后的退避由熔断器负责，超时本身不加倍；超时请求的迟到响应仍作为样本，慢速网络由此放宽超时
+ */
+final class RttEstimator {
+
+    private static final long INITIAL_RTO_MS = 3000;
+    private static final long MIN_RTO_MS = 1000;
+    private static final long MAX_RTO_MS = 60000;
+    // 时钟粒度，偏差项的下限
+    private static final long GRANULARITY_MS = 10;
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private double srtt = -1;
+    private double rttvar;
+    private long rto = INITIAL_RTO_MS;
+
+    /**
+     * 记录一次往返时间样本
+     */
+    synchronized void sample(long rttMs) {
+        if (rttMs < 0) {
+            return;
+        }
+        if (srtt < 0) {
+            srtt = rttMs;
+            rttvar = rttMs / 2.0;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rttMs);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rttMs;
+        }
+        rto = clamp((long) Math.ceil(srtt + Math.max(GRANULARITY_MS, 4 * rttvar)));
+    }
+
+    synchronized long rto() {
+        return rto;
+    }
+
+    /**
+     * 平滑往返时间，还没有样本时返回-1
+     */
+    synchronized long srtt() {
+        return srtt < 0 ? -1 : Math.round(srtt);
+    }
+
+    synchronized long rttvar() {
+        return Math.round(rttvar);
+    }
+
+    private static long clamp(long value) {
+        return Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, value));
+    }
+}
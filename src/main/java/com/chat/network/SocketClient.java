@@ -5,102 +5,337 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.chat.protocol.*;
 
 /**
  * 简单的基于 TCP 的客户端，用于向服务器发送请求并获取响应。
+ * 每条连接由一个读线程读取所有数据：心跳响应交给 Heartbeat，服务器推送放入推送队列（receiveMessage 取出），
+ * 类型与当前请求的响应类型相符的作为响应，不符的丢弃；请求逐个发送，超时时间由心跳和请求测得的往返时间计算
  */
 public class SocketClient {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 12345;
-    private static final int TIMEOUT_MS = 5000; // 5 seconds
-
-    private boolean connected = false;
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private static final int TIMEOUT_MS = 5000; // 建立连接的超时，也是请求超时的下限
+
+    // 所有连接共用一个熔断器（只有一个服务器），临时连接的请求失败同样计入
+    private static final CircuitBreaker BREAKER = new CircuitBreaker(SERVER_ADDRESS + ":" + SERVER_PORT);
+
+    // 服务器主动推送的消息类型，其余消息都是请求的响应
+    private static final Set<String> PUSH_TYPES = Set.of(
+            MessageType.CHAT_PRIVATE_RECEIVE,
+            MessageType.CHAT_GROUP_RECEIVE,
+            MessageType.FILE_PRIVATE_RECEIVE,
+            MessageType.FILE_GROUP_RECEIVE,
+            MessageType.FRIEND_REQUEST_RECEIVE,
+            ExtendedMessageType.READ_STATE_PUSH);
+
+    // 只读请求：相同的请求同时进行时合并为一次发送
+    private static final Set<String> READ_TYPES = Set.of(
+            MessageType.USER_INFO_REQUEST,
+            ExtendedMessageType.USER_INFO_BATCH_REQUEST,
+            MessageType.FRIEND_DETAIL_REQUEST,
+            MessageType.GROUP_DETAIL_REQUEST,
+            MessageType.FRIEND_LIST_REQUEST,
+            MessageType.GROUP_LIST_REQUEST,
+            MessageType.FRIEND_REQUEST_LIST_REQUEST,
+            MessageType.CHAT_HISTORY_REQUEST);
+
+    private volatile boolean connected = false;
+    // 重连后正在恢复会话：连接已建立但还不能正常收发消息
+    private volatile boolean handshaking = false;
+    private volatile Socket socket;
+    private volatile PrintWriter out;
     private Gson gson = new Gson();
 
+    // 读线程收到的推送消息
+    private final LinkedBlockingQueue<String> pushQueue = new LinkedBlockingQueue<>();
+    // 请求逐个发送，等待中的请求的响应
+    private final Object requestLock = new Object();
+    private volatile CompletableFuture<String> pendingResponse;
+    private volatile String pendingResponseType;
+    // 上一个超时请求的响应类型：迟到的响应不能当作下一个请求的响应
+    private volatile String lateResponseType;
+    private volatile long lateSentAt;
+
+    // 两组往返时间估计：心跳只反映网络延迟，用于判断断线；请求还包含服务器处理时间，用于请求超时
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+    private final RttEstimator networkRtt = new RttEstimator();
+    private final RttEstimator rtt = new RttEstimator();
+    private final Heartbeat heartbeat = new Heartbeat(this, networkRtt);
+    // 连接建立后的回调（在新线程中执行），用于连接恢复后发送排队的消息
+    private volatile Runnable connectionListener;
+
+    // 登录成功后保存的会话信息，断线重连时用于恢复会话
+    private Long sessionUid;
+    private String sessionToken;
+    private String sessionCredential;
+    private volatile ConnectionSupervisor supervisor;
+
     /**
      * 建立与服务器的连接
      * @return 连接是否成功
      */
     public boolean connect() {
         try {
-            if (connected) {
-                disconnect(); // 先断开现有连接
+            if (!openTransport()) {
+                return false;
             }
+            handshaking = false;
+            notifyConnected();
+            return true;
 
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            socket.setSoTimeout(TIMEOUT_MS);
+        } catch (Exception e) {
+            System.err.println("[SOCKET] Connection failed: " + e.getMessage());
+            closeTransport();
+            return false;
+        }
+    }
+
+    /**
+     * 建立新的TCP连接（先关闭旧连接），由连接守护重连时调用；
+     * 连接建立后处于恢复会话状态，isConnected() 在 sessionRestored() 之前返回false
+     */
+    boolean openTransport() {
+        closeTransport();
+        try {
+            Socket newSocket = new Socket();
+            newSocket.connect(new InetSocketAddress(SERVER_ADDRESS, SERVER_PORT), TIMEOUT_MS);
 
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new OutputStreamWriter(newSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(newSocket.getInputStream(), StandardCharsets.UTF_8));
+            socket = newSocket;
 
+            handshaking = true;
             connected = true;
-            return true;
+            pushQueue.clear();
+            heartbeat.reset();
 
+            Thread reader = new Thread(() -> readLoop(newSocket, in), "socket-reader");
+            reader.setDaemon(true);
+            reader.start();
+            return true;
         } catch (IOException e) {
             System.err.println("[SOCKET] Connection failed: " + e.getMessage());
-            connected = false;
+            closeTransport();
             return false;
         }
     }
 
+    // ==================== 读线程 ====================
+
     /**
-     * 发送请求到服务器并获取响应（自动管理连接）
-     * @param data 请求数据对象
-     * @return 服务器响应字符串，失败返回 null
+     * 读取一条连接上的所有数据直到断开，按类型分发
      */
-    public String sendRequest(Object data) {
+    private void readLoop(Socket owner, BufferedReader in) {
         try {
-            // 确保连接建立
-            if (!connected && !connect()) {
-                System.err.println("[SOCKET] 连接失败，无法发送请求");
-                return null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                heartbeat.onReceived();
+                if (!line.trim().isEmpty()) {
+                    route(line);
+                }
+            }
+            if (owner == socket) {
+                System.err.println("[SOCKET] Connection closed by server");
+            }
+        } catch (IOException e) {
+            if (owner == socket) {
+                System.err.println("[SOCKET] Receive failed: " + e.getMessage());
             }
+        }
+        // 旧连接的读线程退出时不影响新连接
+        if (owner == socket) {
+            markDisconnected();
+        }
+    }
 
-            // 发送请求
-            String json = gson.toJson(data);
-            System.out.println("[SOCKET] 发送请求: " + json);
+    private void route(String line) {
+        String type = null;
+        try {
+            JsonElement element = JsonParser.parseString(line);
+            if (element.isJsonObject() && element.getAsJsonObject().has("type")) {
+                type = element.getAsJsonObject().get("type").getAsString();
+            }
+        } catch (Exception e) {
+            // 不是JSON：只能作为不限类型的请求的响应
+        }
 
-            // 确保输出流可用
-            if (out == null) {
-                System.err.println("[SOCKET] 输出流为空");
-                return null;
+        if (ExtendedMessageType.HEARTBEAT_PONG.equals(type)) {
+            heartbeat.onPong(gson.fromJson(line, HeartbeatPong.class));
+            return;
+        }
+        if (type != null && type.equals(lateResponseType) && !type.equals(pendingResponseType)) {
+            lateResponseType = null;
+            // 迟到的响应仍是有效的往返时间样本，慢速网络由此放宽之后的超时
+            rtt.sample(System.currentTimeMillis() - lateSentAt);
+            System.out.println("[SOCKET] 丢弃超时请求的迟到响应: " + type + "，请求超时调整为 " + requestTimeoutMs() + "ms");
+            return;
+        }
+        if (type == null || !PUSH_TYPES.contains(type)) {
+            CompletableFuture<String> pending = pendingResponse;
+            if (pending != null) {
+                String expectedType = pendingResponseType;
+                if (expectedType == null || expectedType.equals(type)) {
+                    if (pending.complete(line)) {
+                        return;
+                    }
+                } else {
+                    // 类型不符的行（旧服务器对不认识的请求回复的错误、迟到的其他响应）不能当作当前请求的响应
+                    System.err.println("[SOCKET] 丢弃与当前请求不符的响应: 期望 " + expectedType + "，收到 " + line);
+                    return;
+                }
             }
+        }
+        System.out.println("[SOCKET] Received message: " + line);
+        pushQueue.offer(line);
+    }
 
-            out.println(json);
-            out.flush(); // 确保数据发送
+    /**
+     * 会话恢复完成，连接可以正常使用
+     */
+    void sessionRestored() {
+        handshaking = false;
+        BREAKER.recordSuccess();
+        notifyConnected();
+    }
+
+    private void notifyConnected() {
+        Runnable listener = connectionListener;
+        if (listener != null) {
+            Thread thread = new Thread(listener, "socket-connected");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
 
-            // 读取响应
-            if (in == null) {
-                System.err.println("[SOCKET] 输入流为空");
-                return null;
-            }
+    /**
+     * 连接在读写中断开：标记断开并通知连接守护安排重连
+     */
+    private void markDisconnected() {
+        connected = false;
+        CompletableFuture<String> pending = pendingResponse;
+        if (pending != null) {
+            pending.complete(null); // 正在等待的请求立即失败，不必等到超时
+        }
+        ConnectionSupervisor current = supervisor;
+        if (current != null) {
+            current.connectionLost();
+        }
+    }
 
-            String response = in.readLine();
-            System.out.println("[SOCKET] 收到响应: " + (response != null ? response : "null"));
-            return response;
+    /**
+     * 需要连接时的处理：登录后由连接守护负责重连（这里只提醒它，不在调用线程中连接），
+     * 登录前直接连接
+     */
+    private boolean ensureConnected() {
+        if (connected && !handshaking) {
+            return true;
+        }
+        ConnectionSupervisor current = supervisor;
+        if (current != null) {
+            current.connectionLost();
+            return false;
+        }
+        return connect();
+    }
 
-        } catch (SocketTimeoutException e) {
-            System.err.println("[SOCKET] 请求超时: " + e.getMessage());
-            return null;
-        } catch (IOException e) {
-            System.err.println("[SOCKET] 请求失败: " + e.getMessage());
-            connected = false; // 标记连接断开
+    // ==================== 会话恢复 ====================
+
+    /**
+     * 保存登录成功后的会话信息（令牌可以为空，此时重连后用凭据重新登录）
+     */
+    public synchronized void setSessionCredentials(Long uid, String token, String credential) {
+        this.sessionUid = uid;
+        this.sessionToken = token;
+        this.sessionCredential = credential;
+    }
+
+    /**
+     * 开启断线自动重连（需先保存会话信息），会话无法恢复时回调 listener
+     */
+    public synchronized void enableAutoReconnect(ConnectionSupervisor.SessionLostListener listener) {
+        if (supervisor != null || sessionUid == null) {
+            return;
+        }
+        supervisor = new ConnectionSupervisor(this, sessionUid, sessionToken, sessionCredential, listener);
+        supervisor.start();
+        // 登录后的主连接才发送心跳（注册、找回密码等临时连接不需要）
+        heartbeat.start();
+        System.out.println("[SOCKET] 已开启断线自动重连和心跳检测");
+    }
+
+    /**
+     * 设置连接建立后的回调，传入null取消
+     */
+    public void setConnectionListener(Runnable listener) {
+        this.connectionListener = listener;
+    }
+
+    /**
+     * 发送请求到服务器并获取响应（自动管理连接）
+     * 超时时间为 max(TIMEOUT_MS, 当前RTO)，慢速网络上随往返时间自动放宽
+     * @param data 请求数据对象
+     * @return 服务器响应字符串，失败返回 null
+     */
+    public String sendRequest(Object data) {
+        String key = coalescingKey(data);
+        if (key == null) {
+            return guardedExchange(data, requestTimeoutMs());
+        }
+        return coalescer.execute(key, () -> guardedExchange(data, requestTimeoutMs()));
+    }
+
+    /**
+     * 发送请求并解析响应；相同的只读请求同时进行时只发送和解析一次，
+     * 所有调用方拿到同一个响应对象（只读使用，不要修改）
+     * @return 解析后的响应，失败返回 null
+     */
+    public <T> T sendRequest(Object data, Class<T> responseType) {
+        String key = coalescingKey(data);
+        if (key == null) {
+            return parse(sendRequest(data), responseType);
+        }
+        return coalescer.execute(responseType.getName() + "|" + key, () -> parse(sendRequest(data), responseType));
+    }
+
+    private <T> T parse(String json, Class<T> responseType) {
+        if (json == null) {
             return null;
+        }
+        try {
+            return gson.fromJson(json, responseType);
         } catch (Exception e) {
-            System.err.println("[SOCKET] 请求异常: " + e.getMessage());
+            System.err.println("[SOCKET] 解析响应失败: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * 只读请求的合并key，其他请求返回null（不合并）
+     */
+    private String coalescingKey(Object data) {
+        JsonElement tree = gson.toJsonTree(data);
+        if (tree.isJsonObject() && tree.getAsJsonObject().has("type")
+                && READ_TYPES.contains(tree.getAsJsonObject().get("type").getAsString())) {
+            return RequestCoalescer.canonicalKey(gson, data);
+        }
+        return null;
+    }
+
     /**
      * 发送请求并接收响应（带超时的专用方法）
      * @param data 请求数据对象
@@ -111,52 +346,143 @@ public class SocketClient {
     }
 
     /**
-     * 发送请求并接收响应（带自定义超时）
+     * 发送请求并接收响应（带自定义超时，网络较慢时按RTO放宽）
      * @param data 请求数据对象
      * @param timeoutMs 超时时间（毫秒）
      * @return 服务器响应字符串，失败返回 null
      */
     public String sendAndReceive(Object data, long timeoutMs) {
-        try {
-            // 确保连接建立
-            if (!connected && !connect()) {
+        return guardedExchange(data, Math.max(timeoutMs, rtt.rto()));
+    }
+
+    /**
+     * 发送服务器可能不认识的请求（探测协议扩展），使用调用方给定的超时，不按RTO放宽
+     * 无响应只说明服务器不支持该请求，不记入熔断器的失败计数
+     * @param data 请求数据对象
+     * @param timeoutMs 超时时间（毫秒）
+     * @return 服务器响应字符串，失败返回 null
+     */
+    public String sendProbeRequest(Object data, long timeoutMs) {
+        if (!BREAKER.allowRequest()) {
+            System.err.println("[SOCKET] 服务器不可用（熔断中），请求快速失败");
+            return null;
+        }
+        if (!ensureConnected()) {
+            System.err.println("[SOCKET] 连接失败，无法发送请求");
+            BREAKER.recordFailure();
+            return null;
+        }
+        String response = exchange(data, timeoutMs, true);
+        if (response != null) {
+            BREAKER.recordSuccess();
+        } else {
+            // 不计失败，但半开状态下占用的探测名额必须交还，否则之后的请求都被拒绝
+            BREAKER.releaseProbe();
+        }
+        return response;
+    }
+
+    /**
+     * 经过熔断器的请求：熔断中直接返回null，否则连接并发送，按结果记录成功或失败
+     */
+    private String guardedExchange(Object data, long timeoutMs) {
+        if (!BREAKER.allowRequest()) {
+            System.err.println("[SOCKET] 服务器不可用（熔断中），请求快速失败");
+            return null;
+        }
+        if (!ensureConnected()) {
+            System.err.println("[SOCKET] 连接失败，无法发送请求");
+            BREAKER.recordFailure();
+            return null;
+        }
+        String response = exchange(data, timeoutMs, true);
+        if (response != null) {
+            BREAKER.recordSuccess();
+        } else if (BREAKER.getState() != CircuitBreaker.State.OPEN) {
+            BREAKER.recordFailure();
+        }
+        return response;
+    }
+
+    /**
+     * 当前的请求超时时间
+     */
+    public long requestTimeoutMs() {
+        return Math.max(TIMEOUT_MS, rtt.rto());
+    }
+
+    /**
+     * 发送一个请求并等待读线程交回响应；同一时间只有一个请求在等待响应。
+     * 连接守护恢复会话时直接调用（此时 isConnected() 仍为false）
+     */
+    String exchange(Object data, long timeoutMs) {
+        return exchange(data, timeoutMs, false);
+    }
+
+    private String exchange(Object data, long timeoutMs, boolean guarded) {
+        synchronized (requestLock) {
+            // 排队期间熔断器已打开：不再发送，避免排队的请求逐个等满超时
+            if (guarded && BREAKER.rejectIfOpen()) {
+                return null;
+            }
+            PrintWriter writer = out;
+            if (!connected || writer == null) {
+                System.err.println("[SOCKET] 输出流为空");
                 return null;
             }
 
-            // 发送请求
-            String json = gson.toJson(data);
-            System.out.println("[SOCKET] Sending request: " + json);
-            out.println(json);
-
-            // 等待响应
-            long startTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() - startTime < timeoutMs) {
-                try {
-                    // 检查是否有数据可读
-                    if (in.ready()) {
-                        String response = in.readLine();
-                        if (response != null) {
-                            System.out.println("[SOCKET] Received response: " + response);
-                            return response;
-                        }
-                    }
-
-                    // 短暂休眠避免CPU占用过高
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            JsonElement tree = gson.toJsonTree(data);
+            String expectedType = responseTypeFor(tree);
+            CompletableFuture<String> pending = new CompletableFuture<>();
+            long start = System.currentTimeMillis();
+            pendingResponseType = expectedType;
+            pendingResponse = pending;
+            try {
+                String json = gson.toJson(tree);
+                System.out.println("[SOCKET] 发送请求: " + json);
+                writer.println(json);
+                if (writer.checkError()) {
+                    System.err.println("[SOCKET] 请求失败: connection lost");
+                    markDisconnected();
                     return null;
                 }
-            }
 
-            System.out.println("[SOCKET] Request timeout after " + timeoutMs + "ms");
-            return null;
+                String response = pending.get(timeoutMs, TimeUnit.MILLISECONDS);
+                if (response != null) {
+                    rtt.sample(System.currentTimeMillis() - start);
+                }
+                System.out.println("[SOCKET] 收到响应: " + (response != null ? response : "null"));
+                return response;
 
-        } catch (IOException e) {
-            System.err.println("[SOCKET] Request failed: " + e.getMessage());
-            connected = false;
-            return null;
+            } catch (TimeoutException e) {
+                lateSentAt = start;
+                lateResponseType = expectedType;
+                System.err.println("[SOCKET] 请求超时: " + timeoutMs + "ms");
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                System.err.println("[SOCKET] 请求异常: " + e.getMessage());
+                return null;
+            } finally {
+                pendingResponse = null;
+                pendingResponseType = null;
+            }
+        }
+    }
+
+    /**
+     * 按协议命名约定由请求类型推出响应类型（xxx_request -> xxx_response），无法推出时返回null
+     */
+    private static String responseTypeFor(JsonElement request) {
+        if (request != null && request.isJsonObject() && request.getAsJsonObject().has("type")) {
+            String type = request.getAsJsonObject().get("type").getAsString();
+            if (type.endsWith("_request")) {
+                return type.substring(0, type.length() - "_request".length()) + "_response";
+            }
         }
+        return null;
     }
 
     // ==================== 用户相关请求 ====================
@@ -322,83 +648,170 @@ public class SocketClient {
             return false;
         }
         try {
+            PrintWriter writer = out;
             String json = gson.toJson(data);
             System.out.println("[SOCKET] Sending message: " + json);
-            out.println(json);
+            writer.println(json);
+            if (writer.checkError()) {
+                System.err.println("[SOCKET] Send failed: connection lost");
+                markDisconnected();
+                return false;
+            }
             return true;
         } catch (Exception e) {
             System.err.println("[SOCKET] Send failed: " + e.getMessage());
-            connected = false;
+            markDisconnected();
             return false;
         }
     }
 
     /**
-     * 从服务器读取一行消息（非阻塞尝试）
+     * 将多条消息合并为一次写入发送（每条一行，最后统一刷新）
      */
-    public String receiveMessage() {
+    public boolean sendMessages(List<?> frames) {
+        if (!connected || out == null) {
+            System.err.println("[SOCKET] Not connected, cannot send messages");
+            return false;
+        }
         try {
-            if (in != null && in.ready()) {
-                String message = in.readLine();
-                if (message != null) {
-                    System.out.println("[SOCKET] Received message: " + message);
-                }
-                return message;
+            StringBuilder batch = new StringBuilder();
+            for (Object frame : frames) {
+                batch.append(gson.toJson(frame)).append(System.lineSeparator());
             }
-        } catch (IOException e) {
-            System.err.println("[SOCKET] Receive failed: " + e.getMessage());
-            connected = false;
+            System.out.println("[SOCKET] Sending " + frames.size() + " messages in one write, " + batch.length() + " chars");
+            PrintWriter writer = out;
+            writer.print(batch);
+            writer.flush();
+            if (writer.checkError()) {
+                System.err.println("[SOCKET] Batch send failed: connection lost");
+                markDisconnected();
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println("[SOCKET] Batch send failed: " + e.getMessage());
+            markDisconnected();
+            return false;
         }
-        return null;
     }
 
     /**
-     * 阻塞等待接收消息（带超时）
+     * 取出一条服务器推送的消息（非阻塞，没有时返回null）
+     */
+    public String receiveMessage() {
+        return pushQueue.poll();
+    }
+
+    /**
+     * 阻塞等待接收推送消息（带超时）
      */
     public String receiveMessageBlocking() {
         try {
-            if (in != null) {
-                String message = in.readLine();
-                if (message != null) {
-                    System.out.println("[SOCKET] Received message (blocking): " + message);
-                }
-                return message;
+            String message = pushQueue.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (message == null) {
+                System.err.println("[SOCKET] Receive timeout");
             }
-        } catch (SocketTimeoutException e) {
-            System.err.println("[SOCKET] Receive timeout");
-        } catch (IOException e) {
-            System.err.println("[SOCKET] Receive failed: " + e.getMessage());
-            connected = false;
+            return message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // ==================== 心跳 ====================
+
+    /**
+     * 发送心跳（由 Heartbeat 调用），写入失败时按断线处理
+     */
+    void sendHeartbeat(HeartbeatPing ping) {
+        PrintWriter writer = out;
+        if (!connected || writer == null) {
+            return;
+        }
+        writer.println(gson.toJson(ping));
+        if (writer.checkError()) {
+            System.err.println("[SOCKET] Heartbeat failed: connection lost");
+            markDisconnected();
         }
-        return null;
     }
 
     /**
-     * 检查连接状态
+     * 心跳判定连接已断开（半开连接）：关闭连接并安排重连
+     */
+    void connectionTimedOut() {
+        closeTransport();
+        markDisconnected();
+    }
+
+    /**
+     * 心跳测得的平滑往返时间（毫秒），还没有样本时返回-1
+     */
+    public long getSmoothedRtt() {
+        return networkRtt.srtt();
+    }
+
+    /**
+     * 检查连接状态（重连后恢复会话期间视为未连接）
      */
     public boolean isConnected() {
-        return connected && socket != null && !socket.isClosed() && socket.isConnected();
+        return isTransportOpen() && !handshaking;
+    }
+
+    boolean isTransportOpen() {
+        Socket current = socket;
+        return connected && current != null && !current.isClosed() && current.isConnected();
     }
 
     /**
-     * 断开连接
+     * 断开连接（主动断开，同时停止自动重连）
      */
     public void disconnect() {
+        synchronized (this) {
+            if (supervisor != null) {
+                supervisor.stop();
+                supervisor = null;
+            }
+        }
+        heartbeat.stop();
+        closeTransport();
+        System.out.println("[SOCKET] Disconnected");
+    }
+
+    /**
+     * 关闭当前连接，不影响自动重连
+     */
+    void closeTransport() {
         connected = false;
+        handshaking = false;
+        Socket current = socket;
+        socket = null;
+        PrintWriter writer = out;
+        out = null;
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
-            if (socket != null) socket.close();
+            if (writer != null) writer.close();
+            if (current != null) current.close(); // 读线程随之退出
         } catch (IOException e) {
             // 静默关闭
-        } finally {
-            out = null;
-            in = null;
-            socket = null;
-            System.out.println("[SOCKET] Disconnected");
         }
     }
 
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        return String.format("连接: %s, 心跳RTT %dms, 请求超时 %dms, 待处理推送 %d 条\n%s",
+                isConnected() ? "已连接" : (handshaking ? "恢复会话中" : "未连接"),
+                networkRtt.srtt(), requestTimeoutMs(), pushQueue.size(),
+                BREAKER.getStatistics() + "\n" + coalescer.getStatistics());
+    }
+
+    /**
+     * 请求熔断器的统计信息
+     */
+    public static String getBreakerStatistics() {
+        return BREAKER.getStatistics();
+    }
+
     /**
      * 获取服务器地址（常量）
      */
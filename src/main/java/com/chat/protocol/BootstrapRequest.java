@@ -0,0 +1,21 @@
+package com.chat.protocol;
+
+/**
+ * 启动数据请求：客户端 -> 服务器
+ * 登录成功后一次取回主界面需要的所有初始数据（好友列表、群组列表、个人资料、待处理的好友请求）
+ */
+@SuppressWarnings("unused")
+public class BootstrapRequest {
+    private String type = ExtendedMessageType.BOOTSTRAP_REQUEST;
+    private Long userId;
+
+    public BootstrapRequest() {}
+
+    public BootstrapRequest(Long userId) { this.userId = userId; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+}
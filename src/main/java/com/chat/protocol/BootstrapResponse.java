@@ -0,0 +1,42 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 启动数据响应：服务器 -> 客户端
+ * 各部分与单独请求的响应内容相同
+ */
+@SuppressWarnings("unused")
+public class BootstrapResponse {
+    private String type = ExtendedMessageType.BOOTSTRAP_RESPONSE;
+    private boolean success;
+    private String message;
+
+    private List<FriendListResponse.FriendItem> friends;
+    private List<GroupListResponse.GroupItem> groups;
+    private UserInfoResponse userInfo;
+    private List<FriendRequestListResponse.FriendRequestItem> friendRequests;
+
+    public BootstrapResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public List<FriendListResponse.FriendItem> getFriends() { return friends; }
+    public void setFriends(List<FriendListResponse.FriendItem> friends) { this.friends = friends; }
+
+    public List<GroupListResponse.GroupItem> getGroups() { return groups; }
+    public void setGroups(List<GroupListResponse.GroupItem> groups) { this.groups = groups; }
+
+    public UserInfoResponse getUserInfo() { return userInfo; }
+    public void setUserInfo(UserInfoResponse userInfo) { this.userInfo = userInfo; }
+
+    public List<FriendRequestListResponse.FriendRequestItem> getFriendRequests() { return friendRequests; }
+    public void setFriendRequests(List<FriendRequestListResponse.FriendRequestItem> friendRequests) { this.friendRequests = friendRequests; }
+}
@@ -19,6 +19,8 @@ public class ChatGroupReceive {
 
     private Long id;          // message.id
     private Integer isRead;   // 0/1 当前用户是否已读（可选）
+    private Long prevId;      // 可选：同一群聊上一条消息的 message.id，用于客户端检测缺口
+    private String clientMsgId;   // 可选：发送方客户端生成的消息ID（发送时携带，服务器原样回传）
 
     public ChatGroupReceive() {}
 
@@ -53,4 +55,10 @@ public class ChatGroupReceive {
     public void setId(Long id) { this.id = id; }
     public Integer getIsRead() { return isRead; }
     public void setIsRead(Integer isRead) { this.isRead = isRead; }
+
+    public Long getPrevId() { return prevId; }
+    public void setPrevId(Long prevId) { this.prevId = prevId; }
+
+    public String getClientMsgId() { return clientMsgId; }
+    public void setClientMsgId(String clientMsgId) { this.clientMsgId = clientMsgId; }
 }
@@ -14,6 +14,7 @@ public class ChatGroupSend {
     private Long fileSize;
     private String fileName;
     private long timestamp = System.currentTimeMillis(); // 客户端时间戳
+    private String clientMsgId; // 客户端生成的消息ID，服务器回传时原样带回，重发时用于去重
 
     public ChatGroupSend() {}
 
@@ -35,4 +36,7 @@ public class ChatGroupSend {
     public void setFileName(String fileName) { this.fileName = fileName; }
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public String getClientMsgId() { return clientMsgId; }
+    public void setClientMsgId(String clientMsgId) { this.clientMsgId = clientMsgId; }
 }
@@ -17,7 +17,10 @@ public class ChatHistoryRequest {
     private Long groupId;
 
     private Integer limit = 50;        // 返回条数，默认 50
-    private Long beforeTimestamp;      // 拉取早于该时间的消息（用于翻页）
+    private Long beforeTimestamp;      // 拉取早于该时间的消息（兼容按时间翻页的服务器）
+    private Long beforeId;             // 拉取消息ID小于该值的消息（用于翻页）
+    private Long afterId;              // 只拉取消息ID大于该值的消息（补齐缺失/增量同步）
+    private String cursor;             // 上一页响应返回的 nextCursor，原样带回
 
     public ChatHistoryRequest() {}
 
@@ -38,4 +41,13 @@ public class ChatHistoryRequest {
 
     public Long getBeforeTimestamp() { return beforeTimestamp; }
     public void setBeforeTimestamp(Long beforeTimestamp) { this.beforeTimestamp = beforeTimestamp; }
+
+    public Long getBeforeId() { return beforeId; }
+    public void setBeforeId(Long beforeId) { this.beforeId = beforeId; }
+
+    public Long getAfterId() { return afterId; }
+    public void setAfterId(Long afterId) { this.afterId = afterId; }
+
+    public String getCursor() { return cursor; }
+    public void setCursor(String cursor) { this.cursor = cursor; }
 }
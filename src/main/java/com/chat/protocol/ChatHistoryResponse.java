@@ -14,6 +14,10 @@ public class ChatHistoryResponse {
 
     private List<HistoryMessageItem> messages;
 
+    // 按消息ID翻页：是否还有更早的消息，以及下一页的游标（旧版服务器不返回时为null）
+    private Boolean hasMore;
+    private String nextCursor;
+
     public ChatHistoryResponse() {}
 
     public String getType() { return type; }
@@ -31,6 +35,12 @@ public class ChatHistoryResponse {
     public List<HistoryMessageItem> getMessages() { return messages; }
     public void setMessages(List<HistoryMessageItem> messages) { this.messages = messages; }
 
+    public Boolean getHasMore() { return hasMore; }
+    public void setHasMore(Boolean hasMore) { this.hasMore = hasMore; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+
     // 映射 message 表
     public static class HistoryMessageItem {
         private Long id;
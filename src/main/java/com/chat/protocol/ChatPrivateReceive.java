@@ -16,6 +16,8 @@ public class ChatPrivateReceive {
     private long timestamp;
     private Long id;        // message.id
     private Integer isRead; // 0/1 当前用户是否已读
+    private Long prevId;    // 可选：同一私聊会话上一条消息的 message.id，用于客户端检测缺口
+    private String clientMsgId; // 可选：发送方客户端生成的消息ID（发送时携带，服务器原样回传）
 
     public ChatPrivateReceive() {
         this.type = MessageType.CHAT_PRIVATE_RECEIVE;
@@ -117,5 +119,21 @@ public class ChatPrivateReceive {
     public void setIsRead(Integer isRead) {
         this.isRead = isRead;
     }
+
+    public Long getPrevId() {
+        return prevId;
+    }
+
+    public void setPrevId(Long prevId) {
+        this.prevId = prevId;
+    }
+
+    public String getClientMsgId() {
+        return clientMsgId;
+    }
+
+    public void setClientMsgId(String clientMsgId) {
+        this.clientMsgId = clientMsgId;
+    }
 }
 
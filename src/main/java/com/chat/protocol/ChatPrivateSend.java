@@ -14,6 +14,7 @@ public class ChatPrivateSend {
     private Long fileSize;
     private String fileName;
     private long timestamp;  // 客户端时间戳
+    private String clientMsgId; // 客户端生成的消息ID，服务器回传时原样带回，重发时用于去重
 
     public ChatPrivateSend() {
         this.type = MessageType.CHAT_PRIVATE_SEND;
@@ -54,4 +55,7 @@ public class ChatPrivateSend {
 
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public String getClientMsgId() { return clientMsgId; }
+    public void setClientMsgId(String clientMsgId) { this.clientMsgId = clientMsgId; }
 }
@@ -0,0 +1,49 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 增量同步请求：客户端 -> 服务器
+ * 一次携带多个会话的同步位置，服务器只返回各会话中消息ID大于 afterId 的消息
+ */
+@SuppressWarnings("unused")
+public class ChatSyncRequest {
+    private String type = ExtendedMessageType.CHAT_SYNC_REQUEST;
+
+    private List<SyncCursor> conversations;
+
+    private Integer limit = 100;       // 每个会话最多返回条数
+
+    public ChatSyncRequest() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<SyncCursor> getConversations() { return conversations; }
+    public void setConversations(List<SyncCursor> conversations) { this.conversations = conversations; }
+
+    public Integer getLimit() { return limit; }
+    public void setLimit(Integer limit) { this.limit = limit; }
+
+    // 单个会话的同步位置
+    public static class SyncCursor {
+        private String chatType;   // private / group
+        private Long targetId;     // 私聊：对方用户ID，群聊：群ID
+        private Long afterId;      // 本地已有的最大消息ID
+
+        public SyncCursor() {}
+
+        public SyncCursor(String chatType, Long targetId, Long afterId) {
+            this.chatType = chatType;
+            this.targetId = targetId;
+            this.afterId = afterId;
+        }
+
+        public String getChatType() { return chatType; }
+        public void setChatType(String chatType) { this.chatType = chatType; }
+        public Long getTargetId() { return targetId; }
+        public void setTargetId(Long targetId) { this.targetId = targetId; }
+        public Long getAfterId() { return afterId; }
+        public void setAfterId(Long afterId) { this.afterId = afterId; }
+    }
+}
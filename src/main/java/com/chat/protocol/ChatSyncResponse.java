@@ -0,0 +1,48 @@
+package com.chat.protocol;
+
+import com.chat.protocol.ChatHistoryResponse.HistoryMessageItem;
+
+import java.util.List;
+
+/**
+ * 增量同步响应：服务器 -> 客户端
+ */
+@SuppressWarnings("unused")
+public class ChatSyncResponse {
+    private String type = ExtendedMessageType.CHAT_SYNC_RESPONSE;
+    private boolean success = true;
+    private String message;
+
+    private List<SyncConversation> conversations;
+
+    public ChatSyncResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public List<SyncConversation> getConversations() { return conversations; }
+    public void setConversations(List<SyncConversation> conversations) { this.conversations = conversations; }
+
+    // 单个会话的新消息（按消息ID从旧到新）
+    public static class SyncConversation {
+        private String chatType;
+        private Long targetId;
+        private List<HistoryMessageItem> messages;
+        private boolean hasMore;   // 超出 limit 时为true，客户端以最后一条的ID继续同步
+
+        public String getChatType() { return chatType; }
+        public void setChatType(String chatType) { this.chatType = chatType; }
+        public Long getTargetId() { return targetId; }
+        public void setTargetId(Long targetId) { this.targetId = targetId; }
+        public List<HistoryMessageItem> getMessages() { return messages; }
+        public void setMessages(List<HistoryMessageItem> messages) { this.messages = messages; }
+        public boolean isHasMore() { return hasMore; }
+        public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+    }
+}
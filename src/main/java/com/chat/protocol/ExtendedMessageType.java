@@ -0,0 +1,35 @@
+package com.chat.protocol;
+
+/**
+ * 扩展协议类型常量：MessageType 之后新增的 JSON 消息 type 值。
+ * 旧版服务器不认识这些类型，客户端发送前需能退回到 MessageType 中的基础协议。
+ */
+public final class ExtendedMessageType {
+    private ExtendedMessageType() {}
+
+    // 增量同步：按会话拉取指定消息ID之后的新消息
+    public static final String CHAT_SYNC_REQUEST = "chat_sync_request";       // C -> S
+    public static final String CHAT_SYNC_RESPONSE = "chat_sync_response";     // S -> C
+
+    // 已读回执：按会话上报已读到的最大消息ID，多端之间同步已读位置
+    public static final String READ_ACK_REQUEST = "read_ack_request";         // C -> S
+    public static final String READ_ACK_RESPONSE = "read_ack_response";       // S -> C
+    public static final String READ_STATE_PUSH = "read_state_push";           // S -> C（其他设备已读）
+
+    // 会话恢复：断线重连后用登录时下发的令牌恢复会话，不再重新输入密码
+    public static final String SESSION_RESUME_REQUEST = "session_resume_request";   // C -> S
+    public static final String SESSION_RESUME_RESPONSE = "session_resume_response"; // S -> C
+
+    // 心跳：客户端定期发送，服务器原样带回序号和时间戳，用于检测断线和测量往返时间
+    public static final String HEARTBEAT_PING = "heartbeat_ping";           // C -> S
+    public static final String HEARTBEAT_PONG = "heartbeat_pong";           // S -> C
+
+    // 批量用户资料：一次查询多个用户的名称和头像
+    public static final String USER_INFO_BATCH_REQUEST = "user_info_batch_request";   // C -> S
+    public static final String USER_INFO_BATCH_RESPONSE = "user_info_batch_response"; // S -> C
+
+    // 启动数据：登录后一次取回好友列表、群组列表、个人资料和待处理的好友请求
+    public static final String BOOTSTRAP_REQUEST = "bootstrap_request";     // C -> S
+    public static final String BOOTSTRAP_RESPONSE = "bootstrap_response";   // S -> C
+
+}
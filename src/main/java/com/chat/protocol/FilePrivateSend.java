@@ -13,6 +13,7 @@ public class FilePrivateSend {
     private Long receiverId;
     private String downloadUrl;
     private long timestamp;
+    private String clientMsgId; // 客户端生成的消息ID，服务器回传时原样带回，重发时用于去重
 
     // 构造方法
     public FilePrivateSend() {
@@ -103,6 +104,14 @@ public class FilePrivateSend {
         this.timestamp = timestamp;
     }
 
+    public String getClientMsgId() {
+        return clientMsgId;
+    }
+
+    public void setClientMsgId(String clientMsgId) {
+        this.clientMsgId = clientMsgId;
+    }
+
     @Override
     public String toString() {
         return "FilePrivateSend{" +
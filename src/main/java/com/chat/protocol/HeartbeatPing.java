@@ -0,0 +1,28 @@
+package com.chat.protocol;
+
+/**
+ * 心跳请求：客户端 -> 服务器
+ * 服务器收到后回复 heartbeat_pong，原样带回 seq 和 timestamp
+ */
+@SuppressWarnings("unused")
+public class HeartbeatPing {
+    private String type = ExtendedMessageType.HEARTBEAT_PING;
+    private long seq;
+    private long timestamp;
+
+    public HeartbeatPing() {}
+
+    public HeartbeatPing(long seq, long timestamp) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+}
@@ -0,0 +1,22 @@
+package com.chat.protocol;
+
+/**
+ * 心跳响应：服务器 -> 客户端
+ */
+@SuppressWarnings("unused")
+public class HeartbeatPong {
+    private String type = ExtendedMessageType.HEARTBEAT_PONG;
+    private long seq;        // 对应的心跳请求序号
+    private long timestamp;  // 心跳请求中的时间戳
+
+    public HeartbeatPong() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+}
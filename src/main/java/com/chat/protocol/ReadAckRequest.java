@@ -0,0 +1,44 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 已读回执请求：客户端 -> 服务器
+ * 一次携带多个会话的已读位置，每个会话只上报已读到的最大消息ID
+ */
+@SuppressWarnings("unused")
+public class ReadAckRequest {
+    private String type = ExtendedMessageType.READ_ACK_REQUEST;
+
+    private List<ReadPosition> conversations;
+
+    public ReadAckRequest() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<ReadPosition> getConversations() { return conversations; }
+    public void setConversations(List<ReadPosition> conversations) { this.conversations = conversations; }
+
+    // 单个会话的已读位置
+    public static class ReadPosition {
+        private String chatType;     // private / group
+        private Long targetId;       // 私聊：对方用户ID，群聊：群ID
+        private Long lastReadId;     // 已读到的最大消息ID
+
+        public ReadPosition() {}
+
+        public ReadPosition(String chatType, Long targetId, Long lastReadId) {
+            this.chatType = chatType;
+            this.targetId = targetId;
+            this.lastReadId = lastReadId;
+        }
+
+        public String getChatType() { return chatType; }
+        public void setChatType(String chatType) { this.chatType = chatType; }
+        public Long getTargetId() { return targetId; }
+        public void setTargetId(Long targetId) { this.targetId = targetId; }
+        public Long getLastReadId() { return lastReadId; }
+        public void setLastReadId(Long lastReadId) { this.lastReadId = lastReadId; }
+    }
+}
@@ -0,0 +1,22 @@
+package com.chat.protocol;
+
+/**
+ * 已读回执响应：服务器 -> 客户端
+ */
+@SuppressWarnings("unused")
+public class ReadAckResponse {
+    private String type = ExtendedMessageType.READ_ACK_RESPONSE;
+    private boolean success = true;
+    private String message;
+
+    public ReadAckResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+}
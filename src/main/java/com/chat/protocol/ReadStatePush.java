@@ -0,0 +1,24 @@
+package com.chat.protocol;
+
+import com.chat.protocol.ReadAckRequest.ReadPosition;
+
+import java.util.List;
+
+/**
+ * 已读位置推送：服务器 -> 客户端
+ * 同一账号在其他设备上读过消息后，服务器把新的已读位置推送给其余在线设备
+ */
+@SuppressWarnings("unused")
+public class ReadStatePush {
+    private String type = ExtendedMessageType.READ_STATE_PUSH;
+
+    private List<ReadPosition> conversations;
+
+    public ReadStatePush() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<ReadPosition> getConversations() { return conversations; }
+    public void setConversations(List<ReadPosition> conversations) { this.conversations = conversations; }
+}
@@ -0,0 +1,28 @@
+package com.chat.protocol;
+
+/**
+ * 会话恢复请求：客户端 -> 服务器
+ * 断线重连后携带登录时下发的令牌，由服务器把新连接重新关联到原会话
+ */
+@SuppressWarnings("unused")
+public class SessionResumeRequest {
+    private String type = ExtendedMessageType.SESSION_RESUME_REQUEST;
+    private Long uid;
+    private String token;
+
+    public SessionResumeRequest() {}
+
+    public SessionResumeRequest(Long uid, String token) {
+        this.uid = uid;
+        this.token = token;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public Long getUid() { return uid; }
+    public void setUid(Long uid) { this.uid = uid; }
+
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+}
@@ -0,0 +1,27 @@
+package com.chat.protocol;
+
+/**
+ * 会话恢复响应：服务器 -> 客户端
+ * 令牌失效时 success 为false；服务器可以顺带下发新的令牌
+ */
+@SuppressWarnings("unused")
+public class SessionResumeResponse {
+    private String type = ExtendedMessageType.SESSION_RESUME_RESPONSE;
+    private boolean success;
+    private String message;
+    private String token;    // 可选：新的会话令牌
+
+    public SessionResumeResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+}
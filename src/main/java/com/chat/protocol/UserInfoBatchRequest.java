@@ -0,0 +1,24 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 批量用户资料请求：客户端 -> 服务器
+ * 一次查询多个用户的名称和头像，用于显示群成员、陌生发送者的名称
+ */
+@SuppressWarnings("unused")
+public class UserInfoBatchRequest {
+    private String type = ExtendedMessageType.USER_INFO_BATCH_REQUEST;
+
+    private List<Long> userIds;
+
+    public UserInfoBatchRequest() {}
+
+    public UserInfoBatchRequest(List<Long> userIds) { this.userIds = userIds; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<Long> getUserIds() { return userIds; }
+    public void setUserIds(List<Long> userIds) { this.userIds = userIds; }
+}
@@ -0,0 +1,46 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 批量用户资料响应：服务器 -> 客户端
+ * 只返回存在的用户，请求中不存在的ID不出现在结果中
+ */
+@SuppressWarnings("unused")
+public class UserInfoBatchResponse {
+    private String type = ExtendedMessageType.USER_INFO_BATCH_RESPONSE;
+    private boolean success = true;
+    private String message;
+
+    private List<UserSummary> users;
+
+    public UserInfoBatchResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public List<UserSummary> getUsers() { return users; }
+    public void setUsers(List<UserSummary> users) { this.users = users; }
+
+    // 单个用户的公开资料
+    public static class UserSummary {
+        private Long uid;
+        private String username;
+        private String avatarUrl;
+
+        public UserSummary() {}
+
+        public Long getUid() { return uid; }
+        public void setUid(Long uid) { this.uid = uid; }
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public String getAvatarUrl() { return avatarUrl; }
+        public void setAvatarUrl(String avatarUrl) { this.avatarUrl = avatarUrl; }
+    }
+}
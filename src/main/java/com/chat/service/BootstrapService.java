@@ -0,0 +1,184 @@
+package com.chat.service;
+
+import com.chat.model.FriendItem;
+import com.chat.model.GroupItem;
+import com.chat.network.SocketClient;
+import com.chat.protocol.BootstrapRequest;
+import com.chat.protocol.BootstrapResponse;
+import com.chat.protocol.ExtendedMessageType;
+import com.chat.protocol.FriendRequestListResponse;
+import com.chat.protocol.UserInfoResponse;
+import com.google.gson.Gson;
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 登录启动数据加载 - 登录响应到达后立即发出主界面需要的所有初始读取，与主界面的加载和渲染同时进行
+ * 1. 优先发送一个合并的启动请求，一个往返取回好友列表、群组列表、个人资料和待处理的好友请求
+ * 2. 服务器不支持时同时发出各个单独的请求（连接上依次发送，中间不再等待定时器）
+ * 每一部分完成后立即交给主界面显示，不必等所有部分都完成；失败的部分得到null
+ */
+public class BootstrapService {
+
+    // 服务器是否支持合并的启动请求（收到不认识的响应或超时后置为false，本进程之后的登录直接发单独请求）
+    private static volatile boolean combinedSupported = true;
+    // 合并请求的超时：不认识该请求的旧服务器不会回复，不能让单独请求等满普通请求的超时
+    private static final long COMBINED_TIMEOUT_MS = 1000;
+
+    private final Gson gson = new Gson();
+    private final SocketClient client;
+    private final Long userId;
+    private final long startedAt = System.currentTimeMillis();
+
+    private final CompletableFuture<List<FriendItem>> friends = new CompletableFuture<>();
+    private final CompletableFuture<List<GroupItem>> groups = new CompletableFuture<>();
+    private final CompletableFuture<UserInfoResponse> userInfo = new CompletableFuture<>();
+    private final CompletableFuture<Integer> pendingFriendRequests = new CompletableFuture<>();
+
+    private BootstrapService(SocketClient client, Long userId) {
+        this.client = client;
+        this.userId = userId;
+    }
+
+    /**
+     * 开始加载（在后台线程中发送请求，立即返回）
+     */
+    public static BootstrapService start(SocketClient client, Long userId) {
+        BootstrapService bootstrap = new BootstrapService(client, userId);
+        Thread thread = new Thread(bootstrap::run, "login-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+        return bootstrap;
+    }
+
+    // ========== 结果回调（在JavaFX应用线程中执行） ==========
+
+    public void onFriends(Consumer<List<FriendItem>> callback) {
+        deliver(friends, callback);
+    }
+
+    public void onGroups(Consumer<List<GroupItem>> callback) {
+        deliver(groups, callback);
+    }
+
+    public void onUserInfo(Consumer<UserInfoResponse> callback) {
+        deliver(userInfo, callback);
+    }
+
+    public void onPendingFriendRequests(Consumer<Integer> callback) {
+        deliver(pendingFriendRequests, callback);
+    }
+
+    /**
+     * 从开始加载到现在的耗时
+     */
+    public long getElapsedMs() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    private static <T> void deliver(CompletableFuture<T> part, Consumer<T> callback) {
+        part.thenAccept(value -> Platform.runLater(() -> callback.accept(value)));
+    }
+
+    // ========== 加载 ==========
+
+    private void run() {
+        try {
+            if (combinedSupported && requestCombined()) {
+                System.out.println("[BootstrapService] 启动数据加载完成（合并请求）: " + getElapsedMs() + "ms");
+                return;
+            }
+        } catch (Exception e) {
+            System.err.println("[BootstrapService] 启动数据请求异常: " + e.getMessage() + "，改用单独请求");
+        }
+
+        // 各部分各自在线程中请求，先完成的先显示
+        FriendService friendService = new FriendService();
+        GroupService groupService = new GroupService();
+        UserProfileService profileService = new UserProfileService(client);
+        NotificationService notificationService = new NotificationService();
+        load("bootstrap-friends", friends, () -> friendService.fetchFriends(client));
+        load("bootstrap-groups", groups, () -> groupService.fetchGroups(client));
+        load("bootstrap-user-info", userInfo, () -> profileService.loadUserInfo(userId));
+        load("bootstrap-friend-requests", pendingFriendRequests,
+                () -> notificationService.loadFriendRequests(client).size());
+        CompletableFuture.allOf(friends, groups, userInfo, pendingFriendRequests).thenRun(() ->
+                System.out.println("[BootstrapService] 启动数据加载完成（单独请求）: " + getElapsedMs() + "ms"));
+    }
+
+    /**
+     * 发送合并的启动请求并完成所有部分；服务器不支持或无响应时返回false
+     * 连接正常而超时无响应视为服务器不支持，本进程之后不再尝试
+     */
+    private boolean requestCombined() {
+        String responseJson = client.sendProbeRequest(new BootstrapRequest(userId), COMBINED_TIMEOUT_MS);
+        if (responseJson == null || responseJson.trim().isEmpty()) {
+            if (client.isConnected()) {
+                System.out.println("[BootstrapService] 启动数据请求 " + COMBINED_TIMEOUT_MS
+                        + "ms 内无响应，视为服务器不支持合并请求，改用单独请求");
+                combinedSupported = false;
+            } else {
+                System.err.println("[BootstrapService] 启动数据请求无响应，改用单独请求");
+            }
+            return false;
+        }
+
+        BootstrapResponse response = null;
+        try {
+            response = gson.fromJson(responseJson, BootstrapResponse.class);
+        } catch (Exception e) {
+            System.err.println("[BootstrapService] 解析启动数据响应失败: " + e.getMessage());
+        }
+        if (response == null || !ExtendedMessageType.BOOTSTRAP_RESPONSE.equals(response.getType())) {
+            System.out.println("[BootstrapService] 服务器不支持合并的启动请求，改用单独请求");
+            combinedSupported = false;
+            return false;
+        }
+        if (!response.isSuccess()) {
+            System.err.println("[BootstrapService] 启动数据请求失败: " + response.getMessage() + "，改用单独请求");
+            return false;
+        }
+
+        friends.complete(response.getFriends() != null
+                ? new FriendService().toFriendItems(response.getFriends()) : null);
+        groups.complete(response.getGroups() != null
+                ? new GroupService().toGroupItems(response.getGroups()) : null);
+
+        UserInfoResponse info = response.getUserInfo();
+        if (info != null && info.isSuccess()) {
+            // 资料窗口之后直接命中缓存
+            ResponseCache.getInstance().put(ResponseCache.Kind.USER_INFO, String.valueOf(userId), info);
+        }
+        userInfo.complete(info);
+
+        int pending = 0;
+        if (response.getFriendRequests() != null) {
+            for (FriendRequestListResponse.FriendRequestItem item : response.getFriendRequests()) {
+                if (item != null && (item.getStatus() == null || item.getStatus() == 0)) {
+                    pending++;
+                }
+            }
+        }
+        pendingFriendRequests.complete(pending);
+        return true;
+    }
+
+    private static <T> void load(String name, CompletableFuture<T> part, Supplier<T> loader) {
+        Thread thread = new Thread(() -> {
+            T value = null;
+            try {
+                value = loader.get();
+            } catch (Exception e) {
+                System.err.println("[BootstrapService] " + name + " 加载失败: " + e.getMessage());
+            } finally {
+                part.complete(value);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -13,9 +13,14 @@ import java.io.File;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Files;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 聊天业务逻辑服务（只包含文件下载功能，上传功能独立到FileUploadService）
@@ -26,11 +31,26 @@ public class ChatService {
     private final JsonParser jsonParser = new JsonParser();
     private final MessageBroadcaster broadcaster = MessageBroadcaster.getInstance();
     private final ChatSessionManager sessionManager = ChatSessionManager.getInstance();
+    private final ConversationExecutor conversationExecutor = ConversationExecutor.getInstance();
+    private final Outbox outbox = Outbox.getInstance();
 
-    // 时间格式化器
-    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+    private final HistoryService historyService = new HistoryService();
+    // 入站消息重排缓冲区：按会话检测消息ID缺口，必要时补拉缺失消息
+    private final MessageReorderBuffer reorderBuffer =
+            new MessageReorderBuffer(conversationExecutor, this::fetchMissingMessages);
+
+    // 补拉缺失消息时单次请求的最大条数
+    private static final int GAP_FETCH_LIMIT = 50;
+    // 补拉一个缺口最多请求的页数（防止服务器翻页异常时无限请求）
+    private static final int GAP_FETCH_MAX_PAGES = 100;
+
+    // 用于补拉缺失消息的连接
+    private SocketClient socketClient;
+
+    // 时间格式化器（DateTimeFormatter 线程安全，补拉缺失消息的多个线程可以同时解析）
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
     // 数据库datetime格式
-    private final SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DB_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private String serverBaseUrl = "http://"+SocketClient.getServerAddress()+":12355/";
 
     // 可以设置服务器地址
@@ -39,6 +59,20 @@ public class ChatService {
         System.out.println("[ChatService] 设置服务器地址: " + serverBaseUrl);
     }
 
+    /**
+     * 设置用于补拉缺失消息的连接
+     */
+    public void setSocketClient(SocketClient socketClient) {
+        this.socketClient = socketClient;
+    }
+
+    /**
+     * 清空重排缓冲区状态（退出登录时调用）
+     */
+    public void clearReorderState() {
+        reorderBuffer.clear();
+    }
+
     // 获取完整的URL
     private String getFullUrl(String url) {
         if (url == null || url.isEmpty()) {
@@ -124,61 +158,23 @@ public class ChatService {
     // ========== 文本消息相关方法 ==========
 
     /**
-     * 发送私聊消息
-     */
-    public boolean sendPrivateMessage(SocketClient client, Long contactId, Long userId, String content) {
-        try {
-            ChatPrivateSend message = new ChatPrivateSend();
-            message.setToUserId(contactId);
-            message.setFromUserId(userId);
-            message.setContent(content);
-            message.setTimestamp(System.currentTimeMillis());
-
-            System.out.println("[ChatService] 发送私聊消息: " + userId + " -> " + contactId + ", 内容: " + content);
-
-            boolean sent = client.sendMessage(message);
-
-            if (sent) {
-                System.out.println("[ChatService] 消息发送成功，等待服务器回传");
-            } else {
-                System.err.println("[ChatService] 消息发送失败");
-            }
-
-            return sent;
-        } catch (Exception e) {
-            System.err.println("发送私聊消息失败: " + e.getMessage());
-            return false;
-        }
-    }
-
-    /**
-     * 发送群聊消息
+     * 发送发件箱中的一条消息（私聊或群聊，文本或文件）
+     * 未连接或写入失败时返回false，消息留在发件箱中，连接恢复后按顺序自动发送
      */
-    public boolean sendGroupMessage(SocketClient client, Long groupId, Long userId, String content) {
-        try {
-            ChatGroupSend message = new ChatGroupSend();
-            message.setGroupId(groupId);
-            message.setFromUserId(userId);
-            message.setContent(content);
-            message.setTimestamp(System.currentTimeMillis());
-
-            System.out.println("[ChatService] 发送群聊消息: 群组" + groupId + ", 发送者" + userId + ", 内容: " + content);
-
-            boolean sent = client.sendMessage(message);
-
-            if (sent) {
-                System.out.println("[ChatService] 群聊消息发送成功，等待服务器回传");
-            }
-
-            return sent;
-        } catch (Exception e) {
-            System.err.println("发送群聊消息失败: " + e.getMessage());
-            return false;
+    public boolean sendOutboxMessage(SocketClient client, String clientMsgId) {
+        boolean sent = outbox.send(client, clientMsgId);
+        if (sent) {
+            System.out.println("[ChatService] 消息发送成功，等待服务器回传: " + clientMsgId);
+        } else {
+            System.out.println("[ChatService] 消息未能立即发送，已在发件箱排队: " + clientMsgId);
         }
+        return sent;
     }
 
     /**
      * 处理接收到的消息并广播（不处理历史消息响应）
+     * 只在调用线程上解析出会话key，具体处理按会话分派到 ConversationExecutor：
+     * 同一会话内按到达顺序串行处理，不同会话之间并行处理
      */
     public void processMessage(String messageJson) {
         try {
@@ -195,63 +191,21 @@ public class ChatService {
                     return;
                 }
 
-                // 私聊消息
-                if (MessageType.CHAT_PRIVATE_RECEIVE.equals(type)) {
-                    Long messageId = jsonObject.has("id") ? jsonObject.get("id").getAsLong() : null;
-                    Long fromUserId = jsonObject.get("fromUserId").getAsLong();
-                    Long toUserId = jsonObject.get("toUserId").getAsLong();
-                    String content = jsonObject.get("content").getAsString();
-                    long timestamp = jsonObject.has("timestamp") ?
-                            jsonObject.get("timestamp").getAsLong() : System.currentTimeMillis();
-
-                    // 获取发送方用户名
-                    String senderName = "用户" + fromUserId;
-
-                    broadcaster.broadcastPrivateMessage(
-                            fromUserId,
-                            toUserId,
-                            content,
-                            timestamp,
-                            senderName,
-                            messageId
-                    );
-
-                    System.out.println("[ChatService] 已处理并广播私聊消息: " + fromUserId + " -> " + toUserId);
-                }
-                // 群聊消息
-                else if (MessageType.CHAT_GROUP_RECEIVE.equals(type)) {
-                    Long messageId = jsonObject.has("id") ? jsonObject.get("id").getAsLong() : null;
-                    Long groupId = jsonObject.get("groupId").getAsLong();
-                    Long fromUserId = jsonObject.get("fromUserId").getAsLong();
-                    String content = jsonObject.get("content").getAsString();
-                    long timestamp = jsonObject.has("timestamp") ?
-                            jsonObject.get("timestamp").getAsLong() : System.currentTimeMillis();
-
-                    String groupName = "群聊" + groupId;
-
-                    broadcaster.broadcastGroupMessage(
-                            groupId,
-                            fromUserId,
-                            content,
-                            timestamp,
-                            groupName,
-                            messageId
-                    );
-
-                    System.out.println("[ChatService] 已处理并广播群聊消息: 群组" + groupId);
-                }
-                // 私聊文件接收消息
-                else if (MessageType.FILE_PRIVATE_RECEIVE.equals(type)) {
-                    handleFileMessage(jsonObject);
-                }
-                // 群聊文件接收消息
-                else if (MessageType.FILE_GROUP_RECEIVE.equals(type)) {
-                    handleFileMessage(jsonObject);
+                // 其他设备的已读位置
+                if (ExtendedMessageType.READ_STATE_PUSH.equals(type)) {
+                    ReadStateTracker.getInstance().applyRemote(gson.fromJson(jsonObject, ReadStatePush.class));
+                    return;
                 }
-                // 其他类型的消息（好友请求、系统通知等）
-                else {
+
+                String conversationKey = buildConversationKey(type, jsonObject);
+                if (conversationKey == null) {
+                    // 其他类型的消息（好友请求、系统通知等）
                     System.out.println("[ChatService] 收到其他类型消息: " + type);
+                    return;
                 }
+
+                conversationExecutor.execute(conversationKey,
+                        () -> dispatchMessage(conversationKey, type, jsonObject));
             }
         } catch (Exception e) {
             System.err.println("处理消息失败: " + e.getMessage());
@@ -259,6 +213,254 @@ public class ChatService {
         }
     }
 
+    /**
+     * 根据消息类型生成会话key（与 ChatSessionManager 的key规则一致），非聊天消息返回null
+     */
+    private String buildConversationKey(String type, JsonObject jsonObject) {
+        if (MessageType.CHAT_PRIVATE_RECEIVE.equals(type)) {
+            return buildPrivateConversationKey(
+                    jsonObject.get("fromUserId").getAsLong(),
+                    jsonObject.get("toUserId").getAsLong());
+        } else if (MessageType.CHAT_GROUP_RECEIVE.equals(type)) {
+            return "group_" + jsonObject.get("groupId").getAsLong();
+        } else if (MessageType.FILE_PRIVATE_RECEIVE.equals(type)) {
+            return buildPrivateConversationKey(
+                    jsonObject.get("senderId").getAsLong(),
+                    jsonObject.get("receiverId").getAsLong());
+        } else if (MessageType.FILE_GROUP_RECEIVE.equals(type)) {
+            return "group_" + jsonObject.get("groupId").getAsLong();
+        }
+        return null;
+    }
+
+    private String buildPrivateConversationKey(Long userA, Long userB) {
+        // 生成对称的key，确保A和B的对话在同一个会话中
+        return "private_" + Math.min(userA, userB) + "_" + Math.max(userA, userB);
+    }
+
+    /**
+     * 在会话工作线程上处理单条消息（同一会话内串行执行），经重排缓冲区按服务器消息ID顺序投递
+     */
+    private void dispatchMessage(String conversationKey, String type, JsonObject jsonObject) {
+        try {
+            // 同一会话上一条消息的ID（服务器提供时用于检测缺口）
+            Long prevId = jsonObject.has("prevId") && !jsonObject.get("prevId").isJsonNull() ?
+                    jsonObject.get("prevId").getAsLong() : null;
+
+            // 私聊消息
+            if (MessageType.CHAT_PRIVATE_RECEIVE.equals(type)) {
+                Long messageId = jsonObject.has("id") ? jsonObject.get("id").getAsLong() : null;
+                Long fromUserId = jsonObject.get("fromUserId").getAsLong();
+                Long toUserId = jsonObject.get("toUserId").getAsLong();
+                String content = jsonObject.get("content").getAsString();
+                long timestamp = jsonObject.has("timestamp") ?
+                        jsonObject.get("timestamp").getAsLong() : System.currentTimeMillis();
+                acknowledgeOwnMessage(jsonObject, fromUserId, "private",
+                        getPrivateTargetId(fromUserId, toUserId), content, messageId);
+
+                reorderBuffer.offer(new MessageReorderBuffer.InboundFrame(
+                        conversationKey, messageId, prevId, timestamp,
+                        "private", getPrivateTargetId(fromUserId, toUserId),
+                        () -> deliverPrivateMessage(fromUserId, toUserId, content, timestamp, messageId)));
+            }
+            // 群聊消息
+            else if (MessageType.CHAT_GROUP_RECEIVE.equals(type)) {
+                Long messageId = jsonObject.has("id") ? jsonObject.get("id").getAsLong() : null;
+                Long groupId = jsonObject.get("groupId").getAsLong();
+                Long fromUserId = jsonObject.get("fromUserId").getAsLong();
+                String content = jsonObject.get("content").getAsString();
+                long timestamp = jsonObject.has("timestamp") ?
+                        jsonObject.get("timestamp").getAsLong() : System.currentTimeMillis();
+                acknowledgeOwnMessage(jsonObject, fromUserId, "group", groupId, content, messageId);
+
+                reorderBuffer.offer(new MessageReorderBuffer.InboundFrame(
+                        conversationKey, messageId, prevId, timestamp, "group", groupId,
+                        () -> deliverGroupMessage(groupId, fromUserId, content, timestamp, messageId)));
+            }
+            // 私聊/群聊文件接收消息
+            else if (MessageType.FILE_PRIVATE_RECEIVE.equals(type) || MessageType.FILE_GROUP_RECEIVE.equals(type)) {
+                Long messageId = jsonObject.has("messageId") ? jsonObject.get("messageId").getAsLong() : null;
+                long timestamp = jsonObject.has("timestamp") ?
+                        jsonObject.get("timestamp").getAsLong() : System.currentTimeMillis();
+                boolean isGroup = MessageType.FILE_GROUP_RECEIVE.equals(type);
+                Long targetId = isGroup ? jsonObject.get("groupId").getAsLong() :
+                        getPrivateTargetId(jsonObject.get("senderId").getAsLong(),
+                                jsonObject.get("receiverId").getAsLong());
+                if (isGroup) {
+                    // 群文件列表已变化
+                    ResponseCache.getInstance().invalidateGroup(targetId);
+                }
+                String fileId = jsonObject.has("fileId") ? jsonObject.get("fileId").getAsString() : null;
+                acknowledgeOwnMessage(jsonObject, jsonObject.get("senderId").getAsLong(),
+                        isGroup ? "group" : "private", targetId, fileId, messageId);
+
+                reorderBuffer.offer(new MessageReorderBuffer.InboundFrame(
+                        conversationKey, messageId, prevId, timestamp,
+                        isGroup ? "group" : "private", targetId,
+                        () -> handleFileMessage(jsonObject)));
+            }
+        } catch (Exception e) {
+            System.err.println("处理消息失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 自己发送的消息被服务器回传：在发件箱中确认（优先按回传的客户端消息ID，否则按文本内容或文件ID匹配）
+     */
+    private void acknowledgeOwnMessage(JsonObject jsonObject, Long fromUserId, String chatType, Long targetId,
+                                       String matchKey, Long messageId) {
+        if (!fromUserId.equals(broadcaster.getCurrentUserId())) {
+            return;
+        }
+        String clientMsgId = jsonObject.has("clientMsgId") && !jsonObject.get("clientMsgId").isJsonNull() ?
+                jsonObject.get("clientMsgId").getAsString() : null;
+        Outbox.OutboxEntry entry = outbox.acknowledge(clientMsgId, chatType, targetId, matchKey, messageId);
+        if (entry != null) {
+            System.out.println("[ChatService] 发件箱确认消息: " + entry.getClientMsgId() + " -> " + messageId);
+        }
+    }
+
+    /**
+     * 广播私聊文本消息
+     */
+    private void deliverPrivateMessage(Long fromUserId, Long toUserId, String content,
+                                       long timestamp, Long messageId) {
+        // 获取发送方用户名（未知时先显示占位名称，解析后再更新）
+        String senderName = UserDirectoryService.getInstance().displayName(fromUserId);
+
+        broadcaster.broadcastPrivateMessage(
+                fromUserId,
+                toUserId,
+                content,
+                timestamp,
+                senderName,
+                messageId
+        );
+
+        System.out.println("[ChatService] 已处理并广播私聊消息: " + fromUserId + " -> " + toUserId);
+    }
+
+    /**
+     * 广播群聊文本消息
+     */
+    private void deliverGroupMessage(Long groupId, Long fromUserId, String content,
+                                     long timestamp, Long messageId) {
+        String groupName = "群聊" + groupId;
+
+        broadcaster.broadcastGroupMessage(
+                groupId,
+                fromUserId,
+                content,
+                timestamp,
+                groupName,
+                messageId
+        );
+
+        System.out.println("[ChatService] 已处理并广播群聊消息: 群组" + groupId);
+    }
+
+    /**
+     * 私聊会话中对方的用户ID（即历史记录请求的 targetUserId）
+     */
+    private Long getPrivateTargetId(Long fromUserId, Long toUserId) {
+        Long currentUserId = broadcaster.getCurrentUserId();
+        return currentUserId != null && currentUserId.equals(fromUserId) ? toUserId : fromUserId;
+    }
+
+    // ========== 缺失消息补齐 ==========
+
+    /**
+     * 通过历史记录请求在后台拉取 (afterId, firstHeld.id) 之间缺失的消息
+     * 从缓冲消息向更早方向逐页拉取，直到到达 afterId（缺口补齐）为止；中途失败时交回已拉到的部分
+     */
+    private void fetchMissingMessages(MessageReorderBuffer.InboundFrame firstHeld, long afterId,
+                                      Consumer<List<MessageReorderBuffer.InboundFrame>> onFetched) {
+        SocketClient client = socketClient;
+        if (client == null || !client.isConnected()) {
+            onFetched.accept(new ArrayList<>());
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            List<MessageReorderBuffer.InboundFrame> frames = new ArrayList<>();
+            // 服务器消息ID全局递增，缺失条数不会超过ID差值
+            long remaining = firstHeld.getId() - afterId - 1;
+            String cursor = HistoryService.cursorBefore(firstHeld.getId(), firstHeld.getTimestamp());
+            int pages = 0;
+            while (cursor != null && remaining > 0) {
+                if (++pages > GAP_FETCH_MAX_PAGES) {
+                    System.err.println("[ChatService] 缺失消息超过 " + GAP_FETCH_MAX_PAGES * GAP_FETCH_LIMIT +
+                            " 条，停止补拉: " + firstHeld.getConversationKey());
+                    break;
+                }
+                int limit = (int) Math.min(GAP_FETCH_LIMIT, remaining);
+                ChatHistoryResponse response = historyService.fetchHistoryPage(client, firstHeld.getChatType(),
+                        firstHeld.getTargetId(), limit, cursor, afterId);
+                if (response == null || response.getMessages() == null) {
+                    System.err.println("[ChatService] 拉取缺失消息失败: " + firstHeld.getConversationKey() +
+                            "，已补齐 " + frames.size() + " 条");
+                    break;
+                }
+                for (ChatHistoryResponse.HistoryMessageItem item : response.getMessages()) {
+                    if (item.getId() != null) {
+                        frames.add(toInboundFrame(firstHeld, item));
+                    }
+                }
+                remaining -= response.getMessages().size();
+                cursor = Boolean.TRUE.equals(response.getHasMore()) ? response.getNextCursor() : null;
+            }
+            onFetched.accept(frames);
+        }, "gap-fetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 将历史记录条目转换为入站消息帧
+     */
+    private MessageReorderBuffer.InboundFrame toInboundFrame(MessageReorderBuffer.InboundFrame firstHeld,
+                                                             ChatHistoryResponse.HistoryMessageItem item) {
+        Long messageId = item.getId();
+        Long senderId = item.getSenderId();
+        long timestamp = dbDateTimeToTimestamp(item.getTimestamp());
+        boolean isFile = item.getContentType() != null && !ContentType.TEXT.equals(item.getContentType());
+
+        Runnable deliver;
+        if ("group".equals(firstHeld.getChatType())) {
+            Long groupId = firstHeld.getTargetId();
+            if (isFile) {
+                FileGroupReceive file = new FileGroupReceive(null, item.getFileName(),
+                        item.getFileSize() != null ? item.getFileSize() : 0L,
+                        senderId, groupId, item.getFileUrl());
+                file.setFileType(item.getFileName() != null ? getFileType(item.getFileName()) : "other");
+                file.setTimestamp(timestamp);
+                file.setMessageId(messageId);
+                deliver = () -> broadcastGroupFileMessage(file);
+            } else {
+                String content = item.getContent();
+                deliver = () -> deliverGroupMessage(groupId, senderId, content, timestamp, messageId);
+            }
+        } else {
+            Long receiverId = item.getReceiverId();
+            if (isFile) {
+                FilePrivateReceive file = new FilePrivateReceive(null, item.getFileName(),
+                        item.getFileSize() != null ? item.getFileSize() : 0L,
+                        senderId, receiverId, item.getFileUrl());
+                file.setFileType(item.getFileName() != null ? getFileType(item.getFileName()) : "other");
+                file.setTimestamp(timestamp);
+                file.setMessageId(messageId);
+                deliver = () -> broadcastPrivateFileMessage(file);
+            } else {
+                String content = item.getContent();
+                deliver = () -> deliverPrivateMessage(senderId, receiverId, content, timestamp, messageId);
+            }
+        }
+
+        return new MessageReorderBuffer.InboundFrame(firstHeld.getConversationKey(), messageId, null,
+                timestamp, firstHeld.getChatType(), firstHeld.getTargetId(), deliver);
+    }
+
     /**
      * 处理文件消息（只处理接收，不处理上传）
      */
@@ -301,7 +503,7 @@ public class ChatService {
     private void broadcastPrivateFileMessage(FilePrivateReceive message) {
         try {
             // 通知接收方
-            String senderName = "用户" + message.getSenderId();
+            String senderName = UserDirectoryService.getInstance().displayName(message.getSenderId());
 
             // 将文件消息对象序列化为JSON字符串
             String fileContent = gson.toJson(message);
@@ -764,9 +966,10 @@ public class ChatService {
         }
 
         try {
-            // 尝试解析为数据库datetime格式
-            return dbDateFormat.parse(datetimeStr);
-        } catch (ParseException e) {
+            // 尝试解析为数据库datetime格式，允许末尾带有毫秒等多余部分（如 "2024-01-01 12:00:00.0"）
+            LocalDateTime dateTime = LocalDateTime.from(DB_DATE_FORMAT.parse(datetimeStr.trim(), new ParsePosition(0)));
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (Exception e) {
             System.err.println("[ChatService] 解析datetime失败: " + datetimeStr + ", 错误: " + e.getMessage());
             return new Date();
         }
@@ -777,7 +980,7 @@ public class ChatService {
      */
     public String formatDbDateTimeForDisplay(String datetimeStr) {
         Date date = parseDbDateTime(datetimeStr);
-        return timeFormat.format(date);
+        return TIME_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()));
     }
 
     /**
@@ -1,29 +1,44 @@
 package com.chat.service;
 
+import com.chat.model.MessageRecord;
+import com.chat.store.LocalMessageStore;
+
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 聊天会话管理器 - 单例模式，管理登录期间的所有聊天会话
+ * 带服务器消息ID的记录同时写入本地消息存储；会话首次使用时先从本地存储加载最近的消息
+ * 参与全局内存预算：超出预算时整段淘汰最久未访问的会话
  */
-public class ChatSessionManager {
+public class ChatSessionManager implements MemoryBudgetService.TrimmableCache {
 
     private static ChatSessionManager instance;
 
     // 登录时间戳
     private final long loginTimestamp;
 
+    // 每个会话保留的最大消息数，写满后覆盖最旧的记录
+    private static final int PRIVATE_SESSION_CAPACITY = 500;
+    private static final int GROUP_SESSION_CAPACITY = 1000;
+
+    // 会话首次使用时从本地存储加载的最近消息数
+    private static final int LOCAL_WARM_LIMIT = 50;
+
     // 存储私聊会话记录：key = "private_userId_contactId"
-    private final Map<String, List<String>> privateSessions = new ConcurrentHashMap<>();
+    private final Map<String, MessageRingBuffer> privateSessions = new ConcurrentHashMap<>();
 
     // 存储群聊会话记录：key = "group_groupId"
-    private final Map<String, List<String>> groupSessions = new ConcurrentHashMap<>();
+    private final Map<String, MessageRingBuffer> groupSessions = new ConcurrentHashMap<>();
+
+    private final LocalMessageStore localStore = LocalMessageStore.getInstance();
 
     private ChatSessionManager() {
         this.loginTimestamp = System.currentTimeMillis();
         System.out.println("[ChatSessionManager] 初始化，登录时间: " +
                 new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(loginTimestamp)));
+        MemoryBudgetService.getInstance().register(this);
     }
 
     public static synchronized ChatSessionManager getInstance() {
@@ -34,51 +49,49 @@ public class ChatSessionManager {
     }
 
     /**
-     * 添加私聊消息到会话
+     * 添加私聊消息到会话（相同服务器消息ID的记录只保存一次）
      */
-    public void addPrivateMessage(Long userId, Long contactId, String message) {
+    public void addPrivateMessage(Long userId, Long contactId, MessageRecord record) {
         String key = buildPrivateKey(userId, contactId);
-        List<String> messages = privateSessions.computeIfAbsent(key, k -> new ArrayList<>());
-        messages.add(message);
+        MessageRingBuffer messages = privateSessions.computeIfAbsent(key,
+                k -> loadSession(k, PRIVATE_SESSION_CAPACITY));
 
-        // 限制会话大小，避免内存泄漏
-        if (messages.size() > 500) {
-            messages.remove(0);
+        if (messages.add(record)) {
+            localStore.append(key, record);
+            System.out.println("[ChatSessionManager] 添加到本次登录会话 " + key + ", 当前消息数: " + messages.size());
+            MemoryBudgetService.getInstance().checkBudget();
         }
-
-        System.out.println("[ChatSessionManager] 添加到本次登录会话 " + key + ", 当前消息数: " + messages.size());
     }
 
     /**
-     * 添加群聊消息到会话
+     * 添加群聊消息到会话（相同服务器消息ID的记录只保存一次）
      */
-    public void addGroupMessage(Long groupId, String message) {
+    public void addGroupMessage(Long groupId, MessageRecord record) {
         String key = buildGroupKey(groupId);
-        List<String> messages = groupSessions.computeIfAbsent(key, k -> new ArrayList<>());
-        messages.add(message);
+        MessageRingBuffer messages = groupSessions.computeIfAbsent(key,
+                k -> loadSession(k, GROUP_SESSION_CAPACITY));
 
-        // 限制会话大小
-        if (messages.size() > 1000) {
-            messages.remove(0);
+        if (messages.add(record)) {
+            localStore.append(key, record);
+            System.out.println("[ChatSessionManager] 添加到本次登录会话 " + key + ", 当前消息数: " + messages.size());
+            MemoryBudgetService.getInstance().checkBudget();
         }
-
-        System.out.println("[ChatSessionManager] 添加到本次登录会话 " + key + ", 当前消息数: " + messages.size());
     }
 
     /**
-     * 获取私聊会话记录
+     * 获取私聊会话记录（按时间从旧到新）
      */
-    public List<String> getPrivateSession(Long userId, Long contactId) {
+    public List<MessageRecord> getPrivateSession(Long userId, Long contactId) {
         String key = buildPrivateKey(userId, contactId);
-        return privateSessions.getOrDefault(key, new ArrayList<>());
+        return privateSessions.computeIfAbsent(key, k -> loadSession(k, PRIVATE_SESSION_CAPACITY)).snapshot();
     }
 
     /**
-     * 获取群聊会话记录
+     * 获取群聊会话记录（按时间从旧到新）
      */
-    public List<String> getGroupSession(Long groupId) {
+    public List<MessageRecord> getGroupSession(Long groupId) {
         String key = buildGroupKey(groupId);
-        return groupSessions.getOrDefault(key, new ArrayList<>());
+        return groupSessions.computeIfAbsent(key, k -> loadSession(k, GROUP_SESSION_CAPACITY)).snapshot();
     }
 
     /**
@@ -106,11 +119,11 @@ public class ChatSessionManager {
         int privateCount = 0;
         int groupCount = 0;
 
-        for (List<String> session : privateSessions.values()) {
+        for (MessageRingBuffer session : privateSessions.values()) {
             privateCount += session.size();
         }
 
-        for (List<String> session : groupSessions.values()) {
+        for (MessageRingBuffer session : groupSessions.values()) {
             groupCount += session.size();
         }
 
@@ -119,6 +132,52 @@ public class ChatSessionManager {
                 groupSessions.size(), groupCount);
     }
 
+    // ========== 内存预算 ==========
+
+    @Override
+    public String getCacheName() {
+        return "会话消息";
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        long total = 0;
+        for (MessageRingBuffer session : privateSessions.values()) {
+            total += session.getRetainedBytes();
+        }
+        for (MessageRingBuffer session : groupSessions.values()) {
+            total += session.getRetainedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * 按最久未访问的顺序整段淘汰会话，直到释放足够的字节
+     */
+    @Override
+    public long trim(long bytesToFree) {
+        List<Map.Entry<String, MessageRingBuffer>> candidates = new ArrayList<>(privateSessions.entrySet());
+        candidates.addAll(groupSessions.entrySet());
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().getLastAccessTime()));
+
+        long freed = 0;
+        int evicted = 0;
+        for (Map.Entry<String, MessageRingBuffer> entry : candidates) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            Map<String, MessageRingBuffer> sessions =
+                    entry.getKey().startsWith("group_") ? groupSessions : privateSessions;
+            if (sessions.remove(entry.getKey(), entry.getValue())) {
+                freed += entry.getValue().getRetainedBytes();
+                evicted++;
+            }
+        }
+
+        System.out.println("[ChatSessionManager] 内存预算淘汰 " + evicted + " 个会话，释放约 " + (freed / 1024) + " KB");
+        return freed;
+    }
+
     /**
      * 获取登录时间戳
      */
@@ -126,14 +185,35 @@ public class ChatSessionManager {
         return loginTimestamp;
     }
 
-    private String buildPrivateKey(Long userId, Long contactId) {
+    /**
+     * 创建会话缓冲区，并用本地存储中最近的消息预热
+     */
+    private MessageRingBuffer loadSession(String key, int capacity) {
+        MessageRingBuffer messages = new MessageRingBuffer(capacity);
+        List<MessageRecord> stored = localStore.getLatest(key, LOCAL_WARM_LIMIT);
+        for (MessageRecord record : stored) {
+            messages.add(record);
+        }
+        if (!stored.isEmpty()) {
+            System.out.println("[ChatSessionManager] 从本地存储加载会话 " + key + ", 消息数: " + stored.size());
+        }
+        return messages;
+    }
+
+    /**
+     * 私聊会话key（与本地消息存储共用）
+     */
+    public static String buildPrivateKey(Long userId, Long contactId) {
         // 生成对称的key，确保A和B的对话在同一个会话中
         Long smaller = Math.min(userId, contactId);
         Long larger = Math.max(userId, contactId);
         return "private_" + smaller + "_" + larger;
     }
 
-    private String buildGroupKey(Long groupId) {
+    /**
+     * 群聊会话key（与本地消息存储共用）
+     */
+    public static String buildGroupKey(Long groupId) {
         return "group_" + groupId;
     }
 }
\ No newline at end of file
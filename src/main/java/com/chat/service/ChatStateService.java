@@ -8,27 +8,39 @@ import com.chat.protocol.ChatGroupReceive;
 import com.chat.protocol.ChatPrivateReceive;
 import com.chat.protocol.FriendListResponse;
 import com.chat.protocol.GroupListResponse;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manages the UI state, holding the observable lists for the views.
  */
-public class ChatStateService implements MessageBroadcaster.ChatListUpdateListener {
-    private final ObservableList<ChatItem> chatItems = FXCollections.observableArrayList();
+public class ChatStateService implements MessageBroadcaster.ChatListUpdateListener,
+        UserDirectoryService.NameResolvedListener {
+    // 消息栏会话列表：按会话key索引，更新时移动到顶部只触发一次置换变更
+    private final RecentChatList chatItems = new RecentChatList();
     private final ObservableList<FriendItem> friendItems = FXCollections.observableArrayList();
     private final ObservableList<GroupItem> groupItems = FXCollections.observableArrayList();
 
     private final MessageBroadcaster broadcaster = MessageBroadcaster.getInstance();
     private final RecentMessageService recentService = RecentMessageService.getInstance();
 
+    // 待合并的会话更新：同一帧内的多次更新在下一次 FX 脉冲中批量应用，访问时需持有该对象锁
+    private final Map<String, ChatItem> pendingUpdates = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
     public ChatStateService() {
         // 注册为聊天列表监听器
         broadcaster.registerChatListListener(this);
+        // 用户名解析后替换消息栏中的占位名称
+        UserDirectoryService.getInstance().registerListener(this);
     }
 
     public ObservableList<ChatItem> getChatItems() {
@@ -79,7 +91,8 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
                 null,
                 displayText,
                 true, // 有未读消息
-                false
+                false,
+                timestamp
         );
     }
 
@@ -115,10 +128,28 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
                 null,
                 displayText,
                 true, // 有未读消息
-                true
+                true,
+                timestamp
         );
     }
 
+    /**
+     * 用户名解析完成：原地替换会话名称和预览中的占位名称，不改变排序
+     */
+    @Override
+    public void onNamesResolved(Map<Long, String> names) {
+        for (int i = 0; i < chatItems.size(); i++) {
+            ChatItem item = chatItems.get(i);
+            ChatItem renamed = RecentMessageService.withResolvedNames(item, names);
+            if (renamed != item) {
+                chatItems.set(i, renamed);
+            }
+        }
+        synchronized (pendingUpdates) {
+            pendingUpdates.replaceAll((key, item) -> RecentMessageService.withResolvedNames(item, names));
+        }
+    }
+
     /**
      * 初始化消息栏（应用启动时调用）
      */
@@ -126,7 +157,8 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
         // 从 RecentMessageService 加载所有最近消息
         List<ChatItem> recentMessages = recentService.getAllRecentMessages();
         if (recentMessages != null && !recentMessages.isEmpty()) {
-            chatItems.setAll(recentMessages);
+            // 按最近活动时间一次性排好，只触发一次列表变更
+            chatItems.setAllSortedByActivity(recentMessages);
             System.out.println("[ChatStateService] 初始化消息栏: " + recentMessages.size() + " 条记录");
         }
     }
@@ -137,7 +169,7 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
     public void loadFriendsFromServer(SocketClient client, FriendService friendService) {
         if (client == null || !client.isConnected()) return;
 
-        List<FriendItem> friends = friendService.loadFriends(client);
+        List<FriendItem> friends = friendService.fetchFriends(client);
         if (friends != null) {
             friendItems.setAll(friends);
         }
@@ -149,7 +181,7 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
     public void loadGroupsFromServer(SocketClient client, GroupService groupService) {
         if (client == null || !client.isConnected()) return;
 
-        List<GroupItem> groups = groupService.loadGroups(client);
+        List<GroupItem> groups = groupService.fetchGroups(client);
         if (groups != null) {
             groupItems.setAll(groups);
         }
@@ -218,37 +250,54 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
     }
 
     public void upsertChat(String id, String name, String avatar, String lastMessage, boolean unread, boolean isGroup) {
-        int foundIndex = -1;
-        for (int i = 0; i < chatItems.size(); i++) {
-            ChatItem item = chatItems.get(i);
-            if (item.getId().equals(id) && item.isGroup() == isGroup) {
-                foundIndex = i;
-                break;
-            }
-        }
+        upsertChat(id, name, avatar, lastMessage, unread, isGroup, System.currentTimeMillis());
+    }
 
+    /**
+     * 更新或新增会话并移动到顶部
+     * 更新先进入待合并队列，在下一次 FX 脉冲中按最近活动时间批量应用，突发消息只触发一次列表变更
+     */
+    public void upsertChat(String id, String name, String avatar, String lastMessage, boolean unread,
+                           boolean isGroup, long timestamp) {
         String displayName = (name != null) ? name : (isGroup ? "群聊" + id : "用户" + id);
         String avatarUrl = avatar != null ? avatar : "";
-        String time = LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
+        String time = new SimpleDateFormat("HH:mm").format(new Date(timestamp));
         String messageText = lastMessage != null ? lastMessage : "";
 
-        ChatItem newItem = new ChatItem(id, displayName, messageText, time, avatarUrl, unread, isGroup);
+        ChatItem newItem = new ChatItem(id, displayName, messageText, time, avatarUrl, unread, isGroup, timestamp);
 
-        if (foundIndex >= 0) {
-            chatItems.remove(foundIndex);
-            chatItems.add(0, newItem);
-        } else {
-            chatItems.add(0, newItem);
+        synchronized (pendingUpdates) {
+            pendingUpdates.put(RecentChatList.keyOf(id, isGroup), newItem);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                Platform.runLater(this::flushPendingUpdates);
+            }
         }
 
         System.out.println("[ChatStateService] 更新聊天列表: " + displayName + " - " +
                 messageText.substring(0, Math.min(20, messageText.length())));
     }
 
+    /**
+     * 批量应用待合并的会话更新（FX线程）
+     */
+    private void flushPendingUpdates() {
+        List<ChatItem> updates;
+        synchronized (pendingUpdates) {
+            updates = new ArrayList<>(pendingUpdates.values());
+            pendingUpdates.clear();
+            flushScheduled = false;
+        }
+        chatItems.moveAllToFront(updates);
+    }
+
     /**
      * 清空所有数据
      */
     public void clearAll() {
+        synchronized (pendingUpdates) {
+            pendingUpdates.clear();
+        }
         chatItems.clear();
         friendItems.clear();
         groupItems.clear();
@@ -260,6 +309,7 @@ public class ChatStateService implements MessageBroadcaster.ChatListUpdateListen
      */
     public void cleanup() {
         broadcaster.unregisterChatListListener(this);
+        UserDirectoryService.getInstance().unregisterListener(this);
         clearAll();
         System.out.println("[ChatStateService] 已清理并取消注册");
     }
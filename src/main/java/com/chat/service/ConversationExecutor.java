@@ -0,0 +1,116 @@
+package com.chat.service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按会话串行的执行器 - 单例模式
+ * 同一会话（conversationKey）内的任务按提交顺序依次执行，不同会话的任务在工作线程池中并行执行
+ */
+public class ConversationExecutor {
+
+    private static ConversationExecutor instance;
+
+    // 工作线程数量：至少2个，默认与CPU核数相同
+    private static final int WORKER_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService workers;
+
+    // 每个会话一个待执行队列：key = 会话key（如 "private_1_2"、"group_3"），访问时需持有 queues 锁
+    private final Map<String, ConversationQueue> queues = new HashMap<>();
+
+    private ConversationExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger(1);
+        this.workers = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "chat-worker-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("[ConversationExecutor] 初始化，工作线程数: " + WORKER_COUNT);
+    }
+
+    public static synchronized ConversationExecutor getInstance() {
+        if (instance == null) {
+            instance = new ConversationExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * 提交任务到指定会话，保证同一会话内按提交顺序执行
+     */
+    public void execute(String conversationKey, Runnable task) {
+        boolean needSchedule;
+        ConversationQueue queue;
+
+        synchronized (queues) {
+            queue = queues.computeIfAbsent(conversationKey, ConversationQueue::new);
+            queue.tasks.add(task);
+            // 该会话当前没有任务在执行时才需要调度，否则由正在执行的线程顺带处理
+            needSchedule = !queue.running;
+            queue.running = true;
+        }
+
+        if (needSchedule) {
+            workers.execute(() -> drain(queue));
+        }
+    }
+
+    /**
+     * 依次执行某个会话队列中的任务，队列为空时释放该会话
+     */
+    private void drain(ConversationQueue queue) {
+        while (true) {
+            Runnable task;
+            synchronized (queues) {
+                task = queue.tasks.poll();
+                if (task == null) {
+                    queue.running = false;
+                    queues.remove(queue.key);
+                    return;
+                }
+            }
+
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("[ConversationExecutor] 会话任务执行失败: " + queue.key + ", " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        int activeConversations;
+        int pendingTasks = 0;
+        synchronized (queues) {
+            activeConversations = queues.size();
+            for (ConversationQueue queue : queues.values()) {
+                pendingTasks += queue.tasks.size();
+            }
+        }
+        return String.format("会话执行器: %d个工作线程, %d个活跃会话, %d个待执行任务",
+                WORKER_COUNT, activeConversations, pendingTasks);
+    }
+
+    /**
+     * 单个会话的任务队列
+     */
+    private static class ConversationQueue {
+        private final String key;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running = false;
+
+        ConversationQueue(String key) {
+            this.key = key;
+        }
+    }
+}
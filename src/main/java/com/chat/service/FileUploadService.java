@@ -1,8 +1,6 @@
 package com.chat.service;
 
 import com.chat.network.SocketClient;
-import com.chat.protocol.FilePrivateSend;
-import com.chat.protocol.FileGroupSend;
 import javafx.application.Platform;
 import javafx.scene.control.Alert;
 import javafx.stage.Window;
@@ -45,45 +43,44 @@ public class FileUploadService {
         // 4. 在新线程中发送文件
         new Thread(() -> {
             try {
-                // 5. 将文件转换为Base64
-                String base64Data = fileToBase64(selectedFile);
-                if (base64Data == null) {
-                    Platform.runLater(() -> {
-                        showError(ownerWindow, "处理失败", "文件编码失败");
-                    });
-                    return;
-                }
-
-                System.out.printf("[FileUploadService] 文件处理成功: %s, 大小: %s, Base64长度: %d%n",
+                // 5. 放入发件箱（只记录文件路径，发送时再编码），立即尝试发送
+                Outbox outbox = Outbox.getInstance();
+                Outbox.OutboxEntry entry = outbox.enqueueFile(chatType, "group".equals(chatType) ? groupId : contactId,
+                        userId, selectedFile, generateFileId(), FileService.getFileTypeCategory(selectedFile));
+                boolean sent = outbox.send(socketClient, entry.getClientMsgId());
+                boolean queued = !sent && outbox.get(entry.getClientMsgId()) != null;
+
+                System.out.printf("[FileUploadService] 文件消息%s: %s, 大小: %s%n",
+                        sent ? "已发送" : queued ? "已排队" : "发送失败",
                         selectedFile.getName(),
-                        FileService.formatFileSize(selectedFile.length()),
-                        base64Data.length());
-
-                // 6. 创建并发送文件消息
-                boolean sent = sendFileMessage(socketClient, userId, contactId, groupId,
-                        chatType, selectedFile, base64Data);
+                        FileService.formatFileSize(selectedFile.length()));
 
-                if (sent) {
+                if (sent || queued) {
                     Platform.runLater(() -> {
-                        showSuccess(ownerWindow, "发送成功",
-                                String.format("文件已发送: %s", selectedFile.getName()));
+                        if (sent) {
+                            showSuccess(ownerWindow, "发送成功",
+                                    String.format("文件已发送: %s", selectedFile.getName()));
+                        } else {
+                            showInfo(ownerWindow, "等待发送",
+                                    String.format("网络未连接，文件将在连接恢复后自动发送: %s", selectedFile.getName()));
+                        }
 
                         // 回调成功
                         if (callback != null) {
                             callback.onUploadSuccess(new FileUploadResult(
-                                    generateFileId(),
-                                    selectedFile.getName(),
-                                    selectedFile.length(),
+                                    entry.getFileId(),
+                                    entry.getFileName(),
+                                    entry.getFileSize(),
                                     "", // 不需要URL
-                                    FileService.getFileTypeCategory(selectedFile)
+                                    entry.getFileType()
                             ));
                         }
                     });
                 } else {
                     Platform.runLater(() -> {
-                        showError(ownerWindow, "发送失败", "文件发送失败，请检查网络连接");
+                        showError(ownerWindow, "发送失败", "文件读取失败");
                         if (callback != null) {
-                            callback.onUploadFailure("网络发送失败");
+                            callback.onUploadFailure("文件读取失败");
                         }
                     });
                 }
@@ -117,9 +114,9 @@ public class FileUploadService {
     }
 
     /**
-     * 将文件转换为Base64字符串（类似AvatarService.imageFileToBase64）
+     * 将文件转换为Base64字符串（发件箱发送文件消息时调用）
      */
-    private static String fileToBase64(File file) {
+    static String fileToBase64(File file) {
         if (file == null || !file.exists()) {
             return null;
         }
@@ -144,57 +141,6 @@ public class FileUploadService {
         }
     }
 
-    /**
-     * 发送文件消息
-     */
-    private static boolean sendFileMessage(SocketClient socketClient, Long userId,
-                                           Long contactId, Long groupId, String chatType,
-                                           File file, String base64Data) {
-
-        if (socketClient == null || !socketClient.isConnected()) {
-            System.err.println("[FileUploadService] Socket未连接");
-            return false;
-        }
-
-        try {
-            if ("private".equals(chatType)) {
-                // 发送私聊文件消息
-                FilePrivateSend fileMessage = new FilePrivateSend();
-                fileMessage.setFileId(generateFileId());
-                fileMessage.setFileName(file.getName());
-                fileMessage.setFileSize(file.length());
-                fileMessage.setFileType(FileService.getFileTypeCategory(file));
-                fileMessage.setSenderId(userId);
-                fileMessage.setReceiverId(contactId);
-                fileMessage.setDownloadUrl(base64Data); // 存储Base64数据
-
-                System.out.println("[FileUploadService] 发送私聊文件消息: " + file.getName());
-                return socketClient.sendPrivateFileMessage(fileMessage);
-
-            } else if ("group".equals(chatType)) {
-                // 发送群聊文件消息
-                FileGroupSend fileMessage = new FileGroupSend();
-                fileMessage.setFileId(generateFileId());
-                fileMessage.setFileName(file.getName());
-                fileMessage.setFileSize(file.length());
-                fileMessage.setFileType(FileService.getFileTypeCategory(file));
-                fileMessage.setSenderId(userId);
-                fileMessage.setGroupId(groupId);
-                fileMessage.setDownloadUrl(base64Data); // 存储Base64数据
-
-                System.out.println("[FileUploadService] 发送群聊文件消息: " + file.getName());
-                return socketClient.sendGroupFileMessage(fileMessage);
-            }
-
-            return false;
-
-        } catch (Exception e) {
-            System.err.println("[FileUploadService] 发送文件消息失败: " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     /**
      * 生成简单的文件ID
      */
@@ -24,18 +24,17 @@ public class FriendProfileService {
     public FriendDetailResponse getFriendDetail(Long userId, Long friendId) {
         try {
             FriendDetailRequest request = new FriendDetailRequest(userId, friendId);
-            String responseJson = socketClient.sendRequest(request);
-
-            if (responseJson != null) {
-                FriendDetailResponse response = gson.fromJson(responseJson, FriendDetailResponse.class);
-                if (response != null) {
-                    if (response.isSuccess()) {
-                        return response;
-                    } else {
-                        System.err.println("[FriendProfileService] 获取好友详情失败: " + response.getMessage());
-                    }
+            // 优先使用缓存；多个窗口同时请求同一个好友的详情时只发送一次
+            FriendDetailResponse response = ResponseCache.getInstance().get(ResponseCache.Kind.FRIEND_DETAIL,
+                    ResponseCache.friendDetailId(userId, friendId),
+                    () -> socketClient.sendRequest(request, FriendDetailResponse.class),
+                    FriendDetailResponse::isSuccess);
+
+            if (response != null) {
+                if (response.isSuccess()) {
+                    return response;
                 } else {
-                    System.err.println("[FriendProfileService] 好友详情响应解析失败");
+                    System.err.println("[FriendProfileService] 获取好友详情失败: " + response.getMessage());
                 }
             } else {
                 System.err.println("[FriendProfileService] 好友详情请求无响应");
@@ -71,6 +70,7 @@ public class FriendProfileService {
                         try {
                             DeleteFriendResponse response = gson.fromJson(responseJson, DeleteFriendResponse.class);
                             if (response != null && response.isSuccess()) {
+                                ResponseCache.getInstance().invalidateFriend(userId, friendId);
                                 DialogUtil.showInfo(window, "好友删除成功");
                                 if (onSuccess != null) {
                                     onSuccess.run();
@@ -7,7 +7,9 @@ import com.chat.protocol.FriendListResponse;
 import com.google.gson.Gson;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 好友相关业务：向服务器请求好友列表，并转换为 UI 层使用的 FriendItem。
@@ -20,23 +22,48 @@ public class FriendService {
      * 从服务器加载好友列表，并转换为 FriendItem 集合。
      */
     public List<FriendItem> loadFriends(SocketClient client) {
-        List<FriendItem> result = new ArrayList<>();
+        List<FriendItem> friends = fetchFriends(client);
+        return friends != null ? friends : new ArrayList<>();
+    }
+
+    /**
+     * 从服务器加载好友列表；未连接、无响应或响应无法解析时返回null，与服务器返回的空列表区分
+     */
+    public List<FriendItem> fetchFriends(SocketClient client) {
         if (client == null || !client.isConnected()) {
-            return result;
+            return null;
         }
 
         FriendListRequest request = new FriendListRequest();
         String responseJson = client.sendRequest(request);
         if (responseJson == null || responseJson.isEmpty()) {
-            return result;
+            return null;
         }
 
-        FriendListResponse response = gson.fromJson(responseJson, FriendListResponse.class);
-        if (response == null || response.getFriends() == null) {
-            return result;
+        FriendListResponse response;
+        try {
+            response = gson.fromJson(responseJson, FriendListResponse.class);
+        } catch (Exception e) {
+            System.err.println("[FriendService] 解析好友列表响应失败: " + e.getMessage());
+            return null;
+        }
+        if (response == null) {
+            return null;
         }
+        if (response.getFriends() == null) {
+            return new ArrayList<>();
+        }
+        return toFriendItems(response.getFriends());
+    }
 
-        for (FriendListResponse.FriendItem f : response.getFriends()) {
+    /**
+     * 把服务器返回的好友转换为 FriendItem（好友列表响应和启动数据响应共用）
+     */
+    public List<FriendItem> toFriendItems(List<FriendListResponse.FriendItem> friends) {
+        List<FriendItem> result = new ArrayList<>();
+        Map<Long, String> names = new HashMap<>();
+        for (FriendListResponse.FriendItem f : friends) {
+            names.put(f.getUid(), f.getUsername());
             FriendItem item = new FriendItem(
                     f.getUid() != null ? f.getUid().toString() : "0",
                     f.getUsername() != null ? f.getUsername() : "未知用户",
@@ -46,6 +73,8 @@ public class FriendService {
             );
             result.add(item);
         }
+        // 好友列表已带有用户名，直接写入用户名目录
+        UserDirectoryService.getInstance().remember(names);
         return result;
     }
 }
@@ -25,8 +25,8 @@ public class GroupDetailsService {
     private final Gson gson = new Gson();
     private final JsonParser jsonParser = new JsonParser();
 
-    // 存储文件列表缓存
-    private Map<String, List<GroupDetailResponse.GroupFile>> groupFilesCache = new HashMap<>();
+    // 群详情（包括成员和文件列表）缓存在 ResponseCache 中，群成员或群文件变化时失效
+    private final ResponseCache responseCache = ResponseCache.getInstance();
 
     public GroupDetailsService(SocketClient socketClient) {
         this.socketClient = socketClient;
@@ -38,24 +38,18 @@ public class GroupDetailsService {
     public GroupDetailResponse getGroupDetail(Long groupId, Long userId) {
         try {
             GroupDetailRequest request = new GroupDetailRequest(groupId, userId);
-            String responseJson = socketClient.sendRequest(request);
-
-            if (responseJson != null) {
-                GroupDetailResponse response = gson.fromJson(responseJson, GroupDetailResponse.class);
-                if (response != null) {
-                    if (response.isSuccess()) {
-                        // 缓存文件列表
-                        if (response.getFiles() != null) {
-                            String cacheKey = groupId + "_" + userId;
-                            groupFilesCache.put(cacheKey, response.getFiles());
-                            System.out.println("[GroupDetailsService] 缓存文件列表，数量: " + response.getFiles().size());
-                        }
-                        return response;
-                    } else {
-                        System.err.println("[GroupDetailsService] 获取群详情失败: " + response.getMessage());
-                    }
+            // 优先使用缓存；多个窗口同时请求同一个群的详情时只发送一次
+            GroupDetailResponse response = responseCache.get(ResponseCache.Kind.GROUP_DETAIL,
+                    ResponseCache.groupDetailId(groupId, userId),
+                    () -> socketClient.sendRequest(request, GroupDetailResponse.class),
+                    GroupDetailResponse::isSuccess);
+
+            if (response != null) {
+                if (response.isSuccess()) {
+                    rememberMemberNames(response);
+                    return response;
                 } else {
-                    System.err.println("[GroupDetailsService] 群详情响应解析失败");
+                    System.err.println("[GroupDetailsService] 获取群详情失败: " + response.getMessage());
                 }
             } else {
                 System.err.println("[GroupDetailsService] 群详情请求无响应");
@@ -67,6 +61,20 @@ public class GroupDetailsService {
         return null;
     }
 
+    /**
+     * 群详情已带有成员的用户名，写入用户名目录，群聊窗口中的发送者不必再单独查询
+     */
+    private void rememberMemberNames(GroupDetailResponse response) {
+        if (response.getMembers() == null) {
+            return;
+        }
+        Map<Long, String> names = new HashMap<>();
+        for (GroupDetailResponse.GroupMember member : response.getMembers()) {
+            names.put(member.getUserId(), member.getUsername());
+        }
+        UserDirectoryService.getInstance().remember(names);
+    }
+
     /**
      * 下载群文件（使用缓存中的真实fileId）
      */
@@ -81,22 +89,13 @@ public class GroupDetailsService {
         System.out.println("  - groupId: " + groupId);
         System.out.println("  - userId: " + userId);
 
-        // 1. 从缓存中获取文件列表
-        String cacheKey = groupId + "_" + userId;
-        List<GroupDetailResponse.GroupFile> cachedFiles = groupFilesCache.get(cacheKey);
-
-        if (cachedFiles == null || cachedFiles.isEmpty()) {
-            System.err.println("[GroupDetailsService] 文件列表缓存为空，重新获取群详情");
-
-            // 重新获取群详情
-            GroupDetailResponse response = getGroupDetail(groupId, userId);
-            if (response != null && response.getFiles() != null) {
-                cachedFiles = response.getFiles();
-            } else {
-                Platform.runLater(() -> DialogUtil.showError(window, "无法获取文件列表"));
-                return;
-            }
+        // 1. 获取文件列表（群详情在 ResponseCache 中，通常直接命中）
+        GroupDetailResponse response = getGroupDetail(groupId, userId);
+        if (response == null || response.getFiles() == null) {
+            Platform.runLater(() -> DialogUtil.showError(window, "无法获取文件列表"));
+            return;
         }
+        List<GroupDetailResponse.GroupFile> cachedFiles = response.getFiles();
 
         // 2. 解析选择的文件名
         String cleanFileName = extractCleanFileName(selectedFile);
@@ -401,6 +400,7 @@ public class GroupDetailsService {
                             if (response != null && "exit_group_response".equals(response.get("type"))) {
                                 Boolean success = (Boolean) response.get("success");
                                 if (success != null && success) {
+                                    responseCache.invalidateGroup(groupId);
                                     DialogUtil.showInfo(window, "已成功退出群聊");
                                     if (onSuccess != null) {
                                         onSuccess.run();
@@ -665,6 +665,8 @@ public class GroupDetailsService {
                             GroupAddMemberResponse response = gson.fromJson(responseJson, GroupAddMemberResponse.class);
                             if (response != null && MessageType.GROUP_ADD_MEMBER_RESPONSE.equals(response.getType())) {
                                 if (response.isSuccess()) {
+                                    // 成员列表已变化，之后的群详情重新从服务器获取
+                                    responseCache.invalidateGroup(groupId);
                                     DialogUtil.showInfo(window, "添加成员成功");
                                     if (onSuccess != null) {
                                         onSuccess.run();
@@ -20,23 +20,46 @@ public class GroupService {
      * 从服务器加载群组列表，并转换为 GroupItem 集合。
      */
     public List<GroupItem> loadGroups(SocketClient client) {
-        List<GroupItem> result = new ArrayList<>();
+        List<GroupItem> groups = fetchGroups(client);
+        return groups != null ? groups : new ArrayList<>();
+    }
+
+    /**
+     * 从服务器加载群组列表；未连接、无响应或响应无法解析时返回null，与服务器返回的空列表区分
+     */
+    public List<GroupItem> fetchGroups(SocketClient client) {
         if (client == null || !client.isConnected()) {
-            return result;
+            return null;
         }
 
         GroupListRequest request = new GroupListRequest();
         String responseJson = client.sendRequest(request);
         if (responseJson == null || responseJson.isEmpty()) {
-            return result;
+            return null;
         }
 
-        GroupListResponse response = gson.fromJson(responseJson, GroupListResponse.class);
-        if (response == null || response.getGroups() == null) {
-            return result;
+        GroupListResponse response;
+        try {
+            response = gson.fromJson(responseJson, GroupListResponse.class);
+        } catch (Exception e) {
+            System.err.println("[GroupService] 解析群组列表响应失败: " + e.getMessage());
+            return null;
+        }
+        if (response == null) {
+            return null;
         }
+        if (response.getGroups() == null) {
+            return new ArrayList<>();
+        }
+        return toGroupItems(response.getGroups());
+    }
 
-        for (GroupListResponse.GroupItem g : response.getGroups()) {
+    /**
+     * 把服务器返回的群组转换为 GroupItem（群组列表响应和启动数据响应共用）
+     */
+    public List<GroupItem> toGroupItems(List<GroupListResponse.GroupItem> groups) {
+        List<GroupItem> result = new ArrayList<>();
+        for (GroupListResponse.GroupItem g : groups) {
             GroupItem item = new GroupItem(
                     g.getId() != null ? g.getId().toString() : "0",
                     g.getName() != null ? g.getName() : "未知群组",
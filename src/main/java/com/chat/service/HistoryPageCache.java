@@ -0,0 +1,137 @@
+package com.chat.service;
+
+import com.chat.network.SocketClient;
+import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.ChatHistoryResponse.HistoryMessageItem;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 历史消息分页缓存 - 单例模式，按 (聊天类型, 目标ID, 每页条数, 游标) 缓存已加载的历史页
+ * 游标页的内容由消息ID范围决定，不会随新消息变化，可以跨窗口复用；最新一页没有游标，不缓存
+ * 显示第k页后在后台预取第k+1页，同一页的并发请求合并为一次
+ */
+public class HistoryPageCache {
+
+    private static HistoryPageCache instance;
+
+    // 最多缓存的页数，另外按估算字节数参与全局内存预算
+    private static final int MAX_PAGES = 200;
+
+    private final HistoryService historyService = new HistoryService();
+    private final LruCache<String, ChatHistoryResponse> pages =
+            new LruCache<>("历史消息分页", MAX_PAGES, HistoryPageCache::estimateBytes);
+
+    // 正在请求中的页：key -> 请求结果
+    private final Map<String, CompletableFuture<ChatHistoryResponse>> inflight = new ConcurrentHashMap<>();
+
+    private HistoryPageCache() {
+        MemoryBudgetService.getInstance().register(pages);
+    }
+
+    public static synchronized HistoryPageCache getInstance() {
+        if (instance == null) {
+            instance = new HistoryPageCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 加载一页历史消息：命中缓存时直接回调，已在预取中时等待预取结果，否则发起请求
+     * 回调可能在调用线程或加载线程中执行
+     */
+    public void loadPage(SocketClient client, String chatType, Long targetId, int limit, String cursor,
+                         HistoryService.HistoryCallback callback) {
+        if (cursor == null) {
+            historyService.loadHistoryPage(client, chatType, targetId, limit, null, null, callback);
+            return;
+        }
+
+        String key = keyOf(chatType, targetId, limit, cursor);
+        ChatHistoryResponse cached = pages.get(key);
+        if (cached != null) {
+            System.out.println("[HistoryPageCache] 命中缓存: " + key);
+            callback.onHistoryLoaded(cached, null);
+            return;
+        }
+
+        fetch(client, chatType, targetId, limit, cursor, key).whenComplete((response, error) -> {
+            if (response != null) {
+                callback.onHistoryLoaded(response, null);
+            } else {
+                callback.onHistoryLoaded(null, error != null ? error.getMessage() : "服务器无响应");
+            }
+        });
+    }
+
+    /**
+     * 在后台预取下一页（已缓存或已在请求中时忽略）
+     */
+    public void prefetch(SocketClient client, String chatType, Long targetId, int limit, String cursor) {
+        if (cursor == null || client == null || !client.isConnected()) {
+            return;
+        }
+        String key = keyOf(chatType, targetId, limit, cursor);
+        if (pages.containsKey(key) || inflight.containsKey(key)) {
+            return;
+        }
+        System.out.println("[HistoryPageCache] 预取下一页: " + key);
+        fetch(client, chatType, targetId, limit, cursor, key);
+    }
+
+    /**
+     * 清空缓存（退出登录时调用）
+     */
+    public void clear() {
+        pages.clear();
+    }
+
+    /**
+     * 请求一页并放入缓存，同一页只会有一个请求在进行
+     */
+    private CompletableFuture<ChatHistoryResponse> fetch(SocketClient client, String chatType, Long targetId,
+                                                         int limit, String cursor, String key) {
+        CompletableFuture<ChatHistoryResponse> created = new CompletableFuture<>();
+        CompletableFuture<ChatHistoryResponse> existing = inflight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        historyService.loadHistoryPage(client, chatType, targetId, limit, cursor, null, (response, error) -> {
+            if (response != null) {
+                pages.put(key, response);
+            }
+            inflight.remove(key);
+            if (response != null) {
+                created.complete(response);
+            } else {
+                created.completeExceptionally(new IllegalStateException(error));
+            }
+        });
+        return created;
+    }
+
+    private static String keyOf(String chatType, Long targetId, int limit, String cursor) {
+        return chatType + "_" + targetId + "_" + limit + "_" + cursor;
+    }
+
+    /**
+     * 估算一页占用的堆内存字节数（每条消息约160字节，字符串按每字符2字节计）
+     */
+    private static long estimateBytes(ChatHistoryResponse page) {
+        long bytes = 128;
+        if (page.getMessages() != null) {
+            for (HistoryMessageItem item : page.getMessages()) {
+                bytes += 160 + stringBytes(item.getContent()) + stringBytes(item.getFileName())
+                        + stringBytes(item.getFileUrl()) + stringBytes(item.getTimestamp());
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+}
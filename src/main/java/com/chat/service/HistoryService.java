@@ -1,13 +1,23 @@
 package com.chat.service;
 
+import com.chat.model.MessageRecord;
 import com.chat.network.SocketClient;
 import com.chat.protocol.ChatHistoryRequest;
 import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.ChatHistoryResponse.HistoryMessageItem;
+import com.chat.protocol.ContentType;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * 专门的历史消息服务
@@ -16,100 +26,169 @@ public class HistoryService {
     private final Gson gson = new Gson();
     private final JsonParser jsonParser = new JsonParser();
 
-    // 时间格式化器
-    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+    // 时间格式化器（DateTimeFormatter 线程安全，可在多个加载线程中共用）
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
     // 数据库datetime格式
-    private final SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DB_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     public HistoryService() {
         System.out.println("[HistoryService] 初始化");
     }
 
     /**
-     * 加载历史消息
+     * 在后台线程中加载一页历史消息（从游标位置向更早的方向翻页）
+     * @param cursor 上一页响应的 nextCursor，为null时加载最新一页
+     * @param afterId 只要消息ID大于该值的消息，为null时不限制
      */
-    public void loadHistoryMessages(SocketClient client, String chatType, Long targetId,
-                                    Integer limit, Long beforeTimestamp,
-                                    HistoryCallback callback) {
+    public void loadHistoryPage(SocketClient client, String chatType, Long targetId, Integer limit,
+                                String cursor, Long afterId, HistoryCallback callback) {
         new Thread(() -> {
             try {
-                System.out.println("[HistoryService] 开始加载历史消息: " + chatType + ", 目标ID: " + targetId);
-
-                ChatHistoryRequest request = new ChatHistoryRequest();
-                request.setChatType(chatType);
-                request.setLimit(limit != null ? limit : 50);
-
-                // 关键修复：根据聊天类型设置不同的字段
-                if ("private".equals(chatType)) {
-                    System.out.println("[HistoryService] 设置私聊参数: targetUserId=" + targetId);
-                    request.setTargetUserId(targetId);  // 私聊用 targetUserId
-                } else if ("group".equals(chatType)) {
-                    System.out.println("[HistoryService] 设置群聊参数: groupId=" + targetId);
-                    request.setGroupId(targetId);       // 群聊用 groupId
-                } else {
-                    System.err.println("[HistoryService] 错误的聊天类型: " + chatType);
-                    if (callback != null) {
-                        callback.onHistoryLoaded(null, "错误的聊天类型: " + chatType);
-                    }
-                    return;
+                ChatHistoryResponse response = requestPage(client, chatType, targetId, limit, cursor, afterId);
+                if (callback != null) {
+                    callback.onHistoryLoaded(response, null);
                 }
-
-                if (beforeTimestamp != null) {
-                    request.setBeforeTimestamp(beforeTimestamp);
+            } catch (Exception e) {
+                System.err.println("[HistoryService] 加载失败: " + e.getMessage());
+                if (callback != null) {
+                    callback.onHistoryLoaded(null, e.getMessage());
                 }
+            }
+        }).start();
+    }
 
-                // 打印请求详情
-                System.out.println("[HistoryService] 历史记录请求详情:");
-                System.out.println("  - chatType: " + request.getChatType());
-                System.out.println("  - targetUserId: " + request.getTargetUserId());
-                System.out.println("  - groupId: " + request.getGroupId());
-                System.out.println("  - limit: " + request.getLimit());
-
-                // 发送请求
-                String responseJson = client.sendRequest(request);
-
-                if (responseJson == null || responseJson.trim().isEmpty()) {
-                    System.err.println("[HistoryService] 历史消息请求无响应");
-                    if (callback != null) {
-                        callback.onHistoryLoaded(null, "服务器无响应");
-                    }
-                    return;
-                }
+    /**
+     * 同步请求一页历史消息（在调用线程中执行），失败时返回null
+     */
+    public ChatHistoryResponse fetchHistoryPage(SocketClient client, String chatType, Long targetId,
+                                                Integer limit, String cursor, Long afterId) {
+        try {
+            return requestPage(client, chatType, targetId, limit, cursor, afterId);
+        } catch (Exception e) {
+            System.err.println("[HistoryService] 加载失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 生成从指定消息开始向更早方向翻页的游标（不包含该消息）
+     */
+    public static String cursorBefore(long messageId, long timestamp) {
+        return new PageCursor(messageId, timestamp, null).encode();
+    }
 
-                System.out.println("[HistoryService] 收到响应: " + responseJson);
+    /**
+     * 生成指定时间之前的翻页游标（不知道消息ID时使用，如按日期跳转）
+     */
+    public static String cursorBeforeTime(long timestamp) {
+        return new PageCursor(Long.MAX_VALUE, timestamp - 1000, null).encode();
+    }
 
-                ChatHistoryResponse response = gson.fromJson(responseJson, ChatHistoryResponse.class);
+    /**
+     * 发送一页历史记录请求并整理结果，失败时抛出异常（异常信息用于界面提示）
+     */
+    private ChatHistoryResponse requestPage(SocketClient client, String chatType, Long targetId,
+                                            Integer limit, String cursor, Long afterId) {
+        int pageSize = limit != null ? limit : 50;
+        ChatHistoryRequest request = buildRequest(chatType, targetId, pageSize);
+        if (request == null) {
+            throw new IllegalArgumentException("错误的聊天类型: " + chatType);
+        }
 
-                if (response == null) {
-                    System.err.println("[HistoryService] 解析响应失败");
-                    if (callback != null) {
-                        callback.onHistoryLoaded(null, "解析响应失败");
-                    }
-                    return;
-                }
+        PageCursor position = PageCursor.decode(cursor);
+        if (position != null) {
+            request.setBeforeId(position.beforeId);
+            // 兼容只认时间的服务器：DATETIME 只精确到秒，取到该秒末尾，同一秒内已加载的消息再按ID过滤
+            request.setBeforeTimestamp(position.beforeTimestamp + 1000);
+            request.setCursor(position.serverCursor);
+        }
+        request.setAfterId(afterId);
 
-                if (!response.isSuccess()) {
-                    System.err.println("[HistoryService] 请求失败: " + response.getMessage());
-                    if (callback != null) {
-                        callback.onHistoryLoaded(null, response.getMessage());
-                    }
-                    return;
-                }
+        System.out.println("[HistoryService] 加载历史消息: " + chatType + ", 目标ID: " + targetId +
+                ", limit: " + pageSize + ", beforeId: " + request.getBeforeId() + ", afterId: " + afterId);
 
-                System.out.println("[HistoryService] 成功加载 " +
-                        (response.getMessages() != null ? response.getMessages().size() : 0) + " 条历史消息");
+        String responseJson = client.sendRequest(request);
+        if (responseJson == null || responseJson.trim().isEmpty()) {
+            System.err.println("[HistoryService] 历史消息请求无响应");
+            throw new IllegalStateException("服务器无响应");
+        }
 
-                if (callback != null) {
-                    callback.onHistoryLoaded(response, null);
-                }
+        ChatHistoryResponse response = gson.fromJson(responseJson, ChatHistoryResponse.class);
+        if (response == null) {
+            System.err.println("[HistoryService] 解析响应失败");
+            throw new IllegalStateException("解析响应失败");
+        }
+        if (!response.isSuccess()) {
+            System.err.println("[HistoryService] 请求失败: " + response.getMessage());
+            throw new IllegalStateException(response.getMessage());
+        }
 
-            } catch (Exception e) {
-                System.err.println("[HistoryService] 加载失败: " + e.getMessage());
-                if (callback != null) {
-                    callback.onHistoryLoaded(null, "加载失败: " + e.getMessage());
+        normalizePage(response, request, pageSize);
+        System.out.println("[HistoryService] 成功加载 " + response.getMessages().size() +
+                " 条历史消息, hasMore: " + response.getHasMore());
+        return response;
+    }
+
+    /**
+     * 整理一页结果：按游标范围过滤、按消息ID从旧到新排序，并计算 hasMore 和 nextCursor
+     * 支持ID游标的服务器直接返回精确的一页；按时间翻页的旧版服务器在这里去掉越界和重复的消息
+     */
+    private void normalizePage(ChatHistoryResponse response, ChatHistoryRequest request, int pageSize) {
+        List<HistoryMessageItem> messages = new ArrayList<>();
+        int received = 0;
+        boolean reachedAfterId = false;
+
+        if (response.getMessages() != null) {
+            received = response.getMessages().size();
+            for (HistoryMessageItem item : response.getMessages()) {
+                Long id = item.getId();
+                if (id != null && request.getBeforeId() != null && id >= request.getBeforeId()) {
+                    continue;
+                }
+                if (id != null && request.getAfterId() != null && id <= request.getAfterId()) {
+                    reachedAfterId = true;
+                    continue;
                 }
+                messages.add(item);
             }
-        }).start();
+        }
+        messages.sort(Comparator.comparing(HistoryMessageItem::getId, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        boolean hasMore = response.getHasMore() != null
+                ? response.getHasMore()
+                : !reachedAfterId && received >= pageSize;
+        hasMore = hasMore && !messages.isEmpty() && messages.get(0).getId() != null;
+
+        String nextCursor = null;
+        if (hasMore) {
+            HistoryMessageItem oldest = messages.get(0);
+            nextCursor = new PageCursor(oldest.getId(), dbDateTimeToTimestamp(oldest.getTimestamp()),
+                    response.getNextCursor()).encode();
+        }
+
+        response.setMessages(messages);
+        response.setHasMore(hasMore);
+        response.setNextCursor(nextCursor);
+    }
+
+    /**
+     * 构建历史记录请求，聊天类型错误时返回null
+     */
+    private ChatHistoryRequest buildRequest(String chatType, Long targetId, int limit) {
+        ChatHistoryRequest request = new ChatHistoryRequest();
+        request.setChatType(chatType);
+        request.setLimit(limit);
+
+        // 关键修复：根据聊天类型设置不同的字段
+        if ("private".equals(chatType)) {
+            request.setTargetUserId(targetId);  // 私聊用 targetUserId
+        } else if ("group".equals(chatType)) {
+            request.setGroupId(targetId);       // 群聊用 groupId
+        } else {
+            System.err.println("[HistoryService] 错误的聊天类型: " + chatType);
+            return null;
+        }
+        return request;
     }
 
     /**
@@ -156,7 +235,9 @@ public class HistoryService {
         }
 
         try {
-            return dbDateFormat.parse(datetimeStr);
+            // 允许末尾带有毫秒等多余部分（如 "2024-01-01 12:00:00.0"）
+            LocalDateTime dateTime = LocalDateTime.from(DB_DATE_FORMAT.parse(datetimeStr.trim(), new ParsePosition(0)));
+            return java.util.Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
         } catch (Exception e) {
             System.err.println("[HistoryService] 解析datetime失败: " + datetimeStr);
             return new java.util.Date();
@@ -168,7 +249,7 @@ public class HistoryService {
      */
     public String formatDbDateTimeForDisplay(String datetimeStr) {
         java.util.Date date = parseDbDateTime(datetimeStr);
-        return timeFormat.format(date);
+        return TIME_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()));
     }
 
     /**
@@ -179,6 +260,86 @@ public class HistoryService {
         return date.getTime();
     }
 
+    /**
+     * 将历史记录条目转换为会话记录（写入本地消息存储），没有消息ID的条目跳过
+     */
+    public List<MessageRecord> toMessageRecords(List<HistoryMessageItem> items) {
+        List<MessageRecord> records = new ArrayList<>(items.size());
+        for (HistoryMessageItem item : items) {
+            if (item.getId() == null) {
+                continue;
+            }
+            long timestamp = dbDateTimeToTimestamp(item.getTimestamp());
+            boolean isFile = item.getContentType() != null && !ContentType.TEXT.equals(item.getContentType());
+            if (isFile) {
+                records.add(MessageRecord.file(item.getId(), item.getSenderId(), null, item.getFileName(),
+                        item.getFileSize() != null ? item.getFileSize() : 0, null, item.getFileUrl(), timestamp));
+            } else {
+                records.add(MessageRecord.text(item.getId(), item.getSenderId(), item.getContent(), timestamp));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 将本地存储的会话记录转换为历史记录条目（用于历史记录窗口显示）
+     */
+    public HistoryMessageItem toHistoryItem(MessageRecord record, String chatType, Long userId, Long targetId) {
+        HistoryMessageItem item = new HistoryMessageItem();
+        item.setId(record.getId());
+        item.setSenderId(record.getSenderId());
+        if ("group".equals(chatType)) {
+            item.setGroupId(targetId);
+        } else {
+            item.setReceiverId(userId.equals(record.getSenderId()) ? targetId : userId);
+        }
+        item.setContentType(record.getContentType());
+        item.setContent(record.getContent());
+        if (record.isFile()) {
+            item.setFileName(record.getFileName());
+            item.setFileSize(record.getFileSize());
+            item.setFileUrl(record.getFileUrl());
+        }
+        item.setTimestamp(DB_DATE_FORMAT.format(Instant.ofEpochMilli(record.getTimestamp()).atZone(ZoneId.systemDefault())));
+        return item;
+    }
+
+    /**
+     * 翻页游标：本页最旧消息的ID和时间戳，以及服务器返回的游标（如有）
+     * 编码为 "v1:消息ID:时间戳[:服务器游标]"，对调用方不透明
+     */
+    private static class PageCursor {
+        private static final String PREFIX = "v1:";
+
+        final long beforeId;
+        final long beforeTimestamp;
+        final String serverCursor;
+
+        PageCursor(long beforeId, long beforeTimestamp, String serverCursor) {
+            this.beforeId = beforeId;
+            this.beforeTimestamp = beforeTimestamp;
+            this.serverCursor = serverCursor;
+        }
+
+        String encode() {
+            return PREFIX + beforeId + ":" + beforeTimestamp + (serverCursor != null ? ":" + serverCursor : "");
+        }
+
+        static PageCursor decode(String cursor) {
+            if (cursor == null || !cursor.startsWith(PREFIX)) {
+                return null;
+            }
+            String[] parts = cursor.substring(PREFIX.length()).split(":", 3);
+            try {
+                return new PageCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        parts.length > 2 ? parts[2] : null);
+            } catch (RuntimeException e) {
+                System.err.println("[HistoryService] 无效的翻页游标: " + cursor);
+                return null;
+            }
+        }
+    }
+
     /**
      * 历史消息加载回调接口
      */
@@ -0,0 +1,123 @@
+package com.chat.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按访问顺序淘汰的线程安全缓存，可注册到 MemoryBudgetService 参与全局内存预算
+ */
+public class LruCache<K, V> implements MemoryBudgetService.TrimmableCache {
+
+    // 未提供估算函数时每个条目按固定大小估算
+    private static final long DEFAULT_ENTRY_BYTES = 256;
+
+    private final String name;
+    private final int maxEntries;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes = 0;
+
+    public LruCache(String name, int maxEntries) {
+        this(name, maxEntries, null);
+    }
+
+    public LruCache(String name, int maxEntries, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        V old;
+        synchronized (this) {
+            old = entries.put(key, value);
+            if (old != null) {
+                retainedBytes -= weigh(old);
+            }
+            retainedBytes += weigh(value);
+
+            // 超出条目上限时淘汰最久未访问的条目
+            Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                retainedBytes -= weigh(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+
+        // 在锁外检查全局预算，避免与其他缓存互相持锁
+        MemoryBudgetService.getInstance().checkBudget();
+        return old;
+    }
+
+    public synchronized V remove(K key) {
+        V old = entries.remove(key);
+        if (old != null) {
+            retainedBytes -= weigh(old);
+        }
+        return old;
+    }
+
+    /**
+     * 删除所有key满足条件的条目，返回删除的条数
+     */
+    public synchronized int removeIf(Predicate<K> keyFilter) {
+        int removed = 0;
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            if (keyFilter.test(entry.getKey())) {
+                retainedBytes -= weigh(entry.getValue());
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        retainedBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String getCacheName() {
+        return name;
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @Override
+    public synchronized long trim(long bytesToFree) {
+        long freed = 0;
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (freed < bytesToFree && iterator.hasNext()) {
+            long bytes = weigh(iterator.next().getValue());
+            iterator.remove();
+            freed += bytes;
+        }
+        retainedBytes -= freed;
+        return freed;
+    }
+
+    private long weigh(V value) {
+        return weigher != null ? weigher.applyAsLong(value) : DEFAULT_ENTRY_BYTES;
+    }
+}
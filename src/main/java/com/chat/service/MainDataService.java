@@ -31,7 +31,7 @@ public class MainDataService {
             }
 
             System.out.println("[MainDataService] 刷新好友列表...");
-            List<FriendItem> friends = friendService.loadFriends(client);
+            List<FriendItem> friends = friendService.fetchFriends(client);
             System.out.println("[MainDataService] 好友列表刷新完成，共 " + (friends != null ? friends.size() : 0) + " 个好友");
             return friends;
 
@@ -53,7 +53,7 @@ public class MainDataService {
             }
 
             System.out.println("[MainDataService] 刷新群组列表...");
-            List<GroupItem> groups = groupService.loadGroups(client);
+            List<GroupItem> groups = groupService.fetchGroups(client);
             System.out.println("[MainDataService] 群组列表刷新完成，共 " + (groups != null ? groups.size() : 0) + " 个群组");
             return groups;
 
@@ -96,6 +96,7 @@ public class MainDataService {
     public void updateFriendList(ObservableList<FriendItem> friendList, List<FriendItem> newFriends) {
         if (friendList != null && newFriends != null) {
             friendList.setAll(newFriends);
+            StateSnapshotService.getInstance().setFriends(newFriends);
         }
     }
 
@@ -105,6 +106,7 @@ public class MainDataService {
     public void updateGroupList(ObservableList<GroupItem> groupList, List<GroupItem> newGroups) {
         if (groupList != null && newGroups != null) {
             groupList.setAll(newGroups);
+            StateSnapshotService.getInstance().setGroups(newGroups);
         }
     }
 
@@ -0,0 +1,173 @@
+package com.chat.service;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 内存预算服务 - 单例模式
+ * 汇总所有会话内缓存的估算占用字节数，超出全局预算时按比例让各缓存淘汰最久未访问的数据；
+ * 堆内存池达到使用阈值时（MemoryPoolMXBean 通知）进一步收缩到预算的一半
+ */
+public class MemoryBudgetService {
+
+    private static MemoryBudgetService instance;
+
+    // 全局预算：最大堆的1/4，且不超过64MB
+    private static final long DEFAULT_BUDGET_BYTES = Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+    // 超出预算时收缩到预算的80%，避免每次写入都触发淘汰
+    private static final double LOW_WATER_RATIO = 0.8;
+    // 堆内存池使用率达到该比例时触发通知
+    private static final double HEAP_USAGE_THRESHOLD = 0.8;
+
+    private final List<TrimmableCache> caches = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean trimming = new AtomicBoolean(false);
+    private volatile long budgetBytes = DEFAULT_BUDGET_BYTES;
+
+    private MemoryBudgetService() {
+        installHeapThresholdListener();
+        System.out.println("[MemoryBudgetService] 初始化，缓存预算: " + (budgetBytes / 1024) + " KB");
+    }
+
+    public static synchronized MemoryBudgetService getInstance() {
+        if (instance == null) {
+            instance = new MemoryBudgetService();
+        }
+        return instance;
+    }
+
+    /**
+     * 可按预算收缩的缓存
+     */
+    public interface TrimmableCache {
+        /** 缓存名称（用于日志和统计） */
+        String getCacheName();
+
+        /** 当前估算占用的字节数 */
+        long getRetainedBytes();
+
+        /** 按最久未访问的顺序淘汰数据，直到释放至少 bytesToFree 字节，返回实际释放的字节数 */
+        long trim(long bytesToFree);
+    }
+
+    public void register(TrimmableCache cache) {
+        if (!caches.contains(cache)) {
+            caches.add(cache);
+        }
+    }
+
+    public void unregister(TrimmableCache cache) {
+        caches.remove(cache);
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        System.out.println("[MemoryBudgetService] 设置缓存预算: " + (budgetBytes / 1024) + " KB");
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * 缓存写入后调用：总占用超出预算时收缩到低水位
+     */
+    public void checkBudget() {
+        if (getTotalRetainedBytes() > budgetBytes) {
+            trimTo((long) (budgetBytes * LOW_WATER_RATIO));
+        }
+    }
+
+    /**
+     * 将所有缓存的总占用收缩到目标字节数，各缓存按占用比例分摊需要释放的字节
+     */
+    public void trimTo(long targetBytes) {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long total = getTotalRetainedBytes();
+            long excess = total - targetBytes;
+            if (excess <= 0 || total <= 0) {
+                return;
+            }
+
+            long freed = 0;
+            for (TrimmableCache cache : caches) {
+                long retained = cache.getRetainedBytes();
+                long share = (long) Math.ceil((double) excess * retained / total);
+                if (share > 0) {
+                    freed += cache.trim(share);
+                }
+            }
+
+            System.out.println("[MemoryBudgetService] 缓存占用 " + (total / 1024) + " KB 超出目标 " +
+                    (targetBytes / 1024) + " KB，已释放 " + (freed / 1024) + " KB");
+        } finally {
+            trimming.set(false);
+        }
+    }
+
+    public long getTotalRetainedBytes() {
+        long total = 0;
+        for (TrimmableCache cache : caches) {
+            total += cache.getRetainedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * 为支持阈值的堆内存池设置使用阈值，收到超阈值通知时收缩缓存
+     */
+    private void installHeapThresholdListener() {
+        try {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                long max = pool.getUsage().getMax();
+                if (pool.getType() != MemoryType.HEAP || max <= 0) {
+                    continue;
+                }
+                long threshold = (long) (max * HEAP_USAGE_THRESHOLD);
+                if (pool.isCollectionUsageThresholdSupported()) {
+                    // GC后仍超过阈值才说明确实有内存压力
+                    pool.setCollectionUsageThreshold(threshold);
+                } else if (pool.isUsageThresholdSupported()) {
+                    pool.setUsageThreshold(threshold);
+                }
+            }
+
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+            NotificationListener listener = (Notification notification, Object handback) -> {
+                String type = notification.getType();
+                if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type) ||
+                        MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+                    System.err.println("[MemoryBudgetService] 堆内存使用超过阈值，收缩会话缓存");
+                    trimTo(budgetBytes / 2);
+                }
+            };
+            emitter.addNotificationListener(listener, null, null);
+        } catch (Exception e) {
+            System.err.println("[MemoryBudgetService] 注册堆内存阈值监听失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        StringBuilder stats = new StringBuilder();
+        stats.append(String.format("缓存预算: %d KB, 当前占用: %d KB\n",
+                budgetBytes / 1024, getTotalRetainedBytes() / 1024));
+        for (TrimmableCache cache : caches) {
+            stats.append("  - ").append(cache.getCacheName()).append(": ")
+                    .append(cache.getRetainedBytes() / 1024).append(" KB\n");
+        }
+        return stats.toString();
+    }
+}
@@ -1,9 +1,14 @@
 package com.chat.service;
 
+import com.chat.model.MessageRecord;
+import com.chat.network.SocketClient;
+import com.chat.protocol.MessageType;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import javafx.application.Platform;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 消息广播中心，用于将消息同时发送给多个监听器
@@ -18,12 +23,14 @@ public class MessageBroadcaster {
     // 存储群聊消息监听器：key = "group_groupId"
     private final Map<String, List<GroupMessageListener>> groupListeners = new ConcurrentHashMap<>();
 
-    // 存储全局聊天列表更新监听器
-    private final List<ChatListUpdateListener> chatListListeners = new ArrayList<>();
+    // 存储全局聊天列表更新监听器（消息在多个会话工作线程上广播，使用线程安全列表）
+    private final List<ChatListUpdateListener> chatListListeners = new CopyOnWriteArrayList<>();
 
     // 用于防止重复处理消息
     private final Map<String, Long> lastProcessedMessages = new ConcurrentHashMap<>();
 
+    private final JsonParser jsonParser = new JsonParser();
+
     // 当前用户ID - 用于过滤自己发送的消息
     private Long currentUserId = null;
 
@@ -75,7 +82,7 @@ public class MessageBroadcaster {
      * 注册私聊监听器
      */
     public void registerPrivateListener(String key, PrivateMessageListener listener) {
-        privateListeners.computeIfAbsent(key, k -> new ArrayList<>()).add(listener);
+        privateListeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
         System.out.println("[MessageBroadcaster] 注册私聊监听器: " + key);
     }
 
@@ -97,7 +104,7 @@ public class MessageBroadcaster {
      * 注册群聊监听器
      */
     public void registerGroupListener(String groupId, GroupMessageListener listener) {
-        groupListeners.computeIfAbsent(groupId, k -> new ArrayList<>()).add(listener);
+        groupListeners.computeIfAbsent(groupId, k -> new CopyOnWriteArrayList<>()).add(listener);
         System.out.println("[MessageBroadcaster] 注册群聊监听器: " + groupId);
     }
 
@@ -167,6 +174,33 @@ public class MessageBroadcaster {
         return false;
     }
 
+    /**
+     * 将广播内容转换为会话记录：文件消息的内容是文件接收消息的JSON，其余按文本保存
+     */
+    private MessageRecord buildRecord(Long messageId, Long fromUserId, String content, long timestamp) {
+        if (content.startsWith("{")) {
+            try {
+                JsonObject json = jsonParser.parse(content).getAsJsonObject();
+                String type = json.has("type") ? json.get("type").getAsString() : null;
+                if (MessageType.FILE_PRIVATE_RECEIVE.equals(type) || MessageType.FILE_GROUP_RECEIVE.equals(type)) {
+                    return MessageRecord.file(
+                            messageId,
+                            fromUserId,
+                            json.has("fileId") && !json.get("fileId").isJsonNull() ? json.get("fileId").getAsString() : null,
+                            json.get("fileName").getAsString(),
+                            json.has("fileSize") ? json.get("fileSize").getAsLong() : 0,
+                            json.has("fileType") ? json.get("fileType").getAsString() : "other",
+                            json.has("downloadUrl") && !json.get("downloadUrl").isJsonNull() ? json.get("downloadUrl").getAsString() : null,
+                            timestamp
+                    );
+                }
+            } catch (Exception e) {
+                // 不是文件消息JSON，按文本保存
+            }
+        }
+        return MessageRecord.text(messageId, fromUserId, content, timestamp);
+    }
+
     /**
      * 广播私聊消息（核心方法）- 显示最后一人发的消息
      */
@@ -191,23 +225,19 @@ public class MessageBroadcaster {
         boolean isFromCurrentUser = isCurrentUserSender;
 
         // ========== 1. 保存到会话管理器 ==========
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
-        String time = timeFormat.format(new Date(timestamp));
-
-        // 生成显示消息
         String senderDisplayName = isFromCurrentUser ? "我" : contactName;
-        String displayMessage = String.format("[%s] %s: %s", time, senderDisplayName, content);
+        MessageRecord record = buildRecord(messageId, fromUserId, content, timestamp);
 
         // 保存到会话管理器
         ChatSessionManager sessionManager = ChatSessionManager.getInstance();
 
         if (isCurrentUserSender) {
             // 当前用户是发送方，保存到发送方会话
-            sessionManager.addPrivateMessage(fromUserId, toUserId, displayMessage);
+            sessionManager.addPrivateMessage(fromUserId, toUserId, record);
             System.out.println("[MessageBroadcaster] 保存到发送方会话: " + fromUserId + " -> " + toUserId);
         } else if (isCurrentUserReceiver) {
             // 当前用户是接收方，保存到接收方会话
-            sessionManager.addPrivateMessage(toUserId, fromUserId, displayMessage);
+            sessionManager.addPrivateMessage(toUserId, fromUserId, record);
             System.out.println("[MessageBroadcaster] 保存到接收方会话: " + toUserId + " <- " + fromUserId);
         }
 
@@ -332,15 +362,10 @@ public class MessageBroadcaster {
         boolean isFromCurrentUser = currentUserId != null && currentUserId.equals(fromUserId);
 
         // ========== 1. 保存到会话管理器 ==========
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
-        String time = timeFormat.format(new Date(timestamp));
-
-        // 生成显示消息
-        String senderDisplayName = isFromCurrentUser ? "我" : "用户" + fromUserId;
-        String displayMessage = String.format("[%s] %s: %s", time, senderDisplayName, content);
+        String senderDisplayName = isFromCurrentUser ? "我" : UserDirectoryService.getInstance().displayName(fromUserId);
 
         ChatSessionManager sessionManager = ChatSessionManager.getInstance();
-        sessionManager.addGroupMessage(groupId, displayMessage);
+        sessionManager.addGroupMessage(groupId, buildRecord(messageId, fromUserId, content, timestamp));
 
         System.out.println("[MessageBroadcaster] 保存到群聊会话: " + groupName);
 
@@ -500,7 +525,7 @@ public class MessageBroadcaster {
             if (currentUserId != null && currentUserId.equals(targetId)) {
                 // 当前用户是接收方
                 chatId = senderId.toString();
-                chatName = "用户" + senderId;
+                chatName = UserDirectoryService.getInstance().displayName(senderId);
             } else if (isFromCurrentUser) {
                 // 当前用户是发送方
                 chatId = targetId.toString();
@@ -514,7 +539,7 @@ public class MessageBroadcaster {
                 recentService.updateRecentMessage(
                         chatId,
                         chatName,
-                        isFromCurrentUser ? "我" : "用户" + senderId,
+                        isFromCurrentUser ? "我" : chatName,
                         "[" + fileType + "] " + fileName,
                         "",
                         false,
@@ -533,7 +558,7 @@ public class MessageBroadcaster {
             recentService.updateRecentMessage(
                     targetId.toString(),
                     groupName,
-                    isFromCurrentUser ? "我" : "用户" + senderId,
+                    isFromCurrentUser ? "我" : UserDirectoryService.getInstance().displayName(senderId),
                     "[" + fileType + "] " + fileName,
                     "",
                     true,
@@ -542,6 +567,26 @@ public class MessageBroadcaster {
         }
     }
 
+    /**
+     * 通知聊天列表某个会话已通过增量同步补齐消息（只刷新列表，不通知聊天窗口）
+     */
+    public void notifyChatListSynced(boolean isGroup, Long targetId, String chatName, String content,
+                                     long timestamp, Long messageId) {
+        Platform.runLater(() -> {
+            for (ChatListUpdateListener listener : chatListListeners) {
+                try {
+                    if (isGroup) {
+                        listener.onNewGroupMessage(targetId, chatName, content, timestamp, messageId);
+                    } else {
+                        listener.onNewPrivateMessage(targetId, chatName, content, timestamp, messageId);
+                    }
+                } catch (Exception e) {
+                    System.err.println("[MessageBroadcaster] 通知聊天列表监听器失败: " + e.getMessage());
+                }
+            }
+        });
+    }
+
     /**
      * 清理缓存和监听器
      */
@@ -574,6 +619,17 @@ public class MessageBroadcaster {
             stats.append("最近消息: 无法获取\n");
         }
 
+        // 添加内存预算统计
+        stats.append(MemoryBudgetService.getInstance().getStatistics());
+
+        // 添加请求熔断器状态
+        stats.append(SocketClient.getBreakerStatistics()).append("\n");
+
+        // 添加查询响应缓存统计
+        stats.append(ResponseCache.getInstance().getStatistics()).append("\n");
+        stats.append(UserDirectoryService.getInstance().getStatistics()).append("\n");
+        stats.append(StateSnapshotService.getInstance().getStatistics()).append("\n");
+
         return stats.toString();
     }
 }
\ No newline at end of file
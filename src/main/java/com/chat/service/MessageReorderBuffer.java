@@ -0,0 +1,274 @@
+package com.chat.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 入站消息重排缓冲区 - 按会话根据服务器消息ID检测缺口并恢复顺序
+ *
+ * 消息帧携带 prevId（同一会话上一条消息的ID）时：
+ * 1. prevId 已投递 -> 直接投递，并顺带放出之后已到达的缓冲消息
+ * 2. prevId 未投递 -> 说明前面有消息缺失或乱序，先缓冲 HOLD_MS 毫秒等待补齐
+ * 3. 超时仍有缺口 -> 通过 GapFetcher 在后台只拉取缺失区间，补齐后按ID顺序一并投递
+ *
+ * 所有状态只在对应会话的 ConversationExecutor 任务中访问，同一会话内天然串行
+ * 没有缓冲消息的会话不保留缓冲状态，只在有限大小的缓存中记住已投递到的消息ID
+ */
+public class MessageReorderBuffer {
+
+    // 乱序消息最长缓冲时间
+    private static final long HOLD_MS = 300;
+    // 拉取缺失消息的最长等待时间，超时后直接投递已缓冲的消息
+    private static final long FETCH_TIMEOUT_MS = 5000;
+    // 记住已投递位置的会话数
+    private static final int MAX_DELIVERED_POSITIONS = 2000;
+
+    private final ConversationExecutor executor;
+    private final GapFetcher gapFetcher;
+    private final Timer timer = new Timer("reorder-buffer-timer", true);
+
+    // 每个会话的缓冲状态：key = 会话key
+    private final Map<String, ConversationState> states = new ConcurrentHashMap<>();
+    // 空闲会话已投递到的消息ID：key = 会话key
+    private final LruCache<String, Long> deliveredPositions = new LruCache<>("重排投递位置", MAX_DELIVERED_POSITIONS);
+    // 拉取序号（所有会话共用，会话状态被移除后重建也不会与旧的超时任务混淆）
+    private final AtomicInteger fetchSeq = new AtomicInteger();
+
+    public MessageReorderBuffer(ConversationExecutor executor, GapFetcher gapFetcher) {
+        this.executor = executor;
+        this.gapFetcher = gapFetcher;
+    }
+
+    /**
+     * 缺失区间拉取接口：拉取 (afterId, beforeId) 之间的消息，完成后回调（失败时回调空列表）
+     */
+    public interface GapFetcher {
+        void fetchMissing(InboundFrame firstHeld, long afterId, Consumer<List<InboundFrame>> onFetched);
+    }
+
+    /**
+     * 入站消息帧
+     */
+    public static class InboundFrame {
+        private final String conversationKey;
+        private final Long id;
+        private final Long prevId;
+        private final long timestamp;
+        private final String chatType;
+        private final Long targetId;
+        private final Runnable deliver;
+
+        public InboundFrame(String conversationKey, Long id, Long prevId, long timestamp,
+                            String chatType, Long targetId, Runnable deliver) {
+            this.conversationKey = conversationKey;
+            this.id = id;
+            this.prevId = prevId;
+            this.timestamp = timestamp;
+            this.chatType = chatType;
+            this.targetId = targetId;
+            this.deliver = deliver;
+        }
+
+        public String getConversationKey() { return conversationKey; }
+        public Long getId() { return id; }
+        public Long getPrevId() { return prevId; }
+        public long getTimestamp() { return timestamp; }
+        public String getChatType() { return chatType; }
+        public Long getTargetId() { return targetId; }
+    }
+
+    /**
+     * 单个会话的缓冲状态
+     */
+    private static class ConversationState {
+        private Long lastDeliveredId;
+        private final TreeMap<Long, InboundFrame> held = new TreeMap<>();
+        private boolean holdScheduled = false;
+        private boolean fetching = false;
+        // 当前拉取的序号，用于识别超时后才返回的结果
+        private int fetchSeq = 0;
+
+        ConversationState(Long lastDeliveredId) {
+            this.lastDeliveredId = lastDeliveredId;
+        }
+    }
+
+    /**
+     * 接收一条消息帧（必须在该会话的 ConversationExecutor 任务中调用）
+     */
+    public void offer(InboundFrame frame) {
+        if (frame.id == null) {
+            // 没有服务器ID的消息无法排序，直接投递
+            frame.deliver.run();
+            return;
+        }
+
+        ConversationState state = states.computeIfAbsent(frame.conversationKey,
+                k -> new ConversationState(deliveredPositions.remove(k)));
+
+        if (state.lastDeliveredId != null && frame.id <= state.lastDeliveredId) {
+            // 晚到或重复的消息：已无法插回原位置，直接投递（由下游按ID去重）
+            System.err.println("[MessageReorderBuffer] 会话 " + frame.conversationKey + " 收到晚到消息: ID " +
+                    frame.id + ", 已投递到 " + state.lastDeliveredId);
+            frame.deliver.run();
+            releaseIfIdle(frame.conversationKey, state);
+            return;
+        }
+
+        if (isInSequence(state, frame) && state.held.isEmpty()) {
+            deliver(state, frame);
+            releaseIfIdle(frame.conversationKey, state);
+            return;
+        }
+
+        state.held.put(frame.id, frame);
+        releaseInSequence(state);
+
+        if (!state.held.isEmpty() && !state.holdScheduled && !state.fetching) {
+            System.out.println("[MessageReorderBuffer] 会话 " + frame.conversationKey + " 检测到缺口: 已投递到 " +
+                    state.lastDeliveredId + ", 缓冲消息 " + state.held.firstKey() +
+                    " 的前一条为 " + state.held.firstEntry().getValue().prevId);
+            state.holdScheduled = true;
+            schedule(frame.conversationKey, HOLD_MS, () -> onHoldTimeout(frame.conversationKey));
+        }
+        releaseIfIdle(frame.conversationKey, state);
+    }
+
+    /**
+     * 会话没有缓冲消息、也没有等待中的定时或拉取时移除缓冲状态，只记住已投递位置
+     */
+    private void releaseIfIdle(String conversationKey, ConversationState state) {
+        if (!state.held.isEmpty() || state.holdScheduled || state.fetching) {
+            return;
+        }
+        states.remove(conversationKey, state);
+        if (state.lastDeliveredId != null) {
+            deliveredPositions.put(conversationKey, state.lastDeliveredId);
+        }
+    }
+
+    /**
+     * 判断消息的前一条是否已经投递
+     */
+    private boolean isInSequence(ConversationState state, InboundFrame frame) {
+        if (state.lastDeliveredId == null || frame.prevId == null) {
+            // 首条消息或服务器未提供prevId时无法判断缺口
+            return true;
+        }
+        return frame.prevId <= state.lastDeliveredId;
+    }
+
+    /**
+     * 依次放出缓冲区中已经连续的消息
+     */
+    private void releaseInSequence(ConversationState state) {
+        while (!state.held.isEmpty() && isInSequence(state, state.held.firstEntry().getValue())) {
+            deliver(state, state.held.pollFirstEntry().getValue());
+        }
+    }
+
+    private void deliver(ConversationState state, InboundFrame frame) {
+        if (state.lastDeliveredId == null || frame.id > state.lastDeliveredId) {
+            state.lastDeliveredId = frame.id;
+        }
+        frame.deliver.run();
+    }
+
+    /**
+     * 缓冲超时：缺口仍未补齐，在后台拉取缺失区间
+     */
+    private void onHoldTimeout(String conversationKey) {
+        ConversationState state = states.get(conversationKey);
+        if (state == null) {
+            return;
+        }
+        state.holdScheduled = false;
+        if (state.held.isEmpty()) {
+            releaseIfIdle(conversationKey, state);
+            return;
+        }
+
+        InboundFrame firstHeld = state.held.firstEntry().getValue();
+        if (state.lastDeliveredId == null || gapFetcher == null) {
+            flushAll(state);
+            releaseIfIdle(conversationKey, state);
+            return;
+        }
+
+        long afterId = state.lastDeliveredId;
+        int seq = fetchSeq.incrementAndGet();
+        state.fetchSeq = seq;
+        state.fetching = true;
+        System.out.println("[MessageReorderBuffer] 会话 " + conversationKey + " 拉取缺失消息: (" +
+                afterId + ", " + firstHeld.id + ")");
+
+        schedule(conversationKey, FETCH_TIMEOUT_MS, () -> onFetchDone(conversationKey, seq, null));
+        gapFetcher.fetchMissing(firstHeld, afterId,
+                fetched -> executor.execute(conversationKey, () -> onFetchDone(conversationKey, seq, fetched)));
+    }
+
+    /**
+     * 缺失消息拉取完成（或超时），与缓冲消息合并后按ID顺序投递
+     */
+    private void onFetchDone(String conversationKey, int seq, List<InboundFrame> fetched) {
+        ConversationState state = states.get(conversationKey);
+        if (state == null || !state.fetching || state.fetchSeq != seq) {
+            if (fetched != null && !fetched.isEmpty()) {
+                // 超时后才返回的缺失消息：缓冲消息已投递，按晚到消息直接投递（由下游按ID去重），不丢弃
+                System.err.println("[MessageReorderBuffer] 会话 " + conversationKey + " 拉取超时后补齐缺失消息 " +
+                        fetched.size() + " 条，按晚到消息投递");
+                for (InboundFrame frame : fetched) {
+                    frame.deliver.run();
+                }
+            }
+            return;
+        }
+        state.fetching = false;
+
+        if (fetched == null) {
+            System.err.println("[MessageReorderBuffer] 会话 " + conversationKey + " 拉取缺失消息超时，直接投递缓冲消息");
+        } else {
+            for (InboundFrame frame : fetched) {
+                if (frame.id != null && (state.lastDeliveredId == null || frame.id > state.lastDeliveredId)) {
+                    state.held.putIfAbsent(frame.id, frame);
+                }
+            }
+            System.out.println("[MessageReorderBuffer] 会话 " + conversationKey + " 补齐缺失消息 " + fetched.size() + " 条");
+        }
+
+        flushAll(state);
+        releaseIfIdle(conversationKey, state);
+    }
+
+    /**
+     * 按ID顺序投递所有缓冲消息
+     */
+    private void flushAll(ConversationState state) {
+        while (!state.held.isEmpty()) {
+            deliver(state, state.held.pollFirstEntry().getValue());
+        }
+    }
+
+    private void schedule(String conversationKey, long delayMs, Runnable task) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                executor.execute(conversationKey, task);
+            }
+        }, delayMs);
+    }
+
+    /**
+     * 清空所有会话状态（退出登录时调用）
+     */
+    public void clear() {
+        states.clear();
+        deliveredPositions.clear();
+    }
+}
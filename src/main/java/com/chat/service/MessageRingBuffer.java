@@ -0,0 +1,81 @@
+package com.chat.service;
+
+import com.chat.model.MessageRecord;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 固定容量的会话消息环形缓冲区（线程安全）
+ * 写满后覆盖最旧的记录，添加为O(1)；带服务器消息ID的记录自动去重
+ */
+class MessageRingBuffer {
+
+    private final MessageRecord[] records;
+    // 缓冲区中已有的服务器消息ID
+    private final Set<Long> ids = new HashSet<>();
+    // 下一条记录的写入位置
+    private int head = 0;
+    private int size = 0;
+    // 估算占用字节数
+    private long retainedBytes = 0;
+    // 最近一次读写时间，用于按最久未访问淘汰整个会话
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    MessageRingBuffer(int capacity) {
+        this.records = new MessageRecord[capacity];
+    }
+
+    /**
+     * 添加一条记录，已存在相同服务器消息ID时返回false
+     */
+    synchronized boolean add(MessageRecord record) {
+        if (record.getId() != null && !ids.add(record.getId())) {
+            return false;
+        }
+
+        MessageRecord evicted = records[head];
+        if (size == records.length && evicted != null) {
+            if (evicted.getId() != null) {
+                ids.remove(evicted.getId());
+            }
+            retainedBytes -= evicted.estimateBytes();
+        }
+
+        records[head] = record;
+        retainedBytes += record.estimateBytes();
+        lastAccessTime = System.currentTimeMillis();
+        head = (head + 1) % records.length;
+        if (size < records.length) {
+            size++;
+        }
+        return true;
+    }
+
+    /**
+     * 按时间顺序（从旧到新）复制所有记录
+     */
+    synchronized List<MessageRecord> snapshot() {
+        lastAccessTime = System.currentTimeMillis();
+        List<MessageRecord> result = new ArrayList<>(size);
+        int start = (head - size + records.length) % records.length;
+        for (int i = 0; i < size; i++) {
+            result.add(records[(start + i) % records.length]);
+        }
+        return result;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    long getLastAccessTime() {
+        return lastAccessTime;
+    }
+}
@@ -0,0 +1,684 @@
+package com.chat.service;
+
+import com.chat.network.SocketClient;
+import com.chat.protocol.ChatGroupSend;
+import com.chat.protocol.ChatPrivateSend;
+import com.chat.protocol.FileGroupSend;
+import com.chat.protocol.FilePrivateSend;
+import com.chat.store.OutboxLog;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 发件箱 - 跟踪已发送但尚未被服务器确认的消息（文本和文件引用）
+ * 每条消息发送前分配客户端消息ID（ULID：48位毫秒时间戳 + 80位随机数，按时间有序），
+ * 服务器回传时带回该ID，一次哈希查找即可确认；重连后可按原ID重发，由服务器去重
+ * 服务器回传不带客户端ID时，按同一会话内内容相同的最早一条待确认消息匹配
+ * 未确认的消息写入追加日志，断线期间排队、重启后仍在，连接恢复时按顺序批量发出
+ * 文件消息只记录本地文件路径，发送时再读取文件内容
+ * 每次发出都记入日志；发出 MAX_SEND_ATTEMPTS 次或超过 MAX_PENDING_AGE_MS 仍未确认的消息不再重发，
+ * 标记为发送失败并通知聊天窗口（不按客户端ID去重的旧服务器上反复重发会产生重复消息）
+ */
+public class Outbox {
+    private static Outbox instance;
+
+    // 保留最近确认过的消息，用于识别重复的回传
+    private static final int RECENT_ACKED_SIZE = 500;
+    // 日志中已确认的记录超过这个数且多于未确认的消息时重写日志
+    private static final int REWRITE_THRESHOLD = 256;
+    // 一次批量写入的最大字节数（估算），超出时分成多次写入
+    private static final long MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    // 同一条消息最多发出的次数（含第一次发送）
+    private static final int MAX_SEND_ATTEMPTS = 3;
+    // 消息加入发件箱后超过这个时间仍未确认时不再重发
+    private static final long MAX_PENDING_AGE_MS = 24 * 60 * 60 * 1000L;
+    // 保留最近发送失败的消息数，用于之后打开的聊天窗口显示
+    private static final int RECENT_FAILED_SIZE = 100;
+    private static final String LOG_FILE = "outbox.log";
+    private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_ACK = 2;
+    private static final byte OP_SENT = 3;
+    private static final String KIND_TEXT = "text";
+    private static final String KIND_FILE = "file";
+
+    public enum State {
+        QUEUED,         // 未连接或写入失败，等待连接恢复后发送
+        PENDING,        // 已写入连接，未收到服务器回传
+        ACKNOWLEDGED,   // 服务器已回传，分配了消息ID
+        FAILED          // 无法发送（如文件已不存在）或多次重发仍未确认，不再重试
+    }
+
+    /**
+     * 一条待确认的消息
+     */
+    public static class OutboxEntry {
+        private final String clientMsgId;
+        private final String kind;         // text / file
+        private final String chatType;     // private / group
+        private final Long targetId;       // 私聊：对方用户ID，群聊：群ID
+        private final Long senderId;
+        private final long timestamp;
+        private final String content;      // 文本内容
+        private final String fileId;
+        private final String fileName;
+        private final long fileSize;
+        private final String fileType;
+        private final String filePath;     // 本地文件路径
+        private volatile State state = State.QUEUED;
+        private volatile Long serverId;
+        private volatile int attempts = 0;
+        private volatile String failureReason;
+
+        OutboxEntry(String clientMsgId, String kind, String chatType, Long targetId, Long senderId, long timestamp,
+                    String content, String fileId, String fileName, long fileSize, String fileType, String filePath) {
+            this.clientMsgId = clientMsgId;
+            this.kind = kind;
+            this.chatType = chatType;
+            this.targetId = targetId;
+            this.senderId = senderId;
+            this.timestamp = timestamp;
+            this.content = content;
+            this.fileId = fileId;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.fileType = fileType;
+            this.filePath = filePath;
+        }
+
+        public String getClientMsgId() { return clientMsgId; }
+        public String getChatType() { return chatType; }
+        public Long getTargetId() { return targetId; }
+        public Long getSenderId() { return senderId; }
+        public long getTimestamp() { return timestamp; }
+        public String getContent() { return content; }
+        public String getFileId() { return fileId; }
+        public String getFileName() { return fileName; }
+        public long getFileSize() { return fileSize; }
+        public String getFileType() { return fileType; }
+        public boolean isFile() { return KIND_FILE.equals(kind); }
+        public State getState() { return state; }
+        public Long getServerId() { return serverId; }
+        public int getAttempts() { return attempts; }
+        public String getFailureReason() { return failureReason; }
+
+        String conversationKey() {
+            return chatType + "_" + targetId;
+        }
+
+        /**
+         * 回传不带客户端ID时用于匹配的内容：文本为消息内容，文件为文件ID
+         */
+        String matchKey() {
+            return isFile() ? fileId : content;
+        }
+    }
+
+    /**
+     * 发送失败监听器（在发现失败的线程中回调，界面更新需自行切换到JavaFX应用线程）
+     */
+    public interface SendFailureListener {
+        void onSendFailed(OutboxEntry entry);
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private long lastIdTime = -1;
+    private final byte[] lastIdRandom = new byte[10];
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    // 未确认的消息（排队、待确认和无法发送），按客户端ID查找，按加入顺序排列
+    private final Map<String, OutboxEntry> entries = new LinkedHashMap<>();
+    // 每个会话中已发出待确认的消息，按发送顺序，用于匹配不带客户端ID的回传
+    private final Map<String, Deque<OutboxEntry>> pendingByConversation = new HashMap<>();
+    // 最近确认的消息：服务器消息ID -> 客户端ID
+    private final Map<Long, String> recentAcked = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > RECENT_ACKED_SIZE;
+        }
+    };
+
+    // 最近发送失败的消息，按失败顺序
+    private final Deque<OutboxEntry> recentFailed = new ArrayDeque<>();
+    private final List<SendFailureListener> failureListeners = new CopyOnWriteArrayList<>();
+
+    private OutboxLog log;
+    private int ackedRecords = 0;
+
+    private Outbox() {
+    }
+
+    public static synchronized Outbox getInstance() {
+        if (instance == null) {
+            instance = new Outbox();
+        }
+        return instance;
+    }
+
+    // ========== 持久化 ==========
+
+    /**
+     * 打开用户的发件箱日志，恢复上次未发出或未确认的消息（登录后调用）
+     */
+    public synchronized void open(Long userId) {
+        close();
+        Path file = Paths.get(System.getProperty("user.home"), ".midcup_chat", userId.toString(), LOG_FILE);
+        List<byte[]> records = new ArrayList<>();
+        try {
+            log = OutboxLog.open(file, records);
+        } catch (IOException e) {
+            System.err.println("[Outbox] 打开发件箱日志失败，本次只在内存中排队: " + e.getMessage());
+            return;
+        }
+
+        for (byte[] record : records) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                byte op = in.readByte();
+                if (op == OP_ADD) {
+                    OutboxEntry entry = decodeEntry(in);
+                    entries.put(entry.clientMsgId, entry);
+                } else if (op == OP_ACK) {
+                    entries.remove(readString(in));
+                } else if (op == OP_SENT) {
+                    OutboxEntry entry = entries.get(readString(in));
+                    if (entry != null) {
+                        entry.attempts++;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[Outbox] 跳过无法解析的日志记录: " + e.getMessage());
+            }
+        }
+        if (records.size() > entries.size()) {
+            rewriteLog();
+        }
+        System.out.println("[Outbox] 已打开发件箱, 未发送的消息: " + entries.size());
+    }
+
+    /**
+     * 关闭发件箱（退出登录时调用），未发送的消息保留在日志中，下次登录后继续发送
+     */
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("[Outbox] 关闭发件箱日志失败: " + e.getMessage());
+            }
+            log = null;
+        }
+        entries.clear();
+        pendingByConversation.clear();
+        recentAcked.clear();
+        recentFailed.clear();
+        ackedRecords = 0;
+    }
+
+    private void appendAdd(OutboxEntry entry) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.append(encodeEntry(entry), true);
+        } catch (IOException e) {
+            System.err.println("[Outbox] 写入发件箱日志失败: " + e.getMessage());
+        }
+    }
+
+    private void appendAck(String clientMsgId) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.append(encodeOp(OP_ACK, clientMsgId), false);
+        } catch (IOException e) {
+            System.err.println("[Outbox] 写入发件箱日志失败: " + e.getMessage());
+        }
+        if (++ackedRecords >= REWRITE_THRESHOLD && ackedRecords > entries.size()) {
+            rewriteLog();
+        }
+    }
+
+    /**
+     * 记录一次发出（不强制写盘，崩溃时少记一次只会多重发一次）
+     */
+    private void appendSent(String clientMsgId) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.append(encodeOp(OP_SENT, clientMsgId), false);
+        } catch (IOException e) {
+            System.err.println("[Outbox] 写入发件箱日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 只保留未确认的消息重写日志（连同已发出的次数）
+     */
+    private void rewriteLog() {
+        try {
+            List<byte[]> records = new ArrayList<>(entries.size());
+            for (OutboxEntry entry : entries.values()) {
+                records.add(encodeEntry(entry));
+                for (int i = 0; i < entry.attempts; i++) {
+                    records.add(encodeOp(OP_SENT, entry.clientMsgId));
+                }
+            }
+            log.rewrite(records);
+            ackedRecords = 0;
+        } catch (IOException e) {
+            System.err.println("[Outbox] 重写发件箱日志失败: " + e.getMessage());
+        }
+    }
+
+    private static byte[] encodeEntry(OutboxEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_ADD);
+        writeString(out, entry.clientMsgId);
+        writeString(out, entry.kind);
+        writeString(out, entry.chatType);
+        out.writeLong(entry.targetId);
+        out.writeLong(entry.senderId);
+        out.writeLong(entry.timestamp);
+        writeString(out, entry.content);
+        writeString(out, entry.fileId);
+        writeString(out, entry.fileName);
+        out.writeLong(entry.fileSize);
+        writeString(out, entry.fileType);
+        writeString(out, entry.filePath);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeOp(byte op, String clientMsgId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        writeString(out, clientMsgId);
+        return bytes.toByteArray();
+    }
+
+    private static OutboxEntry decodeEntry(DataInputStream in) throws IOException {
+        return new OutboxEntry(readString(in), readString(in), readString(in), in.readLong(), in.readLong(),
+                in.readLong(), readString(in), readString(in), readString(in), in.readLong(), readString(in),
+                readString(in));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ========== 入队与确认 ==========
+
+    /**
+     * 新建一条文本消息并分配客户端消息ID（先写入日志再返回）
+     */
+    public synchronized OutboxEntry enqueue(String chatType, Long targetId, Long senderId, String content) {
+        long timestamp = System.currentTimeMillis();
+        OutboxEntry entry = new OutboxEntry(nextClientMsgId(timestamp), KIND_TEXT, chatType, targetId, senderId,
+                timestamp, content, null, null, 0, null, null);
+        entries.put(entry.clientMsgId, entry);
+        appendAdd(entry);
+        return entry;
+    }
+
+    /**
+     * 新建一条文件消息，只记录文件路径，发送时再读取内容
+     */
+    public synchronized OutboxEntry enqueueFile(String chatType, Long targetId, Long senderId, File file,
+                                                String fileId, String fileType) {
+        long timestamp = System.currentTimeMillis();
+        OutboxEntry entry = new OutboxEntry(nextClientMsgId(timestamp), KIND_FILE, chatType, targetId, senderId,
+                timestamp, null, fileId, file.getName(), file.length(), fileType, file.getAbsolutePath());
+        entries.put(entry.clientMsgId, entry);
+        appendAdd(entry);
+        return entry;
+    }
+
+    /**
+     * 服务器回传了自己发送的消息：按客户端ID确认，回传不带ID时按会话和内容匹配最早的待确认消息
+     * 返回被确认的消息，不是本客户端发送的消息时返回null
+     */
+    public synchronized OutboxEntry acknowledge(String clientMsgId, String chatType, Long targetId,
+                                                String matchKey, Long serverId) {
+        OutboxEntry entry = clientMsgId != null ? entries.get(clientMsgId) : findPending(chatType, targetId, matchKey);
+        if (entry == null) {
+            return null;
+        }
+        entries.remove(entry.clientMsgId);
+        removePending(entry);
+        entry.state = State.ACKNOWLEDGED;
+        entry.serverId = serverId;
+        if (serverId != null) {
+            recentAcked.put(serverId, entry.clientMsgId);
+        }
+        appendAck(entry.clientMsgId);
+        return entry;
+    }
+
+    /**
+     * 已确认消息对应的客户端消息ID，不是本客户端最近发送的消息时返回null
+     */
+    public synchronized String clientMsgIdFor(Long serverId) {
+        return serverId != null ? recentAcked.get(serverId) : null;
+    }
+
+    public synchronized OutboxEntry get(String clientMsgId) {
+        return entries.get(clientMsgId);
+    }
+
+    /**
+     * 所有未确认的消息，按加入顺序
+     */
+    public synchronized List<OutboxEntry> getUnacknowledged() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void registerFailureListener(SendFailureListener listener) {
+        if (!failureListeners.contains(listener)) {
+            failureListeners.add(listener);
+        }
+    }
+
+    public void unregisterFailureListener(SendFailureListener listener) {
+        failureListeners.remove(listener);
+    }
+
+    /**
+     * 会话中最近发送失败的消息（按失败顺序），供之后打开的聊天窗口显示
+     */
+    public synchronized List<OutboxEntry> getRecentFailed(String chatType, Long targetId) {
+        List<OutboxEntry> result = new ArrayList<>();
+        for (OutboxEntry entry : recentFailed) {
+            if (entry.chatType.equals(chatType) && entry.targetId.equals(targetId)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void markSent(OutboxEntry entry) {
+        if (entries.get(entry.clientMsgId) != entry) {
+            return;
+        }
+        entry.attempts++;
+        appendSent(entry.clientMsgId);
+        if (entry.state == State.PENDING) {
+            return;
+        }
+        entry.state = State.PENDING;
+        pendingByConversation.computeIfAbsent(entry.conversationKey(), k -> new ArrayDeque<>()).add(entry);
+    }
+
+    /**
+     * 放弃发送：从发件箱移除并通知监听器
+     */
+    private void markFailed(OutboxEntry entry, String reason) {
+        synchronized (this) {
+            if (entries.remove(entry.clientMsgId) == null) {
+                return;
+            }
+            entry.state = State.FAILED;
+            removePending(entry);
+            appendAck(entry.clientMsgId);
+            entry.failureReason = reason;
+            recentFailed.add(entry);
+            if (recentFailed.size() > RECENT_FAILED_SIZE) {
+                recentFailed.poll();
+            }
+        }
+        System.err.println("[Outbox] 消息发送失败，不再重发: " + entry.clientMsgId + ", " + reason);
+        for (SendFailureListener listener : failureListeners) {
+            try {
+                listener.onSendFailed(entry);
+            } catch (Exception e) {
+                System.err.println("[Outbox] 通知发送失败监听器失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 已发出足够次数或等待过久仍未确认时返回放弃的原因，否则返回null
+     */
+    private static String giveUpReason(OutboxEntry entry, long now) {
+        if (entry.attempts >= MAX_SEND_ATTEMPTS) {
+            return "已发出 " + entry.attempts + " 次仍未得到服务器确认";
+        }
+        if (now - entry.timestamp > MAX_PENDING_AGE_MS) {
+            return "超过 " + MAX_PENDING_AGE_MS / (60 * 60 * 1000) + " 小时仍未发出";
+        }
+        return null;
+    }
+
+    private OutboxEntry findPending(String chatType, Long targetId, String matchKey) {
+        Deque<OutboxEntry> pending = pendingByConversation.get(chatType + "_" + targetId);
+        if (pending == null || matchKey == null) {
+            return null;
+        }
+        for (OutboxEntry entry : pending) {
+            if (matchKey.equals(entry.matchKey())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void removePending(OutboxEntry entry) {
+        Deque<OutboxEntry> pending = pendingByConversation.get(entry.conversationKey());
+        if (pending != null) {
+            pending.remove(entry);
+            if (pending.isEmpty()) {
+                pendingByConversation.remove(entry.conversationKey());
+            }
+        }
+    }
+
+    // ========== 发送 ==========
+
+    /**
+     * 立即发送一条消息；未连接或写入失败时留在发件箱中排队，返回false
+     */
+    public boolean send(SocketClient client, String clientMsgId) {
+        OutboxEntry entry = get(clientMsgId);
+        if (entry == null) {
+            return false;
+        }
+        if (client == null || !client.isConnected()) {
+            System.out.println("[Outbox] 未连接，消息排队等待发送: " + clientMsgId);
+            return false;
+        }
+        Object frame = buildFrame(entry);
+        if (frame == null) {
+            markFailed(entry, "文件已不存在或无法读取");
+            return false;
+        }
+        if (!client.sendMessages(Collections.singletonList(frame))) {
+            System.out.println("[Outbox] 写入失败，消息排队等待发送: " + clientMsgId);
+            return false;
+        }
+        markSent(entry);
+        return true;
+    }
+
+    /**
+     * 连接恢复后按加入顺序发出所有未确认的消息，多条消息合并为一次写入
+     * 断线前已发出但未收到回传的消息也会重发，由服务器按客户端消息ID去重；重发次数或等待时间超出上限的消息标记为失败
+     */
+    public void flush(SocketClient client) {
+        if (client == null || !client.isConnected() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<OutboxEntry> unacknowledged = getUnacknowledged();
+            if (unacknowledged.isEmpty()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int sent = 0;
+            List<OutboxEntry> batch = new ArrayList<>();
+            List<Object> frames = new ArrayList<>();
+            long batchBytes = 0;
+            int failed = 0;
+            for (OutboxEntry entry : unacknowledged) {
+                String reason = giveUpReason(entry, start);
+                if (reason != null) {
+                    markFailed(entry, reason);
+                    failed++;
+                    continue;
+                }
+                Object frame = buildFrame(entry);
+                if (frame == null) {
+                    markFailed(entry, "文件已不存在或无法读取");
+                    failed++;
+                    continue;
+                }
+                batch.add(entry);
+                frames.add(frame);
+                batchBytes += entry.isFile() ? entry.fileSize * 4 / 3 : entry.content.length() * 3L;
+                if (batchBytes >= MAX_BATCH_BYTES) {
+                    if (!sendBatch(client, batch, frames)) {
+                        break;
+                    }
+                    sent += batch.size();
+                    batch.clear();
+                    frames.clear();
+                    batchBytes = 0;
+                }
+            }
+            if (!batch.isEmpty() && sendBatch(client, batch, frames)) {
+                sent += batch.size();
+            }
+            System.out.println("[Outbox] 连接恢复，发出排队消息 " + sent + "/" + unacknowledged.size() +
+                    " 条, 放弃 " + failed + " 条, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    private boolean sendBatch(SocketClient client, List<OutboxEntry> batch, List<Object> frames) {
+        if (!client.sendMessages(frames)) {
+            System.err.println("[Outbox] 批量发送失败，剩余消息等待下次连接");
+            return false;
+        }
+        for (OutboxEntry entry : batch) {
+            markSent(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 生成发送帧，文件已不存在或无法读取时返回null
+     */
+    private Object buildFrame(OutboxEntry entry) {
+        boolean isGroup = "group".equals(entry.chatType);
+        if (!entry.isFile()) {
+            if (isGroup) {
+                ChatGroupSend message = new ChatGroupSend();
+                message.setGroupId(entry.targetId);
+                message.setFromUserId(entry.senderId);
+                message.setContent(entry.content);
+                message.setTimestamp(entry.timestamp);
+                message.setClientMsgId(entry.clientMsgId);
+                return message;
+            }
+            ChatPrivateSend message = new ChatPrivateSend();
+            message.setToUserId(entry.targetId);
+            message.setFromUserId(entry.senderId);
+            message.setContent(entry.content);
+            message.setTimestamp(entry.timestamp);
+            message.setClientMsgId(entry.clientMsgId);
+            return message;
+        }
+
+        String base64Data = FileUploadService.fileToBase64(new File(entry.filePath));
+        if (base64Data == null) {
+            System.err.println("[Outbox] 文件已不存在或无法读取，放弃发送: " + entry.filePath);
+            return null;
+        }
+        if (isGroup) {
+            FileGroupSend message = new FileGroupSend(entry.fileId, entry.fileName, entry.fileSize,
+                    entry.senderId, entry.targetId, base64Data);
+            message.setFileType(entry.fileType);
+            message.setClientMsgId(entry.clientMsgId);
+            return message;
+        }
+        FilePrivateSend message = new FilePrivateSend(entry.fileId, entry.fileName, entry.fileSize,
+                entry.senderId, entry.targetId, base64Data);
+        message.setFileType(entry.fileType);
+        message.setClientMsgId(entry.clientMsgId);
+        return message;
+    }
+
+    // ========== 客户端消息ID ==========
+
+    /**
+     * 生成ULID；同一毫秒内随机部分递增，保证同一客户端生成的ID严格有序
+     */
+    private String nextClientMsgId(long timestamp) {
+        if (timestamp <= lastIdTime) {
+            timestamp = lastIdTime;
+            for (int i = lastIdRandom.length - 1; i >= 0; i--) {
+                if (++lastIdRandom[i] != 0) {
+                    break;
+                }
+            }
+        } else {
+            lastIdTime = timestamp;
+            random.nextBytes(lastIdRandom);
+        }
+
+        char[] id = new char[26];
+        for (int i = 9; i >= 0; i--) {
+            id[i] = CROCKFORD[(int) (timestamp & 31)];
+            timestamp >>>= 5;
+        }
+        // 80位随机数，每5位一个字符
+        long high = 0;
+        for (int i = 0; i < 5; i++) {
+            high = (high << 8) | (lastIdRandom[i] & 0xFF);
+        }
+        long low = 0;
+        for (int i = 5; i < 10; i++) {
+            low = (low << 8) | (lastIdRandom[i] & 0xFF);
+        }
+        for (int i = 17; i >= 10; i--) {
+            id[i] = CROCKFORD[(int) (high & 31)];
+            high >>>= 5;
+        }
+        for (int i = 25; i >= 18; i--) {
+            id[i] = CROCKFORD[(int) (low & 31)];
+            low >>>= 5;
+        }
+        return new String(id);
+    }
+}
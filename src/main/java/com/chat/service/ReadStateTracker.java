@@ -0,0 +1,250 @@
+package com.chat.service;
+
+import com.chat.network.SocketClient;
+import com.chat.protocol.ExtendedMessageType;
+import com.chat.protocol.ReadAckRequest;
+import com.chat.protocol.ReadAckRequest.ReadPosition;
+import com.chat.protocol.ReadAckResponse;
+import com.chat.protocol.ReadStatePush;
+import com.chat.store.LocalMessageStore;
+import com.google.gson.Gson;
+
+import java.util.*;
+
+/**
+ * 已读状态跟踪 - 记录每个会话已读到的最大消息ID，合并后批量向服务器上报
+ * 已读位置只增不减，窗口获得焦点或滚动到底部时更新；有变化的会话在一个合并窗口内
+ * 攒成一个请求发送，无论读了多少条消息，每个会话每个窗口最多上报一次
+ * 其他设备的已读位置由服务器推送，收到后清除本地对应会话的红点
+ */
+public class ReadStateTracker {
+    private static ReadStateTracker instance;
+
+    // 合并窗口：第一个会话变化后等待这么久再统一上报
+    private static final long FLUSH_DELAY_MS = 1000;
+    // 上报失败后的重试间隔
+    private static final long RETRY_DELAY_MS = 10000;
+    // 每个请求携带的会话数
+    private static final int CONVERSATIONS_PER_REQUEST = 100;
+
+    /**
+     * 单个会话的已读位置
+     */
+    private static class ReadState {
+        final String chatType;
+        final Long targetId;
+        long lastReadId;
+        boolean dirty;
+
+        ReadState(String chatType, Long targetId) {
+            this.chatType = chatType;
+            this.targetId = targetId;
+        }
+    }
+
+    private final Gson gson = new Gson();
+    private final Map<String, ReadState> states = new HashMap<>();
+    private final Timer flushTimer = new Timer("read-ack-timer", true);
+    private TimerTask pendingFlush;
+    private SocketClient client;
+
+    // 服务器是否支持已读回执（收到不认识的响应后置为false，只在本地记录）
+    private volatile boolean ackSupported = true;
+
+    private ReadStateTracker() {
+    }
+
+    public static synchronized ReadStateTracker getInstance() {
+        if (instance == null) {
+            instance = new ReadStateTracker();
+        }
+        return instance;
+    }
+
+    /**
+     * 标记会话已读到指定消息（可在任意线程调用，只记录并安排合并上报）
+     */
+    public void markRead(SocketClient client, String chatType, Long targetId, Long lastReadId) {
+        if (chatType == null || targetId == null || lastReadId == null) {
+            return;
+        }
+        synchronized (this) {
+            if (client != null) {
+                this.client = client;
+            }
+            ReadState state = states.computeIfAbsent(stateKey(chatType, targetId),
+                    k -> new ReadState(chatType, targetId));
+            if (lastReadId <= state.lastReadId) {
+                return;
+            }
+            state.lastReadId = lastReadId;
+            state.dirty = true;
+            scheduleFlush(FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * 会话已读到的最大消息ID，没有记录时返回null
+     */
+    public synchronized Long getLastReadId(String chatType, Long targetId) {
+        ReadState state = states.get(stateKey(chatType, targetId));
+        return state != null ? state.lastReadId : null;
+    }
+
+    /**
+     * 应用其他设备推送的已读位置：只前移本地位置，不再回传服务器；
+     * 已读位置覆盖了本地最新消息的会话清除红点
+     */
+    public void applyRemote(ReadStatePush push) {
+        if (push == null || push.getConversations() == null) {
+            return;
+        }
+        Long userId = MessageBroadcaster.getInstance().getCurrentUserId();
+        LocalMessageStore localStore = LocalMessageStore.getInstance();
+        for (ReadPosition position : push.getConversations()) {
+            if (position == null || position.getChatType() == null || position.getTargetId() == null
+                    || position.getLastReadId() == null) {
+                continue;
+            }
+            synchronized (this) {
+                ReadState state = states.computeIfAbsent(stateKey(position.getChatType(), position.getTargetId()),
+                        k -> new ReadState(position.getChatType(), position.getTargetId()));
+                if (position.getLastReadId() <= state.lastReadId) {
+                    continue;
+                }
+                state.lastReadId = position.getLastReadId();
+            }
+
+            Long latestId = null;
+            if ("group".equals(position.getChatType())) {
+                latestId = localStore.getMaxId(ChatSessionManager.buildGroupKey(position.getTargetId()));
+            } else if (userId != null) {
+                latestId = localStore.getMaxId(ChatSessionManager.buildPrivateKey(userId, position.getTargetId()));
+            }
+            if (latestId == null || position.getLastReadId() >= latestId) {
+                RecentMessageService.getInstance().markAsRead(position.getTargetId().toString());
+            }
+        }
+        System.out.println("[ReadStateTracker] 应用其他设备的已读位置: " + push.getConversations().size() + " 个会话");
+    }
+
+    /**
+     * 立即上报所有未上报的已读位置（退出登录前调用，在调用线程中发送）
+     */
+    public void flushNow() {
+        synchronized (this) {
+            if (pendingFlush != null) {
+                pendingFlush.cancel();
+                pendingFlush = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * 清空所有记录（退出登录时调用）
+     */
+    public synchronized void reset() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel();
+            pendingFlush = null;
+        }
+        states.clear();
+        client = null;
+        ackSupported = true;
+    }
+
+    // ========== 合并上报 ==========
+
+    /**
+     * 安排一次上报；已有待执行的上报时不推迟，保证第一次变化后最多延迟一个合并窗口
+     */
+    private void scheduleFlush(long delayMs) {
+        if (pendingFlush != null || !ackSupported) {
+            return;
+        }
+        pendingFlush = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (ReadStateTracker.this) {
+                    pendingFlush = null;
+                }
+                flush();
+            }
+        };
+        flushTimer.schedule(pendingFlush, delayMs);
+    }
+
+    private void flush() {
+        List<ReadPosition> positions = new ArrayList<>();
+        SocketClient target;
+        synchronized (this) {
+            target = client;
+            if (target == null || !ackSupported) {
+                return;
+            }
+            for (ReadState state : states.values()) {
+                if (state.dirty) {
+                    state.dirty = false;
+                    positions.add(new ReadPosition(state.chatType, state.targetId, state.lastReadId));
+                }
+            }
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        for (int start = 0; start < positions.size(); start += CONVERSATIONS_PER_REQUEST) {
+            List<ReadPosition> batch = positions.subList(start, Math.min(positions.size(), start + CONVERSATIONS_PER_REQUEST));
+            if (!sendBatch(target, batch)) {
+                // 未送达的位置重新标记，稍后和新的变化一起重试
+                synchronized (this) {
+                    for (ReadPosition position : positions.subList(start, positions.size())) {
+                        ReadState state = states.get(stateKey(position.getChatType(), position.getTargetId()));
+                        if (state != null) {
+                            state.dirty = true;
+                        }
+                    }
+                    scheduleFlush(RETRY_DELAY_MS);
+                }
+                return;
+            }
+        }
+        System.out.println("[ReadStateTracker] 上报已读位置: " + positions.size() + " 个会话");
+    }
+
+    /**
+     * 发送一批已读回执，失败返回false；服务器不支持时停止上报并视为已处理
+     */
+    private boolean sendBatch(SocketClient target, List<ReadPosition> batch) {
+        ReadAckRequest request = new ReadAckRequest();
+        request.setConversations(new ArrayList<>(batch));
+
+        String responseJson = target.sendRequest(request);
+        if (responseJson == null || responseJson.trim().isEmpty()) {
+            System.err.println("[ReadStateTracker] 已读回执无响应");
+            return false;
+        }
+
+        ReadAckResponse response = null;
+        try {
+            response = gson.fromJson(responseJson, ReadAckResponse.class);
+        } catch (Exception e) {
+            System.err.println("[ReadStateTracker] 解析已读回执响应失败: " + e.getMessage());
+        }
+        if (response == null || !ExtendedMessageType.READ_ACK_RESPONSE.equals(response.getType())) {
+            System.out.println("[ReadStateTracker] 服务器不支持已读回执，已读状态只在本地记录");
+            ackSupported = false;
+            return true;
+        }
+        if (!response.isSuccess()) {
+            System.err.println("[ReadStateTracker] 已读回执失败: " + response.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private static String stateKey(String chatType, Long targetId) {
+        return chatType + "_" + targetId;
+    }
+}
@@ -0,0 +1,218 @@
+package com.chat.service;
+
+import com.chat.model.ChatItem;
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息栏会话列表 - 维护 会话key -> 位置 索引，查找为O(1)
+ * 会话更新时原地替换并移动到顶部，移动只触发一次置换（permutation）变更，ListView 无需重建
+ * 只能在 JavaFX 应用线程中访问
+ */
+public class RecentChatList extends ObservableListBase<ChatItem> {
+
+    private final List<ChatItem> items = new ArrayList<>();
+    // 会话key -> 在 items 中的位置
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    // 最近活动时间倒序（时间相同保持原有顺序）
+    private static final Comparator<ChatItem> BY_ACTIVITY_DESC =
+            Comparator.comparingLong(ChatItem::getLastActivity).reversed();
+
+    public static String keyOf(String id, boolean group) {
+        return (group ? "group_" : "private_") + id;
+    }
+
+    private static String keyOf(ChatItem item) {
+        return keyOf(item.getId(), item.isGroup());
+    }
+
+    @Override
+    public ChatItem get(int index) {
+        return items.get(index);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * 查找会话位置，不存在时返回-1
+     */
+    public int indexOf(String id, boolean group) {
+        Integer index = positions.get(keyOf(id, group));
+        return index != null ? index : -1;
+    }
+
+    /**
+     * 更新单个会话并移动到顶部
+     */
+    public void moveToFront(ChatItem item) {
+        List<ChatItem> batch = new ArrayList<>(1);
+        batch.add(item);
+        moveAllToFront(batch);
+    }
+
+    /**
+     * 批量更新会话：同一会话只保留最后一次更新，按最近活动时间倒序移动到顶部
+     * 新会话的插入为一次添加变更，已有会话的移动和内容替换合并为一次置换变更
+     */
+    public void moveAllToFront(List<ChatItem> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        Map<String, ChatItem> latest = new LinkedHashMap<>();
+        for (ChatItem item : updates) {
+            latest.put(keyOf(item), item);
+        }
+        List<ChatItem> ordered = new ArrayList<>(latest.values());
+        ordered.sort(BY_ACTIVITY_DESC);
+
+        // 1. 新会话先插入到顶部
+        List<ChatItem> added = new ArrayList<>();
+        for (ChatItem item : ordered) {
+            if (!positions.containsKey(keyOf(item))) {
+                added.add(item);
+            }
+        }
+        if (!added.isEmpty()) {
+            beginChange();
+            items.addAll(0, added);
+            nextAdd(0, added.size());
+            reindex(0, items.size());
+            endChange();
+        }
+
+        // 2. 需要移动的区间只到最靠后的被更新会话为止，区间外的会话位置不变
+        int rangeEnd = 0;
+        for (ChatItem item : ordered) {
+            rangeEnd = Math.max(rangeEnd, positions.get(keyOf(item)) + 1);
+        }
+
+        List<ChatItem> reordered = new ArrayList<>(rangeEnd);
+        reordered.addAll(ordered);
+        for (int i = 0; i < rangeEnd; i++) {
+            if (!latest.containsKey(keyOf(items.get(i)))) {
+                reordered.add(items.get(i));
+            }
+        }
+
+        int[] permutation = new int[rangeEnd];
+        Map<String, Integer> newPositions = new HashMap<>();
+        for (int i = 0; i < rangeEnd; i++) {
+            newPositions.put(keyOf(reordered.get(i)), i);
+        }
+        boolean moved = false;
+        for (int i = 0; i < rangeEnd; i++) {
+            permutation[i] = newPositions.get(keyOf(items.get(i)));
+            moved |= permutation[i] != i;
+        }
+
+        beginChange();
+        List<ChatItem> previous = new ArrayList<>(items.subList(0, rangeEnd));
+        for (int i = 0; i < rangeEnd; i++) {
+            items.set(i, reordered.get(i));
+        }
+        reindex(0, rangeEnd);
+        if (moved) {
+            nextPermutation(0, rangeEnd, permutation);
+        }
+        // 已有会话的内容替换（新插入的会话已在添加变更中通知）
+        for (int i = 0; i < rangeEnd; i++) {
+            ChatItem oldItem = previous.get(i);
+            if (latest.containsKey(keyOf(oldItem)) && !added.contains(items.get(permutation[i]))) {
+                nextSet(permutation[i], oldItem);
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * 整体替换为给定会话，按最近活动时间倒序一次性排好（只触发一次变更）
+     */
+    public void setAllSortedByActivity(Collection<ChatItem> chats) {
+        List<ChatItem> sorted = new ArrayList<>(chats);
+        sorted.sort(BY_ACTIVITY_DESC);
+        setAll(sorted);
+    }
+
+    // ========== List 修改操作（保持索引同步） ==========
+
+    @Override
+    public boolean setAll(Collection<? extends ChatItem> col) {
+        beginChange();
+        List<ChatItem> removed = new ArrayList<>(items);
+        items.clear();
+        items.addAll(col);
+        positions.clear();
+        reindex(0, items.size());
+        if (!removed.isEmpty()) {
+            nextRemove(0, removed);
+        }
+        if (!items.isEmpty()) {
+            nextAdd(0, items.size());
+        }
+        endChange();
+        return true;
+    }
+
+    @Override
+    public void add(int index, ChatItem element) {
+        beginChange();
+        items.add(index, element);
+        reindex(index, items.size());
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    @Override
+    public ChatItem set(int index, ChatItem element) {
+        beginChange();
+        ChatItem old = items.set(index, element);
+        positions.remove(keyOf(old));
+        positions.put(keyOf(element), index);
+        nextSet(index, old);
+        endChange();
+        return old;
+    }
+
+    @Override
+    public ChatItem remove(int index) {
+        beginChange();
+        ChatItem old = items.remove(index);
+        positions.remove(keyOf(old));
+        reindex(index, items.size());
+        nextRemove(index, old);
+        endChange();
+        return old;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        beginChange();
+        List<ChatItem> sub = items.subList(fromIndex, toIndex);
+        List<ChatItem> removed = new ArrayList<>(sub);
+        sub.clear();
+        for (ChatItem item : removed) {
+            positions.remove(keyOf(item));
+        }
+        reindex(fromIndex, items.size());
+        nextRemove(fromIndex, removed);
+        endChange();
+    }
+
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            positions.put(keyOf(items.get(i)), i);
+        }
+    }
+}
@@ -1,27 +1,49 @@
 package com.chat.service;
 
 import com.chat.model.ChatItem;
+import javafx.application.Platform;
+
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 最近消息服务 - 管理消息栏显示逻辑
+ * 参与全局内存预算：超出预算时淘汰最久未更新且没有未读的聊天预览
  */
-public class RecentMessageService {
+public class RecentMessageService implements MemoryBudgetService.TrimmableCache {
     private static RecentMessageService instance;
 
     // 存储每个聊天的最新一条消息（用于消息栏显示）
     private final Map<String, ChatItem> recentMessages = new ConcurrentHashMap<>();
 
-    // 存储每个聊天的未读消息数量
-    private final Map<String, Integer> unreadCounts = new ConcurrentHashMap<>();
+    // 存储每个聊天的未读消息数量（网络线程递增、FX线程清零，均为原子操作）
+    private final Map<String, AtomicInteger> unreadCounts = new ConcurrentHashMap<>();
+
+    // 所有聊天未读数之和，随各计数同步维护，读取为O(1)
+    private final AtomicInteger totalUnread = new AtomicInteger(0);
+
+    // 未读总数变化监听器（节流通知）
+    private final List<UnreadTotalListener> unreadTotalListeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean notifyScheduled = new AtomicBoolean(false);
+    private final Timer notifyTimer = new Timer("unread-notify-timer", true);
+    private int lastNotifiedTotal = 0;
+
+    // 未读总数通知的最小间隔
+    private static final long NOTIFY_INTERVAL_MS = 200;
+
+    // 每个聊天最近一次更新/读取的时间，用于按最久未访问淘汰
+    private final Map<String, Long> lastAccessTimes = new ConcurrentHashMap<>();
 
     // 消息栏最大显示长度
     private static final int MAX_PREVIEW_LENGTH = 30;
 
     private RecentMessageService() {
         System.out.println("[RecentMessageService] 初始化");
+        MemoryBudgetService.getInstance().register(this);
     }
 
     public static synchronized RecentMessageService getInstance() {
@@ -31,6 +53,21 @@ public class RecentMessageService {
         return instance;
     }
 
+    /**
+     * 未读总数变化监听器（在JavaFX应用线程中回调）
+     */
+    public interface UnreadTotalListener {
+        void onUnreadTotalChanged(int totalUnread);
+    }
+
+    public void registerUnreadTotalListener(UnreadTotalListener listener) {
+        unreadTotalListeners.add(listener);
+    }
+
+    public void unregisterUnreadTotalListener(UnreadTotalListener listener) {
+        unreadTotalListeners.remove(listener);
+    }
+
     /**
      * 更新聊天的最新消息（显示最后一人发的消息）
      * @param chatId 聊天ID（私聊：对方ID，群聊：群组ID）
@@ -44,6 +81,17 @@ public class RecentMessageService {
     public void updateRecentMessage(String chatId, String chatName, String senderName,
                                     String content, String avatarUrl, boolean isGroup,
                                     boolean isFromCurrentUser) {
+        updateRecentMessage(chatId, chatName, senderName, content, avatarUrl, isGroup,
+                isFromCurrentUser, isFromCurrentUser ? 0 : 1);
+    }
+
+    /**
+     * 更新聊天的最新消息，并一次性增加指定的未读数（增量同步批量补齐消息时使用）
+     * @param unreadDelta 新增的未读消息数
+     */
+    public void updateRecentMessage(String chatId, String chatName, String senderName,
+                                    String content, String avatarUrl, boolean isGroup,
+                                    boolean isFromCurrentUser, int unreadDelta) {
 
         // 格式化预览消息：显示"发送者: 内容"或"我: 内容"
         String previewContent;
@@ -64,11 +112,15 @@ public class RecentMessageService {
         // 当前时间
         String currentTime = new SimpleDateFormat("HH:mm").format(new Date());
 
-        // 获取未读数量（如果不是当前用户发送的，增加未读数）
-        int unreadCount = unreadCounts.getOrDefault(chatId, 0);
-        if (!isFromCurrentUser) {
-            unreadCount++;
-            unreadCounts.put(chatId, unreadCount);
+        // 获取未读数量（有新增未读时原子地增加未读数）
+        AtomicInteger counter = unreadCounts.computeIfAbsent(chatId, k -> new AtomicInteger(0));
+        int unreadCount;
+        if (unreadDelta > 0) {
+            unreadCount = counter.addAndGet(unreadDelta);
+            totalUnread.addAndGet(unreadDelta);
+            scheduleTotalNotification();
+        } else {
+            unreadCount = counter.get();
         }
 
         // 创建 ChatItem
@@ -83,16 +135,27 @@ public class RecentMessageService {
         );
 
         recentMessages.put(chatId, chatItem);
+        lastAccessTimes.put(chatId, System.currentTimeMillis());
         System.out.println("[RecentMessageService] 更新消息栏: " + chatName +
                 " - " + preview + " (未读: " + unreadCount + ")");
+
+        StateSnapshotService.getInstance().markDirty();
+        MemoryBudgetService.getInstance().checkBudget();
     }
 
     /**
      * 标记为已读（当用户打开聊天窗口时调用）
      */
     public void markAsRead(String chatId) {
-        // 清除未读计数
-        unreadCounts.put(chatId, 0);
+        // 清除未读计数（getAndSet 保证与并发递增不丢失）
+        AtomicInteger counter = unreadCounts.get(chatId);
+        if (counter != null) {
+            int cleared = counter.getAndSet(0);
+            if (cleared > 0) {
+                totalUnread.addAndGet(-cleared);
+                scheduleTotalNotification();
+            }
+        }
 
         // 更新对应的 ChatItem，去掉红点
         ChatItem oldItem = recentMessages.get(chatId);
@@ -104,9 +167,13 @@ public class RecentMessageService {
                     oldItem.getTime(),
                     oldItem.getAvatarUrl(),
                     false,  // 标记为已读，无红点
-                    oldItem.isGroup()
+                    oldItem.isGroup(),
+                    oldItem.getLastActivity()
             );
             recentMessages.put(chatId, readItem);
+            if (oldItem.isUnread()) {
+                StateSnapshotService.getInstance().markDirty();
+            }
             System.out.println("[RecentMessageService] 标记为已读: " + oldItem.getName());
         }
     }
@@ -115,7 +182,11 @@ public class RecentMessageService {
      * 获取指定聊天的最新消息预览
      */
     public ChatItem getRecentMessage(String chatId) {
-        return recentMessages.get(chatId);
+        ChatItem item = recentMessages.get(chatId);
+        if (item != null) {
+            lastAccessTimes.put(chatId, System.currentTimeMillis());
+        }
+        return item;
     }
 
     /**
@@ -125,11 +196,119 @@ public class RecentMessageService {
         return new ArrayList<>(recentMessages.values());
     }
 
+    /**
+     * 用户名解析后替换消息栏中的占位名称（"用户"+ID），不改变排序和未读状态
+     */
+    public void applyResolvedNames(Map<Long, String> names) {
+        boolean changed = false;
+        for (ChatItem item : recentMessages.values()) {
+            ChatItem renamed = withResolvedNames(item, names);
+            if (renamed != item) {
+                changed |= recentMessages.replace(item.getId(), item, renamed);
+            }
+        }
+        if (changed) {
+            StateSnapshotService.getInstance().markDirty();
+        }
+    }
+
+    /**
+     * 替换会话名称和预览中发送者的占位名称，没有需要替换的内容时返回原对象
+     */
+    public static ChatItem withResolvedNames(ChatItem item, Map<Long, String> names) {
+        String name = item.getName();
+        String lastMessage = item.getLastMessage();
+        if (!item.isGroup()) {
+            try {
+                Long contactId = Long.parseLong(item.getId());
+                if (names.containsKey(contactId) && UserDirectoryService.placeholder(contactId).equals(name)) {
+                    name = names.get(contactId);
+                }
+            } catch (NumberFormatException ignored) {
+                // 非数字ID的会话没有占位名称
+            }
+        }
+        if (lastMessage != null) {
+            for (Map.Entry<Long, String> entry : names.entrySet()) {
+                String prefix = UserDirectoryService.placeholder(entry.getKey()) + ": ";
+                if (lastMessage.startsWith(prefix)) {
+                    lastMessage = entry.getValue() + ": " + lastMessage.substring(prefix.length());
+                    break;
+                }
+            }
+        }
+        if (Objects.equals(name, item.getName()) && Objects.equals(lastMessage, item.getLastMessage())) {
+            return item;
+        }
+        return new ChatItem(item.getId(), name, lastMessage, item.getTime(), item.getAvatarUrl(),
+                item.isUnread(), item.isGroup(), item.getLastActivity());
+    }
+
     /**
      * 获取未读消息数量
      */
     public int getUnreadCount(String chatId) {
-        return unreadCounts.getOrDefault(chatId, 0);
+        AtomicInteger counter = unreadCounts.get(chatId);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * 获取所有聊天的未读总数（O(1)）
+     */
+    public int getTotalUnreadCount() {
+        return totalUnread.get();
+    }
+
+    /**
+     * 节流通知未读总数：一个间隔内的多次变化只通知一次最新值
+     */
+    private void scheduleTotalNotification() {
+        if (unreadTotalListeners.isEmpty() || !notifyScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        notifyTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                notifyScheduled.set(false);
+                Platform.runLater(() -> {
+                    int total = totalUnread.get();
+                    if (total == lastNotifiedTotal) {
+                        return;
+                    }
+                    lastNotifiedTotal = total;
+                    for (UnreadTotalListener listener : unreadTotalListeners) {
+                        try {
+                            listener.onUnreadTotalChanged(total);
+                        } catch (Exception e) {
+                            System.err.println("[RecentMessageService] 通知未读总数监听器失败: " + e.getMessage());
+                        }
+                    }
+                });
+            }
+        }, NOTIFY_INTERVAL_MS);
+    }
+
+    /**
+     * 恢复上次保存的消息栏和未读数（登录后、加载服务器数据前调用，替换现有内容）
+     */
+    public void restore(List<ChatItem> items, Map<String, Integer> counts) {
+        recentMessages.clear();
+        unreadCounts.clear();
+        lastAccessTimes.clear();
+        int total = 0;
+        long now = System.currentTimeMillis();
+        for (ChatItem item : items) {
+            recentMessages.put(item.getId(), item);
+            lastAccessTimes.put(item.getId(), now);
+            int unread = counts.getOrDefault(item.getId(), 0);
+            if (unread > 0) {
+                unreadCounts.put(item.getId(), new AtomicInteger(unread));
+                total += unread;
+            }
+        }
+        totalUnread.set(total);
+        scheduleTotalNotification();
+        System.out.println("[RecentMessageService] 恢复消息栏: " + items.size() + " 个聊天，" + total + " 条未读消息");
     }
 
     /**
@@ -138,20 +317,69 @@ public class RecentMessageService {
     public void clearAll() {
         recentMessages.clear();
         unreadCounts.clear();
+        totalUnread.set(0);
+        lastAccessTimes.clear();
+        scheduleTotalNotification();
         System.out.println("[RecentMessageService] 已清空所有最近消息");
     }
 
+    // ========== 内存预算 ==========
+
+    @Override
+    public String getCacheName() {
+        return "最近消息";
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        long total = 0;
+        for (ChatItem item : recentMessages.values()) {
+            total += estimateBytes(item);
+        }
+        return total;
+    }
+
     /**
-     * 获取统计信息
+     * 淘汰最久未访问且没有未读消息的预览（有未读的聊天必须保留）
      */
-    public String getStatistics() {
-        int total = recentMessages.size();
-        int totalUnread = 0;
+    @Override
+    public long trim(long bytesToFree) {
+        List<String> candidates = new ArrayList<>();
+        for (String chatId : recentMessages.keySet()) {
+            if (getUnreadCount(chatId) == 0) {
+                candidates.add(chatId);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(chatId -> lastAccessTimes.getOrDefault(chatId, 0L)));
 
-        for (Integer count : unreadCounts.values()) {
-            totalUnread += count;
+        long freed = 0;
+        for (String chatId : candidates) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            // 未读计数保留（每个聊天只有一个整数），避免与并发递增竞争
+            ChatItem removed = recentMessages.remove(chatId);
+            if (removed != null) {
+                freed += estimateBytes(removed);
+            }
+            lastAccessTimes.remove(chatId);
         }
+        return freed;
+    }
 
-        return String.format("最近消息: %d个聊天，%d条未读消息", total, totalUnread);
+    private long estimateBytes(ChatItem item) {
+        return 64 + stringBytes(item.getId()) + stringBytes(item.getName()) + stringBytes(item.getLastMessage())
+                + stringBytes(item.getTime()) + stringBytes(item.getAvatarUrl());
+    }
+
+    private long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        return String.format("最近消息: %d个聊天，%d条未读消息", recentMessages.size(), totalUnread.get());
     }
 }
\ No newline at end of file
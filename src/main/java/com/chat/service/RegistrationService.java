@@ -46,8 +46,12 @@ public class RegistrationService {
             LoginResponse loginResponse = gson.fromJson(response, LoginResponse.class);
 
             if (loginResponse != null && loginResponse.isSuccess()) {
-                // 登录成功，返回连接和响应
-                return new LoginResult(loginResponse, client);
+                // 保存会话信息，断线重连后用于恢复会话
+                client.setSessionCredentials(uid, loginResponse.getToken(), encrypted);
+                // 立即开始加载主界面的初始数据，与主界面的加载同时进行
+                BootstrapService bootstrap = BootstrapService.start(client, uid);
+                // 登录成功，返回连接、响应和正在进行的启动数据加载
+                return new LoginResult(loginResponse, client, bootstrap);
             } else {
                 // 登录失败，断开连接
                 client.disconnect();
@@ -70,14 +74,21 @@ public class RegistrationService {
     public static class LoginResult {
         private LoginResponse response;
         private SocketClient socketClient;
+        private BootstrapService bootstrap;
 
         public LoginResult(LoginResponse response, SocketClient socketClient) {
+            this(response, socketClient, null);
+        }
+
+        public LoginResult(LoginResponse response, SocketClient socketClient, BootstrapService bootstrap) {
             this.response = response;
             this.socketClient = socketClient;
+            this.bootstrap = bootstrap;
         }
 
         public LoginResponse getResponse() { return response; }
         public SocketClient getSocketClient() { return socketClient; }
+        public BootstrapService getBootstrap() { return bootstrap; }
     }
     /**
      * 注册用户
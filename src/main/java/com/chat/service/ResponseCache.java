@@ -0,0 +1,219 @@
+package com.chat.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 查询响应缓存 - 单例模式，缓存解析后的好友详情、群详情、用户信息响应
+ * 1. 每种响应有自己的有效期（TTL），有效期内直接返回
+ * 2. 过期但仍在可用期内时先返回旧数据，同时在后台刷新（stale-while-revalidate）
+ * 3. 本地修改成功（添加成员、退出群聊、删除好友、更新资料）或收到相关推送（群文件）时立即失效
+ * 缓存的响应对象由多个窗口共用，只读使用，不要修改
+ */
+public class ResponseCache {
+
+    private static ResponseCache instance;
+
+    /**
+     * 缓存的响应种类：有效期和过期后仍可先返回的时长
+     */
+    public enum Kind {
+        USER_INFO(5 * 60 * 1000, 30 * 60 * 1000),
+        FRIEND_DETAIL(2 * 60 * 1000, 30 * 60 * 1000),
+        GROUP_DETAIL(60 * 1000, 10 * 60 * 1000);
+
+        final long ttlMs;
+        final long staleMs;
+
+        Kind(long ttlMs, long staleMs) {
+            this.ttlMs = ttlMs;
+            this.staleMs = staleMs;
+        }
+    }
+
+    private static final int MAX_ENTRIES = 500;
+    // 失效记录保留的时长，超过这个时间还没返回的请求视为已失败
+    private static final long INVALIDATION_MEMORY_MS = 60 * 1000;
+
+    private static class Entry {
+        final Object value;
+        final long storedAt;
+
+        Entry(Object value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final LruCache<String, Entry> entries = new LruCache<>("查询响应", MAX_ENTRIES);
+    // 正在后台刷新的key
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    // 最近失效的key -> 失效时间：失效前发出的请求返回后不再写入缓存
+    private final Map<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private ResponseCache() {
+        MemoryBudgetService.getInstance().register(entries);
+    }
+
+    public static synchronized ResponseCache getInstance() {
+        if (instance == null) {
+            instance = new ResponseCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 读取缓存的响应，没有或已超过可用期时调用 loader 加载；loader 返回的结果满足 cacheable 时写入缓存
+     * 命中已过期的数据时返回旧数据，并在后台线程中用 loader 刷新
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Kind kind, String id, Supplier<T> loader, Predicate<T> cacheable) {
+        String key = keyOf(kind, id);
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            long age = now - entry.storedAt;
+            if (age <= kind.ttlMs) {
+                hits.incrementAndGet();
+                return (T) entry.value;
+            }
+            if (age <= kind.ttlMs + kind.staleMs) {
+                staleHits.incrementAndGet();
+                refreshAsync(key, loader, cacheable);
+                return (T) entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        return load(key, loader, cacheable);
+    }
+
+    /**
+     * 写入从其他响应（如启动数据）中得到的结果，之后的读取直接命中
+     */
+    public void put(Kind kind, String id, Object value) {
+        if (value != null) {
+            entries.put(keyOf(kind, id), new Entry(value, System.currentTimeMillis()));
+        }
+    }
+
+    private <T> T load(String key, Supplier<T> loader, Predicate<T> cacheable) {
+        long startedAt = System.currentTimeMillis();
+        T value = loader.get();
+        if (value != null && cacheable.test(value) && !invalidatedSince(key, startedAt)) {
+            entries.put(key, new Entry(value, System.currentTimeMillis()));
+        }
+        return value;
+    }
+
+    /**
+     * 请求发出后该key（或包含它的前缀，前缀以"_"结尾）是否被失效过
+     */
+    private boolean invalidatedSince(String key, long startedAt) {
+        for (Map.Entry<String, Long> invalidation : invalidatedAt.entrySet()) {
+            String invalidated = invalidation.getKey();
+            if (invalidation.getValue() >= startedAt
+                    && (key.equals(invalidated) || (invalidated.endsWith("_") && key.startsWith(invalidated)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> void refreshAsync(String key, Supplier<T> loader, Predicate<T> cacheable) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                load(key, loader, cacheable);
+            } catch (Exception e) {
+                System.err.println("[ResponseCache] 后台刷新失败: " + key + ", " + e.getMessage());
+            } finally {
+                refreshing.remove(key);
+            }
+        }, "response-cache-refresh");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ========== 失效 ==========
+
+    /**
+     * 用户资料变化
+     */
+    public void invalidateUser(Long userId) {
+        invalidate(keyOf(Kind.USER_INFO, String.valueOf(userId)));
+    }
+
+    /**
+     * 好友关系或好友资料变化：清除当前用户看到的该好友详情
+     */
+    public void invalidateFriend(Long userId, Long friendId) {
+        invalidate(keyOf(Kind.FRIEND_DETAIL, friendDetailId(userId, friendId)));
+    }
+
+    /**
+     * 群成员、群文件等变化：清除所有用户视角下该群的详情
+     */
+    public void invalidateGroup(Long groupId) {
+        String prefix = keyOf(Kind.GROUP_DETAIL, groupId + "_");
+        rememberInvalidation(prefix, System.currentTimeMillis());
+        int removed = entries.removeIf(key -> key.startsWith(prefix));
+        invalidations.addAndGet(removed);
+    }
+
+    private void invalidate(String key) {
+        rememberInvalidation(key, System.currentTimeMillis());
+        if (entries.remove(key) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void rememberInvalidation(String key, long now) {
+        invalidatedAt.put(key, now);
+        invalidatedAt.values().removeIf(time -> now - time > INVALIDATION_MEMORY_MS);
+    }
+
+    /**
+     * 清空缓存（退出登录时调用）
+     */
+    public void clear() {
+        entries.clear();
+        invalidatedAt.clear();
+    }
+
+    /**
+     * 群详情的缓存key以群ID开头，按群失效时用前缀匹配
+     */
+    public static String groupDetailId(Long groupId, Long userId) {
+        return groupId + "_" + userId;
+    }
+
+    public static String friendDetailId(Long userId, Long friendId) {
+        return userId + "_" + friendId;
+    }
+
+    private static String keyOf(Kind kind, String id) {
+        return kind.name() + ":" + id;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        long total = hits.get() + staleHits.get() + misses.get();
+        return String.format("查询响应缓存: %d 条, 命中 %d 次, 过期命中 %d 次, 未命中 %d 次, 命中率 %.1f%%, 失效 %d 条",
+                entries.size(), hits.get(), staleHits.get(), misses.get(),
+                total == 0 ? 0.0 : (hits.get() + staleHits.get()) * 100.0 / total, invalidations.get());
+    }
+}
@@ -0,0 +1,185 @@
+package com.chat.service;
+
+import com.chat.model.ChatItem;
+import com.chat.model.FriendItem;
+import com.chat.model.GroupItem;
+import com.chat.store.StateSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 主界面状态快照 - 单例模式，保存好友列表、群组列表、消息栏会话和未读数
+ * 1. 登录后在连接服务器加载数据之前读出快照，主界面立即显示上次的内容
+ * 2. 服务器数据到达后直接替换列表，以服务器为准
+ * 3. 内容变化时只做标记，合并窗口内的多次变化只写一次文件，退出登录时立即写入
+ */
+public class StateSnapshotService {
+    private static StateSnapshotService instance;
+
+    private static final String SNAPSHOT_FILE = "state.snapshot";
+    // 合并窗口：第一次变化后等待这么久再写文件
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private final Timer saveTimer = new Timer("state-snapshot-timer", true);
+
+    // 以下字段访问时需持有 this 锁
+    private Path file;
+    private List<FriendItem> friends = Collections.emptyList();
+    private List<GroupItem> groups = Collections.emptyList();
+    private TimerTask pendingSave;
+
+    // 统计
+    private final AtomicLong saves = new AtomicLong();
+    private volatile long lastLoadMs = -1;
+    private volatile long lastSaveMs;
+    private volatile long lastSaveBytes;
+
+    private StateSnapshotService() {
+    }
+
+    public static synchronized StateSnapshotService getInstance() {
+        if (instance == null) {
+            instance = new StateSnapshotService();
+        }
+        return instance;
+    }
+
+    /**
+     * 打开用户的快照并读出内容（登录后、连接服务器前调用）；没有快照或快照损坏时返回null
+     */
+    public StateSnapshot open(Long userId) {
+        Path target = Paths.get(System.getProperty("user.home"), ".midcup_chat", userId.toString(), SNAPSHOT_FILE);
+        long startedAt = System.nanoTime();
+        StateSnapshot snapshot = null;
+        try {
+            snapshot = StateSnapshot.read(target);
+        } catch (IOException e) {
+            System.err.println("[StateSnapshotService] 读取状态快照失败，忽略: " + e.getMessage());
+        }
+        lastLoadMs = (System.nanoTime() - startedAt) / 1_000_000;
+
+        synchronized (this) {
+            cancelPendingSave();
+            file = target;
+            friends = snapshot != null ? snapshot.getFriends() : Collections.emptyList();
+            groups = snapshot != null ? snapshot.getGroups() : Collections.emptyList();
+        }
+        if (snapshot != null) {
+            System.out.println("[StateSnapshotService] 读取状态快照: 好友 " + snapshot.getFriends().size()
+                    + " 个, 群组 " + snapshot.getGroups().size() + " 个, 会话 " + snapshot.getChats().size()
+                    + " 个, 耗时 " + lastLoadMs + "ms");
+        }
+        return snapshot;
+    }
+
+    /**
+     * 好友列表已更新（服务器数据到达或刷新后调用）
+     */
+    public void setFriends(List<FriendItem> items) {
+        synchronized (this) {
+            friends = Collections.unmodifiableList(new ArrayList<>(items));
+        }
+        markDirty();
+    }
+
+    /**
+     * 群组列表已更新（服务器数据到达或刷新后调用）
+     */
+    public void setGroups(List<GroupItem> items) {
+        synchronized (this) {
+            groups = Collections.unmodifiableList(new ArrayList<>(items));
+        }
+        markDirty();
+    }
+
+    /**
+     * 内容有变化，安排一次保存（可在任意线程调用）；已有待执行的保存时不推迟，保证第一次变化后最多延迟一个合并窗口
+     */
+    public synchronized void markDirty() {
+        if (file == null || pendingSave != null) {
+            return;
+        }
+        pendingSave = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (StateSnapshotService.this) {
+                    pendingSave = null;
+                }
+                save();
+            }
+        };
+        saveTimer.schedule(pendingSave, SAVE_DELAY_MS);
+    }
+
+    /**
+     * 立即写入未保存的变化（退出登录前调用，在调用线程中写入）
+     */
+    public void flushNow() {
+        boolean dirty;
+        synchronized (this) {
+            dirty = pendingSave != null;
+            cancelPendingSave();
+        }
+        if (dirty) {
+            save();
+        }
+    }
+
+    /**
+     * 关闭快照（退出登录时在 flushNow 之后调用），之后的变化不再保存
+     */
+    public synchronized void close() {
+        cancelPendingSave();
+        file = null;
+        friends = Collections.emptyList();
+        groups = Collections.emptyList();
+    }
+
+    private void cancelPendingSave() {
+        if (pendingSave != null) {
+            pendingSave.cancel();
+            pendingSave = null;
+        }
+    }
+
+    // ========== 保存 ==========
+
+    /**
+     * 会话和未读数在保存时从 RecentMessageService 取，消息栏的频繁变化不需要复制
+     */
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        RecentMessageService recentService = RecentMessageService.getInstance();
+        List<ChatItem> chats = recentService.getAllRecentMessages();
+        Map<String, Integer> unreadCounts = new HashMap<>();
+        for (ChatItem chat : chats) {
+            int unread = recentService.getUnreadCount(chat.getId());
+            if (unread > 0) {
+                unreadCounts.put(chat.getId(), unread);
+            }
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            lastSaveBytes = new StateSnapshot(friends, groups, chats, unreadCounts).write(file);
+            lastSaveMs = (System.nanoTime() - startedAt) / 1_000_000;
+            saves.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("[StateSnapshotService] 保存状态快照失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        return String.format("状态快照: 读取耗时 %dms, 保存 %d 次, 最近一次 %d 字节 / %dms",
+                lastLoadMs, saves.get(), lastSaveBytes, lastSaveMs);
+    }
+}
@@ -0,0 +1,275 @@
+package com.chat.service;
+
+import com.chat.model.ChatItem;
+import com.chat.model.MessageRecord;
+import com.chat.network.SocketClient;
+import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.ChatHistoryResponse.HistoryMessageItem;
+import com.chat.protocol.ChatSyncRequest;
+import com.chat.protocol.ChatSyncRequest.SyncCursor;
+import com.chat.protocol.ChatSyncResponse;
+import com.chat.protocol.ChatSyncResponse.SyncConversation;
+import com.chat.protocol.ExtendedMessageType;
+import com.chat.store.LocalMessageStore;
+import com.google.gson.Gson;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 增量同步服务 - 登录和重连后只拉取每个会话本地最大消息ID之后的新消息
+ * 多个会话的同步位置合并为一个请求分批拉取，结果写入本地消息存储并更新消息栏
+ * 服务器不支持同步请求时，退回到逐个会话向前翻页直到接上本地记录
+ */
+public class SyncService {
+
+    // 每个同步请求携带的会话数
+    private static final int CONVERSATIONS_PER_REQUEST = 50;
+    // 每个会话每轮最多拉取的消息数
+    private static final int PAGE_SIZE = 100;
+    // 单次同步的最大请求轮数，避免异常数据导致无限循环
+    private static final int MAX_ROUNDS = 20;
+    // 退回历史记录请求时每个会话最多翻页数（防止服务器翻页异常时无限请求）
+    private static final int FALLBACK_MAX_PAGES = 100;
+
+    private final Gson gson = new Gson();
+    private final HistoryService historyService = new HistoryService();
+    private final LocalMessageStore localStore = LocalMessageStore.getInstance();
+    private final AtomicBoolean syncing = new AtomicBoolean(false);
+
+    // 服务器是否支持同步请求（收到不认识的响应后置为false）
+    private volatile boolean syncRequestSupported = true;
+
+    /**
+     * 在后台线程中同步（重连后调用），已有同步在进行时忽略
+     */
+    public void syncAsync(SocketClient client, Long userId) {
+        Thread thread = new Thread(() -> syncNow(client, userId), "chat-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 在调用线程中同步，已有同步在进行时直接返回
+     */
+    public void syncNow(SocketClient client, Long userId) {
+        if (client == null || userId == null || !localStore.isOpen()) {
+            return;
+        }
+        if (!syncing.compareAndSet(false, true)) {
+            System.out.println("[SyncService] 同步正在进行中，忽略本次请求");
+            return;
+        }
+        try {
+            sync(client, userId);
+        } catch (Exception e) {
+            System.err.println("[SyncService] 同步失败: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            syncing.set(false);
+        }
+    }
+
+    private void sync(SocketClient client, Long userId) {
+        long start = System.currentTimeMillis();
+
+        // 1. 先记录所有会话的同步位置，之后实时到达的消息不会让位置越过离线期间缺失的消息
+        Deque<SyncCursor> pending = new ArrayDeque<>();
+        for (String key : localStore.getConversationKeys()) {
+            SyncCursor cursor = toCursor(key, userId);
+            Long maxId = localStore.getMaxId(key);
+            if (cursor != null && maxId != null) {
+                cursor.setAfterId(maxId);
+                pending.add(cursor);
+            }
+        }
+        if (pending.isEmpty()) {
+            System.out.println("[SyncService] 本地没有会话记录，无需同步");
+            return;
+        }
+
+        // 2. 分批请求，还有更多消息的会话以新的位置进入下一轮
+        int rounds = 0;
+        int received = 0;
+        while (!pending.isEmpty() && rounds < MAX_ROUNDS) {
+            rounds++;
+            List<SyncCursor> batch = new ArrayList<>();
+            while (!pending.isEmpty() && batch.size() < CONVERSATIONS_PER_REQUEST) {
+                batch.add(pending.poll());
+            }
+
+            List<SyncConversation> results;
+            if (syncRequestSupported) {
+                results = requestSync(client, batch);
+                if (results == null) {
+                    System.err.println("[SyncService] 同步请求无响应，停止本次同步");
+                    return;
+                }
+            } else {
+                results = fetchBatchByHistory(client, batch);
+            }
+
+            for (SyncConversation conversation : results) {
+                if (conversation == null || conversation.getMessages() == null) {
+                    continue;
+                }
+                received += conversation.getMessages().size();
+                Long lastId = applyConversation(conversation, userId);
+                if (conversation.isHasMore() && lastId != null) {
+                    pending.add(new SyncCursor(conversation.getChatType(), conversation.getTargetId(), lastId));
+                }
+            }
+        }
+
+        System.out.println("[SyncService] 同步完成: " + rounds + "轮请求, 收到 " + received + " 条新消息, 耗时 " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 发送一批同步请求，无响应时返回null；服务器不支持或这次处理失败时改用历史记录请求补齐这一批
+     */
+    private List<SyncConversation> requestSync(SocketClient client, List<SyncCursor> batch) {
+        ChatSyncRequest request = new ChatSyncRequest();
+        request.setConversations(batch);
+        request.setLimit(PAGE_SIZE);
+
+        String responseJson = client.sendRequest(request);
+        if (responseJson == null || responseJson.trim().isEmpty()) {
+            return null;
+        }
+
+        ChatSyncResponse response = null;
+        try {
+            response = gson.fromJson(responseJson, ChatSyncResponse.class);
+        } catch (Exception e) {
+            System.err.println("[SyncService] 解析同步响应失败: " + e.getMessage());
+        }
+
+        if (response == null || !ExtendedMessageType.CHAT_SYNC_RESPONSE.equals(response.getType())) {
+            System.out.println("[SyncService] 服务器不支持增量同步，改用历史记录请求");
+            syncRequestSupported = false;
+            return fetchBatchByHistory(client, batch);
+        }
+        if (!response.isSuccess()) {
+            // 服务器支持但这一次处理失败：只有这一批改用历史记录请求，之后仍发送同步请求
+            System.err.println("[SyncService] 同步请求失败: " + response.getMessage() + "，本批改用历史记录请求");
+            return fetchBatchByHistory(client, batch);
+        }
+
+        return response.getConversations() != null ? response.getConversations() : new ArrayList<>();
+    }
+
+    /**
+     * 用历史记录请求逐个补齐一批会话
+     */
+    private List<SyncConversation> fetchBatchByHistory(SocketClient client, List<SyncCursor> batch) {
+        List<SyncConversation> results = new ArrayList<>();
+        for (SyncCursor cursor : batch) {
+            results.add(fetchByHistory(client, cursor));
+        }
+        return results;
+    }
+
+    /**
+     * 通过历史记录请求从最新消息向前翻页，直到接上本地的同步位置
+     * 历史记录从新到旧翻页，没有接上时只拿到了缺口较新的一段：这时什么都不写入，
+     * 否则本地最大ID越过缺口，之后的同步不会再补，本地翻页也看不出中间少了消息；下次同步从原位置重新补
+     */
+    private SyncConversation fetchByHistory(SocketClient client, SyncCursor cursor) {
+        List<HistoryMessageItem> newer = new ArrayList<>();
+        String pageCursor = null;
+        boolean reachedAfterId = false;
+
+        for (int page = 0; page < FALLBACK_MAX_PAGES; page++) {
+            ChatHistoryResponse response = historyService.fetchHistoryPage(client, cursor.getChatType(),
+                    cursor.getTargetId(), PAGE_SIZE, pageCursor, cursor.getAfterId());
+            if (response == null) {
+                break;
+            }
+            newer.addAll(response.getMessages());
+            if (!Boolean.TRUE.equals(response.getHasMore())) {
+                reachedAfterId = true;
+                break;
+            }
+            pageCursor = response.getNextCursor();
+        }
+
+        if (!reachedAfterId) {
+            System.err.println("[SyncService] 会话 " + cursor.getChatType() + "_" + cursor.getTargetId() +
+                    " 未能补齐到消息 " + cursor.getAfterId() + "（已取到 " + newer.size() + " 条），本次不写入，下次同步重试");
+            newer.clear();
+        }
+
+        SyncConversation conversation = new SyncConversation();
+        conversation.setChatType(cursor.getChatType());
+        conversation.setTargetId(cursor.getTargetId());
+        conversation.setMessages(newer);
+        return conversation;
+    }
+
+    /**
+     * 将一个会话的新消息写入本地存储并更新消息栏，返回其中最大的消息ID
+     */
+    private Long applyConversation(SyncConversation conversation, Long userId) {
+        boolean isGroup = "group".equals(conversation.getChatType());
+        Long targetId = conversation.getTargetId();
+        String key = isGroup ? ChatSessionManager.buildGroupKey(targetId)
+                : ChatSessionManager.buildPrivateKey(userId, targetId);
+
+        List<MessageRecord> records = historyService.toMessageRecords(conversation.getMessages());
+        records.sort(Comparator.comparingLong(MessageRecord::getId));
+
+        int unread = 0;
+        MessageRecord last = null;
+        for (MessageRecord record : records) {
+            if (localStore.append(key, record)) {
+                last = record;
+                if (!userId.equals(record.getSenderId())) {
+                    unread++;
+                }
+            }
+        }
+        if (records.isEmpty()) {
+            return null;
+        }
+        if (last == null) {
+            return records.get(records.size() - 1).getId();
+        }
+
+        // 消息栏只显示最后一条，未读数一次性加上所有新收到的消息
+        String chatId = targetId.toString();
+        ChatItem existing = RecentMessageService.getInstance().getRecentMessage(chatId);
+        String chatName = existing != null ? existing.getName() : (isGroup ? "群聊" + targetId : UserDirectoryService.getInstance().displayName(targetId));
+        boolean isFromCurrentUser = userId.equals(last.getSenderId());
+        String senderName = isGroup ? UserDirectoryService.getInstance().displayName(last.getSenderId()) : chatName;
+        String content = last.isFile() ? "[文件] " + last.getFileName() : last.getContent();
+
+        RecentMessageService.getInstance().updateRecentMessage(chatId, chatName, senderName, content, "",
+                isGroup, isFromCurrentUser, unread);
+        MessageBroadcaster.getInstance().notifyChatListSynced(isGroup, targetId, chatName, content,
+                last.getTimestamp(), last.getId());
+
+        System.out.println("[SyncService] 会话 " + key + " 补齐 " + records.size() + " 条消息, 新增未读 " + unread);
+        return records.get(records.size() - 1).getId();
+    }
+
+    /**
+     * 由会话key解析同步位置（私聊为 private_小ID_大ID，群聊为 group_群ID）
+     */
+    private SyncCursor toCursor(String key, Long userId) {
+        try {
+            if (key.startsWith("group_")) {
+                return new SyncCursor("group", Long.parseLong(key.substring("group_".length())), null);
+            }
+            if (key.startsWith("private_")) {
+                String[] ids = key.substring("private_".length()).split("_");
+                Long first = Long.parseLong(ids[0]);
+                Long second = Long.parseLong(ids[1]);
+                return new SyncCursor("private", userId.equals(first) ? second : first, null);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[SyncService] 无法解析会话key: " + key);
+        }
+        return null;
+    }
+}
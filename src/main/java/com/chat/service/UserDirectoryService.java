@@ -0,0 +1,321 @@
+package com.chat.service;
+
+import com.chat.network.SocketClient;
+import com.chat.protocol.ExtendedMessageType;
+import com.chat.protocol.UserInfoBatchRequest;
+import com.chat.protocol.UserInfoBatchResponse;
+import com.chat.protocol.UserInfoResponse;
+import com.google.gson.Gson;
+import javafx.application.Platform;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户名目录 - 单例模式，把用户ID解析为用户名，用于显示群成员、陌生发送者的名称
+ * 1. 名称未知时先返回"用户"+ID占位，同时把ID加入待查询集合
+ * 2. 一个合并窗口内收集到的所有ID用一个批量请求查询，300个发言者只需要几个请求
+ * 3. 查到名称后更新消息栏，并通知已打开的窗口刷新显示（在JavaFX应用线程中回调）
+ * 好友列表、群详情中已带有名称，加载时直接写入，不再单独查询
+ */
+public class UserDirectoryService {
+    private static UserDirectoryService instance;
+
+    // 合并窗口：第一个未知ID出现后等待这么久再统一查询
+    private static final long BATCH_WINDOW_MS = 50;
+    // 每个请求携带的用户ID数
+    private static final int IDS_PER_REQUEST = 100;
+    // 名称的有效期，过期后仍先显示旧名称，同时重新查询
+    private static final long NAME_TTL_MS = 10 * 60 * 1000;
+    // 查询失败或用户不存在时，多久之后才再次查询
+    private static final long RETRY_DELAY_MS = 30 * 1000;
+    private static final int MAX_NAMES = 5000;
+
+    /**
+     * 名称解析监听器（在JavaFX应用线程中回调）
+     */
+    public interface NameResolvedListener {
+        void onNamesResolved(Map<Long, String> names);
+    }
+
+    private static class NameEntry {
+        final String name;
+        final long storedAt;
+
+        NameEntry(String name, long storedAt) {
+            this.name = name;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final Gson gson = new Gson();
+    private final LruCache<Long, NameEntry> names = new LruCache<>("用户名", MAX_NAMES);
+    private final List<NameResolvedListener> listeners = new CopyOnWriteArrayList<>();
+    private final Timer flushTimer = new Timer("user-directory-timer", true);
+
+    // 以下字段访问时需持有 this 锁
+    private final Set<Long> pending = new LinkedHashSet<>();
+    private final Set<Long> inFlight = new HashSet<>();
+    private final Map<Long, Long> failedAt = new HashMap<>();
+    private TimerTask pendingFlush;
+    private SocketClient client;
+
+    // 服务器是否支持批量查询（收到不认识的响应后置为false，改为逐个查询）
+    private volatile boolean batchSupported = true;
+
+    // 统计
+    private final AtomicLong batchRequests = new AtomicLong();
+    private final AtomicLong singleRequests = new AtomicLong();
+    private final AtomicLong resolved = new AtomicLong();
+
+    private UserDirectoryService() {
+        MemoryBudgetService.getInstance().register(names);
+    }
+
+    public static synchronized UserDirectoryService getInstance() {
+        if (instance == null) {
+            instance = new UserDirectoryService();
+        }
+        return instance;
+    }
+
+    /**
+     * 设置查询使用的连接（登录后调用）；设置前积累的未知ID随后一起查询
+     */
+    public synchronized void setSocketClient(SocketClient client) {
+        this.client = client;
+        if (client != null && !pending.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    public void registerListener(NameResolvedListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void unregisterListener(NameResolvedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 用户的显示名称：已知时返回用户名，否则返回"用户"+ID并安排查询（可在任意线程调用）
+     */
+    public String displayName(Long userId) {
+        if (userId == null) {
+            return "未知用户";
+        }
+        NameEntry entry = names.get(userId);
+        if (entry == null || System.currentTimeMillis() - entry.storedAt > NAME_TTL_MS) {
+            request(userId);
+        }
+        return entry != null ? entry.name : placeholder(userId);
+    }
+
+    /**
+     * 名称未知时显示的占位名称
+     */
+    public static String placeholder(Long userId) {
+        return "用户" + userId;
+    }
+
+    /**
+     * 记录从其他响应（好友列表、群详情）中得到的用户名，名称有变化时通知监听器
+     */
+    public void remember(Map<Long, String> known) {
+        Map<Long, String> changed = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, String> item : known.entrySet()) {
+            if (item.getKey() == null || item.getValue() == null || item.getValue().isEmpty()) {
+                continue;
+            }
+            NameEntry old = names.put(item.getKey(), new NameEntry(item.getValue(), now));
+            if (old == null || !old.name.equals(item.getValue())) {
+                changed.put(item.getKey(), item.getValue());
+            }
+        }
+        if (!changed.isEmpty()) {
+            synchronized (this) {
+                pending.removeAll(changed.keySet());
+            }
+            publish(changed);
+        }
+    }
+
+    /**
+     * 清空所有记录（退出登录时调用）
+     */
+    public synchronized void clear() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel();
+            pendingFlush = null;
+        }
+        pending.clear();
+        failedAt.clear();
+        names.clear();
+        client = null;
+        batchSupported = true;
+    }
+
+    // ========== 合并查询 ==========
+
+    private synchronized void request(Long userId) {
+        if (inFlight.contains(userId)) {
+            return;
+        }
+        Long failed = failedAt.get(userId);
+        if (failed != null && System.currentTimeMillis() - failed < RETRY_DELAY_MS) {
+            return;
+        }
+        if (pending.add(userId) && client != null) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 安排一次查询；已有待执行的查询时不推迟，保证第一个未知ID出现后最多延迟一个合并窗口
+     */
+    private void scheduleFlush() {
+        if (pendingFlush != null) {
+            return;
+        }
+        pendingFlush = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (UserDirectoryService.this) {
+                    pendingFlush = null;
+                }
+                flush();
+            }
+        };
+        flushTimer.schedule(pendingFlush, BATCH_WINDOW_MS);
+    }
+
+    private void flush() {
+        List<Long> ids;
+        SocketClient target;
+        synchronized (this) {
+            target = client;
+            if (target == null || pending.isEmpty()) {
+                return;
+            }
+            ids = new ArrayList<>(pending);
+            pending.clear();
+            inFlight.addAll(ids);
+        }
+
+        Map<Long, String> found = new HashMap<>();
+        try {
+            for (int start = 0; start < ids.size(); start += IDS_PER_REQUEST) {
+                List<Long> batch = ids.subList(start, Math.min(ids.size(), start + IDS_PER_REQUEST));
+                found.putAll(batchSupported ? resolveBatch(target, batch) : resolveEach(target, batch));
+            }
+        } finally {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                inFlight.removeAll(ids);
+                for (Long id : ids) {
+                    if (!found.containsKey(id)) {
+                        failedAt.put(id, now);
+                    } else {
+                        failedAt.remove(id);
+                    }
+                }
+                failedAt.values().removeIf(time -> now - time > RETRY_DELAY_MS);
+            }
+        }
+
+        if (!found.isEmpty()) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Long, String> item : found.entrySet()) {
+                names.put(item.getKey(), new NameEntry(item.getValue(), now));
+            }
+            resolved.addAndGet(found.size());
+            publish(found);
+        }
+        System.out.println("[UserDirectoryService] 解析用户名: 请求 " + ids.size() + " 个, 得到 " + found.size() + " 个");
+    }
+
+    /**
+     * 用一个批量请求查询一批用户名；服务器不支持时改为逐个查询这一批
+     */
+    private Map<Long, String> resolveBatch(SocketClient target, List<Long> batch) {
+        batchRequests.incrementAndGet();
+        String responseJson = target.sendRequest(new UserInfoBatchRequest(new ArrayList<>(batch)));
+        if (responseJson == null || responseJson.trim().isEmpty()) {
+            System.err.println("[UserDirectoryService] 批量用户资料请求无响应");
+            return Collections.emptyMap();
+        }
+
+        UserInfoBatchResponse response = null;
+        try {
+            response = gson.fromJson(responseJson, UserInfoBatchResponse.class);
+        } catch (Exception e) {
+            System.err.println("[UserDirectoryService] 解析批量用户资料响应失败: " + e.getMessage());
+        }
+        if (response == null || !ExtendedMessageType.USER_INFO_BATCH_RESPONSE.equals(response.getType())) {
+            System.out.println("[UserDirectoryService] 服务器不支持批量用户资料请求，改为逐个查询");
+            batchSupported = false;
+            return resolveEach(target, batch);
+        }
+        if (!response.isSuccess() || response.getUsers() == null) {
+            System.err.println("[UserDirectoryService] 批量用户资料请求失败: " + response.getMessage());
+            return Collections.emptyMap();
+        }
+
+        Map<Long, String> found = new HashMap<>();
+        for (UserInfoBatchResponse.UserSummary user : response.getUsers()) {
+            if (user != null && user.getUid() != null && user.getUsername() != null) {
+                found.put(user.getUid(), user.getUsername());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 逐个查询（经 UserProfileService，与资料窗口共用响应缓存）
+     */
+    private Map<Long, String> resolveEach(SocketClient target, List<Long> batch) {
+        UserProfileService profileService = new UserProfileService(target);
+        Map<Long, String> found = new HashMap<>();
+        for (Long id : batch) {
+            singleRequests.incrementAndGet();
+            UserInfoResponse response = profileService.loadUserInfo(id);
+            if (response != null && response.isSuccess() && response.getUsername() != null) {
+                found.put(id, response.getUsername());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 更新消息栏中的占位名称，并通知已打开的窗口
+     */
+    private void publish(Map<Long, String> resolvedNames) {
+        Map<Long, String> snapshot = Collections.unmodifiableMap(new HashMap<>(resolvedNames));
+        RecentMessageService.getInstance().applyResolvedNames(snapshot);
+        Platform.runLater(() -> {
+            for (NameResolvedListener listener : listeners) {
+                try {
+                    listener.onNamesResolved(snapshot);
+                } catch (Exception e) {
+                    System.err.println("[UserDirectoryService] 通知名称监听器失败: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStatistics() {
+        int waiting;
+        synchronized (this) {
+            waiting = pending.size() + inFlight.size();
+        }
+        return String.format("用户名目录: %d 个, 批量请求 %d 次, 逐个请求 %d 次, 已解析 %d 个, 待解析 %d 个",
+                names.size(), batchRequests.get(), singleRequests.get(), resolved.get(), waiting);
+    }
+}
@@ -24,10 +24,10 @@ public class UserProfileService {
     public UserInfoResponse loadUserInfo(Long userId) {
         try {
             UserInfoRequest request = new UserInfoRequest(userId);
-            String response = socketClient.sendUserInfoRequest(request);
-            if (response != null) {
-                return gson.fromJson(response, UserInfoResponse.class);
-            }
+            // 优先使用缓存；多个窗口同时加载同一个用户的信息时只发送一次
+            return ResponseCache.getInstance().get(ResponseCache.Kind.USER_INFO, String.valueOf(userId),
+                    () -> socketClient.sendRequest(request, UserInfoResponse.class),
+                    UserInfoResponse::isSuccess);
         } catch (Exception e) {
             System.err.println("[UserProfileService] 加载用户信息失败: " + e.getMessage());
         }
@@ -42,7 +42,12 @@ public class UserProfileService {
             String response = socketClient.sendUpdateProfileRequest(request);
             if (response != null) {
                 UpdateProfileResponse updateResponse = gson.fromJson(response, UpdateProfileResponse.class);
-                return updateResponse != null && updateResponse.isSuccess();
+                boolean success = updateResponse != null && updateResponse.isSuccess();
+                if (success) {
+                    // 请求中不带用户ID，资料属于当前登录用户
+                    ResponseCache.getInstance().invalidateUser(MessageBroadcaster.getInstance().getCurrentUserId());
+                }
+                return success;
             }
         } catch (Exception e) {
             System.err.println("[UserProfileService] 更新用户资料失败: " + e.getMessage());
@@ -0,0 +1,215 @@
+package com.chat.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩的冷段文件：把段内记录按记录边界切成约64KB的块，每块单独用 Deflate 压缩
+ * 段内偏移仍使用压缩前的偏移，会话索引无需改动；读取时定位所在的块并解压，最近用过的块保留在内存中
+ * 文件格式：[int 魔数][int 版本][long 原始大小][int 块数][块表][压缩数据]
+ * 块表：[int 原始起始偏移][int 原始长度][long 文件内偏移][int 压缩后长度]
+ */
+final class CompressedSegment {
+
+    private static final int MAGIC = 0x4D53475A; // "MSGZ"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int BLOCK_ENTRY_BYTES = 20;
+    // 每块压缩前的目标大小
+    private static final int BLOCK_BYTES = 64 * 1024;
+    // 保留在内存中的已解压块数
+    private static final int CACHED_BLOCKS = 8;
+
+    private final MappedByteBuffer file;
+    private final long plainSize;
+    private final int[] blockStarts;
+    private final int[] blockLengths;
+    private final long[] fileOffsets;
+    private final int[] compressedLengths;
+
+    private final Map<Integer, ByteBuffer> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    private CompressedSegment(MappedByteBuffer file, long plainSize, int blockCount) {
+        this.file = file;
+        this.plainSize = plainSize;
+        this.blockStarts = new int[blockCount];
+        this.blockLengths = new int[blockCount];
+        this.fileOffsets = new long[blockCount];
+        this.compressedLengths = new int[blockCount];
+    }
+
+    /**
+     * 打开压缩段文件，格式不正确时抛出 IOException
+     */
+    static CompressedSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("压缩段文件格式不正确: " + path.getFileName());
+            }
+            int blockCount = buffer.getInt(16);
+            if (blockCount < 0 || HEADER_BYTES + (long) blockCount * BLOCK_ENTRY_BYTES > size) {
+                throw new IOException("压缩段文件不完整: " + path.getFileName());
+            }
+            CompressedSegment segment = new CompressedSegment(buffer, buffer.getLong(8), blockCount);
+            int position = HEADER_BYTES;
+            for (int i = 0; i < blockCount; i++) {
+                segment.blockStarts[i] = buffer.getInt(position);
+                segment.blockLengths[i] = buffer.getInt(position + 4);
+                segment.fileOffsets[i] = buffer.getLong(position + 8);
+                segment.compressedLengths[i] = buffer.getInt(position + 16);
+                if (segment.fileOffsets[i] + segment.compressedLengths[i] > size) {
+                    throw new IOException("压缩段文件不完整: " + path.getFileName());
+                }
+                position += BLOCK_ENTRY_BYTES;
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 压缩一个普通段的内容（只包含完整记录）写入目标文件
+     */
+    static void write(Path path, ByteBuffer plain, int plainSize) throws IOException {
+        List<int[]> blocks = new ArrayList<>();
+        int blockStart = 0;
+        int offset = 0;
+        while (offset < plainSize) {
+            int length = RecordCodec.validate(plain, offset, plainSize);
+            if (length < 0) {
+                throw new IOException("段内记录不完整，偏移: " + offset);
+            }
+            offset += length;
+            if (offset - blockStart >= BLOCK_BYTES || offset == plainSize) {
+                blocks.add(new int[]{blockStart, offset - blockStart});
+                blockStart = offset;
+            }
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + blocks.size() * BLOCK_ENTRY_BYTES);
+            long fileOffset = header.capacity();
+            channel.position(fileOffset);
+
+            byte[] input = new byte[BLOCK_BYTES * 2];
+            byte[] output = new byte[BLOCK_BYTES * 2 + 64];
+            header.putInt(MAGIC).putInt(VERSION).putLong(plainSize).putInt(blocks.size());
+            for (int[] block : blocks) {
+                if (input.length < block[1]) {
+                    input = new byte[block[1]];
+                    output = new byte[block[1] + block[1] / 2 + 64];
+                }
+                plain.get(block[0], input, 0, block[1]);
+                deflater.reset();
+                deflater.setInput(input, 0, block[1]);
+                deflater.finish();
+                int compressed = 0;
+                while (!deflater.finished()) {
+                    if (compressed == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    compressed += deflater.deflate(output, compressed, output.length - compressed);
+                }
+                ByteBuffer data = ByteBuffer.wrap(output, 0, compressed);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                header.putInt(block[0]).putInt(block[1]).putLong(fileOffset).putInt(compressed);
+                fileOffset += compressed;
+            }
+
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    long getPlainSize() {
+        return plainSize;
+    }
+
+    int blockCount() {
+        return blockStarts.length;
+    }
+
+    int blockStart(int block) {
+        return blockStarts[block];
+    }
+
+    /**
+     * 包含指定偏移的块，不存在时返回-1
+     */
+    int blockFor(int offset) {
+        int low = 0;
+        int high = blockStarts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (offset < blockStarts[mid]) {
+                high = mid - 1;
+            } else if (offset >= blockStarts[mid] + blockLengths[mid]) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 解压后的块内容（只读）
+     */
+    ByteBuffer block(int block) throws IOException {
+        ByteBuffer cached = cache.get(block);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] plain = new byte[blockLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(file.slice((int) fileOffsets[block], compressedLengths[block]));
+            int length = 0;
+            while (length < plain.length && !inflater.finished()) {
+                int inflated = inflater.inflate(plain, length, plain.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != plain.length) {
+                throw new IOException("压缩块长度不正确: " + block);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩块数据损坏: " + block, e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(plain).asReadOnlyBuffer();
+        cache.put(block, buffer);
+        return buffer;
+    }
+}
@@ -0,0 +1,259 @@
+package com.chat.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 单个会话的消息索引：按消息ID排序的 (消息ID, 时间戳) -> (段号, 段内偏移)
+ * 内存中使用基本类型数组，每条约24字节；磁盘上为追加写入的定长条目
+ * 非线程安全，由 LocalMessageStore 加锁访问
+ */
+final class ConversationIndex {
+
+    // 条目格式：[long 消息ID][long 时间戳][int 段号][int 段内偏移]
+    static final int ENTRY_BYTES = 24;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Path file;
+    private FileChannel channel;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] segments = new int[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // 按天分桶索引，首次查询时构建，之后随插入更新
+    private DayBucketIndex dayBuckets;
+
+    // 最近一次访问时间，用于内存预算淘汰
+    private long lastAccessTime = System.currentTimeMillis();
+
+    private ConversationIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 从磁盘加载索引，末尾不完整的条目会被截断
+     */
+    static ConversationIndex load(Path file) throws IOException {
+        ConversationIndex index = new ConversationIndex(file);
+        if (Files.exists(file)) {
+            byte[] data = Files.readAllBytes(file);
+            int complete = data.length / ENTRY_BYTES;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            for (int i = 0; i < complete; i++) {
+                index.insert(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+            }
+            if (data.length % ENTRY_BYTES != 0) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate((long) complete * ENTRY_BYTES);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 添加条目并追加写入磁盘，消息ID已存在时返回false
+     */
+    boolean add(long id, long timestamp, int segment, int offset) throws IOException {
+        if (!insert(id, timestamp, segment, offset)) {
+            return false;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        entry.putLong(id).putLong(timestamp).putInt(segment).putInt(offset);
+        entry.flip();
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 插入内存索引：消息ID通常递增，追加到末尾为O(1)；乱序时二分查找插入位置
+     */
+    private boolean insert(long id, long timestamp, int segment, int offset) {
+        int position;
+        if (size == 0 || ids[size - 1] < id) {
+            position = size;
+        } else {
+            int found = Arrays.binarySearch(ids, 0, size, id);
+            if (found >= 0) {
+                return false;
+            }
+            position = -found - 1;
+        }
+
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        if (position < size) {
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+            System.arraycopy(segments, position, segments, position + 1, size - position);
+            System.arraycopy(offsets, position, offsets, position + 1, size - position);
+        }
+        ids[position] = id;
+        timestamps[position] = timestamp;
+        segments[position] = segment;
+        offsets[position] = offset;
+        size++;
+        if (dayBuckets != null) {
+            dayBuckets.add(id, timestamp);
+        }
+        return true;
+    }
+
+    /**
+     * 消息ID所在的位置，不存在时返回-1
+     */
+    int positionOf(long id) {
+        int found = Arrays.binarySearch(ids, 0, size, id);
+        return found >= 0 ? found : -1;
+    }
+
+    /**
+     * 整理段文件后更新条目指向的位置（需调用 rewrite 写回磁盘）
+     */
+    void relocate(int position, int segment, int offset) {
+        segments[position] = segment;
+        offsets[position] = offset;
+    }
+
+    /**
+     * 只保留满足条件的条目，返回移除的条数（需调用 rewrite 写回磁盘）
+     */
+    int retain(IntPredicate keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep.test(i)) {
+                ids[kept] = ids[i];
+                timestamps[kept] = timestamps[i];
+                segments[kept] = segments[i];
+                offsets[kept] = offsets[i];
+                kept++;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        if (removed > 0) {
+            dayBuckets = null;
+        }
+        return removed;
+    }
+
+    /**
+     * 把内存中的全部条目重新写入索引文件（先写临时文件再替换）
+     */
+    void rewrite() throws IOException {
+        close();
+        ByteBuffer buffer = ByteBuffer.allocate(size * ENTRY_BYTES);
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(ids[i]).putLong(timestamps[i]).putInt(segments[i]).putInt(offsets[i]);
+        }
+        buffer.flip();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * 第一个消息ID大于等于给定ID的位置
+     */
+    int lowerBound(long id) {
+        int found = Arrays.binarySearch(ids, 0, size, id);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long idAt(int position) {
+        return ids[position];
+    }
+
+    long timestampAt(int position) {
+        return timestamps[position];
+    }
+
+    int segmentAt(int position) {
+        return segments[position];
+    }
+
+    int offsetAt(int position) {
+        return offsets[position];
+    }
+
+    /**
+     * 按天分桶索引（首次调用时由已有条目构建）
+     */
+    DayBucketIndex dayBuckets() {
+        if (dayBuckets == null) {
+            DayBucketIndex buckets = new DayBucketIndex();
+            for (int i = 0; i < size; i++) {
+                buckets.add(ids[i], timestamps[i]);
+            }
+            dayBuckets = buckets;
+        }
+        return dayBuckets;
+    }
+
+    void touch() {
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    long getRetainedBytes() {
+        return 64 + (long) ids.length * ENTRY_BYTES + (dayBuckets != null ? dayBuckets.getRetainedBytes() : 0);
+    }
+
+    /**
+     * 将已追加的条目刷到磁盘
+     */
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("[ConversationIndex] 关闭索引文件失败: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.chat.store;
+
+import java.time.LocalDate;
+
+/**
+ * 会话中某一天的消息概况：当天最早的消息ID和消息条数（按本地时区划分日期）
+ */
+public class DayBucket {
+
+    private final LocalDate date;
+    private final long firstId;
+    private final int count;
+
+    DayBucket(LocalDate date, long firstId, int count) {
+        this.date = date;
+        this.firstId = firstId;
+        this.count = count;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+package com.chat.store;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个会话的按天分桶索引：日期 -> (当天最早的消息ID, 消息条数)
+ * 由会话索引中的时间戳在首次使用时构建，之后随新消息增量更新，每天只占16字节
+ * 非线程安全，由 LocalMessageStore 加锁访问
+ */
+final class DayBucketIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // 按日期升序：自1970-01-01起的天数
+    private int[] days = new int[INITIAL_CAPACITY];
+    private long[] firstIds = new long[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * 计入一条消息，消息通常按时间递增到达，落在最后一天时为O(1)
+     */
+    void add(long id, long timestamp) {
+        int day = (int) Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate().toEpochDay();
+        int position;
+        if (size > 0 && days[size - 1] == day) {
+            position = size - 1;
+        } else {
+            position = Arrays.binarySearch(days, 0, size, day);
+        }
+        if (position >= 0) {
+            counts[position]++;
+            firstIds[position] = Math.min(firstIds[position], id);
+            return;
+        }
+
+        position = -position - 1;
+        if (size == days.length) {
+            int capacity = size * 2;
+            days = Arrays.copyOf(days, capacity);
+            firstIds = Arrays.copyOf(firstIds, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        if (position < size) {
+            System.arraycopy(days, position, days, position + 1, size - position);
+            System.arraycopy(firstIds, position, firstIds, position + 1, size - position);
+            System.arraycopy(counts, position, counts, position + 1, size - position);
+        }
+        days[position] = day;
+        firstIds[position] = id;
+        counts[position] = 1;
+        size++;
+    }
+
+    /**
+     * 第一个日期不早于给定日期的分桶，不存在时返回null
+     */
+    DayBucket ceiling(LocalDate date) {
+        int position = Arrays.binarySearch(days, 0, size, (int) date.toEpochDay());
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return position < size ? bucketAt(position) : null;
+    }
+
+    List<DayBucket> toList() {
+        List<DayBucket> buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(bucketAt(i));
+        }
+        return buckets;
+    }
+
+    long getRetainedBytes() {
+        return 48 + (long) days.length * 16;
+    }
+
+    private DayBucket bucketAt(int position) {
+        return new DayBucket(LocalDate.ofEpochDay(days[position]), firstIds[position], counts[position]);
+    }
+}
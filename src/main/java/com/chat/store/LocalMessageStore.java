@@ -0,0 +1,787 @@
+package com.chat.store;
+
+import com.chat.model.MessageRecord;
+import com.chat.service.MemoryBudgetService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 本地消息存储 - 单例模式，按用户保存收到和拉取过的消息，重启后无需再从服务器获取
+ * 消息以记录形式追加写入段文件（segment-N.log），每条记录按服务器消息ID去重
+ * 每个会话维护一个 (消息ID, 时间戳) -> (段号, 偏移) 的紧凑索引，读取时通过内存映射直接定位记录
+ * 目录结构：~/.midcup_chat/{userId}/messages/ 下为段文件，index/ 下为各会话的索引文件，search/ 下为全文检索索引
+ * 后台整理（StoreCompactor）按保留策略清理旧消息、合并稀疏的段并压缩冷段
+ */
+public class LocalMessageStore implements MemoryBudgetService.TrimmableCache {
+
+    private static LocalMessageStore instance;
+
+    // 单个段文件的最大字节数，写满后滚动到新段
+    private static final long SEGMENT_MAX_BYTES = 8L * 1024 * 1024;
+    private static final String INDEX_SUFFIX = ".idx";
+    // 检查点：正常关闭或段滚动时记录已全部写入索引的位置 [int 段号][long 偏移]
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String SEARCH_DIR = "search";
+    // 整理进行中的标记：替换段文件期间退出时，下次打开从段文件重建索引
+    private static final String COMPACTING_FILE = "compacting";
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private Long userId;
+    private Path storeDir;
+    private Path indexDir;
+    private boolean open = false;
+
+    // 段号 -> 段文件
+    private final TreeMap<Integer, StoreSegment> segments = new TreeMap<>();
+    private StoreSegment activeSegment;
+    private FileChannel activeChannel;
+
+    // 已加载的会话索引：会话key -> 索引（可按内存预算卸载，需要时从磁盘重新加载）
+    private final Map<String, ConversationIndex> indexes = new HashMap<>();
+
+    // 全文检索索引
+    private MessageSearchIndex searchIndex;
+
+    // 后台整理
+    private StoreCompactor compactor;
+    // 整理后未能删除的旧段文件，下次整理或关闭时重试
+    private final List<Path> obsoleteSegments = new ArrayList<>();
+
+    private LocalMessageStore() {
+        MemoryBudgetService.getInstance().register(this);
+    }
+
+    public static synchronized LocalMessageStore getInstance() {
+        if (instance == null) {
+            instance = new LocalMessageStore();
+        }
+        return instance;
+    }
+
+    /**
+     * 打开指定用户的本地存储（登录后调用），恢复上次未完整写入的记录并补齐索引
+     */
+    public synchronized void open(Long userId) {
+        if (open && userId.equals(this.userId)) {
+            return;
+        }
+        close();
+
+        long start = System.currentTimeMillis();
+        try {
+            storeDir = Paths.get(System.getProperty("user.home"), ".midcup_chat", userId.toString(), "messages");
+            indexDir = storeDir.resolve("index");
+            boolean rebuildIndexes = !Files.isDirectory(indexDir);
+            Files.createDirectories(indexDir);
+            if (Files.exists(storeDir.resolve(COMPACTING_FILE))) {
+                System.err.println("[LocalMessageStore] 上次整理未完成，从段文件重建索引");
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDir)) {
+                    for (Path path : stream) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                rebuildIndexes = true;
+            }
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(storeDir, StoreSegment.PREFIX + "*")) {
+                for (Path path : stream) {
+                    if (path.getFileName().toString().endsWith(COMPACT_SUFFIX)) {
+                        Files.deleteIfExists(path); // 整理未完成的临时文件
+                        continue;
+                    }
+                    int number = StoreSegment.parseNumber(path);
+                    if (number < 0) {
+                        continue;
+                    }
+                    StoreSegment existing = segments.get(number);
+                    if (existing != null) {
+                        // 整理中途退出时同一段号的普通段和压缩段可能同时存在，压缩段是整理后的结果
+                        Path stale = existing.isCompressed() ? path : existing.path;
+                        Files.deleteIfExists(stale);
+                        if (existing.isCompressed()) {
+                            continue;
+                        }
+                    }
+                    segments.put(number, StoreSegment.open(number, path));
+                }
+            }
+
+            if (segments.isEmpty()) {
+                openActiveSegment(1);
+            } else if (segments.lastEntry().getValue().isCompressed()) {
+                openActiveSegment(segments.lastKey() + 1);
+            } else {
+                openActiveSegment(segments.lastKey());
+                recoverActiveSegment();
+            }
+
+            this.userId = userId;
+            open = true;
+
+            // 索引目录丢失时从所有段重建，否则只需从检查点开始补齐最后一个段中可能未写入索引的记录
+            if (rebuildIndexes) {
+                for (StoreSegment segment : segments.values()) {
+                    reindexSegment(segment, 0);
+                }
+            } else {
+                reindexSegment(activeSegment, readCheckpoint());
+            }
+
+            // 检索索引只需补齐上次写盘位置之后的记录（目录不存在时从头建立）
+            searchIndex = MessageSearchIndex.open(storeDir.resolve(SEARCH_DIR), this::loadRecord);
+            catchUpSearchIndex();
+            Files.deleteIfExists(storeDir.resolve(COMPACTING_FILE));
+
+            compactor = new StoreCompactor(this, storeDir, SEGMENT_MAX_BYTES);
+            compactor.start();
+
+            System.out.println("[LocalMessageStore] 已打开用户" + userId + "的本地消息存储: " + segments.size() +
+                    "个段文件, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[LocalMessageStore] 打开本地消息存储失败: " + e.getMessage());
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * 关闭存储（退出登录时调用）
+     */
+    public synchronized void close() {
+        if (compactor != null) {
+            compactor.stop();
+            compactor = null;
+        }
+        if (open) {
+            writeCheckpoint();
+        }
+        if (searchIndex != null) {
+            searchIndex.close();
+            searchIndex = null;
+        }
+        for (ConversationIndex index : indexes.values()) {
+            index.close();
+        }
+        indexes.clear();
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                System.err.println("[LocalMessageStore] 关闭段文件失败: " + e.getMessage());
+            }
+            activeChannel = null;
+        }
+        for (StoreSegment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        activeSegment = null;
+        deleteObsoleteSegments();
+        if (open) {
+            System.out.println("[LocalMessageStore] 已关闭用户" + userId + "的本地消息存储");
+        }
+        open = false;
+        userId = null;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    // ========== 写入 ==========
+
+    /**
+     * 追加一条消息，没有服务器消息ID或已存在相同ID时返回false
+     */
+    public synchronized boolean append(String conversationKey, MessageRecord record) {
+        if (!open || record.getId() == null) {
+            return false;
+        }
+        try {
+            ConversationIndex index = index(conversationKey);
+            if (index.contains(record.getId())) {
+                return false;
+            }
+
+            ByteBuffer encoded = RecordCodec.encode(conversationKey, record);
+            if (activeSegment.size > 0 && activeSegment.size + encoded.remaining() > SEGMENT_MAX_BYTES) {
+                openActiveSegment(activeSegment.number + 1);
+            }
+
+            int offset = (int) activeSegment.size;
+            int length = encoded.remaining();
+            while (encoded.hasRemaining()) {
+                activeChannel.write(encoded);
+            }
+            activeSegment.size += length;
+
+            // 先写记录再写索引，崩溃时缺失的索引条目在下次打开时补齐
+            index.add(record.getId(), record.getTimestamp(), activeSegment.number, offset);
+            searchIndex.add(conversationKey, record, activeSegment.number, offset + length);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 写入消息失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 批量追加消息，返回实际新增的条数
+     */
+    public synchronized int appendAll(String conversationKey, List<MessageRecord> records) {
+        int added = 0;
+        for (MessageRecord record : records) {
+            if (append(conversationKey, record)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    // ========== 读取 ==========
+
+    /**
+     * 获取会话最新的若干条消息（按消息ID从旧到新）
+     */
+    public synchronized List<MessageRecord> getLatest(String conversationKey, int limit) {
+        if (!open) {
+            return new ArrayList<>();
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        return read(index, Math.max(0, index.size() - limit), index.size());
+    }
+
+    /**
+     * 获取消息ID早于 beforeId 的若干条消息（按消息ID从旧到新），用于向前翻页
+     */
+    public synchronized List<MessageRecord> getBefore(String conversationKey, long beforeId, int limit) {
+        if (!open) {
+            return new ArrayList<>();
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        int to = index.lowerBound(beforeId);
+        return read(index, Math.max(0, to - limit), to);
+    }
+
+    /**
+     * 获取消息ID晚于 afterId 的若干条消息（按消息ID从旧到新）
+     */
+    public synchronized List<MessageRecord> getAfter(String conversationKey, long afterId, int limit) {
+        if (!open) {
+            return new ArrayList<>();
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        int from = index.lowerBound(afterId + 1);
+        return read(index, from, Math.min(index.size(), from + limit));
+    }
+
+    /**
+     * 获取会话按天的消息分布（按日期从旧到新），用于按日期跳转
+     */
+    public synchronized List<DayBucket> getDayBuckets(String conversationKey) {
+        if (!open) {
+            return new ArrayList<>();
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        return index.dayBuckets().toList();
+    }
+
+    /**
+     * 获取从指定日期（含）起最早的若干条消息（按消息ID从旧到新），本地没有该日期的记录时返回空列表
+     */
+    public synchronized List<MessageRecord> getFromDate(String conversationKey, LocalDate date, int limit) {
+        if (!open) {
+            return new ArrayList<>();
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        DayBucket bucket = index.dayBuckets().ceiling(date);
+        if (bucket == null || !bucket.getDate().equals(date)) {
+            return new ArrayList<>();
+        }
+        int from = index.lowerBound(bucket.getFirstId());
+        return read(index, from, Math.min(index.size(), from + limit));
+    }
+
+    /**
+     * 获取会话在本地保存的最大消息ID，没有记录时返回null
+     */
+    public synchronized Long getMaxId(String conversationKey) {
+        if (!open) {
+            return null;
+        }
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null || index.size() == 0) {
+            return null;
+        }
+        return index.idAt(index.size() - 1);
+    }
+
+    /**
+     * 获取本地保存过消息的所有会话key
+     */
+    public synchronized List<String> getConversationKeys() {
+        List<String> keys = new ArrayList<>();
+        if (!open) {
+            return keys;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDir, "*" + INDEX_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                keys.add(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+            }
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 读取会话列表失败: " + e.getMessage());
+        }
+        return keys;
+    }
+
+    // ========== 检索 ==========
+
+    /**
+     * 全文检索本地消息，按时间从新到旧返回最多 limit 条
+     * conversationKey、senderId、fromTime、toTime 为null时不按该条件过滤
+     */
+    public synchronized List<SearchHit> search(String text, String conversationKey, Long senderId,
+                                               Long fromTime, Long toTime, int limit) {
+        if (!open || text == null) {
+            return new ArrayList<>();
+        }
+        return searchIndex.search(text, conversationKey, senderId, fromTime, toTime, limit);
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public synchronized String getStatistics() {
+        if (!open) {
+            return "本地消息存储: 未打开";
+        }
+        long totalBytes = 0;
+        for (StoreSegment segment : segments.values()) {
+            totalBytes += segment.diskBytes();
+        }
+        return String.format("本地消息存储: %d个段文件(%d KB), 已加载%d个会话索引",
+                segments.size(), totalBytes / 1024, indexes.size());
+    }
+
+    // ========== 保留策略与整理 ==========
+
+    /**
+     * 设置消息保留策略：超过天数或条数的旧消息在后台整理时删除，0表示不限制
+     * conversationKey 为null时设置所有会话的默认策略
+     */
+    public void setRetention(String conversationKey, int maxAgeDays, int maxMessages) {
+        StoreCompactor.setRetention(conversationKey, maxAgeDays, maxMessages);
+    }
+
+    /**
+     * 按保留策略从各会话索引中删除旧消息，返回删除的条数（记录占用的空间在整理段文件时回收）
+     */
+    synchronized int applyRetention(Path expectedDir, long now) {
+        if (!open || !storeDir.equals(expectedDir)) {
+            return 0;
+        }
+        int removed = 0;
+        for (String conversationKey : getConversationKeys()) {
+            int[] retention = StoreCompactor.retentionFor(conversationKey);
+            if (retention[0] <= 0 && retention[1] <= 0) {
+                continue;
+            }
+            ConversationIndex index = loadIndex(conversationKey);
+            if (index == null) {
+                continue;
+            }
+            long cutoff = retention[0] > 0 ? now - retention[0] * 24L * 60 * 60 * 1000 : Long.MIN_VALUE;
+            int firstKept = retention[1] > 0 ? Math.max(0, index.size() - retention[1]) : 0;
+            int expired = index.retain(position -> position >= firstKept && index.timestampAt(position) >= cutoff);
+            if (expired > 0) {
+                try {
+                    index.rewrite();
+                    removed += expired;
+                } catch (IOException e) {
+                    System.err.println("[LocalMessageStore] 写回会话索引失败: " + conversationKey + ", " + e.getMessage());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 整理前的快照：已写满的段（不含正在写入的段）以及指向这些段的所有索引条目
+     */
+    synchronized StoreCompactor.Snapshot snapshotForCompaction(Path expectedDir) {
+        if (!open || !storeDir.equals(expectedDir)) {
+            return null;
+        }
+        StoreCompactor.Snapshot snapshot = new StoreCompactor.Snapshot();
+        for (StoreSegment segment : segments.headMap(activeSegment.number, false).values()) {
+            snapshot.segments.put(segment.number, segment.path);
+        }
+        for (String conversationKey : getConversationKeys()) {
+            ConversationIndex index = loadIndex(conversationKey);
+            if (index == null) {
+                continue;
+            }
+            for (int i = 0; i < index.size(); i++) {
+                if (snapshot.segments.containsKey(index.segmentAt(i))) {
+                    snapshot.entries.add(new StoreCompactor.LiveEntry(conversationKey, index.idAt(i),
+                            index.timestampAt(i), index.segmentAt(i), index.offsetAt(i)));
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 用整理好的段文件替换输入的段：先替换文件并更新段表，文件替换成功后再更新被移动记录的索引位置
+     * output 为null表示输入的段中已没有有效记录，直接删除
+     * 替换失败时段表和索引保持不变；旧段文件删除失败（如仍被映射）时留待之后重试，不影响读取
+     */
+    synchronized boolean applyCompaction(Path expectedDir, List<Integer> inputs, int outputNumber, Path output,
+                                         boolean compressed, List<StoreCompactor.LiveEntry> moved) {
+        if (!open || !storeDir.equals(expectedDir)) {
+            return false;
+        }
+        for (int number : inputs) {
+            if (!segments.containsKey(number) || number == activeSegment.number) {
+                return false;
+            }
+        }
+        deleteObsoleteSegments();
+
+        Path marker = storeDir.resolve(COMPACTING_FILE);
+        Path target = output != null ? storeDir.resolve(StoreSegment.fileName(outputNumber, compressed)) : null;
+        try {
+            Files.write(marker, new byte[0]);
+            // 释放对旧段的映射，文件才能被替换和删除
+            for (int number : inputs) {
+                segments.get(number).close();
+            }
+            if (target != null) {
+                Files.move(output, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 文件未替换，段表和索引仍与磁盘一致
+            System.err.println("[LocalMessageStore] 替换段文件失败: " + e.getMessage());
+            deleteQuietly(marker);
+            return false;
+        }
+
+        // 文件已替换：段表和索引必须随之更新
+        List<StoreSegment> replaced = new ArrayList<>();
+        for (int number : inputs) {
+            replaced.add(segments.remove(number));
+        }
+        if (target != null) {
+            try {
+                segments.put(outputNumber, StoreSegment.open(outputNumber, target));
+            } catch (IOException | RuntimeException e) {
+                // 新段无法打开，内存中的索引已无法与磁盘对应：关闭存储，保留整理标记，下次打开时从段文件重建索引
+                System.err.println("[LocalMessageStore] 打开整理后的段文件失败，关闭本地消息存储: " + e.getMessage());
+                close();
+                return true;
+            }
+        }
+
+        boolean indexesWritten = true;
+        Set<ConversationIndex> touched = new HashSet<>();
+        for (StoreCompactor.LiveEntry entry : moved) {
+            ConversationIndex index = loadIndex(entry.conversationKey);
+            if (index == null) {
+                indexesWritten = false;
+                continue;
+            }
+            int position = index.positionOf(entry.id);
+            if (position >= 0 && index.segmentAt(position) == entry.segment && index.offsetAt(position) == entry.offset) {
+                index.relocate(position, outputNumber, entry.newOffset);
+                touched.add(index);
+            }
+        }
+        for (ConversationIndex index : touched) {
+            try {
+                index.rewrite();
+            } catch (IOException e) {
+                // 内存中的索引已更新；保留整理标记，下次打开时从段文件重建磁盘上的索引
+                System.err.println("[LocalMessageStore] 写回会话索引失败: " + e.getMessage());
+                indexesWritten = false;
+            }
+        }
+
+        for (StoreSegment old : replaced) {
+            if (!old.path.equals(target)) {
+                try {
+                    Files.deleteIfExists(old.path);
+                } catch (IOException e) {
+                    System.err.println("[LocalMessageStore] 删除旧段文件失败，稍后重试: " + old.path.getFileName());
+                    obsoleteSegments.add(old.path);
+                }
+            }
+        }
+
+        if (indexesWritten) {
+            deleteQuietly(marker);
+        }
+        return true;
+    }
+
+    /**
+     * 重试删除整理后未能删除的旧段文件（不在段表中，只占用磁盘）
+     */
+    private void deleteObsoleteSegments() {
+        obsoleteSegments.removeIf(path -> {
+            try {
+                Files.deleteIfExists(path);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 删除文件失败: " + path.getFileName() + ", " + e.getMessage());
+        }
+    }
+
+    // ========== 内存预算 ==========
+
+    @Override
+    public String getCacheName() {
+        return "本地消息索引";
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        long total = 0;
+        for (ConversationIndex index : indexes.values()) {
+            total += index.getRetainedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * 按最久未访问的顺序卸载会话索引（磁盘上的索引文件保留，需要时重新加载）
+     */
+    @Override
+    public synchronized long trim(long bytesToFree) {
+        List<Map.Entry<String, ConversationIndex>> candidates = new ArrayList<>(indexes.entrySet());
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().getLastAccessTime()));
+
+        long freed = 0;
+        for (Map.Entry<String, ConversationIndex> entry : candidates) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            entry.getValue().close();
+            indexes.remove(entry.getKey());
+            freed += entry.getValue().getRetainedBytes();
+        }
+        return freed;
+    }
+
+    // ========== 内部实现 ==========
+
+    /**
+     * 获取会话索引，不存在时创建
+     */
+    private ConversationIndex index(String conversationKey) throws IOException {
+        ConversationIndex index = indexes.get(conversationKey);
+        if (index == null) {
+            index = ConversationIndex.load(indexFile(conversationKey));
+            indexes.put(conversationKey, index);
+        }
+        index.touch();
+        return index;
+    }
+
+    /**
+     * 读取时加载会话索引，加载失败返回null
+     */
+    private ConversationIndex loadIndex(String conversationKey) {
+        try {
+            return index(conversationKey);
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 加载会话索引失败: " + conversationKey + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按索引位置 [from, to) 读取记录
+     */
+    private List<MessageRecord> read(ConversationIndex index, int from, int to) {
+        List<MessageRecord> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            StoreSegment segment = segments.get(index.segmentAt(i));
+            if (segment == null) {
+                continue;
+            }
+            try {
+                result.add(RecordCodec.decode(segment.recordAt(index.offsetAt(i)), 0));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[LocalMessageStore] 读取消息失败: ID=" + index.idAt(i) + ", " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按会话key和消息ID读取一条记录，不存在时返回null
+     */
+    private MessageRecord loadRecord(String conversationKey, long id) {
+        ConversationIndex index = loadIndex(conversationKey);
+        if (index == null) {
+            return null;
+        }
+        int position = index.lowerBound(id);
+        if (position >= index.size() || index.idAt(position) != id) {
+            return null;
+        }
+        List<MessageRecord> records = read(index, position, position + 1);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    private Path indexFile(String conversationKey) {
+        return indexDir.resolve(conversationKey.replaceAll("[^A-Za-z0-9_-]", "_") + INDEX_SUFFIX);
+    }
+
+    private void openActiveSegment(int number) throws IOException {
+        boolean rolling = activeChannel != null;
+        if (rolling) {
+            activeChannel.force(false);
+            activeChannel.close();
+        }
+        StoreSegment segment = segments.get(number);
+        if (segment == null) {
+            segment = StoreSegment.plain(number, storeDir.resolve(StoreSegment.fileName(number, false)), 0);
+            segments.put(number, segment);
+        }
+        activeChannel = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeChannel.position(segment.size);
+        activeSegment = segment;
+        if (rolling) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * 读取检查点：最后一个段中已确认写入索引的偏移，检查点不属于当前段时从头扫描
+     */
+    private long readCheckpoint() {
+        Path file = storeDir.resolve(CHECKPOINT_FILE);
+        try {
+            if (Files.exists(file)) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+                if (buffer.remaining() >= 12 && buffer.getInt() == activeSegment.number) {
+                    return Math.min(buffer.getLong(), activeSegment.size);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 读取检查点失败: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private void writeCheckpoint() {
+        try {
+            for (ConversationIndex index : indexes.values()) {
+                index.force();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(12);
+            buffer.putInt(activeSegment.number).putLong(activeSegment.size);
+            Files.write(storeDir.resolve(CHECKPOINT_FILE), buffer.array());
+        } catch (IOException e) {
+            System.err.println("[LocalMessageStore] 写入检查点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 校验最后一个段，截断末尾写入不完整的记录
+     */
+    private void recoverActiveSegment() throws IOException {
+        if (activeSegment.size == 0) {
+            return;
+        }
+        ByteBuffer buffer = activeSegment.map();
+        int limit = (int) activeSegment.size;
+        int offset = 0;
+        int length;
+        while (offset < limit && (length = RecordCodec.validate(buffer, offset, limit)) > 0) {
+            offset += length;
+        }
+        if (offset < limit) {
+            System.err.println("[LocalMessageStore] 段文件末尾有 " + (limit - offset) + " 字节不完整记录，已截断");
+            activeChannel.truncate(offset);
+            activeChannel.position(offset);
+            activeSegment.size = offset;
+            activeSegment.invalidate();
+        }
+    }
+
+    /**
+     * 从指定偏移开始扫描段文件，把索引中缺失的记录补回会话索引
+     */
+    private void reindexSegment(StoreSegment segment, long fromOffset) throws IOException {
+        int[] restored = {0};
+        segment.scan(fromOffset, (offset, record, length) -> {
+            String conversationKey = RecordCodec.readConversationKey(record, 0);
+            MessageRecord decoded = RecordCodec.decode(record, 0);
+            if (index(conversationKey).add(decoded.getId(), decoded.getTimestamp(), segment.number, offset)) {
+                restored[0]++;
+            }
+        });
+        if (restored[0] > 0) {
+            System.out.println("[LocalMessageStore] 段" + segment.number + "补齐索引条目: " + restored[0]);
+        }
+    }
+
+    /**
+     * 从检索索引记录的位置开始扫描后续所有段，把尚未索引的记录加入检索索引
+     */
+    private void catchUpSearchIndex() throws IOException {
+        int fromSegment = searchIndex.getStoreSegment();
+        int fromOffset = searchIndex.getStoreOffset();
+        int[] added = {0};
+        for (StoreSegment segment : segments.tailMap(fromSegment, true).values()) {
+            int from = segment.number == fromSegment ? fromOffset : 0;
+            segment.scan(from, (offset, record, length) -> {
+                searchIndex.add(RecordCodec.readConversationKey(record, 0), RecordCodec.decode(record, 0),
+                        segment.number, offset + length);
+                added[0]++;
+            });
+        }
+        if (added[0] > 0) {
+            searchIndex.flush();
+            System.out.println("[LocalMessageStore] 检索索引补齐记录: " + added[0]);
+        }
+    }
+}
@@ -0,0 +1,563 @@
+package com.chat.store;
+
+import com.chat.model.MessageRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 消息全文检索索引：按二元组分词的磁盘倒排索引，随消息写入本地存储增量更新
+ * 新消息先进入内存缓冲区，攒够一批后写成不可变的段文件（search-起始批次-结束批次.idx），
+ * 段文件过多时在后台合并为一个。段文件头部记录已索引到的本地存储位置，
+ * 重新打开时只需从该位置扫描本地存储，补齐缓冲区中未写盘的消息
+ * 查询时在各段内求词项倒排表的交集，按会话、发送者、时间过滤后按时间从新到旧读取原文校验
+ * 非线程安全的部分由 LocalMessageStore 加锁访问，后台合并只在替换段列表时加锁
+ */
+final class MessageSearchIndex {
+
+    /**
+     * 按会话key和消息ID读取原始消息（用于校验候选结果）
+     */
+    interface RecordLoader {
+        MessageRecord load(String conversationKey, long id);
+    }
+
+    // 内存缓冲区攒够这么多条消息后写成段文件
+    private static final int FLUSH_DOCS = 10000;
+    // 段文件超过这个数量时在后台合并
+    private static final int MAX_SEGMENTS = 8;
+    private static final String FILE_PREFIX = "search-";
+    private static final String FILE_SUFFIX = ".idx";
+    private static final String CONVERSATIONS_FILE = "conversations";
+    private static final long NO_SENDER = Long.MIN_VALUE;
+    // 候选结果排序键：高位为秒级时间戳，低22位为候选序号
+    private static final int CANDIDATE_BITS = 22;
+    private static final int MAX_CANDIDATES = 1 << CANDIDATE_BITS;
+
+    private final Path dir;
+    private final RecordLoader loader;
+
+    // 会话序号 <-> 会话key，文档表中只保存序号
+    private final List<String> conversations = new ArrayList<>();
+    private final Map<String, Integer> conversationOrdinals = new HashMap<>();
+
+    // 已写盘的段（按批次从旧到新）和内存缓冲区
+    private final List<SearchSegment> segments = new ArrayList<>();
+    private MemoryBuffer buffer = new MemoryBuffer();
+    private int nextBatch = 1;
+
+    // 已索引到的本地存储位置（下一条待索引记录的段号和偏移），以及已写入段文件头部的位置
+    private int storeSegment = 0;
+    private int storeOffset = 0;
+    private int persistedSegment = 0;
+    private int persistedOffset = 0;
+
+    private boolean merging = false;
+    private boolean closed = false;
+
+    private MessageSearchIndex(Path dir, RecordLoader loader) {
+        this.dir = dir;
+        this.loader = loader;
+    }
+
+    /**
+     * 打开检索索引目录，段文件损坏时丢弃全部段，由调用方从头重建
+     */
+    static MessageSearchIndex open(Path dir, RecordLoader loader) throws IOException {
+        Files.createDirectories(dir);
+        MessageSearchIndex index = new MessageSearchIndex(dir, loader);
+        index.load();
+        return index;
+    }
+
+    private void load() throws IOException {
+        Path conversationsFile = dir.resolve(CONVERSATIONS_FILE);
+        if (Files.exists(conversationsFile)) {
+            for (String line : Files.readAllLines(conversationsFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    conversationOrdinals.put(line, conversations.size());
+                    conversations.add(line);
+                }
+            }
+        }
+
+        List<SearchSegment> loaded = new ArrayList<>();
+        boolean corrupt = false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, FILE_PREFIX + "*")) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().endsWith(FILE_SUFFIX)) {
+                    Files.deleteIfExists(path); // 未完成的临时文件
+                    continue;
+                }
+                try {
+                    loaded.add(SearchSegment.open(path));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("[MessageSearchIndex] " + e.getMessage());
+                    corrupt = true;
+                }
+            }
+        }
+        loaded.sort(Comparator.comparingInt(SearchSegment::getFirstBatch)
+                .thenComparing(Comparator.comparingInt(SearchSegment::getLastBatch).reversed()));
+
+        // 合并完成后未能删除的旧段：批次范围已包含在前一个段中
+        int lastBatch = 0;
+        for (SearchSegment segment : loaded) {
+            if (segment.getLastBatch() <= lastBatch) {
+                Files.deleteIfExists(segment.getFile());
+                continue;
+            }
+            if (segment.getFirstBatch() != lastBatch + 1) {
+                corrupt = true;
+                break;
+            }
+            segments.add(segment);
+            lastBatch = segment.getLastBatch();
+        }
+
+        if (corrupt) {
+            System.err.println("[MessageSearchIndex] 检索索引不完整，将从本地消息重建");
+            for (SearchSegment segment : loaded) {
+                Files.deleteIfExists(segment.getFile());
+            }
+            segments.clear();
+            return;
+        }
+
+        if (!segments.isEmpty()) {
+            SearchSegment last = segments.get(segments.size() - 1);
+            nextBatch = last.getLastBatch() + 1;
+            storeSegment = persistedSegment = last.getStoreSegment();
+            storeOffset = persistedOffset = last.getStoreOffset();
+        }
+    }
+
+    /**
+     * 已索引到的本地存储段号（此位置之后的记录需要补齐）
+     */
+    synchronized int getStoreSegment() {
+        return storeSegment;
+    }
+
+    synchronized int getStoreOffset() {
+        return storeOffset;
+    }
+
+    /**
+     * 索引一条消息，nextSegment/nextOffset 为本地存储中这条记录之后的位置
+     */
+    synchronized void add(String conversationKey, MessageRecord record, int nextSegment, int nextOffset) {
+        if (closed) {
+            return;
+        }
+        storeSegment = nextSegment;
+        storeOffset = nextOffset;
+
+        int[] terms = SearchTokenizer.terms(textOf(record));
+        if (terms.length > 0) {
+            Integer conversation = conversationOrdinal(conversationKey);
+            if (conversation == null) {
+                return;
+            }
+            long sender = record.getSenderId() != null ? record.getSenderId() : NO_SENDER;
+            buffer.add(record.getId(), record.getTimestamp(), sender, conversation, terms);
+        }
+        if (buffer.docCount() >= FLUSH_DOCS) {
+            flush();
+        }
+    }
+
+    /**
+     * 把内存缓冲区写成段文件（缓冲区为空但索引位置有变化时也写入，记录新的位置）
+     */
+    synchronized void flush() {
+        if (closed || (buffer.docCount() == 0 && storeSegment == persistedSegment && storeOffset == persistedOffset)) {
+            return;
+        }
+        int batch = nextBatch;
+        Path file = dir.resolve(fileName(batch, batch));
+        try {
+            SearchSegment.write(file, List.of(buffer), batch, batch, storeSegment, storeOffset);
+            segments.add(SearchSegment.open(file));
+        } catch (IOException e) {
+            System.err.println("[MessageSearchIndex] 写入检索段失败: " + e.getMessage());
+            return;
+        }
+        nextBatch++;
+        buffer = new MemoryBuffer();
+        persistedSegment = storeSegment;
+        persistedOffset = storeOffset;
+
+        if (segments.size() > MAX_SEGMENTS && !merging) {
+            startMerge();
+        }
+    }
+
+    /**
+     * 写盘并停止更新（进行中的后台合并完成后只替换文件，不再删除旧段，下次打开时清理）
+     */
+    synchronized void close() {
+        flush();
+        closed = true;
+        segments.clear();
+    }
+
+    // ========== 查询 ==========
+
+    /**
+     * 搜索包含查询文本的消息，按时间从新到旧返回最多 limit 条
+     * conversationKey、senderId、fromTime、toTime 为null时不按该条件过滤
+     */
+    synchronized List<SearchHit> search(String text, String conversationKey, Long senderId,
+                                        Long fromTime, Long toTime, int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        List<String> runs = SearchTokenizer.runs(text);
+        List<int[]> ranges = SearchTokenizer.queryRanges(runs);
+        if (ranges.isEmpty() || limit <= 0 || closed) {
+            return hits;
+        }
+        int conversation = -1;
+        if (conversationKey != null) {
+            Integer ordinal = conversationOrdinals.get(conversationKey);
+            if (ordinal == null) {
+                return hits;
+            }
+            conversation = ordinal;
+        }
+
+        // 从新到旧遍历，候选过多时舍弃最旧的
+        List<SearchSource> sources = new ArrayList<>();
+        sources.add(buffer);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            sources.add(segments.get(i));
+        }
+
+        long[] keys = new long[256];
+        int[] sourceOf = new int[256];
+        int[] docOf = new int[256];
+        int count = 0;
+        collect:
+        for (int s = 0; s < sources.size(); s++) {
+            SearchSource source = sources.get(s);
+            int[] docs = null;
+            for (int[] range : ranges) {
+                int[] matched = docsInRange(source, range[0], range[1]);
+                docs = docs == null ? matched : intersect(docs, matched);
+                if (docs.length == 0) {
+                    break;
+                }
+            }
+            for (int doc : docs) {
+                if (conversation >= 0 && source.docConversation(doc) != conversation) {
+                    continue;
+                }
+                if (senderId != null && source.docSender(doc) != senderId) {
+                    continue;
+                }
+                long timestamp = source.docTimestamp(doc);
+                if ((fromTime != null && timestamp < fromTime) || (toTime != null && timestamp > toTime)) {
+                    continue;
+                }
+                if (count == MAX_CANDIDATES) {
+                    break collect;
+                }
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    sourceOf = Arrays.copyOf(sourceOf, count * 2);
+                    docOf = Arrays.copyOf(docOf, count * 2);
+                }
+                keys[count] = (Math.max(0, timestamp / 1000) << CANDIDATE_BITS) | count;
+                sourceOf[count] = s;
+                docOf[count] = doc;
+                count++;
+            }
+        }
+
+        // 按时间从新到旧读取原文校验，凑够 limit 条为止
+        Arrays.sort(keys, 0, count);
+        for (int i = count - 1; i >= 0 && hits.size() < limit; i--) {
+            int candidate = (int) (keys[i] & (MAX_CANDIDATES - 1));
+            SearchSource source = sources.get(sourceOf[candidate]);
+            int doc = docOf[candidate];
+            String key = conversations.get(source.docConversation(doc));
+            MessageRecord record = loader.load(key, source.docId(doc));
+            if (record != null && SearchTokenizer.matches(textOf(record), runs)) {
+                hits.add(new SearchHit(key, record));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 词项在 [low, high] 范围内的所有文档号（升序去重）
+     */
+    private static int[] docsInRange(SearchSource source, int low, int high) {
+        int from = firstTermAtLeast(source, low);
+        int to = high == Integer.MAX_VALUE ? source.termCount() : firstTermAtLeast(source, high + 1);
+        if (to <= from) {
+            return new int[0];
+        }
+        if (to - from == 1) {
+            return source.postings(from);
+        }
+
+        // 多个词项（单字查询）：用位图求并集，避免对大量文档号排序
+        long[] bits = new long[(source.docCount() + 63) >>> 6];
+        int total = 0;
+        for (int position = from; position < to; position++) {
+            for (int doc : source.postings(position)) {
+                long mask = 1L << doc;
+                if ((bits[doc >>> 6] & mask) == 0) {
+                    bits[doc >>> 6] |= mask;
+                    total++;
+                }
+            }
+        }
+        int[] docs = new int[total];
+        int count = 0;
+        for (int word = 0; word < bits.length; word++) {
+            long value = bits[word];
+            while (value != 0) {
+                docs[count++] = (word << 6) + Long.numberOfTrailingZeros(value);
+                value &= value - 1;
+            }
+        }
+        return docs;
+    }
+
+    private static int firstTermAtLeast(SearchSource source, int term) {
+        int low = 0;
+        int high = source.termCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (source.termAt(mid) < term) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // ========== 内部实现 ==========
+
+    private static String textOf(MessageRecord record) {
+        return record.isFile() ? record.getFileName() : record.getContent();
+    }
+
+    /**
+     * 会话序号，新会话追加写入会话列表文件，写入失败时返回null
+     */
+    private Integer conversationOrdinal(String conversationKey) {
+        Integer ordinal = conversationOrdinals.get(conversationKey);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        try {
+            Files.writeString(dir.resolve(CONVERSATIONS_FILE), conversationKey + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("[MessageSearchIndex] 写入会话列表失败: " + e.getMessage());
+            return null;
+        }
+        ordinal = conversations.size();
+        conversations.add(conversationKey);
+        conversationOrdinals.put(conversationKey, ordinal);
+        return ordinal;
+    }
+
+    private static String fileName(int firstBatch, int lastBatch) {
+        return String.format("%s%08d-%08d%s", FILE_PREFIX, firstBatch, lastBatch, FILE_SUFFIX);
+    }
+
+    /**
+     * 在后台把当前所有段合并为一个，期间新写入的段追加在后面不受影响
+     */
+    private void startMerge() {
+        List<SearchSegment> inputs = new ArrayList<>(segments);
+        merging = true;
+        Thread thread = new Thread(() -> merge(inputs), "search-index-merge");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void merge(List<SearchSegment> inputs) {
+        long start = System.currentTimeMillis();
+        SearchSegment first = inputs.get(0);
+        SearchSegment last = inputs.get(inputs.size() - 1);
+        Path file = dir.resolve(fileName(first.getFirstBatch(), last.getLastBatch()));
+
+        SearchSegment merged = null;
+        try {
+            SearchSegment.write(file, inputs, first.getFirstBatch(), last.getLastBatch(),
+                    last.getStoreSegment(), last.getStoreOffset());
+            merged = SearchSegment.open(file);
+        } catch (IOException e) {
+            System.err.println("[MessageSearchIndex] 合并检索段失败: " + e.getMessage());
+        }
+
+        synchronized (this) {
+            merging = false;
+            if (merged == null || closed) {
+                return;
+            }
+            segments.subList(0, inputs.size()).clear();
+            segments.add(0, merged);
+            for (SearchSegment input : inputs) {
+                try {
+                    Files.deleteIfExists(input.getFile());
+                } catch (IOException e) {
+                    System.err.println("[MessageSearchIndex] 删除旧检索段失败: " + e.getMessage());
+                }
+            }
+            System.out.println("[MessageSearchIndex] 已合并 " + inputs.size() + " 个检索段, " +
+                    merged.docCount() + " 条消息, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 内存缓冲区：尚未写盘的消息，文档按加入顺序编号，每个词项的文档号天然升序
+     */
+    private static class MemoryBuffer implements SearchSource {
+        private long[] ids = new long[256];
+        private long[] timestamps = new long[256];
+        private long[] senders = new long[256];
+        private int[] conversations = new int[256];
+        private int docCount = 0;
+
+        private final Map<Integer, IntList> postings = new HashMap<>();
+        // 排序后的词项及对应倒排表，加入新消息后失效，查询或写盘时重建
+        private int[] sortedTerms;
+        private IntList[] sortedPostings;
+
+        void add(long id, long timestamp, long sender, int conversation, int[] terms) {
+            if (docCount == ids.length) {
+                int capacity = docCount * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                senders = Arrays.copyOf(senders, capacity);
+                conversations = Arrays.copyOf(conversations, capacity);
+            }
+            int doc = docCount++;
+            ids[doc] = id;
+            timestamps[doc] = timestamp;
+            senders[doc] = sender;
+            conversations[doc] = conversation;
+            for (int term : terms) {
+                postings.computeIfAbsent(term, t -> new IntList()).add(doc);
+            }
+            sortedTerms = null;
+            sortedPostings = null;
+        }
+
+        private void sort() {
+            if (sortedTerms != null) {
+                return;
+            }
+            int[] terms = new int[postings.size()];
+            int i = 0;
+            for (Integer term : postings.keySet()) {
+                terms[i++] = term;
+            }
+            Arrays.sort(terms);
+            IntList[] lists = new IntList[terms.length];
+            for (i = 0; i < terms.length; i++) {
+                lists[i] = postings.get(terms[i]);
+            }
+            sortedTerms = terms;
+            sortedPostings = lists;
+        }
+
+        @Override
+        public int docCount() {
+            return docCount;
+        }
+
+        @Override
+        public long docId(int doc) {
+            return ids[doc];
+        }
+
+        @Override
+        public long docTimestamp(int doc) {
+            return timestamps[doc];
+        }
+
+        @Override
+        public long docSender(int doc) {
+            return senders[doc];
+        }
+
+        @Override
+        public int docConversation(int doc) {
+            return conversations[doc];
+        }
+
+        @Override
+        public int termCount() {
+            sort();
+            return sortedTerms.length;
+        }
+
+        @Override
+        public int termAt(int position) {
+            sort();
+            return sortedTerms[position];
+        }
+
+        @Override
+        public int postingCount(int position) {
+            sort();
+            return sortedPostings[position].size;
+        }
+
+        @Override
+        public int postingAt(int position, int index) {
+            sort();
+            return sortedPostings[position].values[index];
+        }
+
+        @Override
+        public int[] postings(int position) {
+            sort();
+            IntList list = sortedPostings[position];
+            return Arrays.copyOf(list.values, list.size);
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.chat.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 发件箱的追加写日志：只追加记录，不理解记录内容（由发件箱自行编码）
+ * 记录格式：[int 载荷长度][int 载荷CRC32][载荷]
+ * 打开时顺序读出所有完整记录，末尾写入不完整的记录被截断；记录中的已确认消息由调用方定期重写清除
+ */
+public final class OutboxLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 8;
+    // 单条记录的上限，超出视为文件损坏
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    private final Path file;
+    private FileChannel channel;
+
+    private OutboxLog(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * 打开日志文件（不存在时创建），records 中放入已有的全部完整记录
+     */
+    public static OutboxLog open(Path file, List<byte[]> records) throws IOException {
+        Files.createDirectories(file.getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long valid = readRecords(channel, records);
+            if (valid < channel.size()) {
+                System.err.println("[OutboxLog] 截断不完整的记录: " + (channel.size() - valid) + " 字节");
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+            return new OutboxLog(file, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long readRecords(FileChannel channel, List<byte[]> records) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            if (!readFully(channel, header, position)) {
+                break;
+            }
+            int length = header.getInt(0);
+            if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            if (!readFully(channel, payload, position + HEADER_BYTES) || crc(payload.array()) != header.getInt(4)) {
+                break;
+            }
+            records.add(payload.array());
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 追加一条记录；force 为true时等待写入磁盘
+     */
+    public synchronized void append(byte[] payload, boolean force) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 用给定的记录替换整个日志（先写临时文件再改名）
+     */
+    public synchronized void rewrite(List<byte[]> records) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] payload : records) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+                buffer.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
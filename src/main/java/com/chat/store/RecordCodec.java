@@ -0,0 +1,148 @@
+package com.chat.store;
+
+import com.chat.model.MessageRecord;
+import com.chat.protocol.ContentType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 段文件中单条消息记录的编解码
+ * 记录格式：[int 载荷长度][int 载荷CRC32][载荷]
+ * 载荷格式：[byte 版本][会话key][long 消息ID][long 发送者ID][long 时间戳][内容类型][文本][文件ID][文件名][long 文件大小][文件类型][下载地址]
+ * 字符串按 [int UTF-8字节数，-1表示null][字节] 编码
+ */
+final class RecordCodec {
+
+    static final int HEADER_BYTES = 8;
+    private static final byte FORMAT_VERSION = 1;
+    private static final long NO_SENDER = Long.MIN_VALUE;
+
+    private RecordCodec() {}
+
+    /**
+     * 编码为带头部的完整记录
+     */
+    static ByteBuffer encode(String conversationKey, MessageRecord record) {
+        byte[][] strings = {
+                utf8(conversationKey), utf8(record.getContentType()), utf8(record.getContent()),
+                utf8(record.getFileId()), utf8(record.getFileName()), utf8(record.getFileType()),
+                utf8(record.getFileUrl())
+        };
+        int payloadLength = 1 + 8 * 4;
+        for (byte[] bytes : strings) {
+            payloadLength += 4 + (bytes != null ? bytes.length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+        buffer.putInt(payloadLength);
+        buffer.putInt(0); // CRC 占位
+        buffer.put(FORMAT_VERSION);
+        putString(buffer, strings[0]);
+        buffer.putLong(record.getId());
+        buffer.putLong(record.getSenderId() != null ? record.getSenderId() : NO_SENDER);
+        buffer.putLong(record.getTimestamp());
+        putString(buffer, strings[1]);
+        putString(buffer, strings[2]);
+        putString(buffer, strings[3]);
+        putString(buffer, strings[4]);
+        buffer.putLong(record.getFileSize());
+        putString(buffer, strings[5]);
+        putString(buffer, strings[6]);
+
+        buffer.putInt(4, crc(buffer.array(), HEADER_BYTES, payloadLength));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 校验指定位置的记录，返回记录总长度（含头部），记录不完整或校验失败时返回-1
+     */
+    static int validate(ByteBuffer segment, int offset, int limit) {
+        if (offset + HEADER_BYTES > limit) {
+            return -1;
+        }
+        int payloadLength = segment.getInt(offset);
+        if (payloadLength <= 0 || offset + HEADER_BYTES + payloadLength > limit) {
+            return -1;
+        }
+        byte[] payload = new byte[payloadLength];
+        segment.get(offset + HEADER_BYTES, payload);
+        if (crc(payload, 0, payloadLength) != segment.getInt(offset + 4)) {
+            return -1;
+        }
+        return HEADER_BYTES + payloadLength;
+    }
+
+    /**
+     * 读取记录的会话key（重建索引时使用）
+     */
+    static String readConversationKey(ByteBuffer segment, int offset) {
+        ByteBuffer payload = payload(segment, offset);
+        return getString(payload);
+    }
+
+    /**
+     * 解码指定位置的记录
+     */
+    static MessageRecord decode(ByteBuffer segment, int offset) {
+        ByteBuffer payload = payload(segment, offset);
+        getString(payload); // 会话key
+        long id = payload.getLong();
+        long senderId = payload.getLong();
+        long timestamp = payload.getLong();
+        String contentType = getString(payload);
+        String content = getString(payload);
+        String fileId = getString(payload);
+        String fileName = getString(payload);
+        long fileSize = payload.getLong();
+        String fileType = getString(payload);
+        String fileUrl = getString(payload);
+
+        Long sender = senderId != NO_SENDER ? senderId : null;
+        if (ContentType.FILE.equals(contentType)) {
+            return MessageRecord.file(id, sender, fileId, fileName, fileSize, fileType, fileUrl, timestamp);
+        }
+        return MessageRecord.text(id, sender, content, timestamp);
+    }
+
+    private static ByteBuffer payload(ByteBuffer segment, int offset) {
+        int payloadLength = segment.getInt(offset);
+        ByteBuffer payload = segment.slice(offset + HEADER_BYTES, payloadLength);
+        byte version = payload.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("不支持的记录版本: " + version);
+        }
+        return payload;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,25 @@
+package com.chat.store;
+
+import com.chat.model.MessageRecord;
+
+/**
+ * 一条全文检索结果：消息所在的会话key和消息记录
+ */
+public class SearchHit {
+
+    private final String conversationKey;
+    private final MessageRecord record;
+
+    SearchHit(String conversationKey, MessageRecord record) {
+        this.conversationKey = conversationKey;
+        this.record = record;
+    }
+
+    public String getConversationKey() {
+        return conversationKey;
+    }
+
+    public MessageRecord getRecord() {
+        return record;
+    }
+}
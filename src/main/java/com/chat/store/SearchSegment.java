@@ -0,0 +1,271 @@
+package com.chat.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 全文检索的不可变段文件：一批消息的文档表和倒排表，写入后只读，通过内存映射访问
+ * 文件格式：[头部][文档表][词典][倒排表]
+ * 头部：[int 魔数][int 版本][int 文档数][int 词项数][int 起始批次][int 结束批次][int 消息段号][int 段内偏移]
+ * 文档：[long 消息ID][long 时间戳][long 发送者ID][int 会话序号]
+ * 词典：[int 词项][int 倒排起始位置][int 文档数]，按词项排序
+ * 倒排表：每个词项对应的段内文档号，升序
+ */
+final class SearchSegment implements SearchSource {
+
+    private static final int MAGIC = 0x4D534958; // "MSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    static final int DOC_BYTES = 28;
+    private static final int TERM_BYTES = 12;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    private final int firstBatch;
+    private final int lastBatch;
+    private final int storeSegment;
+    private final int storeOffset;
+    private final int dictionaryStart;
+    private final int postingsStart;
+
+    private SearchSegment(Path file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.docCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        this.firstBatch = buffer.getInt(16);
+        this.lastBatch = buffer.getInt(20);
+        this.storeSegment = buffer.getInt(24);
+        this.storeOffset = buffer.getInt(28);
+        this.dictionaryStart = HEADER_BYTES + docCount * DOC_BYTES;
+        this.postingsStart = dictionaryStart + termCount * TERM_BYTES;
+    }
+
+    /**
+     * 打开段文件，格式不正确时抛出 IOException
+     */
+    static SearchSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("检索段文件不完整: " + file.getFileName());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("检索段文件格式不正确: " + file.getFileName());
+            }
+            SearchSegment segment = new SearchSegment(file, buffer);
+            if (segment.docCount < 0 || segment.termCount < 0 || segment.postingsStart > size) {
+                throw new IOException("检索段文件不完整: " + file.getFileName());
+            }
+            long postings = 0;
+            for (int i = 0; i < segment.termCount; i++) {
+                postings += segment.postingCount(i);
+            }
+            if ((long) segment.postingsStart + postings * 4 != size) {
+                throw new IOException("检索段文件不完整: " + file.getFileName());
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 把若干来源按顺序合并写入一个段文件，文档号依次顺延
+     * 先写临时文件，完成后再改名，崩溃时不会留下不完整的段文件
+     */
+    static void write(Path file, List<? extends SearchSource> sources, int firstBatch, int lastBatch,
+                      int storeSegment, int storeOffset) throws IOException {
+        // 第一遍：合并词典，计算每个词项的文档数
+        int[] terms = new int[1024];
+        int[] counts = new int[1024];
+        int termCount = 0;
+        int[] positions = new int[sources.size()];
+        while (hasMore(sources, positions)) {
+            int term = nextTerm(sources, positions);
+            int count = 0;
+            for (int s = 0; s < sources.size(); s++) {
+                SearchSource source = sources.get(s);
+                if (positions[s] < source.termCount() && source.termAt(positions[s]) == term) {
+                    count += source.postingCount(positions[s]);
+                    positions[s]++;
+                }
+            }
+            if (termCount == terms.length) {
+                terms = Arrays.copyOf(terms, termCount * 2);
+                counts = Arrays.copyOf(counts, termCount * 2);
+            }
+            terms[termCount] = term;
+            counts[termCount] = count;
+            termCount++;
+        }
+
+        int docCount = 0;
+        for (SearchSource source : sources) {
+            docCount += source.docCount();
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docCount);
+            out.writeInt(termCount);
+            out.writeInt(firstBatch);
+            out.writeInt(lastBatch);
+            out.writeInt(storeSegment);
+            out.writeInt(storeOffset);
+
+            for (SearchSource source : sources) {
+                for (int doc = 0; doc < source.docCount(); doc++) {
+                    out.writeLong(source.docId(doc));
+                    out.writeLong(source.docTimestamp(doc));
+                    out.writeLong(source.docSender(doc));
+                    out.writeInt(source.docConversation(doc));
+                }
+            }
+
+            int start = 0;
+            for (int i = 0; i < termCount; i++) {
+                out.writeInt(terms[i]);
+                out.writeInt(start);
+                out.writeInt(counts[i]);
+                start += counts[i];
+            }
+
+            // 第二遍：按词项顺序写倒排表，后面来源的文档号加上前面来源的文档总数
+            Arrays.fill(positions, 0);
+            for (int i = 0; i < termCount; i++) {
+                int docBase = 0;
+                for (int s = 0; s < sources.size(); s++) {
+                    SearchSource source = sources.get(s);
+                    int position = positions[s];
+                    if (position < source.termCount() && source.termAt(position) == terms[i]) {
+                        int postings = source.postingCount(position);
+                        for (int j = 0; j < postings; j++) {
+                            out.writeInt(docBase + source.postingAt(position, j));
+                        }
+                        positions[s]++;
+                    }
+                    docBase += source.docCount();
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 各来源当前位置上最小的词项
+     */
+    private static int nextTerm(List<? extends SearchSource> sources, int[] positions) {
+        int min = Integer.MAX_VALUE;
+        for (int s = 0; s < sources.size(); s++) {
+            SearchSource source = sources.get(s);
+            if (positions[s] < source.termCount()) {
+                min = Math.min(min, source.termAt(positions[s]));
+            }
+        }
+        return min;
+    }
+
+    private static boolean hasMore(List<? extends SearchSource> sources, int[] positions) {
+        for (int s = 0; s < sources.size(); s++) {
+            if (positions[s] < sources.get(s).termCount()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getFirstBatch() {
+        return firstBatch;
+    }
+
+    int getLastBatch() {
+        return lastBatch;
+    }
+
+    int getStoreSegment() {
+        return storeSegment;
+    }
+
+    int getStoreOffset() {
+        return storeOffset;
+    }
+
+    @Override
+    public int docCount() {
+        return docCount;
+    }
+
+    @Override
+    public long docId(int doc) {
+        return buffer.getLong(HEADER_BYTES + doc * DOC_BYTES);
+    }
+
+    @Override
+    public long docTimestamp(int doc) {
+        return buffer.getLong(HEADER_BYTES + doc * DOC_BYTES + 8);
+    }
+
+    @Override
+    public long docSender(int doc) {
+        return buffer.getLong(HEADER_BYTES + doc * DOC_BYTES + 16);
+    }
+
+    @Override
+    public int docConversation(int doc) {
+        return buffer.getInt(HEADER_BYTES + doc * DOC_BYTES + 24);
+    }
+
+    @Override
+    public int termCount() {
+        return termCount;
+    }
+
+    @Override
+    public int termAt(int position) {
+        return buffer.getInt(dictionaryStart + position * TERM_BYTES);
+    }
+
+    @Override
+    public int postingCount(int position) {
+        return buffer.getInt(dictionaryStart + position * TERM_BYTES + 8);
+    }
+
+    @Override
+    public int postingAt(int position, int index) {
+        int start = buffer.getInt(dictionaryStart + position * TERM_BYTES + 4);
+        return buffer.getInt(postingsStart + (start + index) * 4);
+    }
+
+    @Override
+    public int[] postings(int position) {
+        int start = buffer.getInt(dictionaryStart + position * TERM_BYTES + 4);
+        int count = postingCount(position);
+        int[] docs = new int[count];
+        ByteBuffer view = buffer.slice(postingsStart + start * 4, count * 4);
+        view.asIntBuffer().get(docs);
+        return docs;
+    }
+}
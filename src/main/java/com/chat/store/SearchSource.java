@@ -0,0 +1,35 @@
+package com.chat.store;
+
+/**
+ * 文档表和倒排表的只读视图，段文件和内存中尚未写盘的缓冲区都实现此接口
+ */
+interface SearchSource {
+    int docCount();
+
+    long docId(int doc);
+
+    long docTimestamp(int doc);
+
+    long docSender(int doc);
+
+    int docConversation(int doc);
+
+    int termCount();
+
+    int termAt(int position);
+
+    int postingCount(int position);
+
+    int postingAt(int position, int index);
+
+    /**
+     * 读取一个词项的全部文档号
+     */
+    default int[] postings(int position) {
+        int[] docs = new int[postingCount(position)];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = postingAt(position, i);
+        }
+        return docs;
+    }
+}
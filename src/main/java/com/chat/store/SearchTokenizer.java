@@ -0,0 +1,117 @@
+package com.chat.store;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 全文检索分词：按二元组（相邻两个字符）切分，适合没有空格分词的中文
+ * 文本先做全角转半角和小写归一化，只有字母和数字参与分词，其余字符作为分隔
+ * 每段连续文本 c1c2...cn 产生词项 (c1,c2)...(cn-1,cn) 以及结尾词项 (cn,0)，
+ * 这样每个字符都是某个词项的首字符，单字查询可以按首字符做范围查找
+ */
+final class SearchTokenizer {
+
+    private SearchTokenizer() {}
+
+    /**
+     * 归一化文本：全角转半角、小写
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 两个字符组成的词项，翻转符号位使有符号整数的大小顺序与字符顺序一致
+     */
+    static int term(char first, char second) {
+        return ((first << 16) | second) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * 文本的全部词项（已排序去重）
+     */
+    static int[] terms(String text) {
+        String normalized = normalize(text);
+        int[] terms = new int[normalized.length()];
+        int count = 0;
+        int length = normalized.length();
+        for (int i = 0; i < length; i++) {
+            char c = normalized.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            char next = i + 1 < length && Character.isLetterOrDigit(normalized.charAt(i + 1))
+                    ? normalized.charAt(i + 1) : 0;
+            terms[count++] = term(c, next);
+        }
+        if (count == 0) {
+            return new int[0];
+        }
+        Arrays.sort(terms, 0, count);
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (terms[i] != terms[unique - 1]) {
+                terms[unique++] = terms[i];
+            }
+        }
+        return Arrays.copyOf(terms, unique);
+    }
+
+    /**
+     * 查询文本中的连续文本段（归一化后，用于校验候选消息）
+     */
+    static List<String> runs(String query) {
+        String normalized = normalize(query);
+        List<String> runs = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                runs.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * 查询需要匹配的词项范围 {最小词项, 最大词项}：
+     * 多字文本段的每个二元组为单个词项，单字文本段为以该字开头的所有词项
+     */
+    static List<int[]> queryRanges(List<String> runs) {
+        List<int[]> ranges = new ArrayList<>();
+        for (String run : runs) {
+            if (run.length() == 1) {
+                char c = run.charAt(0);
+                ranges.add(new int[]{term(c, (char) 0), term(c, (char) 0xFFFF)});
+            } else {
+                for (int i = 0; i + 1 < run.length(); i++) {
+                    int term = term(run.charAt(i), run.charAt(i + 1));
+                    ranges.add(new int[]{term, term});
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 候选消息是否真的包含所有查询文本段（二元组交集可能有误匹配）
+     */
+    static boolean matches(String text, List<String> runs) {
+        String normalized = normalize(text);
+        for (String run : runs) {
+            if (!normalized.contains(run)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+package com.chat.store;
+
+import com.chat.model.ChatItem;
+import com.chat.model.FriendItem;
+import com.chat.model.GroupItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 主界面状态快照：好友列表、群组列表、消息栏会话和未读数，启动时在连接服务器之前读出并立即显示
+ * 文件格式：[int 魔数][int 版本][int 内容长度][int 内容CRC32][内容]
+ * 内容：[int 好友数]{好友ID, 用户名, 头像}[int 群组数]{群ID, 群名, 成员数, 头像}
+ *      [int 会话数]{会话ID, 名称, 预览, 时间, 头像, boolean 群聊, long 最近活动时间, int 未读数}
+ * 好友只存ID、用户名和头像：FriendItem 的构造方法不保留状态和签名（群组的 lastMessage 同理），存了也无法恢复
+ * 字符串按 [int UTF-8字节数，-1表示null][字节] 编码；整个文件先写临时文件再改名，读取时校验不通过视为没有快照
+ */
+public final class StateSnapshot {
+
+    private static final int MAGIC = 0x4D534E50; // "MSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    // 快照内容的上限，超出视为文件损坏
+    private static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+
+    private final List<FriendItem> friends;
+    private final List<GroupItem> groups;
+    private final List<ChatItem> chats;
+    private final Map<String, Integer> unreadCounts;
+
+    public StateSnapshot(List<FriendItem> friends, List<GroupItem> groups, List<ChatItem> chats,
+                         Map<String, Integer> unreadCounts) {
+        this.friends = friends;
+        this.groups = groups;
+        this.chats = chats;
+        this.unreadCounts = unreadCounts;
+    }
+
+    public List<FriendItem> getFriends() { return friends; }
+    public List<GroupItem> getGroups() { return groups; }
+    public List<ChatItem> getChats() { return chats; }
+    public Map<String, Integer> getUnreadCounts() { return unreadCounts; }
+
+    // ========== 读取 ==========
+
+    /**
+     * 读取快照；文件不存在时返回null，格式不正确或内容不完整时抛出 IOException
+     */
+    public static StateSnapshot read(Path file) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("状态快照格式不正确: " + file.getFileName());
+        }
+        int length = header.getInt(8);
+        if (length < 0 || length > MAX_BODY_BYTES || HEADER_BYTES + length != bytes.length
+                || crc(bytes, HEADER_BYTES, length) != header.getInt(12)) {
+            throw new IOException("状态快照不完整: " + file.getFileName());
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_BYTES, length));
+        int friendCount = in.readInt();
+        List<FriendItem> friends = new ArrayList<>(friendCount);
+        for (int i = 0; i < friendCount; i++) {
+            friends.add(new FriendItem(readString(in), readString(in), "", readString(in), ""));
+        }
+        int groupCount = in.readInt();
+        List<GroupItem> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            String groupId = readString(in);
+            String name = readString(in);
+            String memberCount = readString(in);
+            groups.add(new GroupItem(groupId, name, "", memberCount, readString(in)));
+        }
+        int chatCount = in.readInt();
+        List<ChatItem> chats = new ArrayList<>(chatCount);
+        Map<String, Integer> unreadCounts = new HashMap<>();
+        for (int i = 0; i < chatCount; i++) {
+            String id = readString(in);
+            String name = readString(in);
+            String lastMessage = readString(in);
+            String time = readString(in);
+            String avatarUrl = readString(in);
+            boolean group = in.readBoolean();
+            long lastActivity = in.readLong();
+            int unread = in.readInt();
+            chats.add(new ChatItem(id, name, lastMessage, time, avatarUrl, unread > 0, group, lastActivity));
+            if (unread > 0) {
+                unreadCounts.put(id, unread);
+            }
+        }
+        return new StateSnapshot(friends, groups, chats, unreadCounts);
+    }
+
+    // ========== 写入 ==========
+
+    /**
+     * 写入快照（先写临时文件再改名，崩溃时保留上一份完整的快照），返回写入的字节数
+     */
+    public long write(Path file) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(friends.size());
+        for (FriendItem friend : friends) {
+            writeString(out, friend.getUserId());
+            writeString(out, friend.getUsername());
+            writeString(out, friend.getAvatarUrl());
+        }
+        out.writeInt(groups.size());
+        for (GroupItem group : groups) {
+            writeString(out, group.getGroupId());
+            writeString(out, group.getName());
+            writeString(out, group.getMemberCount());
+            writeString(out, group.getAvatarUrl());
+        }
+        out.writeInt(chats.size());
+        for (ChatItem chat : chats) {
+            writeString(out, chat.getId());
+            writeString(out, chat.getName());
+            writeString(out, chat.getLastMessage());
+            writeString(out, chat.getTime());
+            writeString(out, chat.getAvatarUrl());
+            out.writeBoolean(chat.isGroup());
+            out.writeLong(chat.getLastActivity());
+            out.writeInt(unreadCounts.getOrDefault(chat.getId(), 0));
+        }
+        out.flush();
+        byte[] bytes = body.toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bytes.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(bytes.length).putInt(crc(bytes, 0, bytes.length)).put(bytes).flip();
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return HEADER_BYTES + bytes.length;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("状态快照字符串长度不正确: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,332 @@
+package com.chat.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.prefs.Preferences;
+
+/**
+ * 本地消息存储的后台整理：定期在低优先级线程中执行
+ * 1. 按保留策略（天数、条数）从会话索引中删除旧消息
+ * 2. 有效记录不足一半的段、过小的段与相邻段合并重写，回收已删除记录占用的空间
+ * 3. 最新消息已超过30天的冷段整理时按块压缩
+ * 复制记录时不持有存储的锁并限速，只在替换段文件和写回索引时短暂加锁，前台读写不受影响
+ */
+final class StoreCompactor {
+
+    // 打开存储后首次整理的延迟和之后的间隔
+    private static final long FIRST_RUN_DELAY_MS = 2 * 60 * 1000;
+    private static final long RUN_INTERVAL_MS = 30 * 60 * 1000;
+    // 有效数据低于该比例的段需要重写
+    private static final double MIN_LIVE_RATIO = 0.5;
+    // 小于该大小的段与相邻段合并
+    private static final long SMALL_SEGMENT_BYTES = 1024 * 1024;
+    // 段内最新的消息早于该时间时视为冷段，整理时压缩
+    private static final long COLD_AFTER_MS = 30L * 24 * 60 * 60 * 1000;
+    // 限速：每复制这么多字节休眠一次（约12MB/s）
+    private static final int THROTTLE_BYTES = 256 * 1024;
+    private static final long THROTTLE_SLEEP_MS = 20;
+
+    private static final String RETENTION_NODE = "retention";
+    private static final String DEFAULT_RETENTION_KEY = "default";
+
+    /**
+     * 整理开始时的快照：已写满的段（段号 -> 文件）和指向这些段的索引条目
+     */
+    static class Snapshot {
+        final TreeMap<Integer, Path> segments = new TreeMap<>();
+        final List<LiveEntry> entries = new ArrayList<>();
+    }
+
+    /**
+     * 一条有效记录的位置，newOffset 为复制到新段后的偏移
+     */
+    static class LiveEntry {
+        final String conversationKey;
+        final long id;
+        final long timestamp;
+        final int segment;
+        final int offset;
+        int newOffset;
+
+        LiveEntry(String conversationKey, long id, long timestamp, int segment, int offset) {
+            this.conversationKey = conversationKey;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * 一个待整理段的统计
+     */
+    private static class SegmentStats {
+        final StoreSegment segment;
+        final List<LiveEntry> entries = new ArrayList<>();
+        long liveBytes = 0;
+        long newestTimestamp = Long.MIN_VALUE;
+
+        SegmentStats(StoreSegment segment) {
+            this.segment = segment;
+        }
+
+        boolean isCold(long now) {
+            return newestTimestamp < now - COLD_AFTER_MS;
+        }
+
+        boolean isSparse() {
+            return entries.isEmpty() || liveBytes < segment.size * MIN_LIVE_RATIO;
+        }
+    }
+
+    private final LocalMessageStore store;
+    private final Path storeDir;
+    private final long segmentMaxBytes;
+    private Timer timer;
+    private volatile boolean stopped = false;
+
+    StoreCompactor(LocalMessageStore store, Path storeDir, long segmentMaxBytes) {
+        this.store = store;
+        this.storeDir = storeDir;
+        this.segmentMaxBytes = segmentMaxBytes;
+    }
+
+    void start() {
+        timer = new Timer("store-compactor", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                try {
+                    runOnce();
+                } catch (Exception e) {
+                    System.err.println("[StoreCompactor] 整理失败: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }, FIRST_RUN_DELAY_MS, RUN_INTERVAL_MS);
+    }
+
+    void stop() {
+        stopped = true;
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    // ========== 保留策略 ==========
+
+    /**
+     * 保存保留策略，conversationKey 为null时为所有会话的默认策略
+     */
+    static void setRetention(String conversationKey, int maxAgeDays, int maxMessages) {
+        Preferences prefs = Preferences.userNodeForPackage(LocalMessageStore.class).node(RETENTION_NODE);
+        String key = conversationKey != null ? conversationKey : DEFAULT_RETENTION_KEY;
+        prefs.putInt(key + ".days", Math.max(0, maxAgeDays));
+        prefs.putInt(key + ".messages", Math.max(0, maxMessages));
+    }
+
+    /**
+     * 会话的保留策略 {最多保留天数, 最多保留条数}，0表示不限制；会话没有单独设置时使用默认策略
+     */
+    static int[] retentionFor(String conversationKey) {
+        Preferences prefs = Preferences.userNodeForPackage(LocalMessageStore.class).node(RETENTION_NODE);
+        int days = prefs.getInt(DEFAULT_RETENTION_KEY + ".days", 0);
+        int messages = prefs.getInt(DEFAULT_RETENTION_KEY + ".messages", 0);
+        return new int[]{
+                prefs.getInt(conversationKey + ".days", days),
+                prefs.getInt(conversationKey + ".messages", messages)
+        };
+    }
+
+    // ========== 整理 ==========
+
+    void runOnce() throws IOException {
+        long start = System.currentTimeMillis();
+        int expired = store.applyRetention(storeDir, start);
+
+        Snapshot snapshot = store.snapshotForCompaction(storeDir);
+        if (snapshot == null || stopped) {
+            return;
+        }
+
+        // 统计每个段的有效数据量（使用自己打开的段实例，不占用存储的锁）
+        Map<Integer, SegmentStats> stats = new TreeMap<>();
+        for (Map.Entry<Integer, Path> entry : snapshot.segments.entrySet()) {
+            stats.put(entry.getKey(), new SegmentStats(StoreSegment.open(entry.getKey(), entry.getValue())));
+        }
+        snapshot.entries.sort(Comparator.comparingInt((LiveEntry entry) -> entry.segment)
+                .thenComparingInt(entry -> entry.offset));
+        for (LiveEntry entry : snapshot.entries) {
+            SegmentStats segment = stats.get(entry.segment);
+            segment.entries.add(entry);
+            segment.liveBytes += segment.segment.recordLength(entry.offset);
+            segment.newestTimestamp = Math.max(segment.newestTimestamp, entry.timestamp);
+        }
+
+        int compacted = 0;
+        long reclaimed = 0;
+        for (List<SegmentStats> group : selectGroups(new ArrayList<>(stats.values()), start)) {
+            if (stopped) {
+                break;
+            }
+            long before = 0;
+            for (SegmentStats segment : group) {
+                before += segment.segment.diskBytes();
+            }
+            long after = compact(group, group.get(0).isCold(start));
+            if (after >= 0) {
+                compacted += group.size();
+                reclaimed += before - after;
+            }
+        }
+
+        for (SegmentStats segment : stats.values()) {
+            segment.segment.close();
+        }
+
+        if (expired > 0 || compacted > 0) {
+            System.out.println("[StoreCompactor] 整理完成: 按保留策略删除 " + expired + " 条消息, 整理 " + compacted +
+                    " 个段, 回收 " + (reclaimed / 1024) + " KB, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 选出需要整理的相邻段分组：稀疏的段、过小的段、未压缩的冷段；
+     * 同一组内冷热一致，有效数据合计不超过一个段的大小
+     */
+    private List<List<SegmentStats>> selectGroups(List<SegmentStats> segments, long now) {
+        List<List<SegmentStats>> groups = new ArrayList<>();
+        List<SegmentStats> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (SegmentStats segment : segments) {
+            boolean rewrite = segment.isSparse() || segment.segment.size < SMALL_SEGMENT_BYTES
+                    || (segment.isCold(now) && !segment.segment.isCompressed());
+            boolean fits = current.isEmpty() || (current.get(0).isCold(now) == segment.isCold(now)
+                    && currentBytes + segment.liveBytes <= segmentMaxBytes);
+            if (!rewrite || !fits) {
+                addGroup(groups, current, now);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            if (rewrite) {
+                current.add(segment);
+                currentBytes += segment.liveBytes;
+            }
+        }
+        addGroup(groups, current, now);
+        return groups;
+    }
+
+    /**
+     * 单独一个段只有在稀疏或需要压缩时才值得重写
+     */
+    private void addGroup(List<List<SegmentStats>> groups, List<SegmentStats> group, long now) {
+        if (group.size() > 1) {
+            groups.add(group);
+        } else if (group.size() == 1) {
+            SegmentStats segment = group.get(0);
+            if (segment.isSparse() || (segment.isCold(now) && !segment.segment.isCompressed())) {
+                groups.add(group);
+            }
+        }
+    }
+
+    /**
+     * 把一组段的有效记录按原顺序复制到新段（冷段再压缩），替换成功时返回新段的磁盘大小，失败返回-1
+     */
+    private long compact(List<SegmentStats> group, boolean compress) throws IOException {
+        int outputNumber = group.get(0).segment.number;
+        List<Integer> inputs = new ArrayList<>();
+        List<LiveEntry> moved = new ArrayList<>();
+        for (SegmentStats segment : group) {
+            inputs.add(segment.segment.number);
+            moved.addAll(segment.entries);
+        }
+
+        if (moved.isEmpty()) {
+            for (SegmentStats segment : group) {
+                segment.segment.close();
+            }
+            return store.applyCompaction(storeDir, inputs, outputNumber, null, false, moved) ? 0 : -1;
+        }
+
+        Path plain = storeDir.resolve(StoreSegment.fileName(outputNumber, false) + ".compact");
+        int size = 0;
+        boolean complete = true;
+        try (FileChannel out = FileChannel.open(plain, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Map<Integer, StoreSegment> sources = new HashMap<>();
+            for (SegmentStats segment : group) {
+                sources.put(segment.segment.number, segment.segment);
+            }
+            int sinceSleep = 0;
+            for (LiveEntry entry : moved) {
+                ByteBuffer record = sources.get(entry.segment).recordAt(entry.offset);
+                int length = RecordCodec.HEADER_BYTES + record.getInt(0);
+                ByteBuffer data = record.slice(0, length);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+                entry.newOffset = size;
+                size += length;
+
+                sinceSleep += length;
+                if (sinceSleep >= THROTTLE_BYTES) {
+                    sinceSleep = 0;
+                    if (!throttle()) {
+                        complete = false;
+                        break;
+                    }
+                }
+            }
+            out.force(true);
+        }
+        if (!complete) {
+            Files.deleteIfExists(plain);
+            return -1;
+        }
+
+        Path output = plain;
+        if (compress) {
+            output = storeDir.resolve(StoreSegment.fileName(outputNumber, true) + ".compact");
+            try (FileChannel channel = FileChannel.open(plain, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                CompressedSegment.write(output, mapped, size);
+            }
+            Files.deleteIfExists(plain);
+        }
+
+        // 替换前释放自己打开的输入段的映射
+        for (SegmentStats segment : group) {
+            segment.segment.close();
+        }
+
+        long bytes = Files.size(output);
+        if (!store.applyCompaction(storeDir, inputs, outputNumber, output, compress, moved)) {
+            Files.deleteIfExists(output);
+            return -1;
+        }
+        return bytes;
+    }
+
+    /**
+     * 限速休眠，已停止时返回false
+     */
+    private boolean throttle() {
+        try {
+            Thread.sleep(THROTTLE_SLEEP_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !stopped;
+    }
+}
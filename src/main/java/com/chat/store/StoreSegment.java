@@ -0,0 +1,173 @@
+package com.chat.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 本地消息存储的段文件：普通段（segment-N.log）通过只读内存映射读取，正在写入的段在文件增长后重新映射；
+ * 压缩段（segment-N.z）由 CompressedSegment 按块解压读取。两者的段内偏移都是压缩前的偏移
+ * 非线程安全，由 LocalMessageStore 加锁访问；后台整理使用自己打开的实例
+ */
+final class StoreSegment {
+
+    static final String PREFIX = "segment-";
+    static final String PLAIN_SUFFIX = ".log";
+    static final String COMPRESSED_SUFFIX = ".z";
+
+    /**
+     * 扫描段内记录时的回调：record 为从记录开头开始的视图
+     */
+    interface RecordVisitor {
+        void visit(int offset, ByteBuffer record, int length) throws IOException;
+    }
+
+    final int number;
+    final Path path;
+    // 压缩前的段大小（即下一条记录的偏移）
+    long size;
+    private MappedByteBuffer mapped;
+    private final CompressedSegment compressed;
+
+    private StoreSegment(int number, Path path, long size, CompressedSegment compressed) {
+        this.number = number;
+        this.path = path;
+        this.size = size;
+        this.compressed = compressed;
+    }
+
+    static StoreSegment plain(int number, Path path, long size) {
+        return new StoreSegment(number, path, size, null);
+    }
+
+    /**
+     * 按文件名打开已有的段文件
+     */
+    static StoreSegment open(int number, Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(COMPRESSED_SUFFIX)) {
+            CompressedSegment compressed = CompressedSegment.open(path);
+            return new StoreSegment(number, path, compressed.getPlainSize(), compressed);
+        }
+        return new StoreSegment(number, path, Files.size(path), null);
+    }
+
+    /**
+     * 由文件名解析段号，不是段文件时返回-1
+     */
+    static int parseNumber(Path path) {
+        String name = path.getFileName().toString();
+        String suffix = name.endsWith(PLAIN_SUFFIX) ? PLAIN_SUFFIX : name.endsWith(COMPRESSED_SUFFIX) ? COMPRESSED_SUFFIX : null;
+        if (!name.startsWith(PREFIX) || suffix == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String fileName(int number, boolean compressed) {
+        return String.format("%s%08d%s", PREFIX, number, compressed ? COMPRESSED_SUFFIX : PLAIN_SUFFIX);
+    }
+
+    boolean isCompressed() {
+        return compressed != null;
+    }
+
+    long diskBytes() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return size;
+        }
+    }
+
+    /**
+     * 普通段的内存映射（压缩段不支持）
+     */
+    ByteBuffer map() throws IOException {
+        if (compressed != null) {
+            throw new IOException("压缩段不支持直接映射: " + path.getFileName());
+        }
+        if (mapped == null || mapped.capacity() < size) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * 文件被截断后丢弃旧的映射
+     */
+    void invalidate() {
+        mapped = null;
+    }
+
+    /**
+     * 段被替换或存储关闭时释放对映射的引用（映射在回收后解除，之后才能在Windows上替换或删除文件）
+     */
+    void close() {
+        mapped = null;
+    }
+
+    /**
+     * 从记录开头开始的视图
+     */
+    ByteBuffer recordAt(int offset) throws IOException {
+        if (compressed == null) {
+            ByteBuffer buffer = map();
+            return buffer.slice(offset, (int) size - offset);
+        }
+        int block = compressed.blockFor(offset);
+        if (block < 0) {
+            throw new IOException("偏移超出压缩段范围: " + offset);
+        }
+        ByteBuffer buffer = compressed.block(block);
+        int start = offset - compressed.blockStart(block);
+        return buffer.slice(start, buffer.capacity() - start);
+    }
+
+    /**
+     * 记录总长度（含头部）
+     */
+    int recordLength(int offset) throws IOException {
+        return RecordCodec.HEADER_BYTES + recordAt(offset).getInt(0);
+    }
+
+    /**
+     * 从指定偏移开始依次访问完整且校验通过的记录，遇到不完整的记录时停止
+     */
+    void scan(long fromOffset, RecordVisitor visitor) throws IOException {
+        if (compressed == null) {
+            if (size <= fromOffset) {
+                return;
+            }
+            ByteBuffer buffer = map();
+            int limit = (int) size;
+            int offset = (int) fromOffset;
+            int length;
+            while (offset < limit && (length = RecordCodec.validate(buffer, offset, limit)) > 0) {
+                visitor.visit(offset, buffer.slice(offset, length), length);
+                offset += length;
+            }
+            return;
+        }
+        for (int block = 0; block < compressed.blockCount(); block++) {
+            ByteBuffer buffer = compressed.block(block);
+            int start = compressed.blockStart(block);
+            int limit = buffer.capacity();
+            int offset = (int) Math.max(0, fromOffset - start);
+            int length;
+            while (offset < limit && (length = RecordCodec.validate(buffer, offset, limit)) > 0) {
+                visitor.visit(start + offset, buffer.slice(offset, length), length);
+                offset += length;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.chat.ui;
 
 import com.chat.network.SocketClient;
 import com.chat.service.ChatService;
+import com.chat.service.UserDirectoryService;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
@@ -81,7 +82,7 @@ public class FileMessageHelper {
         Label timeLabel = new Label(time);
         timeLabel.setStyle("-fx-font-size: 10px; -fx-text-fill: #999;");
 
-        String senderText = isMyMessage ? "我" : (chatType.equals("group") ? "用户" + senderId : "好友");
+        String senderText = isMyMessage ? "我" : (chatType.equals("group") ? UserDirectoryService.getInstance().displayName(senderId) : "好友");
         Label senderLabel = new Label(senderText);
         senderLabel.setStyle("-fx-font-size: 10px; -fx-text-fill: #999;");
 
@@ -0,0 +1,72 @@
+package com.chat.ui;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Scene;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.stage.Window;
+
+/**
+ * ReadPositionWatcher - 监视聊天窗口的消息列表，用户看到最新消息时回调：
+ * 窗口获得焦点时、滚动到底部时、窗口有焦点且停在底部时收到新消息
+ * 回调只表示“已读到最后一条”，是否上报由调用方决定
+ */
+public final class ReadPositionWatcher {
+    private ReadPositionWatcher() {}
+
+    public static void watch(ListView<?> listView, Runnable onReadToBottom) {
+        Runnable check = () -> {
+            Window window = listView.getScene() != null ? listView.getScene().getWindow() : null;
+            if (window != null && window.isFocused() && isAtBottom(listView)) {
+                onReadToBottom.run();
+            }
+        };
+
+        // 窗口获得焦点（场景和窗口在控制器初始化之后才设置）
+        listView.sceneProperty().addListener((obs, oldScene, scene) -> watchWindow(scene, check));
+        watchWindow(listView.getScene(), check);
+
+        // 滚动到底部
+        listView.skinProperty().addListener((obs, oldSkin, skin) -> {
+            if (skin != null && listView.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+                flow.positionProperty().addListener((o, oldPosition, position) -> check.run());
+            }
+        });
+
+        // 新消息到达：列表滚动在添加之后进行，等布局完成再判断
+        listView.getItems().addListener((ListChangeListener<Object>) change -> Platform.runLater(check));
+    }
+
+    private static void watchWindow(Scene scene, Runnable check) {
+        if (scene == null) {
+            return;
+        }
+        scene.windowProperty().addListener((obs, oldWindow, window) -> watchFocus(window, check));
+        watchFocus(scene.getWindow(), check);
+    }
+
+    private static void watchFocus(Window window, Runnable check) {
+        if (window != null) {
+            window.focusedProperty().addListener((obs, wasFocused, focused) -> {
+                if (focused) {
+                    check.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * 最后一条消息是否在可见范围内（列表尚未布局时视为在底部）
+     */
+    private static boolean isAtBottom(ListView<?> listView) {
+        int size = listView.getItems().size();
+        if (size == 0) {
+            return true;
+        }
+        if (listView.lookup(".virtual-flow") instanceof VirtualFlow<?> flow && flow.getLastVisibleCell() != null) {
+            return flow.getLastVisibleCell().getIndex() >= size - 1;
+        }
+        return true;
+    }
+}
@@ -4,6 +4,7 @@ module com.chat {
     requires com.google.gson;
     requires javafx.graphics;
     requires java.prefs;
+    requires java.management;
 
     opens com.chat.control to javafx.fxml;
     opens com.chat.ui to javafx.fxml;